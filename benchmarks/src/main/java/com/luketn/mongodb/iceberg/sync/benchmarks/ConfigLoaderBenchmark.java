@@ -0,0 +1,89 @@
+package com.luketn.mongodb.iceberg.sync.benchmarks;
+
+import com.luketn.mongodb.iceberg.sync.config.ConfigLoader;
+import com.luketn.mongodb.iceberg.sync.config.SyncConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a configuration with {@code collections} collection entries, each of which refers to
+ * environment variables, including YAML parsing, substitution, defaults and validation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigLoaderBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int collections;
+
+    private final ConfigLoader loader = new ConfigLoader();
+    private Path config;
+
+    @Setup
+    public void setUp() throws IOException {
+        String variable = System.getenv().keySet().stream()
+                .filter(name -> name.matches("[A-Za-z_][A-Za-z0-9_]*") && !System.getenv(name).isBlank())
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("no environment variable to substitute"));
+        StringBuilder yaml = new StringBuilder("""
+                mongodb:
+                  uri: "mongodb://${%1$s}@localhost:27017"
+                  database: "db"
+                iceberg:
+                  catalog:
+                    type: "local"
+                    warehouse: "/tmp/${%1$s}/warehouse"
+                sync:
+                  collections:
+                """.formatted(variable));
+        for (int i = 0; i < collections; i++) {
+            yaml.append("""
+                        - source:
+                            collection: "collection_%2$d_${%1$s}"
+                          target:
+                            namespace: "ns_${%1$s}"
+                            table: "table_%2$d"
+                          mapping:
+                            mode: "explicit"
+                            fields:
+                              - source: "_id"
+                                target: "id"
+                              - source: "a.${%1$s}"
+                                target: "a"
+                              - source: "b"
+                                target: "b_${%1$s}"
+                    """.formatted(variable, i));
+        }
+        config = Files.createTempFile("benchmark-config", ".yaml");
+        Files.writeString(config, yaml);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(config);
+    }
+
+    @Benchmark
+    public SyncConfig load() {
+        return loader.load(config);
+    }
+}
@@ -0,0 +1,76 @@
+package com.luketn.mongodb.iceberg.sync.benchmarks;
+
+import com.luketn.mongodb.iceberg.sync.config.MappingConfig;
+import com.luketn.mongodb.iceberg.sync.mapping.BsonToIcebergConverter;
+import org.apache.iceberg.data.GenericRecord;
+import org.bson.RawBsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BSON to Iceberg record conversion, per document, in auto and explicit mapping modes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConverterBenchmark {
+
+    private static final int DOCUMENTS = 1024;
+
+    @Param({MappingConfig.MODE_AUTO, MappingConfig.MODE_EXPLICIT})
+    public String mode;
+
+    @Param({"10", "50", "200"})
+    public int width;
+
+    @Param({"0", "3"})
+    public int depth;
+
+    @Param({"0", "32"})
+    public int arraySize;
+
+    private List<RawBsonDocument> documents;
+    private BsonToIcebergConverter converter;
+    private GenericRecord reuse;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SyntheticDocuments synthetic = new SyntheticDocuments(width, depth, arraySize);
+        SyntheticDocuments.Mapping mapping = MappingConfig.MODE_AUTO.equals(mode) ? synthetic.auto() : synthetic.explicit();
+        documents = synthetic.documents(DOCUMENTS);
+        converter = BsonToIcebergConverter.forMapping(mapping.schema(), mapping.config());
+        reuse = GenericRecord.create(mapping.schema());
+    }
+
+    @Benchmark
+    public GenericRecord convert() {
+        return converter.convert(nextDocument());
+    }
+
+    @Benchmark
+    public GenericRecord convertIntoReusedRecord() {
+        return converter.convert(nextDocument(), reuse);
+    }
+
+    private RawBsonDocument nextDocument() {
+        RawBsonDocument document = documents.get(next);
+        next = (next + 1) % DOCUMENTS;
+        return document;
+    }
+}
@@ -0,0 +1,184 @@
+package com.luketn.mongodb.iceberg.sync.benchmarks;
+
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.config.DeleteConfig;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergTableManager;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergWriteManager;
+import com.luketn.mongodb.iceberg.sync.iceberg.IdLocationIndex;
+import com.luketn.mongodb.iceberg.sync.mapping.BsonToIcebergConverter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.TableProperties;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.data.IcebergGenerics;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.inmemory.InMemoryCatalog;
+import org.apache.iceberg.io.CloseableIterable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Writer cost against reader cost of the delete modes, on the same update/delete workload:
+ * equality deletes, position deletes from the {@code _id} index on a v2 table, and deletion
+ * vectors on a v3 table.
+ * <p>
+ * Every iteration starts from a table of {@code rows} rows to which {@code batches} batches of
+ * changes have been committed. A batch changes {@code changes} distinct live ids: every fifth
+ * one is deleted and replaced by an insert of a new id, the rest are updated. {@link #flush}
+ * commits one more such batch; {@link #scan} reads the whole table, applying the deletes the
+ * batches left behind.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DeleteModeBenchmark {
+
+    private static final String MODE_VECTOR = "vector";
+
+    @Param({DeleteConfig.MODE_EQUALITY, DeleteConfig.MODE_POSITION, MODE_VECTOR})
+    public String deletes;
+
+    @Param({"20"})
+    public int width;
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"10"})
+    public int batches;
+
+    @Param({"1000"})
+    public int changes;
+
+    private SyntheticDocuments synthetic;
+    private BsonToIcebergConverter converter;
+    private SyntheticDocuments.Mapping mapping;
+    private List<Record> payloads;
+    private long seed;
+
+    private InMemoryCatalog catalog;
+    private Path indexDirectory;
+    private IdLocationIndex index;
+    private IcebergWriteManager writer;
+    private Table table;
+    private List<Object> live;
+    private int batchNumber;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        synthetic = new SyntheticDocuments(width, 0, 0);
+        mapping = synthetic.auto();
+        converter = BsonToIcebergConverter.forMapping(mapping.schema(), mapping.config());
+        payloads = new ArrayList<>(changes);
+        for (int i = 0; i < changes; i++) {
+            payloads.add(converter.convert(synthetic.document(-1 - i)));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws IOException {
+        catalog = new InMemoryCatalog();
+        catalog.initialize("benchmark", Map.of());
+        table = new IcebergTableManager(catalog)
+                .loadOrCreate(TableIdentifier.of("benchmark", "documents"), mapping.schema(), List.of());
+        if (MODE_VECTOR.equals(deletes)) {
+            table.updateProperties().set(TableProperties.FORMAT_VERSION, "3").commit();
+        }
+        IcebergWriteManager.Options options = IcebergWriteManager.Options.NONE;
+        if (!DeleteConfig.MODE_EQUALITY.equals(deletes)) {
+            indexDirectory = Files.createTempDirectory("id-index");
+            index = IdLocationIndex.open(indexDirectory, table, "_id");
+            options = options.withLocationIndex(index);
+        }
+        BatchConfig batch = new BatchConfig((long) rows, null, null, 1, null, null, null).withDefaults();
+        writer = new IcebergWriteManager(table, "_id", batch, Runnable::run, new SimpleMeterRegistry(), options);
+
+        seed = 0;
+        batchNumber = 0;
+        live = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            Record record = newRecord();
+            live.add(record.getField("_id"));
+            writer.write(record);
+        }
+        writer.flush(snapshot -> { }).join();
+        for (int i = 0; i < batches; i++) {
+            flush();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException {
+        writer.close();
+        if (index != null) {
+            index.close();
+            index = null;
+            try (Stream<Path> paths = Files.walk(indexDirectory)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+        catalog.close();
+    }
+
+    @Benchmark
+    public Snapshot flush() {
+        for (int change = 0; change < changes; change++) {
+            int slot = (int) (((long) batchNumber * changes + change) % live.size());
+            Object id = live.get(slot);
+            writer.delete(id);
+            if (change % 5 == 0) {
+                Record inserted = newRecord();
+                live.set(slot, inserted.getField("_id"));
+                writer.write(inserted);
+            } else {
+                Record updated = payloads.get(change).copy();
+                updated.setField("_id", id);
+                writer.write(updated);
+            }
+        }
+        batchNumber++;
+        return writer.flush(snapshot -> { }).join();
+    }
+
+    @Benchmark
+    public long scan() throws IOException {
+        long count = 0;
+        try (CloseableIterable<Record> records = IcebergGenerics.read(table).build()) {
+            for (Record ignored : records) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Record newRecord() {
+        return converter.convert(synthetic.document(seed++));
+    }
+}
@@ -0,0 +1,154 @@
+package com.luketn.mongodb.iceberg.sync.benchmarks;
+
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.config.LayoutConfig;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergTableManager;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergWriteManager;
+import com.luketn.mongodb.iceberg.sync.mapping.BsonToIcebergConverter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.iceberg.FileScanTask;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.data.IcebergGenerics;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.expressions.Expressions;
+import org.apache.iceberg.inmemory.InMemoryCatalog;
+import org.apache.iceberg.io.CloseableIterable;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a table written with Iceberg's default Parquet layout against one written with the
+ * {@code auto} layout: a full scan, and a lookup of an {@code _id} that falls inside every
+ * file's min/max range but is not in the table, which only a bloom filter can skip. The size
+ * of the table's data files is reported as the {@code dataBytes} secondary result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LayoutBenchmark {
+
+    private static final int BATCHES = 10;
+
+    @Param({"default", "auto"})
+    public String layout;
+
+    @Param({"20"})
+    public int width;
+
+    @Param({"100000"})
+    public int rows;
+
+    private InMemoryCatalog catalog;
+    private Table table;
+    private String missingId;
+    private long dataBytes;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Files {
+
+        public long dataBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticDocuments synthetic = new SyntheticDocuments(width, 0, 0);
+        SyntheticDocuments.Mapping mapping = synthetic.auto();
+        BsonToIcebergConverter converter = BsonToIcebergConverter.forMapping(mapping.schema(), mapping.config());
+        catalog = new InMemoryCatalog();
+        catalog.initialize("benchmark", Map.of());
+        table = new IcebergTableManager(catalog)
+                .loadOrCreate(TableIdentifier.of("benchmark", "documents"), mapping.schema(), List.of());
+        LayoutConfig layoutConfig = "auto".equals(layout)
+                ? new LayoutConfig(LayoutConfig.MODE_AUTO, null, null, null, null, null, null, null).withDefaults()
+                : null;
+        BatchConfig batch = new BatchConfig((long) rows, null, null, 1, null, null, null).withDefaults();
+
+        int perBatch = rows / BATCHES;
+        String id = null;
+        try (IcebergWriteManager writer = new IcebergWriteManager(table, "_id", batch, Runnable::run,
+                new SimpleMeterRegistry(), IcebergWriteManager.Options.NONE.withLayout(layoutConfig))) {
+            // The first batch settles the layout and is deleted again; the rest are measured.
+            for (int batchNumber = 0; batchNumber <= BATCHES; batchNumber++) {
+                for (int row = 0; row < perBatch; row++) {
+                    Record record = converter.convert(synthetic.document((long) batchNumber * perBatch + row));
+                    if (batchNumber == BATCHES / 2 && row == perBatch / 2) {
+                        id = (String) record.getField("_id");
+                    }
+                    writer.write(record);
+                }
+                writer.flush(snapshot -> { }).join();
+                if (batchNumber == 0) {
+                    table.newDelete().deleteFromRowFilter(Expressions.alwaysTrue()).commit();
+                }
+            }
+        }
+        // Sorts after the id and its siblings with the same prefix, before the next prefix.
+        missingId = id.substring(0, id.length() - 1) + "g";
+        table.refresh();
+        dataBytes = 0;
+        try (CloseableIterable<FileScanTask> tasks = table.newScan().planFiles()) {
+            for (FileScanTask task : tasks) {
+                dataBytes += task.file().fileSizeInBytes();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        catalog.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void report(Files files) {
+        files.dataBytes = dataBytes;
+    }
+
+    @Benchmark
+    public long scan() throws IOException {
+        long count = 0;
+        try (CloseableIterable<Record> records = IcebergGenerics.read(table).build()) {
+            for (Record ignored : records) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public long lookupMissingId() throws IOException {
+        long count = 0;
+        try (CloseableIterable<Record> records = IcebergGenerics.read(table)
+                .where(Expressions.equal("_id", missingId))
+                .build()) {
+            for (Record ignored : records) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
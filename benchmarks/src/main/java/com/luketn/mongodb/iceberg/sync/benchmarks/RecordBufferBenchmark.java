@@ -0,0 +1,82 @@
+package com.luketn.mongodb.iceberg.sync.benchmarks;
+
+import com.luketn.mongodb.iceberg.sync.iceberg.RecordBuffer;
+import com.luketn.mongodb.iceberg.sync.mapping.BsonToIcebergConverter;
+import org.apache.iceberg.data.Record;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending rows to a {@link RecordBuffer}, and appending with the byte accounting that every
+ * flush check reads, per row. The buffer is reset every {@code batchSize} rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordBufferBenchmark {
+
+    private static final int RECORDS = 1024;
+
+    @Param({"10", "50", "200"})
+    public int width;
+
+    @Param({"0", "3"})
+    public int depth;
+
+    @Param({"0", "32"})
+    public int arraySize;
+
+    @Param({"50000"})
+    public int batchSize;
+
+    private List<Record> records;
+    private RecordBuffer buffer;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SyntheticDocuments synthetic = new SyntheticDocuments(width, depth, arraySize);
+        SyntheticDocuments.Mapping mapping = synthetic.auto();
+        BsonToIcebergConverter converter = BsonToIcebergConverter.forMapping(mapping.schema(), mapping.config());
+        records = synthetic.documents(RECORDS).stream()
+                .map(document -> (Record) converter.convert(document))
+                .toList();
+        buffer = new RecordBuffer(mapping.schema());
+    }
+
+    @Benchmark
+    public int add() {
+        buffer.add(nextRecord());
+        return buffer.size();
+    }
+
+    @Benchmark
+    public long addAndAccount() {
+        buffer.add(nextRecord());
+        return buffer.sizeInBytes();
+    }
+
+    private Record nextRecord() {
+        if (buffer.size() == batchSize) {
+            buffer.snapshotAndReset();
+        }
+        Record record = records.get(next);
+        next = (next + 1) % RECORDS;
+        return record;
+    }
+}
@@ -0,0 +1,188 @@
+package com.luketn.mongodb.iceberg.sync.benchmarks;
+
+import com.luketn.mongodb.iceberg.sync.config.FieldMapping;
+import com.luketn.mongodb.iceberg.sync.config.MappingConfig;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.types.Type;
+import org.apache.iceberg.types.Types;
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic MongoDB documents of a configurable shape, with the Iceberg schemas and mappings
+ * that read them.
+ * <p>
+ * A document has an {@code ObjectId} {@code _id} and {@code width} top-level fields {@code f0},
+ * {@code f1}, ... cycling through string, int32, int64, double, boolean and date values. With
+ * {@code arraySize > 0} every eighth field (starting at {@code f6}) is an int32 array of that
+ * size; with {@code depth > 0} every eighth field (starting at {@code f7}) is a sub-document of
+ * four scalars nested {@code depth} levels deep through a {@code child} field.
+ */
+public final class SyntheticDocuments {
+
+    private static final int SCALAR_KINDS = 6;
+    private static final int NESTED_FIELDS = 4;
+
+    private final int width;
+    private final int depth;
+    private final int arraySize;
+
+    /**
+     * Columns and mapping that read a document.
+     */
+    public record Mapping(Schema schema, MappingConfig config) {
+    }
+
+    public SyntheticDocuments(int width, int depth, int arraySize) {
+        this.width = width;
+        this.depth = depth;
+        this.arraySize = arraySize;
+    }
+
+    public List<RawBsonDocument> documents(int count) {
+        List<RawBsonDocument> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            documents.add(document(i));
+        }
+        return documents;
+    }
+
+    public RawBsonDocument document(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        BsonDocument document = new BsonDocument("_id", new BsonObjectId(new ObjectId()));
+        for (int i = 0; i < width; i++) {
+            document.append("f" + i, value(i, random));
+        }
+        return new RawBsonDocument(document, new BsonDocumentCodec());
+    }
+
+    /**
+     * Auto mapping: one column per document field, nested documents as structs.
+     */
+    public Mapping auto() {
+        int[] ids = {1};
+        List<Types.NestedField> columns = new ArrayList<>();
+        columns.add(Types.NestedField.optional(ids[0]++, "_id", Types.StringType.get()));
+        for (int i = 0; i < width; i++) {
+            columns.add(Types.NestedField.optional(ids[0]++, "f" + i, type(i, ids)));
+        }
+        return new Mapping(new Schema(columns), new MappingConfig(MappingConfig.MODE_AUTO, List.of()));
+    }
+
+    /**
+     * Explicit mapping of {@code _id}, every fourth top-level scalar and, with {@code depth > 0},
+     * the deepest leaf of the first sub-document, so most of each document is skipped.
+     */
+    public Mapping explicit() {
+        int id = 1;
+        List<Types.NestedField> columns = new ArrayList<>();
+        List<FieldMapping> fields = new ArrayList<>();
+        columns.add(Types.NestedField.optional(id++, "id", Types.StringType.get()));
+        fields.add(new FieldMapping("_id", "id", "string"));
+        for (int i = 0; i < width; i += 4) {
+            if (isNested(i) || isArray(i)) {
+                continue;
+            }
+            columns.add(Types.NestedField.optional(id++, "c" + i, scalarType(i)));
+            fields.add(new FieldMapping("f" + i, "c" + i, null));
+        }
+        if (depth > 0 && width > 7) {
+            String path = "f7" + ".child".repeat(depth - 1) + ".s0";
+            columns.add(Types.NestedField.optional(id, "leaf", scalarType(0)));
+            fields.add(new FieldMapping(path, "leaf", "string"));
+        }
+        return new Mapping(new Schema(columns), new MappingConfig(MappingConfig.MODE_EXPLICIT, fields));
+    }
+
+    private boolean isNested(int field) {
+        return depth > 0 && field % 8 == 7;
+    }
+
+    private boolean isArray(int field) {
+        return arraySize > 0 && field % 8 == 6;
+    }
+
+    private BsonValue value(int field, SplittableRandom random) {
+        if (isNested(field)) {
+            return nested(depth, random);
+        }
+        if (isArray(field)) {
+            BsonArray array = new BsonArray(new ArrayList<>(arraySize));
+            for (int i = 0; i < arraySize; i++) {
+                array.add(new BsonInt32(random.nextInt(1_000_000)));
+            }
+            return array;
+        }
+        return scalar(field, random);
+    }
+
+    private BsonDocument nested(int level, SplittableRandom random) {
+        BsonDocument document = new BsonDocument();
+        for (int i = 0; i < NESTED_FIELDS; i++) {
+            document.append("s" + i, scalar(i, random));
+        }
+        if (level > 1) {
+            document.append("child", nested(level - 1, random));
+        }
+        return document;
+    }
+
+    private static BsonValue scalar(int field, SplittableRandom random) {
+        return switch (field % SCALAR_KINDS) {
+            case 0 -> new BsonString("value-" + Long.toHexString(random.nextLong()));
+            case 1 -> new BsonInt32(random.nextInt());
+            case 2 -> new BsonInt64(random.nextLong());
+            case 3 -> new BsonDouble(random.nextDouble());
+            case 4 -> BsonBoolean.valueOf(random.nextBoolean());
+            default -> new BsonDateTime(1_700_000_000_000L + random.nextInt(1_000_000_000));
+        };
+    }
+
+    private Type type(int field, int[] ids) {
+        if (isNested(field)) {
+            return nestedType(depth, ids);
+        }
+        if (isArray(field)) {
+            return Types.ListType.ofOptional(ids[0]++, Types.IntegerType.get());
+        }
+        return scalarType(field);
+    }
+
+    private static Types.StructType nestedType(int level, int[] ids) {
+        List<Types.NestedField> fields = new ArrayList<>();
+        for (int i = 0; i < NESTED_FIELDS; i++) {
+            fields.add(Types.NestedField.optional(ids[0]++, "s" + i, scalarType(i)));
+        }
+        if (level > 1) {
+            int childId = ids[0]++;
+            fields.add(Types.NestedField.optional(childId, "child", nestedType(level - 1, ids)));
+        }
+        return Types.StructType.of(fields);
+    }
+
+    private static Type scalarType(int field) {
+        return switch (field % SCALAR_KINDS) {
+            case 0 -> Types.StringType.get();
+            case 1 -> Types.IntegerType.get();
+            case 2 -> Types.LongType.get();
+            case 3 -> Types.DoubleType.get();
+            case 4 -> Types.BooleanType.get();
+            default -> Types.TimestampType.withZone();
+        };
+    }
+}
@@ -0,0 +1,107 @@
+package com.luketn.mongodb.iceberg.sync.benchmarks;
+
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergTableManager;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergWriteManager;
+import com.luketn.mongodb.iceberg.sync.mapping.BsonToIcebergConverter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.inmemory.InMemoryCatalog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flushing one batch through {@link IcebergWriteManager}: Parquet encoding of its rows, and
+ * generation of an equality delete file for its deleted ids. Both include the commit to an
+ * in-memory catalog and {@code FileIO}, which are recreated every iteration so that table
+ * metadata does not grow across the run. The encode stage runs on the benchmark thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WriteBenchmark {
+
+    @Param({"10", "50"})
+    public int width;
+
+    @Param({"0", "3"})
+    public int depth;
+
+    @Param({"0", "32"})
+    public int arraySize;
+
+    @Param({"1000", "10000"})
+    public int batchSize;
+
+    private List<Record> records;
+    private List<String> ids;
+    private SyntheticDocuments.Mapping mapping;
+    private InMemoryCatalog catalog;
+    private IcebergWriteManager writer;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        SyntheticDocuments synthetic = new SyntheticDocuments(width, depth, arraySize);
+        mapping = synthetic.auto();
+        BsonToIcebergConverter converter = BsonToIcebergConverter.forMapping(mapping.schema(), mapping.config());
+        records = synthetic.documents(batchSize).stream()
+                .map(document -> (Record) converter.convert(document))
+                .toList();
+        ids = records.stream().map(record -> (String) record.getField("_id")).toList();
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        catalog = new InMemoryCatalog();
+        catalog.initialize("benchmark", Map.of());
+        Table table = new IcebergTableManager(catalog)
+                .loadOrCreate(TableIdentifier.of("benchmark", "documents"), mapping.schema(), List.of());
+        BatchConfig batch = new BatchConfig((long) batchSize, null, null, 1, null, null, null).withDefaults();
+        writer = new IcebergWriteManager(table, "_id", batch, Runnable::run, new SimpleMeterRegistry(),
+                IcebergWriteManager.Options.NONE);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException {
+        writer.close();
+        catalog.close();
+    }
+
+    @Benchmark
+    public Snapshot encodeDataFile() {
+        for (Record record : records) {
+            writer.write(record);
+        }
+        return writer.flush(snapshot -> { }).join();
+    }
+
+    @Benchmark
+    public Snapshot encodeEqualityDeletes() {
+        for (String id : ids) {
+            writer.delete(id);
+        }
+        return writer.flush(snapshot -> { }).join();
+    }
+}
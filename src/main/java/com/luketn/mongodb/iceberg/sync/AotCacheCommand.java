@@ -0,0 +1,110 @@
+package com.luketn.mongodb.iceberg.sync;
+
+import com.luketn.mongodb.iceberg.sync.config.ConfigLoader;
+import com.luketn.mongodb.iceberg.sync.config.SyncConfig;
+import com.luketn.mongodb.iceberg.sync.config.SyncConfigException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParentCommand;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Creates a JDK AOT cache for the shaded JAR from a training run.
+ * <p>
+ * Starts a second JVM on the same JAR with {@code -XX:AOTCacheOutput}, which runs
+ * {@link AotTraining} and writes the classes it loaded and linked, and the method profiles it
+ * collected, to the cache when it exits. A daemon started with {@code -XX:AOTCache} on that file
+ * then begins with those classes already loaded. The training JVM gets this JVM's options, since
+ * a cache is only used by a JVM of the same version with the same class path and compatible
+ * options.
+ */
+@Command(
+        name = "aot-cache",
+        mixinStandardHelpOptions = true,
+        description = "Creates a JDK AOT cache for faster startup from a training run against the configuration."
+)
+public class AotCacheCommand implements Callable<Integer> {
+
+    private static final Logger logger = LoggerFactory.getLogger(AotCacheCommand.class);
+
+    @ParentCommand
+    private SyncDaemon daemon;
+
+    @Option(names = {"-o", "--output"}, defaultValue = "mongodb-iceberg-sync.aot",
+            description = "AOT cache file to write (default: ${DEFAULT-VALUE})")
+    private Path output;
+
+    @Option(names = "--documents", defaultValue = "20000",
+            description = "Documents written to the scratch table during training (default: ${DEFAULT-VALUE})")
+    private int documents;
+
+    @Option(names = "--catalog", negatable = true, defaultValue = "true", fallbackValue = "true",
+            description = "Load the configured target tables and checkpoints, read-only, during training (default: ${DEFAULT-VALUE})")
+    private boolean readCatalog;
+
+    @Option(names = "--train", hidden = true)
+    private boolean train;
+
+    @Override
+    public Integer call() throws IOException, InterruptedException {
+        SyncConfig config;
+        try {
+            config = new ConfigLoader().load(daemon.configFile());
+        } catch (SyncConfigException e) {
+            logger.error("failed to load configuration: {}", e.getMessage());
+            return 1;
+        }
+        if (train) {
+            long firstCommit = AotTraining.run(config, documents, readCatalog);
+            logger.info("training run: first commit {} ms after JVM start", firstCommit);
+            return 0;
+        }
+
+        Path jar = jar();
+        if (jar == null) {
+            logger.error("aot-cache must be run from the shaded JAR");
+            return 1;
+        }
+        Path cache = output.toAbsolutePath();
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command()
+                .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!argument.startsWith("-XX:AOT") && !argument.startsWith("-XX:SharedArchiveFile")) {
+                command.add(argument);
+            }
+        }
+        command.addAll(List.of("-XX:AOTCacheOutput=" + cache, "-jar", jar.toString(),
+                "--config", daemon.configFile().toString(), "aot-cache", "--train",
+                "--documents", Integer.toString(documents), readCatalog ? "--catalog" : "--no-catalog"));
+        logger.info("starting training run: {}", String.join(" ", command));
+
+        int exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (exit != 0 || !Files.exists(cache)) {
+            logger.error("training run failed with exit code {}; no AOT cache written", exit);
+            return exit == 0 ? 1 : exit;
+        }
+        logger.info("wrote AOT cache {} ({} MB); start the daemon with: java -XX:AOTCache={} -jar {} --config {}",
+                cache, Files.size(cache) >> 20, cache, jar, daemon.configFile());
+        return 0;
+    }
+
+    private static Path jar() {
+        try {
+            Path location = Path.of(SyncDaemon.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return Files.isRegularFile(location) ? location : null;
+        } catch (URISyntaxException | SecurityException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.luketn.mongodb.iceberg.sync;
+
+import com.luketn.mongodb.iceberg.sync.catalog.CatalogFactory;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointStore;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointStoreFactory;
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.config.CollectionSyncConfig;
+import com.luketn.mongodb.iceberg.sync.config.IcebergConfig;
+import com.luketn.mongodb.iceberg.sync.config.MappingConfig;
+import com.luketn.mongodb.iceberg.sync.config.SyncConfig;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergTableManager;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergWriteManager;
+import com.luketn.mongodb.iceberg.sync.iceberg.SchemaEvolver;
+import com.luketn.mongodb.iceberg.sync.metrics.StartupTimer;
+import com.luketn.mongodb.iceberg.sync.sync.IcebergInitialSyncSink;
+import com.luketn.mongodb.iceberg.sync.sync.StartupLoader;
+import com.luketn.mongodb.iceberg.sync.sync.SyncRuntime;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.catalog.Catalog;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.inmemory.InMemoryCatalog;
+import org.apache.iceberg.types.Types;
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * The workload of an AOT cache training run (see {@link AotCacheCommand}): the startup path and
+ * a few batches through the write path, so that the classes a sync loads before and around its
+ * first commit are in the cache.
+ * <p>
+ * The configured catalog is only read: it is created, and every target table and checkpoint is
+ * loaded through {@link StartupLoader}, which trains the catalog client (Hadoop, the AWS SDK or
+ * the REST client). Writes go to a scratch table instead, in a temporary local warehouse when
+ * the configured catalog is {@code local} and in memory otherwise: synthetic documents of the
+ * common BSON types are converted in auto mode, buffered, encoded with the first collection's
+ * batch and layout settings and committed with snapshot checkpoints, followed by a batch of
+ * deletes.
+ */
+final class AotTraining {
+
+    private static final Logger logger = LoggerFactory.getLogger(AotTraining.class);
+
+    private static final int BATCHES = 4;
+    private static final int CHUNK = 250;
+    private static final TableIdentifier TABLE = TableIdentifier.of("aot_training", "documents");
+
+    private AotTraining() {
+    }
+
+    /**
+     * @return milliseconds from JVM start to the training run's first commit
+     */
+    static long run(SyncConfig config, int documents, boolean readCatalog) throws IOException {
+        PrometheusMeterRegistry meterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        StartupTimer.register(meterRegistry);
+        Path warehouse = Files.createTempDirectory("mongodb-iceberg-sync-aot");
+        try (SyncRuntime runtime = new SyncRuntime(meterRegistry)) {
+            if (readCatalog) {
+                loadTargets(config, runtime);
+            }
+            boolean local = "local".equalsIgnoreCase(config.iceberg().catalog().type().trim());
+            Catalog scratch = local
+                    ? CatalogFactory.create(new IcebergConfig(
+                            new IcebergConfig.CatalogConfig("local", null, warehouse.toString()), Map.of()))
+                    : inMemoryCatalog();
+            try {
+                write(config, scratch, documents, runtime, meterRegistry);
+            } finally {
+                close(scratch);
+            }
+        } finally {
+            ScratchDirectories.deleteRecursively(warehouse);
+        }
+        // Trains the /metrics text format.
+        meterRegistry.scrape();
+        return StartupTimer.firstCommitMillis();
+    }
+
+    private static void loadTargets(SyncConfig config, SyncRuntime runtime) throws IOException {
+        Catalog catalog = CatalogFactory.create(config.iceberg());
+        try (CheckpointStore checkpoints = CheckpointStoreFactory.create(config.sync().checkpoint(), catalog)) {
+            new StartupLoader(catalog, checkpoints, runtime.io()).load(config.sync().collections());
+        } finally {
+            close(catalog);
+        }
+    }
+
+    private static void write(
+            SyncConfig config,
+            Catalog catalog,
+            int documents,
+            SyncRuntime runtime,
+            PrometheusMeterRegistry meterRegistry
+    ) {
+        List<CollectionSyncConfig> collections = config.sync().collections();
+        CollectionSyncConfig collection = collections.isEmpty() ? null : collections.getFirst();
+        BatchConfig batch = collection == null
+                ? new BatchConfig(null, null, null, null, null, null, null).withDefaults()
+                : collection.batch();
+
+        Schema schema = new Schema(Types.NestedField.optional(1, "_id", Types.StringType.get()));
+        Table table = new IcebergTableManager(catalog).create(TABLE, schema, List.of());
+        SchemaEvolver schemaEvolver = SchemaEvolver.forTable(table, new MappingConfig(MappingConfig.MODE_AUTO, List.of()));
+        SplittableRandom random = new SplittableRandom(42);
+        List<ObjectId> ids = new ArrayList<>();
+        try (CheckpointStore checkpoints = CheckpointStoreFactory.create(config.sync().checkpoint(), catalog);
+             IcebergWriteManager writer = new IcebergWriteManager(table, "_id", batch, runtime.cpu(TABLE.toString()),
+                     meterRegistry,
+                     IcebergWriteManager.Options.NONE.withLayout(collection == null ? null : collection.layout()))) {
+            IcebergInitialSyncSink sink = new IcebergInitialSyncSink(schemaEvolver, writer, checkpoints);
+            int perBatch = Math.max(1, documents / BATCHES);
+            for (int batchNumber = 0; batchNumber < BATCHES; batchNumber++) {
+                List<RawBsonDocument> chunk = new ArrayList<>(CHUNK);
+                for (int row = 0; row < perBatch; row++) {
+                    ObjectId id = new ObjectId();
+                    ids.add(id);
+                    chunk.add(document(id, random));
+                    if (chunk.size() == CHUNK || row == perBatch - 1) {
+                        sink.prepare(chunk).write();
+                        chunk = new ArrayList<>(CHUNK);
+                    }
+                }
+                sink.flush(checkpoint(ids.getLast(), ids.size())).join();
+            }
+            for (int i = 0; i < ids.size(); i += 10) {
+                writer.delete(ids.get(i).toHexString());
+            }
+            writer.flush(snapshot -> { }).join();
+            checkpoints.read(TABLE.toString());
+        }
+        logger.info("training run wrote {} documents in {} batches", ids.size(), BATCHES);
+    }
+
+    private static CheckpointRecord checkpoint(ObjectId lastId, long documents) {
+        return new CheckpointRecord(TABLE.toString(), CheckpointRecord.State.INITIAL_SYNC, "aot_training",
+                "documents", null, lastId.toHexString(), documents, null, Instant.now(), List.of());
+    }
+
+    private static RawBsonDocument document(ObjectId id, SplittableRandom random) {
+        BsonDocument document = new BsonDocument("_id", new BsonObjectId(id))
+                .append("name", new BsonString("customer-" + random.nextInt(1_000)))
+                .append("quantity", new BsonInt32(random.nextInt(100)))
+                .append("sequence", new BsonInt64(random.nextLong()))
+                .append("price", new BsonDouble(random.nextDouble() * 1_000))
+                .append("total", new BsonDecimal128(new Decimal128(BigDecimal.valueOf(random.nextLong(1_000_000), 2))))
+                .append("active", BsonBoolean.valueOf(random.nextBoolean()))
+                .append("createdAt", new BsonDateTime(1_700_000_000_000L + random.nextLong(1_000_000_000L)))
+                .append("address", new BsonDocument("city", new BsonString("city-" + random.nextInt(50)))
+                        .append("zip", new BsonInt32(random.nextInt(100_000))))
+                .append("tags", new BsonArray(List.of(new BsonString("tag-" + random.nextInt(10)),
+                        new BsonString("tag-" + random.nextInt(10)))));
+        return new RawBsonDocument(document, new BsonDocumentCodec());
+    }
+
+    private static Catalog inMemoryCatalog() {
+        InMemoryCatalog catalog = new InMemoryCatalog();
+        catalog.initialize("aot-training", Map.of());
+        return catalog;
+    }
+
+    private static void close(Catalog catalog) throws IOException {
+        if (catalog instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+}
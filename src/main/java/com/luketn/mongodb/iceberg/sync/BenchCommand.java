@@ -0,0 +1,115 @@
+package com.luketn.mongodb.iceberg.sync;
+
+import com.luketn.mongodb.iceberg.sync.bench.BenchReport;
+import com.luketn.mongodb.iceberg.sync.bench.LoadGenerator;
+import com.luketn.mongodb.iceberg.sync.bench.OperationMix;
+import com.luketn.mongodb.iceberg.sync.config.ConfigLoader;
+import com.luketn.mongodb.iceberg.sync.config.SyncConfig;
+import com.luketn.mongodb.iceberg.sync.config.SyncConfigException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParentCommand;
+import picocli.CommandLine.Spec;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+/**
+ * Measures the throughput of the sync on this machine without MongoDB or the configured
+ * catalog, by running a synthetic change stream for each configured collection through the
+ * pipeline into a local warehouse (see {@link LoadGenerator}).
+ */
+@Command(
+        name = "bench",
+        mixinStandardHelpOptions = true,
+        description = "Runs a synthetic change stream load through the configured pipeline into a local warehouse and reports its throughput."
+)
+public class BenchCommand implements Callable<Integer> {
+
+    private static final Logger logger = LoggerFactory.getLogger(BenchCommand.class);
+
+    @ParentCommand
+    private SyncDaemon daemon;
+
+    @Spec
+    private CommandSpec spec;
+
+    @Option(names = "--duration", defaultValue = "60",
+            description = "Seconds of the measured run (default: ${DEFAULT-VALUE})")
+    private long durationSeconds;
+
+    @Option(names = "--warmup", defaultValue = "10",
+            description = "Seconds of load before the measured run, left out of the results (default: ${DEFAULT-VALUE})")
+    private long warmupSeconds;
+
+    @Option(names = "--width", defaultValue = "20",
+            description = "Top-level fields of the generated documents (default: ${DEFAULT-VALUE})")
+    private int width;
+
+    @Option(names = "--depth", defaultValue = "1",
+            description = "Levels of nested sub-documents (default: ${DEFAULT-VALUE})")
+    private int depth;
+
+    @Option(names = "--document-bytes", defaultValue = "1024",
+            description = "Approximate BSON size of the generated documents (default: ${DEFAULT-VALUE})")
+    private int documentBytes;
+
+    @Option(names = "--mix", defaultValue = "80:15:5",
+            description = "Relative weights of inserts, updates and deletes (default: ${DEFAULT-VALUE})")
+    private String mix;
+
+    @Option(names = "--rate", defaultValue = "0",
+            description = "Events per second across all collections, or 0 for as many as the pipeline takes (default: ${DEFAULT-VALUE})")
+    private long rate;
+
+    @Option(names = "--seed", defaultValue = "42",
+            description = "Seed of the generated documents and operations (default: ${DEFAULT-VALUE})")
+    private long seed;
+
+    @Option(names = "--work-dir",
+            description = "Directory for the warehouse, WAL and id index; kept after the run (default: a temporary directory)")
+    private Path workDirectory;
+
+    @Option(names = "--keep",
+            description = "Keep the temporary directory after the run")
+    private boolean keep;
+
+    @Override
+    public Integer call() throws IOException {
+        SyncConfig config;
+        LoadGenerator.Settings settings;
+        try {
+            config = new ConfigLoader().load(daemon.configFile());
+            settings = new LoadGenerator.Settings(Duration.ofSeconds(durationSeconds), Duration.ofSeconds(warmupSeconds),
+                    width, depth, documentBytes, OperationMix.parse(mix), rate, seed);
+        } catch (SyncConfigException | IllegalArgumentException e) {
+            logger.error("invalid benchmark settings: {}", e.getMessage());
+            return 1;
+        }
+
+        boolean temporary = workDirectory == null;
+        Path directory = temporary ? Files.createTempDirectory("mongodb-iceberg-sync-bench") : workDirectory;
+        logger.info("benchmarking {} collection(s) in {}: {} byte documents of {} fields, mix {}",
+                config.sync().collections().size(), directory, documentBytes, width, settings.mix());
+        try {
+            BenchReport report = new LoadGenerator(config, settings).run(directory);
+            PrintWriter out = spec.commandLine().getOut();
+            out.print(report.format());
+            out.flush();
+            return 0;
+        } finally {
+            if (temporary && !keep) {
+                ScratchDirectories.deleteRecursively(directory);
+            } else {
+                logger.info("warehouse kept in {}", directory.resolve("warehouse"));
+            }
+        }
+    }
+}
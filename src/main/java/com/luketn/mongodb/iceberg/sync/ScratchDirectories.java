@@ -0,0 +1,32 @@
+package com.luketn.mongodb.iceberg.sync;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Clean-up of the temporary warehouses the training and benchmark runs write to.
+ */
+final class ScratchDirectories {
+
+    private ScratchDirectories() {
+    }
+
+    /**
+     * Deletes {@code directory} and everything under it, deepest paths first.
+     */
+    static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
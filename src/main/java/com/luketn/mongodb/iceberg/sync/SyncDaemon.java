@@ -22,7 +22,8 @@ import java.util.concurrent.Callable;
         name = "mongodb-iceberg-sync",
         mixinStandardHelpOptions = true,
         version = "0.1.0-SNAPSHOT",
-        description = "Synchronizes MongoDB collections to Apache Iceberg tables."
+        description = "Synchronizes MongoDB collections to Apache Iceberg tables.",
+        subcommands = {AotCacheCommand.class, BenchCommand.class}
 )
 public class SyncDaemon implements Callable<Integer> {
 
@@ -31,6 +32,10 @@ public class SyncDaemon implements Callable<Integer> {
     @Option(names = {"-c", "--config"}, description = "Path to YAML configuration file", required = true)
     private Path configFile;
 
+    Path configFile() {
+        return configFile;
+    }
+
     @Override
     public Integer call() {
         logger.info("mongodb-iceberg-sync starting with config: {}", configFile);
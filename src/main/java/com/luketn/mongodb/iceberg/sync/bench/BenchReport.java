@@ -0,0 +1,104 @@
+package com.luketn.mongodb.iceberg.sync.bench;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Results of the measured part of a load generator run, per target table.
+ *
+ * @param elapsed        time from the start of the measured run until its last commit
+ * @param heapMaxBytes   largest heap usage sampled during the run
+ * @param heapAvgBytes   average of the heap usage samples
+ * @param gcCount        garbage collections during the run
+ * @param gcMillis       time the garbage collectors reported for them
+ */
+public record BenchReport(
+        Duration elapsed,
+        List<CollectionReport> collections,
+        long heapMaxBytes,
+        long heapAvgBytes,
+        long gcCount,
+        long gcMillis
+) {
+
+    /**
+     * @param events        change events generated
+     * @param lagP50Millis  median of the batches' lag (oldest event to commit)
+     * @param dataFiles     data files the sync committed
+     * @param dataFileBytes total size of those data files
+     * @param deleteFiles   delete files and deletion vectors the sync committed
+     */
+    public record CollectionReport(
+            String table,
+            long events,
+            double lagP50Millis,
+            double lagP95Millis,
+            double lagP99Millis,
+            double lagMaxMillis,
+            long dataFiles,
+            long dataFileBytes,
+            long deleteFiles
+    ) {
+
+        public long averageFileBytes() {
+            return dataFiles == 0 ? 0 : dataFileBytes / dataFiles;
+        }
+    }
+
+    public long events() {
+        return collections.stream().mapToLong(CollectionReport::events).sum();
+    }
+
+    public double eventsPerSecond() {
+        return eventsPerSecond(events());
+    }
+
+    public double eventsPerSecond(CollectionReport collection) {
+        return eventsPerSecond(collection.events());
+    }
+
+    /**
+     * The report as a plain-text table, one row per collection and a total.
+     */
+    public String format() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%-24s %12s %10s %9s %9s %9s %9s %7s %10s %7s%n",
+                "table", "events", "events/s", "lag p50", "lag p95", "lag p99", "lag max",
+                "files", "avg file", "deletes"));
+        long dataFiles = 0;
+        long dataFileBytes = 0;
+        long deleteFiles = 0;
+        for (CollectionReport collection : collections) {
+            text.append(String.format(Locale.ROOT, "%-24s %12d %10.0f %7.0fms %7.0fms %7.0fms %7.0fms %7d %10s %7d%n",
+                    collection.table(), collection.events(), eventsPerSecond(collection),
+                    collection.lagP50Millis(), collection.lagP95Millis(), collection.lagP99Millis(),
+                    collection.lagMaxMillis(), collection.dataFiles(), bytes(collection.averageFileBytes()),
+                    collection.deleteFiles()));
+            dataFiles += collection.dataFiles();
+            dataFileBytes += collection.dataFileBytes();
+            deleteFiles += collection.deleteFiles();
+        }
+        text.append(String.format(Locale.ROOT, "%-24s %12d %10.0f %39s %7d %10s %7d%n",
+                "total", events(), eventsPerSecond(), "", dataFiles,
+                bytes(dataFiles == 0 ? 0 : dataFileBytes / dataFiles), deleteFiles));
+        text.append(String.format(Locale.ROOT, "measured %.1f s; heap max %s, avg %s; %d GCs taking %d ms%n",
+                elapsed.toMillis() / 1000.0, bytes(heapMaxBytes), bytes(heapAvgBytes), gcCount, gcMillis));
+        return text.toString();
+    }
+
+    private double eventsPerSecond(long events) {
+        long millis = elapsed.toMillis();
+        return millis == 0 ? 0 : events * 1000.0 / millis;
+    }
+
+    private static String bytes(long bytes) {
+        if (bytes >= 1 << 30) {
+            return String.format(Locale.ROOT, "%.1f GB", bytes / (double) (1 << 30));
+        }
+        if (bytes >= 1 << 20) {
+            return String.format(Locale.ROOT, "%.1f MB", bytes / (double) (1 << 20));
+        }
+        return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+    }
+}
@@ -0,0 +1,213 @@
+package com.luketn.mongodb.iceberg.sync.bench;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.metrics.CollectionMetrics;
+import com.luketn.mongodb.iceberg.sync.sync.ChangeStreamSink;
+import com.luketn.mongodb.iceberg.sync.sync.ChangeStreamSyncManager;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.types.ObjectId;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One collection's synthetic change stream, followed by a {@link ChangeStreamSyncManager} as a
+ * real one is: the generator is the manager's {@link ChangeStreamSyncManager.EventSource}, so
+ * coalescing, batch thresholds, backpressure and batch traces are the daemon's own. The events'
+ * wall times are their generation times. Runs on one thread.
+ */
+final class CollectionLoad {
+
+    private static final Codec<ChangeStreamDocument<RawBsonDocument>> EVENT_CODEC =
+            ChangeStreamDocument.createCodec(RawBsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+    /**
+     * Generated inserts are of new ids, as inserts after the stream's start are.
+     */
+    private static final BsonTimestamp INSERTS_NEW_AFTER = new BsonTimestamp(0, 0);
+
+    private final String syncId;
+    private final MongoNamespace namespace;
+    private final BatchConfig batch;
+    private final ChangeStreamSink sink;
+    private final MeterRegistry meterRegistry;
+    private final DocumentGenerator generator;
+    private final OperationMix mix;
+    private final SplittableRandom random;
+    private final List<ObjectId> live = new ArrayList<>();
+    private CollectionMetrics metrics;
+
+    private long events;
+    private BsonDocument resumeToken;
+
+    CollectionLoad(
+            String syncId,
+            String collection,
+            BatchConfig batch,
+            ChangeStreamSink sink,
+            DocumentGenerator generator,
+            OperationMix mix,
+            long seed,
+            MeterRegistry meterRegistry
+    ) {
+        this.syncId = syncId;
+        this.namespace = new MongoNamespace("bench", collection);
+        this.batch = batch;
+        this.sink = sink;
+        this.generator = generator;
+        this.mix = mix;
+        this.random = new SplittableRandom(seed);
+        this.meterRegistry = meterRegistry;
+        this.metrics = new CollectionMetrics(collection, meterRegistry);
+        this.resumeToken = token(0);
+    }
+
+    /**
+     * Events generated so far; read by other threads for progress.
+     */
+    synchronized long events() {
+        return events;
+    }
+
+    /**
+     * Generates events until {@code deadlineNanos}, at most {@code eventsPerSecond} of them a
+     * second (0 for as many as the pipeline takes), then flushes what is left and waits for the
+     * last commit.
+     */
+    void run(long deadlineNanos, long eventsPerSecond) {
+        ChangeStreamSyncManager manager = new ChangeStreamSyncManager(syncId, namespace, batch, sink,
+                meterRegistry, metrics);
+        CheckpointRecord checkpoint = new CheckpointRecord(syncId, CheckpointRecord.State.STEADY_STATE,
+                namespace.getDatabaseName(), namespace.getCollectionName(), resumeToken.toJson(), null, events(),
+                null, Instant.now(), List.of());
+        manager.run(checkpoint, INSERTS_NEW_AFTER, new Events(manager, deadlineNanos, eventsPerSecond));
+    }
+
+    /**
+     * Replaces the collection's meters with fresh ones, so that those of the measured run leave
+     * out the warmup. Called between runs.
+     */
+    void resetMetrics() {
+        metrics.close();
+        metrics = new CollectionMetrics(namespace.getCollectionName(), meterRegistry);
+    }
+
+    void close() {
+        metrics.close();
+    }
+
+    private ChangeStreamDocument<RawBsonDocument> next() {
+        long nowMillis = System.currentTimeMillis();
+        long sequence = events() + 1;
+        BsonDocument event = new BsonDocument("_id", token(sequence))
+                .append("clusterTime", new BsonTimestamp((int) (nowMillis / 1_000), (int) sequence))
+                .append("wallTime", new BsonDateTime(nowMillis))
+                .append("ns", new BsonDocument("db", new BsonString(namespace.getDatabaseName()))
+                        .append("coll", new BsonString(namespace.getCollectionName())));
+        OperationMix.Operation operation = live.isEmpty() ? OperationMix.Operation.INSERT : mix.next(random);
+        switch (operation) {
+            case INSERT -> {
+                ObjectId id = new ObjectId();
+                live.add(id);
+                event.append("operationType", new BsonString("insert"))
+                        .append("documentKey", key(id))
+                        .append("fullDocument", generator.document(new BsonObjectId(id), random, nowMillis));
+            }
+            case UPDATE -> {
+                ObjectId id = live.get(random.nextInt(live.size()));
+                event.append("operationType", new BsonString("update"))
+                        .append("documentKey", key(id))
+                        .append("fullDocument", generator.document(new BsonObjectId(id), random, nowMillis));
+            }
+            case DELETE -> {
+                int index = random.nextInt(live.size());
+                ObjectId id = live.get(index);
+                live.set(index, live.getLast());
+                live.removeLast();
+                event.append("operationType", new BsonString("delete"))
+                        .append("documentKey", key(id));
+            }
+        }
+        synchronized (this) {
+            events = sequence;
+        }
+        resumeToken = event.getDocument("_id");
+        // Decoded as the driver decodes a cursor's events.
+        return EVENT_CODEC.decode(new BsonDocumentReader(event), DECODER_CONTEXT);
+    }
+
+    private static BsonDocument token(long sequence) {
+        return new BsonDocument("_data", new BsonString(String.format("%016X", sequence)));
+    }
+
+    private static BsonDocument key(ObjectId id) {
+        return new BsonDocument("_id", new BsonObjectId(id));
+    }
+
+    /**
+     * The events of one run, paced to {@code eventsPerSecond}. Stops the manager at the
+     * deadline.
+     */
+    private final class Events implements ChangeStreamSyncManager.EventSource {
+
+        private final ChangeStreamSyncManager manager;
+        private final long deadlineNanos;
+        private final long eventsPerSecond;
+        private final long start = System.nanoTime();
+        private long generated;
+
+        private Events(ChangeStreamSyncManager manager, long deadlineNanos, long eventsPerSecond) {
+            this.manager = manager;
+            this.deadlineNanos = deadlineNanos;
+            this.eventsPerSecond = eventsPerSecond;
+        }
+
+        @Override
+        public ChangeStreamDocument<RawBsonDocument> tryNext() {
+            if (eventsPerSecond > 0) {
+                long due = start + generated * TimeUnit.SECONDS.toNanos(1) / eventsPerSecond;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            if (System.nanoTime() >= deadlineNanos || Thread.currentThread().isInterrupted()) {
+                manager.stop();
+                return null;
+            }
+            generated++;
+            return next();
+        }
+
+        @Override
+        public BsonDocument resumeToken() {
+            return resumeToken;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return "generated change stream";
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.luketn.mongodb.iceberg.sync.bench;
+
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.types.ObjectId;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic MongoDB documents for the load generator.
+ * <p>
+ * A document has {@code width} top-level fields {@code f0, f1, ...} cycling through strings of
+ * low cardinality, ints, longs, doubles, booleans and dates; with {@code depth > 0} a
+ * {@code nested} sub-document that many levels deep; and a {@code payload} string that pads it
+ * to about {@code documentBytes} of BSON. Fields that the collection's partitioning or sort
+ * order refer to are generated as dates (for time transforms) or strings instead, so the
+ * configured layout of the table applies to the generated rows.
+ */
+public final class DocumentGenerator {
+
+    /**
+     * Kind of value generated for a field that the table layout refers to.
+     */
+    public enum FieldKind {
+        TIMESTAMP,
+        STRING
+    }
+
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+    private static final String SAMPLE_ID = "000000000000000000000000";
+    private static final int SCALAR_KINDS = 6;
+    private static final long DATE_RANGE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    private final int width;
+    private final int depth;
+    private final Map<String, FieldKind> layoutFields;
+    private final int padding;
+
+    /**
+     * @param layoutFields top-level fields the table is partitioned or sorted by, and the kind
+     *                     of value to generate for each
+     */
+    public DocumentGenerator(int width, int depth, int documentBytes, Map<String, FieldKind> layoutFields) {
+        this.width = width;
+        this.depth = depth;
+        this.layoutFields = new LinkedHashMap<>(layoutFields);
+        BsonDocument sample = unpadded(new BsonObjectId(new ObjectId(SAMPLE_ID)), new SplittableRandom(0), 0);
+        sample.append("payload", new BsonString(""));
+        int unpaddedBytes = new RawBsonDocument(sample, CODEC).getByteBuffer().remaining();
+        this.padding = Math.max(0, documentBytes - unpaddedBytes);
+    }
+
+    public Map<String, FieldKind> layoutFields() {
+        return layoutFields;
+    }
+
+    /**
+     * A document with the given {@code _id}, sized for an ObjectId; {@code nowMillis} anchors
+     * its dates.
+     */
+    public RawBsonDocument document(BsonValue id, SplittableRandom random, long nowMillis) {
+        BsonDocument document = unpadded(id, random, nowMillis);
+        if (padding > 0) {
+            document.append("payload", new BsonString(padding(random)));
+        }
+        return new RawBsonDocument(document, CODEC);
+    }
+
+    private BsonDocument unpadded(BsonValue id, SplittableRandom random, long nowMillis) {
+        BsonDocument document = new BsonDocument("_id", id);
+        for (int i = 0; i < width; i++) {
+            String name = "f" + i;
+            if (!layoutFields.containsKey(name)) {
+                document.append(name, scalar(i, random, nowMillis));
+            }
+        }
+        if (depth > 0) {
+            document.append("nested", nested(depth, random, nowMillis));
+        }
+        layoutFields.forEach((name, kind) -> document.append(name, kind == FieldKind.TIMESTAMP
+                ? new BsonDateTime(nowMillis - random.nextLong(DATE_RANGE_MILLIS))
+                : new BsonString("key-" + random.nextInt(1_000))));
+        return document;
+    }
+
+    private static BsonDocument nested(int level, SplittableRandom random, long nowMillis) {
+        BsonDocument document = new BsonDocument("s0", scalar(0, random, nowMillis))
+                .append("n0", scalar(1, random, nowMillis));
+        if (level > 1) {
+            document.append("child", nested(level - 1, random, nowMillis));
+        }
+        return document;
+    }
+
+    private static BsonValue scalar(int field, SplittableRandom random, long nowMillis) {
+        return switch (field % SCALAR_KINDS) {
+            case 0 -> new BsonString("value-" + random.nextInt(100));
+            case 1 -> new BsonInt32(random.nextInt(1_000_000));
+            case 2 -> new BsonInt64(random.nextLong());
+            case 3 -> new BsonDouble(random.nextDouble());
+            case 4 -> BsonBoolean.valueOf(random.nextBoolean());
+            default -> new BsonDateTime(nowMillis - random.nextLong(DATE_RANGE_MILLIS));
+        };
+    }
+
+    private String padding(SplittableRandom random) {
+        char[] chars = new char[padding];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,458 @@
+package com.luketn.mongodb.iceberg.sync.bench;
+
+import com.luketn.mongodb.iceberg.sync.catalog.CatalogFactory;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointStore;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointStoreFactory;
+import com.luketn.mongodb.iceberg.sync.config.CollectionSyncConfig;
+import com.luketn.mongodb.iceberg.sync.config.DeleteConfig;
+import com.luketn.mongodb.iceberg.sync.config.IcebergConfig;
+import com.luketn.mongodb.iceberg.sync.config.MappingConfig;
+import com.luketn.mongodb.iceberg.sync.config.MemoryConfig;
+import com.luketn.mongodb.iceberg.sync.config.PartitionConfig;
+import com.luketn.mongodb.iceberg.sync.config.SortFieldConfig;
+import com.luketn.mongodb.iceberg.sync.config.SyncConfig;
+import com.luketn.mongodb.iceberg.sync.config.WalConfig;
+import com.luketn.mongodb.iceberg.sync.iceberg.CompactionManager;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergTableManager;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergWriteManager;
+import com.luketn.mongodb.iceberg.sync.iceberg.IdLocationIndex;
+import com.luketn.mongodb.iceberg.sync.iceberg.MemoryGovernor;
+import com.luketn.mongodb.iceberg.sync.iceberg.SchemaEvolver;
+import com.luketn.mongodb.iceberg.sync.iceberg.WalBudget;
+import com.luketn.mongodb.iceberg.sync.iceberg.WriteAheadLog;
+import com.luketn.mongodb.iceberg.sync.sync.IcebergChangeStreamSink;
+import com.luketn.mongodb.iceberg.sync.sync.SyncRuntime;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.iceberg.DataOperations;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.SnapshotSummary;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.catalog.Catalog;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.types.Type;
+import org.apache.iceberg.types.Types;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end throughput benchmark of the change stream pipeline that runs without MongoDB or a
+ * remote catalog.
+ * <p>
+ * Each configured collection gets a synthetic change stream of generated documents (see
+ * {@link DocumentGenerator}) with the given mix of inserts, updates and deletes, applied through
+ * the same coalescer, sink, write manager and checkpoint store as a live sync, with the
+ * collection's batch, layout and delete settings and the configured WAL, memory budget and
+ * compaction, into a local warehouse. The target tables are created with the configured
+ * partitioning and sort order over generated fields; mapping is always auto. After a warmup, which is committed and
+ * left out of the results, the run is measured: events per second, lag percentiles, heap
+ * usage, GC and the files committed.
+ */
+public final class LoadGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final Set<String> TIME_TRANSFORMS = Set.of("year", "month", "day", "hour");
+    private static final double[] LAG_PERCENTILES = {0.5, 0.95, 0.99};
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * @param eventsPerSecond target rate across all collections, or 0 for as fast as the
+     *                        pipeline takes events
+     */
+    public record Settings(
+            Duration duration,
+            Duration warmup,
+            int width,
+            int depth,
+            int documentBytes,
+            OperationMix mix,
+            long eventsPerSecond,
+            long seed
+    ) {
+
+        public Settings {
+            if (duration.isNegative() || duration.isZero()) {
+                throw new IllegalArgumentException("duration must be positive");
+            }
+            if (warmup.isNegative()) {
+                throw new IllegalArgumentException("warmup must not be negative");
+            }
+            if (width < 0 || depth < 0 || documentBytes < 0 || eventsPerSecond < 0) {
+                throw new IllegalArgumentException("width, depth, document size and rate must not be negative");
+            }
+        }
+    }
+
+    private final SyncConfig config;
+    private final Settings settings;
+
+    public LoadGenerator(SyncConfig config, Settings settings) {
+        this.config = config;
+        this.settings = settings;
+    }
+
+    /**
+     * Runs the benchmark with its warehouse, WAL and id index in subdirectories of
+     * {@code workDirectory}.
+     */
+    public BenchReport run(Path workDirectory) throws IOException {
+        List<CollectionSyncConfig> collections = config.sync().collections();
+        if (collections.isEmpty()) {
+            throw new IllegalArgumentException("the configuration has no collections to generate load for");
+        }
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        meterRegistry.config().meterFilter(lagPercentiles());
+        Catalog catalog = CatalogFactory.create(new IcebergConfig(
+                new IcebergConfig.CatalogConfig("local", null, workDirectory.resolve("warehouse").toString()), Map.of()));
+        List<Pipeline> pipelines = new ArrayList<>();
+        try (SyncRuntime runtime = new SyncRuntime(meterRegistry);
+             CheckpointStore checkpoints = CheckpointStoreFactory.create(config.sync().checkpoint(), catalog);
+             CompactionManager compaction = new CompactionManager(config.sync().compaction(), runtime::cpuBacklog, meterRegistry)) {
+            WalConfig walConfig = config.sync().wal();
+            WalBudget walBudget = walConfig.enabled() ? new WalBudget(walConfig.maxBytes()) : null;
+            MemoryConfig memoryConfig = config.sync().memory();
+            MemoryGovernor memory = memoryConfig.enabled()
+                    ? new MemoryGovernor(memoryConfig.budgetBytes(), memoryConfig.flushAtPercent(), meterRegistry)
+                    : null;
+            try {
+                for (int i = 0; i < collections.size(); i++) {
+                    Pipeline pipeline = pipeline(collections.get(i), settings.seed() + i, workDirectory, catalog,
+                            checkpoints, walBudget, memory, runtime, meterRegistry);
+                    pipelines.add(pipeline);
+                    compaction.register(pipeline.table(), pipeline.index());
+                }
+                compaction.start();
+                return measure(pipelines, runtime, meterRegistry);
+            } finally {
+                for (Pipeline pipeline : pipelines.reversed()) {
+                    compaction.unregister(pipeline.table());
+                    pipeline.close();
+                }
+                if (memory != null) {
+                    memory.close();
+                }
+            }
+        } finally {
+            if (catalog instanceof Closeable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    private Pipeline pipeline(
+            CollectionSyncConfig collection,
+            long seed,
+            Path workDirectory,
+            Catalog catalog,
+            CheckpointStore checkpoints,
+            WalBudget walBudget,
+            MemoryGovernor memory,
+            SyncRuntime runtime,
+            SimpleMeterRegistry meterRegistry
+    ) {
+        TableIdentifier identifier = TableIdentifier.of(collection.target().namespace(), collection.target().table());
+        Map<String, DocumentGenerator.FieldKind> layoutFields = layoutFields(collection);
+        List<PartitionConfig> partitioning = collection.partitioning().stream()
+                .filter(partition -> isGenerated(partition.field(), layoutFields, identifier))
+                .toList();
+        List<SortFieldConfig> sortOrder = collection.sortOrder().stream()
+                .filter(field -> isGenerated(field.field(), layoutFields, identifier))
+                .toList();
+
+        List<Types.NestedField> columns = new ArrayList<>();
+        columns.add(Types.NestedField.optional(1, "_id", Types.StringType.get()));
+        layoutFields.forEach((name, kind) -> {
+            Type type = kind == DocumentGenerator.FieldKind.TIMESTAMP
+                    ? Types.TimestampType.withZone()
+                    : Types.StringType.get();
+            columns.add(Types.NestedField.optional(columns.size() + 1, name, type));
+        });
+        Table table = new IcebergTableManager(catalog).loadOrCreate(identifier, new Schema(columns), partitioning, sortOrder);
+
+        IdLocationIndex index = null;
+        WriteAheadLog wal = null;
+        IcebergWriteManager writer;
+        try {
+            if (DeleteConfig.MODE_POSITION.equals(collection.deletes().mode())) {
+                index = IdLocationIndex.open(workDirectory.resolve("id-index"), table, "_id");
+            }
+            if (walBudget != null) {
+                wal = WriteAheadLog.open(workDirectory.resolve("wal"), table, config.sync().wal().segmentBytes(), walBudget);
+            }
+            writer = new IcebergWriteManager(table, "_id", collection.batch(), runtime.cpu(identifier.toString()),
+                    meterRegistry, IcebergWriteManager.Options.NONE
+                            .withLocationIndex(index)
+                            .withWal(wal)
+                            .withLayout(collection.layout())
+                            .withMemory(memory));
+        } catch (RuntimeException e) {
+            if (wal != null) {
+                wal.close();
+            }
+            if (index != null) {
+                index.close();
+            }
+            throw e;
+        }
+        SchemaEvolver schemaEvolver = SchemaEvolver.forTable(table, new MappingConfig(MappingConfig.MODE_AUTO, List.of()));
+        IcebergChangeStreamSink sink = new IcebergChangeStreamSink(schemaEvolver, writer, checkpoints,
+                runtime.cpu(identifier.toString()));
+        DocumentGenerator generator = new DocumentGenerator(settings.width(), settings.depth(),
+                settings.documentBytes(), layoutFields);
+        CollectionLoad load = new CollectionLoad(identifier.toString(), identifier.toString(), collection.batch(),
+                sink, generator, settings.mix(), seed, meterRegistry);
+        return new Pipeline(identifier.toString(), table, writer, index, load);
+    }
+
+    private BenchReport measure(List<Pipeline> pipelines, SyncRuntime runtime, SimpleMeterRegistry meterRegistry) {
+        long eventsPerSecond = settings.eventsPerSecond() == 0
+                ? 0
+                : Math.max(1, settings.eventsPerSecond() / pipelines.size());
+        if (!settings.warmup().isZero()) {
+            logger.info("warming up for {} s", settings.warmup().toSeconds());
+            runAll(pipelines, settings.warmup(), eventsPerSecond, runtime);
+            pipelines.forEach(pipeline -> pipeline.load().resetMetrics());
+        }
+
+        List<Baseline> baselines = pipelines.stream()
+                .map(pipeline -> new Baseline(pipeline.load().events(), fileSizes(meterRegistry, pipeline)))
+                .toList();
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        long startMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        logger.info("measuring for {} s", settings.duration().toSeconds());
+        HeapSampler heap = new HeapSampler(pipelines);
+        CompletableFuture<Void> sampling = CompletableFuture.runAsync(heap, runtime.io());
+        try {
+            runAll(pipelines, settings.duration(), eventsPerSecond, runtime);
+        } finally {
+            heap.stop();
+            sampling.join();
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - startNanos);
+
+        List<BenchReport.CollectionReport> reports = new ArrayList<>();
+        for (int i = 0; i < pipelines.size(); i++) {
+            Pipeline pipeline = pipelines.get(i);
+            Baseline baseline = baselines.get(i);
+            Timer lag = meterRegistry.get("sync.lag").tag("collection", pipeline.name()).timer();
+            HistogramSnapshot lagSnapshot = lag.takeSnapshot();
+            ValueAtPercentile[] percentiles = lagSnapshot.percentileValues();
+            DistributionSummary fileSizes = fileSizes(meterRegistry, pipeline);
+            reports.add(new BenchReport.CollectionReport(
+                    pipeline.name(),
+                    pipeline.load().events() - baseline.events(),
+                    percentiles[0].value(TimeUnit.MILLISECONDS),
+                    percentiles[1].value(TimeUnit.MILLISECONDS),
+                    percentiles[2].value(TimeUnit.MILLISECONDS),
+                    lagSnapshot.max(TimeUnit.MILLISECONDS),
+                    fileSizes.count() - baseline.dataFiles(),
+                    (long) fileSizes.totalAmount() - baseline.dataFileBytes(),
+                    deleteFilesSince(pipeline.table(), startMillis)));
+        }
+        return new BenchReport(elapsed, reports, heap.maxBytes(), heap.averageBytes(),
+                gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+    }
+
+    private static void runAll(List<Pipeline> pipelines, Duration duration, long eventsPerSecond, SyncRuntime runtime) {
+        long deadlineNanos = System.nanoTime() + duration.toNanos();
+        CompletableFuture.allOf(pipelines.stream()
+                        .map(pipeline -> CompletableFuture.runAsync(
+                                () -> pipeline.load().run(deadlineNanos, eventsPerSecond), runtime.io()))
+                        .toArray(CompletableFuture[]::new))
+                .join();
+    }
+
+    /**
+     * Top-level fields of the collection's partitioning and sort order other than {@code _id},
+     * with the kind of value that suits their transforms.
+     */
+    static Map<String, DocumentGenerator.FieldKind> layoutFields(CollectionSyncConfig collection) {
+        Map<String, DocumentGenerator.FieldKind> fields = new LinkedHashMap<>();
+        for (PartitionConfig partition : collection.partitioning()) {
+            if (isTopLevel(partition.field())) {
+                boolean time = TIME_TRANSFORMS.contains(partition.transform().trim().toLowerCase(Locale.ROOT));
+                fields.merge(partition.field(),
+                        time ? DocumentGenerator.FieldKind.TIMESTAMP : DocumentGenerator.FieldKind.STRING,
+                        (first, second) -> first == DocumentGenerator.FieldKind.TIMESTAMP ? first : second);
+            }
+        }
+        for (SortFieldConfig field : collection.sortOrder()) {
+            if (isTopLevel(field.field())) {
+                fields.putIfAbsent(field.field(), DocumentGenerator.FieldKind.STRING);
+            }
+        }
+        return fields;
+    }
+
+    private static boolean isTopLevel(String field) {
+        return !field.equals("_id") && !field.contains(".");
+    }
+
+    private static boolean isGenerated(
+            String field,
+            Map<String, DocumentGenerator.FieldKind> layoutFields,
+            TableIdentifier identifier
+    ) {
+        if (field.equals("_id") || layoutFields.containsKey(field)) {
+            return true;
+        }
+        logger.warn("{}: nested field {} is not generated; left out of the table's partitioning and sort order",
+                identifier, field);
+        return false;
+    }
+
+    private static DistributionSummary fileSizes(SimpleMeterRegistry meterRegistry, Pipeline pipeline) {
+        return meterRegistry.get("sync.iceberg.file.size").tag("table", pipeline.table().name()).summary();
+    }
+
+    /**
+     * Delete files and deletion vectors committed by the sync since {@code startMillis}, leaving
+     * out compaction's rewrites.
+     */
+    private static long deleteFilesSince(Table table, long startMillis) {
+        table.refresh();
+        long deleteFiles = 0;
+        for (Snapshot snapshot : table.snapshots()) {
+            if (snapshot.timestampMillis() >= startMillis && !DataOperations.REPLACE.equals(snapshot.operation())) {
+                deleteFiles += Long.parseLong(snapshot.summary().getOrDefault(SnapshotSummary.ADDED_DELETE_FILES_PROP, "0"));
+            }
+        }
+        return deleteFiles;
+    }
+
+    private static MeterFilter lagPercentiles() {
+        return new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if (!id.getName().equals("sync.lag")) {
+                    return config;
+                }
+                // One window for the whole run, so the percentiles cover all of it.
+                return DistributionStatisticConfig.builder()
+                        .percentiles(LAG_PERCENTILES)
+                        .expiry(Duration.ofDays(1))
+                        .bufferLength(1)
+                        .build()
+                        .merge(config);
+            }
+        };
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+                .filter(count -> count > 0)
+                .sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                .filter(millis -> millis > 0)
+                .sum();
+    }
+
+    private record Pipeline(String name, Table table, IcebergWriteManager writer, IdLocationIndex index, CollectionLoad load) {
+
+        void close() {
+            load.close();
+            writer.close();
+            if (index != null) {
+                index.close();
+            }
+        }
+    }
+
+    private record Baseline(long events, long dataFiles, long dataFileBytes) {
+
+        Baseline(long events, DistributionSummary fileSizes) {
+            this(events, fileSizes.count(), (long) fileSizes.totalAmount());
+        }
+    }
+
+    /**
+     * Samples heap usage until stopped, logging progress now and then.
+     */
+    private static final class HeapSampler implements Runnable {
+
+        private final List<Pipeline> pipelines;
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private volatile boolean stopped;
+        private long maxBytes;
+        private long totalBytes;
+        private long samples;
+
+        HeapSampler(List<Pipeline> pipelines) {
+            this.pipelines = pipelines;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            long nextProgress = start + PROGRESS_INTERVAL_NANOS;
+            long eventsBefore = events();
+            while (!stopped) {
+                sample();
+                LockSupport.parkNanos(SAMPLE_INTERVAL_NANOS);
+                if (System.nanoTime() >= nextProgress) {
+                    logger.info("{} events in {} s", events() - eventsBefore,
+                            TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+                    nextProgress += PROGRESS_INTERVAL_NANOS;
+                }
+            }
+            sample();
+        }
+
+        void stop() {
+            stopped = true;
+        }
+
+        // Read after the sampling thread was joined.
+        long maxBytes() {
+            return maxBytes;
+        }
+
+        long averageBytes() {
+            return samples == 0 ? 0 : totalBytes / samples;
+        }
+
+        private long events() {
+            return pipelines.stream().mapToLong(pipeline -> pipeline.load().events()).sum();
+        }
+
+        private void sample() {
+            long used = memory.getHeapMemoryUsage().getUsed();
+            maxBytes = Math.max(maxBytes, used);
+            totalBytes += used;
+            samples++;
+        }
+    }
+}
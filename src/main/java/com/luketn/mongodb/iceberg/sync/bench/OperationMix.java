@@ -0,0 +1,55 @@
+package com.luketn.mongodb.iceberg.sync.bench;
+
+import java.util.SplittableRandom;
+
+/**
+ * Relative weights of the inserts, updates and deletes of the generated change streams.
+ */
+public record OperationMix(int inserts, int updates, int deletes) {
+
+    public enum Operation {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    public OperationMix {
+        if (inserts < 0 || updates < 0 || deletes < 0 || inserts + updates + deletes == 0) {
+            throw new IllegalArgumentException("operation mix weights must be non-negative and not all zero");
+        }
+        if (inserts == 0 && (updates > 0 || deletes > 0)) {
+            throw new IllegalArgumentException("operation mix needs inserts for updates and deletes to refer to");
+        }
+    }
+
+    /**
+     * Parses {@code insert:update:delete} weights, such as {@code 80:15:5}.
+     */
+    public static OperationMix parse(String value) {
+        String[] parts = value.trim().split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("operation mix must be insert:update:delete weights, was: " + value);
+        }
+        try {
+            return new OperationMix(
+                    Integer.parseInt(parts[0].trim()),
+                    Integer.parseInt(parts[1].trim()),
+                    Integer.parseInt(parts[2].trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("operation mix must be insert:update:delete weights, was: " + value, e);
+        }
+    }
+
+    Operation next(SplittableRandom random) {
+        int pick = random.nextInt(inserts + updates + deletes);
+        if (pick < inserts) {
+            return Operation.INSERT;
+        }
+        return pick < inserts + updates ? Operation.UPDATE : Operation.DELETE;
+    }
+
+    @Override
+    public String toString() {
+        return inserts + ":" + updates + ":" + deletes;
+    }
+}
@@ -0,0 +1,59 @@
+package com.luketn.mongodb.iceberg.sync.catalog;
+
+import com.luketn.mongodb.iceberg.sync.config.IcebergConfig;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.iceberg.CatalogProperties;
+import org.apache.iceberg.CatalogUtil;
+import org.apache.iceberg.catalog.Catalog;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Creates the Iceberg catalog of a configuration.
+ * <p>
+ * Catalogs are loaded by class name through {@link CatalogUtil#loadCatalog}, so only the
+ * catalog type in use is class-loaded and initialised: Hadoop's {@code FileSystem} and
+ * {@code Configuration} for {@code local}, the AWS SDK for {@code s3tables}, and neither for
+ * {@code rest} (beyond the {@code FileIO} its warehouse asks for). The shaded JAR carries all
+ * three, and loading their dependencies up front would cost every start.
+ */
+public final class CatalogFactory {
+
+    public static final String CATALOG_NAME = "mongodb-iceberg-sync";
+
+    static final String HADOOP_CATALOG = "org.apache.iceberg.hadoop.HadoopCatalog";
+    static final String S3_TABLES_CATALOG = "software.amazon.s3tables.iceberg.S3TablesCatalog";
+    static final String REST_CATALOG = "org.apache.iceberg.rest.RESTCatalog";
+
+    private CatalogFactory() {
+    }
+
+    public static Catalog create(IcebergConfig config) {
+        IcebergConfig.CatalogConfig catalog = config.catalog();
+        Map<String, String> properties = new HashMap<>(config.properties());
+        if (catalog.warehouse() != null) {
+            properties.put(CatalogProperties.WAREHOUSE_LOCATION, catalog.warehouse());
+        }
+        if (catalog.uri() != null) {
+            properties.put(CatalogProperties.URI, catalog.uri());
+        }
+        return switch (catalog.type().trim().toLowerCase(Locale.ROOT)) {
+            case "local" -> CatalogUtil.loadCatalog(HADOOP_CATALOG, CATALOG_NAME, properties, Hadoop.configuration());
+            case "s3tables" -> CatalogUtil.loadCatalog(S3_TABLES_CATALOG, CATALOG_NAME, properties, null);
+            case "rest" -> CatalogUtil.loadCatalog(REST_CATALOG, CATALOG_NAME, properties, null);
+            default -> throw new IllegalArgumentException("unsupported catalog type: " + catalog.type());
+        };
+    }
+
+    /**
+     * Holds the only reference to a Hadoop class, so that it is resolved on first use.
+     */
+    private static final class Hadoop {
+
+        static Object configuration() {
+            return new Configuration();
+        }
+    }
+}
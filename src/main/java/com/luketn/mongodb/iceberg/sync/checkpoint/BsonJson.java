@@ -0,0 +1,31 @@
+package com.luketn.mongodb.iceberg.sync.checkpoint;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+
+/**
+ * Canonical extended JSON encoding of BSON values for checkpoints.
+ * <p>
+ * Canonical mode keeps the BSON type of every value ({@code ObjectId}, {@code Int32} vs
+ * {@code Int64}, ...), which matters for {@code _id} bounds that are sent back to the server.
+ */
+public final class BsonJson {
+
+    private static final String VALUE_KEY = "v";
+    private static final JsonWriterSettings SETTINGS = JsonWriterSettings.builder()
+            .outputMode(JsonMode.EXTENDED)
+            .build();
+
+    private BsonJson() {
+    }
+
+    public static String encode(BsonValue value) {
+        return value == null ? null : new BsonDocument(VALUE_KEY, value).toJson(SETTINGS);
+    }
+
+    public static BsonValue decode(String json) {
+        return json == null ? null : BsonDocument.parse(json).get(VALUE_KEY);
+    }
+}
@@ -0,0 +1,61 @@
+package com.luketn.mongodb.iceberg.sync.checkpoint;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Persisted sync progress for a single collection → table mapping.
+ * <p>
+ * Resume tokens and {@code _id} values are stored as canonical extended JSON so they round-trip
+ * with their BSON types intact (see {@link BsonJson}).
+ *
+ * @param syncId             {@code "{namespace}.{table}"}
+ * @param state              current sync phase
+ * @param sourceDatabase     MongoDB database name
+ * @param sourceCollection   MongoDB collection name
+ * @param resumeToken        change stream resume token; during initial sync this is the token T0
+ *                           captured before the scan started
+ * @param highWaterMarkId    last processed {@code _id} of a single-range initial sync
+ * @param documentsProcessed count of documents processed
+ * @param lastSnapshotId     Iceberg snapshot id of the last data commit, if any
+ * @param updatedAt          time the checkpoint was written
+ * @param ranges             per-range progress of a partitioned initial sync; empty otherwise
+ */
+public record CheckpointRecord(
+        String syncId,
+        State state,
+        String sourceDatabase,
+        String sourceCollection,
+        String resumeToken,
+        String highWaterMarkId,
+        long documentsProcessed,
+        Long lastSnapshotId,
+        Instant updatedAt,
+        List<RangeCheckpoint> ranges
+) {
+
+    public enum State {
+        INITIAL_SYNC,
+        STEADY_STATE
+    }
+
+    public CheckpointRecord {
+        ranges = ranges == null ? List.of() : List.copyOf(ranges);
+    }
+
+    public CheckpointRecord withLastSnapshotId(Long snapshotId) {
+        return new CheckpointRecord(syncId, state, sourceDatabase, sourceCollection, resumeToken,
+                highWaterMarkId, documentsProcessed, snapshotId, updatedAt, ranges);
+    }
+
+    /**
+     * Progress of one {@code _id} range of a partitioned initial sync.
+     *
+     * @param lowerBound      inclusive lower bound, or {@code null} for the start of the collection
+     * @param upperBound      exclusive upper bound, or {@code null} for the end of the collection
+     * @param highWaterMarkId last {@code _id} in this range that has been committed, or {@code null}
+     * @param complete        whether the range has been fully scanned and committed
+     */
+    public record RangeCheckpoint(String lowerBound, String upperBound, String highWaterMarkId, boolean complete) {
+    }
+}
@@ -0,0 +1,58 @@
+package com.luketn.mongodb.iceberg.sync.checkpoint;
+
+import org.apache.iceberg.Table;
+
+import java.util.Map;
+
+/**
+ * Persistence for {@link CheckpointRecord}s, keyed by sync id.
+ * <p>
+ * A checkpoint that covers flushed data is handed over in two steps: {@link #snapshotProperties}
+ * is attached to the data commit, then {@link #committed} runs once that commit succeeded. A
+ * store that keeps checkpoints apart from the data only implements the second step.
+ * <p>
+ * Stores are created from {@code sync.checkpoint} by {@link CheckpointStoreFactory}.
+ */
+public interface CheckpointStore extends AutoCloseable {
+
+    /**
+     * Returns the checkpoint for the sync id, or {@code null} if none has been written.
+     */
+    CheckpointRecord read(String syncId);
+
+    void write(CheckpointRecord checkpoint);
+
+    void delete(String syncId);
+
+    /**
+     * Snapshot summary properties to commit together with the data that {@code checkpoint}
+     * covers. Empty unless the store keeps checkpoints in the data table itself.
+     */
+    default Map<String, String> snapshotProperties(CheckpointRecord checkpoint) {
+        return Map.of();
+    }
+
+    /**
+     * Called once the data that {@code checkpoint} covers has been committed.
+     *
+     * @param snapshotId id of the data commit's snapshot, or {@code null} if there was none
+     */
+    default void committed(CheckpointRecord checkpoint, Long snapshotId) {
+        write(checkpoint.withLastSnapshotId(snapshotId));
+    }
+
+    /**
+     * Commits the checkpoints of {@code syncId} that the store writes to the sync's data table
+     * through {@code table}, such as the table fenced with the epoch of the sync's lease. Does
+     * nothing unless the store commits to the data table.
+     */
+    default void useTable(String syncId, Table table) {
+    }
+
+    /**
+     * Releases background resources. Does nothing unless the store has any.
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,24 @@
+package com.luketn.mongodb.iceberg.sync.checkpoint;
+
+import com.luketn.mongodb.iceberg.sync.config.CheckpointConfig;
+import org.apache.iceberg.catalog.Catalog;
+
+/**
+ * Creates the checkpoint store of a configuration ({@code sync.checkpoint}): a
+ * {@link SnapshotCheckpointStore}, optionally with the {@code _sync_checkpoints} table as its
+ * view, or an {@link IcebergCheckpointStore}.
+ */
+public final class CheckpointStoreFactory {
+
+    private CheckpointStoreFactory() {
+    }
+
+    public static CheckpointStore create(CheckpointConfig config, Catalog catalog) {
+        return switch (config.mode()) {
+            case CheckpointConfig.MODE_TABLE -> new IcebergCheckpointStore(catalog);
+            case CheckpointConfig.MODE_SNAPSHOT ->
+                    new SnapshotCheckpointStore(catalog, config.tableView() ? new IcebergCheckpointStore(catalog) : null);
+            default -> throw new IllegalArgumentException("unsupported checkpoint mode: " + config.mode());
+        };
+    }
+}
@@ -0,0 +1,204 @@
+package com.luketn.mongodb.iceberg.sync.checkpoint;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord.RangeCheckpoint;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergTableManager;
+import org.apache.iceberg.DataFile;
+import org.apache.iceberg.DeleteFile;
+import org.apache.iceberg.FileFormat;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.catalog.Catalog;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.data.GenericAppenderFactory;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.data.IcebergGenerics;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.deletes.EqualityDeleteWriter;
+import org.apache.iceberg.expressions.Expressions;
+import org.apache.iceberg.io.CloseableIterable;
+import org.apache.iceberg.io.CloseableIterator;
+import org.apache.iceberg.io.DataWriter;
+import org.apache.iceberg.io.OutputFileFactory;
+import org.apache.iceberg.types.Types;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps checkpoints as rows of the {@code _sync._sync_checkpoints} table, one per sync id.
+ * <p>
+ * A checkpoint is written as an upsert: an equality delete of the sync id's row and a data file
+ * holding the new row, committed together in one {@code RowDelta}. Rows added by a commit are
+ * not affected by its own equality deletes. This is a second catalog commit after the data
+ * commit the checkpoint covers, so a crash between the two re-processes that batch on restart.
+ * {@link SnapshotCheckpointStore} avoids the extra commit and can keep this table as a view.
+ * <p>
+ * The table is created on the first write. Writes from this process are serialized; commits of
+ * other instances are retried by Iceberg, since upserts of different sync ids do not conflict.
+ */
+public final class IcebergCheckpointStore implements CheckpointStore {
+
+    public static final TableIdentifier TABLE = TableIdentifier.of("_sync", "_sync_checkpoints");
+
+    private static final FileFormat FILE_FORMAT = FileFormat.PARQUET;
+
+    static final Types.StructType RANGE = Types.StructType.of(
+            Types.NestedField.optional(12, "lower_bound", Types.StringType.get()),
+            Types.NestedField.optional(13, "upper_bound", Types.StringType.get()),
+            Types.NestedField.optional(14, "high_water_mark_id", Types.StringType.get()),
+            Types.NestedField.required(15, "complete", Types.BooleanType.get()));
+
+    static final Schema SCHEMA = new Schema(List.of(
+            Types.NestedField.required(1, "sync_id", Types.StringType.get()),
+            Types.NestedField.required(2, "state", Types.StringType.get()),
+            Types.NestedField.optional(3, "source_database", Types.StringType.get()),
+            Types.NestedField.optional(4, "source_collection", Types.StringType.get()),
+            Types.NestedField.optional(5, "resume_token", Types.StringType.get()),
+            Types.NestedField.optional(6, "high_water_mark_id", Types.StringType.get()),
+            Types.NestedField.required(7, "documents_processed", Types.LongType.get()),
+            Types.NestedField.optional(8, "last_snapshot_id", Types.LongType.get()),
+            Types.NestedField.optional(9, "updated_at", Types.TimestampType.withZone()),
+            Types.NestedField.optional(10, "ranges", Types.ListType.ofRequired(11, RANGE))
+    ), Set.of(1));
+
+    private final Catalog catalog;
+
+    // Guarded by this.
+    private Table table;
+    private GenericAppenderFactory appenderFactory;
+    private OutputFileFactory fileFactory;
+
+    public IcebergCheckpointStore(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public synchronized CheckpointRecord read(String syncId) {
+        if (table == null && !catalog.tableExists(TABLE)) {
+            return null;
+        }
+        Table checkpoints = table();
+        checkpoints.refresh();
+        try (CloseableIterable<Record> rows = IcebergGenerics.read(checkpoints)
+                .where(Expressions.equal("sync_id", syncId))
+                .build();
+             CloseableIterator<Record> iterator = rows.iterator()) {
+            return iterator.hasNext() ? fromRow(iterator.next()) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read the checkpoint of " + syncId, e);
+        }
+    }
+
+    @Override
+    public synchronized void write(CheckpointRecord checkpoint) {
+        table();
+        table.newRowDelta()
+                .addDeletes(writeDelete(checkpoint.syncId()))
+                .addRows(writeRow(checkpoint))
+                .commit();
+    }
+
+    @Override
+    public synchronized void delete(String syncId) {
+        if (table == null && !catalog.tableExists(TABLE)) {
+            return;
+        }
+        table();
+        table.newRowDelta()
+                .addDeletes(writeDelete(syncId))
+                .commit();
+    }
+
+    // Called holding the lock.
+    private Table table() {
+        if (table == null) {
+            table = new IcebergTableManager(catalog).loadOrCreate(TABLE, SCHEMA, List.of());
+            int syncIdField = table.schema().findField("sync_id").fieldId();
+            appenderFactory = new GenericAppenderFactory(table, table.schema(), table.spec(), table.properties(),
+                    new int[]{syncIdField}, table.schema().select("sync_id"), null);
+            fileFactory = OutputFileFactory.builderFor(table, 0, System.currentTimeMillis())
+                    .format(FILE_FORMAT)
+                    .build();
+        }
+        return table;
+    }
+
+    private DataFile writeRow(CheckpointRecord checkpoint) {
+        DataWriter<Record> writer = appenderFactory.newDataWriter(fileFactory.newOutputFile(), FILE_FORMAT, null);
+        try (writer) {
+            writer.write(toRow(checkpoint));
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write the checkpoint of " + checkpoint.syncId(), e);
+        }
+        return writer.toDataFile();
+    }
+
+    private DeleteFile writeDelete(String syncId) {
+        GenericRecord key = GenericRecord.create(table.schema().select("sync_id"));
+        key.setField("sync_id", syncId);
+        EqualityDeleteWriter<Record> writer = appenderFactory.newEqDeleteWriter(fileFactory.newOutputFile(), FILE_FORMAT, null);
+        try (writer) {
+            writer.write(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write the checkpoint delete of " + syncId, e);
+        }
+        return writer.toDeleteFile();
+    }
+
+    static Record toRow(CheckpointRecord checkpoint) {
+        GenericRecord row = GenericRecord.create(SCHEMA);
+        row.setField("sync_id", checkpoint.syncId());
+        row.setField("state", checkpoint.state().name());
+        row.setField("source_database", checkpoint.sourceDatabase());
+        row.setField("source_collection", checkpoint.sourceCollection());
+        row.setField("resume_token", checkpoint.resumeToken());
+        row.setField("high_water_mark_id", checkpoint.highWaterMarkId());
+        row.setField("documents_processed", checkpoint.documentsProcessed());
+        row.setField("last_snapshot_id", checkpoint.lastSnapshotId());
+        row.setField("updated_at", checkpoint.updatedAt() == null ? null : checkpoint.updatedAt().atOffset(ZoneOffset.UTC));
+        List<Record> ranges = new ArrayList<>(checkpoint.ranges().size());
+        for (RangeCheckpoint range : checkpoint.ranges()) {
+            GenericRecord struct = GenericRecord.create(RANGE);
+            struct.setField("lower_bound", range.lowerBound());
+            struct.setField("upper_bound", range.upperBound());
+            struct.setField("high_water_mark_id", range.highWaterMarkId());
+            struct.setField("complete", range.complete());
+            ranges.add(struct);
+        }
+        row.setField("ranges", ranges);
+        return row;
+    }
+
+    static CheckpointRecord fromRow(Record row) {
+        List<RangeCheckpoint> ranges = new ArrayList<>();
+        List<?> rangeRows = (List<?>) row.getField("ranges");
+        if (rangeRows != null) {
+            for (Object element : rangeRows) {
+                Record range = (Record) element;
+                ranges.add(new RangeCheckpoint(
+                        (String) range.getField("lower_bound"),
+                        (String) range.getField("upper_bound"),
+                        (String) range.getField("high_water_mark_id"),
+                        (Boolean) range.getField("complete")));
+            }
+        }
+        OffsetDateTime updatedAt = (OffsetDateTime) row.getField("updated_at");
+        return new CheckpointRecord(
+                (String) row.getField("sync_id"),
+                CheckpointRecord.State.valueOf((String) row.getField("state")),
+                (String) row.getField("source_database"),
+                (String) row.getField("source_collection"),
+                (String) row.getField("resume_token"),
+                (String) row.getField("high_water_mark_id"),
+                (Long) row.getField("documents_processed"),
+                (Long) row.getField("last_snapshot_id"),
+                updatedAt == null ? null : updatedAt.toInstant(),
+                ranges
+        );
+    }
+}
@@ -0,0 +1,238 @@
+package com.luketn.mongodb.iceberg.sync.checkpoint;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord.RangeCheckpoint;
+import org.apache.iceberg.AppendFiles;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.catalog.Catalog;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.exceptions.NoSuchTableException;
+import org.apache.iceberg.util.SnapshotUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps checkpoints in the snapshot summary of the target table itself.
+ * <p>
+ * The checkpoint travels as summary properties on the same {@code AppendFiles}/{@code RowDelta}
+ * commit that adds the data it covers, so data and checkpoint become visible together and each
+ * flush costs a single catalog commit. {@link #read} walks back from the table's current
+ * snapshot to the newest one carrying a checkpoint; snapshots committed by maintenance (such as
+ * compaction) carry none and are skipped. The sync id is {@code "{namespace}.{table}"}, which
+ * identifies the table.
+ * <p>
+ * Optionally every committed checkpoint is also copied to a table view store (the
+ * {@code _sync_checkpoints} table) in the background, keeping checkpoints queryable without
+ * putting a second commit on the flush path. The view is only read when the data table holds no
+ * checkpoint yet, for syncs started before snapshot checkpoints were enabled.
+ */
+public final class SnapshotCheckpointStore implements CheckpointStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotCheckpointStore.class);
+
+    static final String PREFIX = "mongodb-iceberg-sync.";
+    static final String SYNC_ID = PREFIX + "sync-id";
+    static final String DELETED = PREFIX + "deleted";
+    static final String STATE = PREFIX + "state";
+    static final String SOURCE_DATABASE = PREFIX + "source-database";
+    static final String SOURCE_COLLECTION = PREFIX + "source-collection";
+    static final String RESUME_TOKEN = PREFIX + "resume-token";
+    static final String HIGH_WATER_MARK_ID = PREFIX + "high-water-mark-id";
+    static final String DOCUMENTS_PROCESSED = PREFIX + "documents-processed";
+    static final String UPDATED_AT = PREFIX + "updated-at";
+    static final String RANGES = PREFIX + "ranges";
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final TypeReference<List<RangeCheckpoint>> RANGE_LIST = new TypeReference<>() {
+    };
+
+    private final Catalog catalog;
+    private final CheckpointStore tableView;
+    private final ExecutorService viewWriter;
+    private final Map<String, CheckpointRecord> pendingViewWrites = new ConcurrentHashMap<>();
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    private final Map<String, Table> fencedTables = new ConcurrentHashMap<>();
+
+    public SnapshotCheckpointStore(Catalog catalog) {
+        this(catalog, null);
+    }
+
+    /**
+     * @param tableView store refreshed in the background after each commit, or {@code null}
+     */
+    public SnapshotCheckpointStore(Catalog catalog, CheckpointStore tableView) {
+        this.catalog = catalog;
+        this.tableView = tableView;
+        this.viewWriter = tableView == null ? null : Executors.newSingleThreadExecutor(
+                Thread.ofVirtual().name("checkpoint-view-writer").factory());
+    }
+
+    @Override
+    public CheckpointRecord read(String syncId) {
+        Table table;
+        try {
+            table = catalog.loadTable(TableIdentifier.parse(syncId));
+            tables.put(syncId, table);
+        } catch (NoSuchTableException e) {
+            return tableView == null ? null : tableView.read(syncId);
+        }
+        Snapshot current = table.currentSnapshot();
+        if (current != null) {
+            for (Snapshot snapshot : SnapshotUtil.ancestorsOf(current.snapshotId(), table::snapshot)) {
+                Map<String, String> summary = snapshot.summary();
+                if (!syncId.equals(summary.get(SYNC_ID))) {
+                    continue;
+                }
+                return Boolean.parseBoolean(summary.get(DELETED)) ? null : fromSummary(summary, snapshot.snapshotId());
+            }
+        }
+        return tableView == null ? null : tableView.read(syncId);
+    }
+
+    /**
+     * Records a checkpoint that covers no new data by committing an empty snapshot.
+     */
+    @Override
+    public void write(CheckpointRecord checkpoint) {
+        commitEmptySnapshot(checkpoint.syncId(), snapshotProperties(checkpoint));
+        refreshTableView(checkpoint);
+    }
+
+    @Override
+    public void delete(String syncId) {
+        commitEmptySnapshot(syncId, Map.of(SYNC_ID, syncId, DELETED, "true"));
+        if (tableView != null) {
+            pendingViewWrites.remove(syncId);
+            tableView.delete(syncId);
+        }
+    }
+
+    @Override
+    public Map<String, String> snapshotProperties(CheckpointRecord checkpoint) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(SYNC_ID, checkpoint.syncId());
+        properties.put(STATE, checkpoint.state().name());
+        putIfNotNull(properties, SOURCE_DATABASE, checkpoint.sourceDatabase());
+        putIfNotNull(properties, SOURCE_COLLECTION, checkpoint.sourceCollection());
+        putIfNotNull(properties, RESUME_TOKEN, checkpoint.resumeToken());
+        putIfNotNull(properties, HIGH_WATER_MARK_ID, checkpoint.highWaterMarkId());
+        properties.put(DOCUMENTS_PROCESSED, Long.toString(checkpoint.documentsProcessed()));
+        putIfNotNull(properties, UPDATED_AT, checkpoint.updatedAt() == null ? null : checkpoint.updatedAt().toString());
+        if (!checkpoint.ranges().isEmpty()) {
+            try {
+                properties.put(RANGES, JSON.writeValueAsString(checkpoint.ranges()));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("failed to encode checkpoint ranges for " + checkpoint.syncId(), e);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * The checkpoint is already durable as part of the data commit; only the table view, if any,
+     * needs refreshing.
+     */
+    @Override
+    public void committed(CheckpointRecord checkpoint, Long snapshotId) {
+        refreshTableView(checkpoint.withLastSnapshotId(snapshotId));
+    }
+
+    @Override
+    public void close() {
+        if (viewWriter != null) {
+            viewWriter.shutdown();
+        }
+    }
+
+    /**
+     * Commits through the table loaded by an earlier call rather than loading it again; a commit
+     * against stale metadata refreshes it and retries.
+     */
+    @Override
+    public void useTable(String syncId, Table table) {
+        fencedTables.put(syncId, table);
+    }
+
+    private void commitEmptySnapshot(String syncId, Map<String, String> properties) {
+        Table fenced = fencedTables.get(syncId);
+        Table table = fenced != null
+                ? fenced
+                : tables.computeIfAbsent(syncId, id -> catalog.loadTable(TableIdentifier.parse(id)));
+        AppendFiles append = table.newFastAppend();
+        properties.forEach(append::set);
+        try {
+            append.commit();
+        } catch (RuntimeException e) {
+            // The table may have been dropped and recreated; load it afresh next time. A table
+            // given to useTable is kept, so that a fenced sync keeps failing.
+            if (fenced == null) {
+                tables.remove(syncId, table);
+            }
+            throw e;
+        }
+    }
+
+    private void refreshTableView(CheckpointRecord checkpoint) {
+        if (tableView == null) {
+            return;
+        }
+        // Only the newest checkpoint per sync id matters, so a slow view write just means the
+        // next one skips the checkpoints that arrived in the meantime.
+        if (pendingViewWrites.put(checkpoint.syncId(), checkpoint) == null) {
+            viewWriter.execute(() -> {
+                CheckpointRecord latest = pendingViewWrites.remove(checkpoint.syncId());
+                if (latest == null) {
+                    return;
+                }
+                try {
+                    tableView.write(latest);
+                } catch (RuntimeException e) {
+                    logger.warn("{}: failed to refresh checkpoint table view", latest.syncId(), e);
+                }
+            });
+        }
+    }
+
+    static CheckpointRecord fromSummary(Map<String, String> summary, long snapshotId) {
+        String syncId = summary.get(SYNC_ID);
+        List<RangeCheckpoint> ranges = List.of();
+        String rangesJson = summary.get(RANGES);
+        if (rangesJson != null) {
+            try {
+                ranges = JSON.readValue(rangesJson, RANGE_LIST);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("failed to decode checkpoint ranges for " + syncId, e);
+            }
+        }
+        String updatedAt = summary.get(UPDATED_AT);
+        return new CheckpointRecord(
+                syncId,
+                CheckpointRecord.State.valueOf(summary.get(STATE)),
+                summary.get(SOURCE_DATABASE),
+                summary.get(SOURCE_COLLECTION),
+                summary.get(RESUME_TOKEN),
+                summary.get(HIGH_WATER_MARK_ID),
+                Long.parseLong(summary.getOrDefault(DOCUMENTS_PROCESSED, "0")),
+                snapshotId,
+                updatedAt == null ? null : Instant.parse(updatedAt),
+                ranges
+        );
+    }
+
+    private static void putIfNotNull(Map<String, String> properties, String key, String value) {
+        if (value != null) {
+            properties.put(key, value);
+        }
+    }
+}
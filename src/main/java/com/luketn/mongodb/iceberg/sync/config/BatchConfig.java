@@ -3,17 +3,35 @@ package com.luketn.mongodb.iceberg.sync.config;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 @JsonIgnoreProperties(ignoreUnknown = false)
-public record BatchConfig(Long maxRecords, Long maxBytes, Integer flushIntervalSeconds) {
+public record BatchConfig(
+        Long maxRecords,
+        Long maxBytes,
+        Integer flushIntervalSeconds,
+        Integer maxInFlightBatches,
+        String mode,
+        Long targetFileBytes,
+        Integer maxStalenessSeconds
+) {
 
+    public static final String MODE_FIXED = "fixed";
+    public static final String MODE_ADAPTIVE = "adaptive";
     public static final long DEFAULT_MAX_RECORDS = 50_000L;
     public static final long DEFAULT_MAX_BYTES = 134_217_728L;
     public static final int DEFAULT_FLUSH_INTERVAL_SECONDS = 60;
+    public static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 2;
+    public static final long DEFAULT_TARGET_FILE_BYTES = 67_108_864L;
+    public static final int DEFAULT_MAX_STALENESS_SECONDS = 900;
 
     public BatchConfig withDefaults() {
+        int interval = flushIntervalSeconds == null ? DEFAULT_FLUSH_INTERVAL_SECONDS : flushIntervalSeconds;
         return new BatchConfig(
                 maxRecords == null ? DEFAULT_MAX_RECORDS : maxRecords,
                 maxBytes == null ? DEFAULT_MAX_BYTES : maxBytes,
-                flushIntervalSeconds == null ? DEFAULT_FLUSH_INTERVAL_SECONDS : flushIntervalSeconds
+                interval,
+                maxInFlightBatches == null ? DEFAULT_MAX_IN_FLIGHT_BATCHES : maxInFlightBatches,
+                mode == null ? MODE_FIXED : mode.trim().toLowerCase(),
+                targetFileBytes == null ? DEFAULT_TARGET_FILE_BYTES : targetFileBytes,
+                maxStalenessSeconds == null ? Math.max(DEFAULT_MAX_STALENESS_SECONDS, interval) : maxStalenessSeconds
         );
     }
 
@@ -27,5 +45,19 @@ public record BatchConfig(Long maxRecords, Long maxBytes, Integer flushIntervalS
         if (flushIntervalSeconds == null || flushIntervalSeconds <= 0) {
             throw new SyncConfigException(path + ".flushIntervalSeconds must be > 0");
         }
+        if (maxInFlightBatches == null || maxInFlightBatches <= 0) {
+            throw new SyncConfigException(path + ".maxInFlightBatches must be > 0");
+        }
+        ConfigValidators.requireOneOf(mode, path + ".mode", MODE_FIXED, MODE_ADAPTIVE);
+        if (targetFileBytes == null || targetFileBytes <= 0) {
+            throw new SyncConfigException(path + ".targetFileBytes must be > 0");
+        }
+        if (maxStalenessSeconds == null || maxStalenessSeconds <= 0) {
+            throw new SyncConfigException(path + ".maxStalenessSeconds must be > 0");
+        }
+        // Only the adaptive policy stretches the interval up to maxStalenessSeconds.
+        if (MODE_ADAPTIVE.equals(mode) && maxStalenessSeconds < flushIntervalSeconds) {
+            throw new SyncConfigException(path + ".maxStalenessSeconds must be >= flushIntervalSeconds");
+        }
     }
 }
@@ -0,0 +1,26 @@
+package com.luketn.mongodb.iceberg.sync.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = false)
+public record ChangeStreamConfig(String mode, Integer imageCacheEntries) {
+
+    public static final String MODE_AUTO = "auto";
+    public static final String MODE_FULL = "full";
+    public static final String MODE_PROJECTED = "projected";
+    public static final int DEFAULT_IMAGE_CACHE_ENTRIES = 100_000;
+
+    public ChangeStreamConfig withDefaults() {
+        return new ChangeStreamConfig(
+                mode == null ? MODE_AUTO : mode.trim().toLowerCase(),
+                imageCacheEntries == null ? DEFAULT_IMAGE_CACHE_ENTRIES : imageCacheEntries
+        );
+    }
+
+    public void validate(String path) {
+        ConfigValidators.requireOneOf(mode, path + ".mode", MODE_AUTO, MODE_FULL, MODE_PROJECTED);
+        if (imageCacheEntries == null || imageCacheEntries < 0) {
+            throw new SyncConfigException(path + ".imageCacheEntries must be >= 0");
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.luketn.mongodb.iceberg.sync.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = false)
+public record CheckpointConfig(String mode, Boolean tableView) {
+
+    public static final String MODE_SNAPSHOT = "snapshot";
+    public static final String MODE_TABLE = "table";
+
+    public CheckpointConfig withDefaults() {
+        String normalizedMode = mode == null ? MODE_SNAPSHOT : mode.trim().toLowerCase();
+        return new CheckpointConfig(normalizedMode, tableView != null && tableView);
+    }
+
+    public void validate(String path) {
+        ConfigValidators.requireOneOf(mode, path + ".mode", MODE_SNAPSHOT, MODE_TABLE);
+        if (MODE_TABLE.equals(mode) && tableView) {
+            throw new SyncConfigException(path + ".tableView only applies when mode is snapshot");
+        }
+    }
+}
@@ -10,20 +10,36 @@ public record CollectionSyncConfig(
         TargetConfig target,
         MappingConfig mapping,
         List<PartitionConfig> partitioning,
-        BatchConfig batch
+        List<SortFieldConfig> sortOrder,
+        LayoutConfig layout,
+        BatchConfig batch,
+        InitialSyncConfig initialSync,
+        DeleteConfig deletes,
+        ChangeStreamConfig changeStream
 ) {
 
     public CollectionSyncConfig withDefaults() {
         MappingConfig normalizedMapping = mapping == null
                 ? new MappingConfig(MappingConfig.MODE_AUTO, List.of())
                 : mapping.withDefaults();
-        BatchConfig normalizedBatch = batch == null ? new BatchConfig(null, null, null) : batch;
+        LayoutConfig normalizedLayout = layout == null
+                ? new LayoutConfig(null, null, null, null, null, null, null, null)
+                : layout;
+        BatchConfig normalizedBatch = batch == null ? new BatchConfig(null, null, null, null, null, null, null) : batch;
+        InitialSyncConfig normalizedInitialSync = initialSync == null ? new InitialSyncConfig(null, null, null) : initialSync;
+        DeleteConfig normalizedDeletes = deletes == null ? new DeleteConfig(null, null) : deletes;
+        ChangeStreamConfig normalizedChangeStream = changeStream == null ? new ChangeStreamConfig(null, null) : changeStream;
         return new CollectionSyncConfig(
                 source,
                 target,
                 normalizedMapping,
                 ConfigValidators.nullToEmpty(partitioning),
-                normalizedBatch.withDefaults()
+                ConfigValidators.nullToEmpty(sortOrder).stream().map(SortFieldConfig::withDefaults).toList(),
+                normalizedLayout.withDefaults(),
+                normalizedBatch.withDefaults(),
+                normalizedInitialSync.withDefaults(),
+                normalizedDeletes.withDefaults(),
+                normalizedChangeStream.withDefaults()
         );
     }
 
@@ -37,18 +53,41 @@ public record CollectionSyncConfig(
         if (mapping == null) {
             throw new SyncConfigException(path + ".mapping is required");
         }
+        if (layout == null) {
+            throw new SyncConfigException(path + ".layout is required");
+        }
         if (batch == null) {
             throw new SyncConfigException(path + ".batch is required");
         }
+        if (initialSync == null) {
+            throw new SyncConfigException(path + ".initialSync is required");
+        }
+        if (deletes == null) {
+            throw new SyncConfigException(path + ".deletes is required");
+        }
+        if (changeStream == null) {
+            throw new SyncConfigException(path + ".changeStream is required");
+        }
 
         source.validate(path + ".source");
         target.validate(path + ".target");
         mapping.validate(path + ".mapping");
+        layout.validate(path + ".layout");
         batch.validate(path + ".batch");
+        initialSync.validate(path + ".initialSync");
+        deletes.validate(path + ".deletes");
+        changeStream.validate(path + ".changeStream");
+        if (ChangeStreamConfig.MODE_PROJECTED.equals(changeStream.mode())
+                && !MappingConfig.MODE_EXPLICIT.equals(mapping.mode())) {
+            throw new SyncConfigException(path + ".changeStream.mode projected requires an explicit mapping");
+        }
 
         for (int i = 0; i < partitioning.size(); i++) {
             partitioning.get(i).validate(path + ".partitioning[" + i + "]");
         }
+        for (int i = 0; i < sortOrder.size(); i++) {
+            sortOrder.get(i).validate(path + ".sortOrder[" + i + "]");
+        }
     }
 
     @JsonIgnoreProperties(ignoreUnknown = false)
@@ -0,0 +1,68 @@
+package com.luketn.mongodb.iceberg.sync.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = false)
+public record CompactionConfig(
+        Boolean enabled,
+        Integer intervalSeconds,
+        Integer coldAfterSeconds,
+        Long targetFileBytes,
+        Integer minInputFiles,
+        Long maxBytesPerSecond,
+        Integer maxCpuPercent,
+        Long snapshotRetentionSeconds,
+        Long orphanFileAgeSeconds
+) {
+
+    public static final int DEFAULT_INTERVAL_SECONDS = 3600;
+    public static final int DEFAULT_COLD_AFTER_SECONDS = 3600;
+    public static final long DEFAULT_TARGET_FILE_BYTES = 268_435_456L;
+    public static final int DEFAULT_MIN_INPUT_FILES = 5;
+    public static final long DEFAULT_MAX_BYTES_PER_SECOND = 33_554_432L;
+    public static final int DEFAULT_MAX_CPU_PERCENT = 25;
+    public static final long DEFAULT_SNAPSHOT_RETENTION_SECONDS = 432_000L;
+    public static final long DEFAULT_ORPHAN_FILE_AGE_SECONDS = 259_200L;
+
+    public CompactionConfig withDefaults() {
+        return new CompactionConfig(
+                enabled != null && enabled,
+                intervalSeconds == null ? DEFAULT_INTERVAL_SECONDS : intervalSeconds,
+                coldAfterSeconds == null ? DEFAULT_COLD_AFTER_SECONDS : coldAfterSeconds,
+                targetFileBytes == null ? DEFAULT_TARGET_FILE_BYTES : targetFileBytes,
+                minInputFiles == null ? DEFAULT_MIN_INPUT_FILES : minInputFiles,
+                maxBytesPerSecond == null ? DEFAULT_MAX_BYTES_PER_SECOND : maxBytesPerSecond,
+                maxCpuPercent == null ? DEFAULT_MAX_CPU_PERCENT : maxCpuPercent,
+                snapshotRetentionSeconds == null ? DEFAULT_SNAPSHOT_RETENTION_SECONDS : snapshotRetentionSeconds,
+                orphanFileAgeSeconds == null ? DEFAULT_ORPHAN_FILE_AGE_SECONDS : orphanFileAgeSeconds
+        );
+    }
+
+    public void validate(String path) {
+        if (intervalSeconds == null || intervalSeconds <= 0) {
+            throw new SyncConfigException(path + ".intervalSeconds must be > 0");
+        }
+        if (coldAfterSeconds == null || coldAfterSeconds < 0) {
+            throw new SyncConfigException(path + ".coldAfterSeconds must be >= 0");
+        }
+        if (targetFileBytes == null || targetFileBytes <= 0) {
+            throw new SyncConfigException(path + ".targetFileBytes must be > 0");
+        }
+        if (minInputFiles == null || minInputFiles < 2) {
+            throw new SyncConfigException(path + ".minInputFiles must be >= 2");
+        }
+        if (maxBytesPerSecond == null || maxBytesPerSecond <= 0) {
+            throw new SyncConfigException(path + ".maxBytesPerSecond must be > 0");
+        }
+        if (maxCpuPercent == null || maxCpuPercent <= 0 || maxCpuPercent > 100) {
+            throw new SyncConfigException(path + ".maxCpuPercent must be between 1 and 100");
+        }
+        if (snapshotRetentionSeconds == null || snapshotRetentionSeconds <= 0) {
+            throw new SyncConfigException(path + ".snapshotRetentionSeconds must be > 0");
+        }
+        // Files the pipelined writer has written but not committed yet look like orphans.
+        if (orphanFileAgeSeconds == null || orphanFileAgeSeconds < 3600) {
+            throw new SyncConfigException(path + ".orphanFileAgeSeconds must be >= 3600");
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.luketn.mongodb.iceberg.sync.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = false)
+public record DeleteConfig(String mode, String indexDirectory) {
+
+    public static final String MODE_EQUALITY = "equality";
+    public static final String MODE_POSITION = "position";
+    public static final String DEFAULT_INDEX_DIRECTORY = "./data/id-index";
+
+    public DeleteConfig withDefaults() {
+        return new DeleteConfig(
+                mode == null ? MODE_EQUALITY : mode.trim().toLowerCase(),
+                indexDirectory == null ? DEFAULT_INDEX_DIRECTORY : indexDirectory
+        );
+    }
+
+    public void validate(String path) {
+        ConfigValidators.requireOneOf(mode, path + ".mode", MODE_EQUALITY, MODE_POSITION);
+        if (MODE_POSITION.equals(mode)) {
+            ConfigValidators.requireNonBlank(indexDirectory, path + ".indexDirectory");
+        }
+    }
+}
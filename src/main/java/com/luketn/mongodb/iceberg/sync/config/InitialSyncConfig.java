@@ -0,0 +1,94 @@
+package com.luketn.mongodb.iceberg.sync.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.bson.BsonTimestamp;
+
+import java.util.Locale;
+
+@JsonIgnoreProperties(ignoreUnknown = false)
+public record InitialSyncConfig(Integer scanParallelism, String source, DumpConfig dump) {
+
+    public static final int DEFAULT_SCAN_PARALLELISM = 1;
+    public static final String SOURCE_CURSOR = "cursor";
+    public static final String SOURCE_DUMP = "dump";
+
+    public InitialSyncConfig withDefaults() {
+        return new InitialSyncConfig(
+                scanParallelism == null ? DEFAULT_SCAN_PARALLELISM : scanParallelism,
+                source == null ? SOURCE_CURSOR : source.trim().toLowerCase(Locale.ROOT),
+                dump == null ? null : dump.withDefaults()
+        );
+    }
+
+    public void validate(String path) {
+        if (scanParallelism == null || scanParallelism <= 0) {
+            throw new SyncConfigException(path + ".scanParallelism must be > 0");
+        }
+        ConfigValidators.requireOneOf(source, path + ".source", SOURCE_CURSOR, SOURCE_DUMP);
+        if (SOURCE_DUMP.equals(source)) {
+            if (dump == null) {
+                throw new SyncConfigException(path + ".dump is required when source is dump");
+            }
+            dump.validate(path + ".dump");
+        }
+    }
+
+    /**
+     * A {@code mongodump} to load the collection from instead of scanning it.
+     *
+     * @param path       output directory of {@code mongodump --out}, file of
+     *                   {@code mongodump --archive}, or one collection's {@code .bson} file,
+     *                   optionally gzipped
+     * @param splitBytes size of the pieces a {@code .bson} file is parsed in, in parallel
+     * @param oplogStart {@code seconds:increment} cluster time to start the change stream at, for
+     *                   dumps taken without {@code --oplog}; overrides the dump's oplog otherwise
+     */
+    @JsonIgnoreProperties(ignoreUnknown = false)
+    public record DumpConfig(String path, Long splitBytes, String oplogStart) {
+
+        public static final long DEFAULT_SPLIT_BYTES = 67_108_864L;
+        public static final long MAX_SPLIT_BYTES = 1_073_741_824L;
+
+        public DumpConfig withDefaults() {
+            return new DumpConfig(
+                    path,
+                    splitBytes == null ? DEFAULT_SPLIT_BYTES : splitBytes,
+                    oplogStart == null ? null : oplogStart.trim()
+            );
+        }
+
+        public void validate(String path) {
+            ConfigValidators.requireNonBlank(this.path, path + ".path");
+            if (splitBytes == null || splitBytes <= 0 || splitBytes > MAX_SPLIT_BYTES) {
+                throw new SyncConfigException(path + ".splitBytes must be > 0 and <= " + MAX_SPLIT_BYTES);
+            }
+            if (oplogStart != null) {
+                try {
+                    oplogStartTimestamp();
+                } catch (IllegalArgumentException e) {
+                    throw new SyncConfigException(path + ".oplogStart " + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * The configured {@code oplogStart}, or {@code null} if unset.
+         */
+        public BsonTimestamp oplogStartTimestamp() {
+            if (oplogStart == null) {
+                return null;
+            }
+            String[] parts = oplogStart.split(":");
+            try {
+                if (parts.length > 2) {
+                    throw new NumberFormatException();
+                }
+                int seconds = Integer.parseUnsignedInt(parts[0].trim());
+                int increment = parts.length == 2 ? Integer.parseUnsignedInt(parts[1].trim()) : 0;
+                return new BsonTimestamp(seconds, increment);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("must be <seconds>[:<increment>], was: " + oplogStart);
+            }
+        }
+    }
+}
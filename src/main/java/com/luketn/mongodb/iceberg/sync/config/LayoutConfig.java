@@ -0,0 +1,62 @@
+package com.luketn.mongodb.iceberg.sync.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parquet layout of a collection's data files. Settings left unset keep the table's own (or
+ * Iceberg's default) value, or in {@code auto} mode the value chosen from a sample of the data.
+ */
+@JsonIgnoreProperties(ignoreUnknown = false)
+public record LayoutConfig(
+        String mode,
+        String compression,
+        Integer compressionLevel,
+        Long rowGroupBytes,
+        Long pageBytes,
+        Long dictionaryBytes,
+        Boolean idBloomFilter,
+        List<String> bloomFilterColumns
+) {
+
+    public static final String MODE_FIXED = "fixed";
+    public static final String MODE_AUTO = "auto";
+
+    public LayoutConfig withDefaults() {
+        return new LayoutConfig(
+                mode == null ? MODE_FIXED : mode.trim().toLowerCase(Locale.ROOT),
+                compression == null ? null : compression.trim().toLowerCase(Locale.ROOT),
+                compressionLevel,
+                rowGroupBytes,
+                pageBytes,
+                dictionaryBytes,
+                idBloomFilter == null ? Boolean.TRUE : idBloomFilter,
+                ConfigValidators.nullToEmpty(bloomFilterColumns)
+        );
+    }
+
+    public void validate(String path) {
+        ConfigValidators.requireOneOf(mode, path + ".mode", MODE_FIXED, MODE_AUTO);
+        if (compression != null) {
+            ConfigValidators.requireOneOf(compression, path + ".compression",
+                    "zstd", "snappy", "gzip", "lz4", "uncompressed");
+        }
+        if (compressionLevel != null && compression != null && !"zstd".equals(compression)) {
+            throw new SyncConfigException(path + ".compressionLevel requires compression zstd");
+        }
+        requirePositive(rowGroupBytes, path + ".rowGroupBytes");
+        requirePositive(pageBytes, path + ".pageBytes");
+        requirePositive(dictionaryBytes, path + ".dictionaryBytes");
+        for (int i = 0; i < bloomFilterColumns.size(); i++) {
+            ConfigValidators.requireNonBlank(bloomFilterColumns.get(i), path + ".bloomFilterColumns[" + i + "]");
+        }
+    }
+
+    private static void requirePositive(Long value, String path) {
+        if (value != null && value <= 0) {
+            throw new SyncConfigException(path + " must be > 0");
+        }
+    }
+}
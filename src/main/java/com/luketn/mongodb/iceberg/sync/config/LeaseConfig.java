@@ -0,0 +1,35 @@
+package com.luketn.mongodb.iceberg.sync.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = false)
+public record LeaseConfig(Boolean enabled, String instanceId, Integer ttlSeconds, Integer renewSeconds) {
+
+    public static final int DEFAULT_TTL_SECONDS = 30;
+    public static final int DEFAULT_RENEW_SECONDS = 10;
+
+    /**
+     * An absent instance id is generated at startup; see {@code LeaseManager}.
+     */
+    public LeaseConfig withDefaults() {
+        return new LeaseConfig(
+                enabled != null && enabled,
+                instanceId == null || instanceId.isBlank() ? null : instanceId.trim(),
+                ttlSeconds == null ? DEFAULT_TTL_SECONDS : ttlSeconds,
+                renewSeconds == null ? DEFAULT_RENEW_SECONDS : renewSeconds
+        );
+    }
+
+    public void validate(String path) {
+        if (instanceId != null && !instanceId.matches("[A-Za-z0-9_.:-]+")) {
+            throw new SyncConfigException(path + ".instanceId may only contain letters, digits and _ . : -");
+        }
+        if (ttlSeconds == null || ttlSeconds <= 0) {
+            throw new SyncConfigException(path + ".ttlSeconds must be > 0");
+        }
+        // At least two renewals fit in a lease, so one slow catalog round trip does not lose it.
+        if (renewSeconds == null || renewSeconds <= 0 || renewSeconds * 2 > ttlSeconds) {
+            throw new SyncConfigException(path + ".renewSeconds must be > 0 and at most half of ttlSeconds");
+        }
+    }
+}
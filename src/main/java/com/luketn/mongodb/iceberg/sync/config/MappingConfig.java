@@ -15,6 +15,22 @@ public record MappingConfig(String mode, List<FieldMapping> fields) {
         return new MappingConfig(normalizedMode, ConfigValidators.nullToEmpty(fields));
     }
 
+    /**
+     * The column the {@code _id} field is written to, or {@code null} if an explicit mapping does
+     * not map it.
+     */
+    public String idColumn() {
+        if (MODE_AUTO.equals(mode)) {
+            return "_id";
+        }
+        for (FieldMapping field : fields) {
+            if ("_id".equals(field.source())) {
+                return field.target();
+            }
+        }
+        return null;
+    }
+
     public void validate(String path) {
         ConfigValidators.requireOneOf(mode, path + ".mode", MODE_AUTO, MODE_EXPLICIT);
         if (MODE_EXPLICIT.equals(mode) && fields.isEmpty()) {
@@ -0,0 +1,40 @@
+package com.luketn.mongodb.iceberg.sync.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = false)
+public record MemoryConfig(Boolean enabled, Long maxBytes, Integer maxHeapPercent, Integer flushAtPercent) {
+
+    public static final int DEFAULT_MAX_HEAP_PERCENT = 50;
+    public static final int DEFAULT_FLUSH_AT_PERCENT = 80;
+    public static final int MAX_HEAP_PERCENT = 90;
+
+    public MemoryConfig withDefaults() {
+        return new MemoryConfig(
+                enabled != null && enabled,
+                maxBytes,
+                maxHeapPercent == null ? DEFAULT_MAX_HEAP_PERCENT : maxHeapPercent,
+                flushAtPercent == null ? DEFAULT_FLUSH_AT_PERCENT : flushAtPercent
+        );
+    }
+
+    public void validate(String path) {
+        if (maxBytes != null && maxBytes <= 0) {
+            throw new SyncConfigException(path + ".maxBytes must be > 0");
+        }
+        if (maxHeapPercent == null || maxHeapPercent <= 0 || maxHeapPercent > MAX_HEAP_PERCENT) {
+            throw new SyncConfigException(path + ".maxHeapPercent must be > 0 and <= " + MAX_HEAP_PERCENT);
+        }
+        if (flushAtPercent == null || flushAtPercent <= 0 || flushAtPercent > 100) {
+            throw new SyncConfigException(path + ".flushAtPercent must be > 0 and <= 100");
+        }
+    }
+
+    /**
+     * The budget of all write buffers together: {@code maxBytes}, or {@code maxHeapPercent} of
+     * the maximum heap size.
+     */
+    public long budgetBytes() {
+        return maxBytes != null ? maxBytes : Runtime.getRuntime().maxMemory() / 100 * maxHeapPercent;
+    }
+}
@@ -0,0 +1,33 @@
+package com.luketn.mongodb.iceberg.sync.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.Locale;
+
+@JsonIgnoreProperties(ignoreUnknown = false)
+public record SortFieldConfig(String field, String direction, String nullOrder) {
+
+    public static final String DIRECTION_ASC = "asc";
+    public static final String DIRECTION_DESC = "desc";
+    public static final String NULLS_FIRST = "first";
+    public static final String NULLS_LAST = "last";
+
+    /**
+     * Ascending by default, with nulls first when ascending and last when descending.
+     */
+    public SortFieldConfig withDefaults() {
+        String normalizedDirection = direction == null ? DIRECTION_ASC : direction.trim().toLowerCase(Locale.ROOT);
+        String defaultNullOrder = DIRECTION_DESC.equals(normalizedDirection) ? NULLS_LAST : NULLS_FIRST;
+        return new SortFieldConfig(
+                field,
+                normalizedDirection,
+                nullOrder == null ? defaultNullOrder : nullOrder.trim().toLowerCase(Locale.ROOT)
+        );
+    }
+
+    public void validate(String path) {
+        ConfigValidators.requireNonBlank(field, path + ".field");
+        ConfigValidators.requireOneOf(direction, path + ".direction", DIRECTION_ASC, DIRECTION_DESC);
+        ConfigValidators.requireOneOf(nullOrder, path + ".nullOrder", NULLS_FIRST, NULLS_LAST);
+    }
+}
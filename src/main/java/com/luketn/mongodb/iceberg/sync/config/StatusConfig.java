@@ -0,0 +1,26 @@
+package com.luketn.mongodb.iceberg.sync.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = false)
+public record StatusConfig(Boolean enabled, String host, Integer port) {
+
+    public static final String DEFAULT_HOST = "0.0.0.0";
+    public static final int DEFAULT_PORT = 9464;
+
+    public StatusConfig withDefaults() {
+        return new StatusConfig(
+                enabled != null && enabled,
+                host == null ? DEFAULT_HOST : host.trim(),
+                port == null ? DEFAULT_PORT : port
+        );
+    }
+
+    public void validate(String path) {
+        ConfigValidators.requireNonBlank(host, path + ".host");
+        // 0 binds an ephemeral port.
+        if (port == null || port < 0 || port > 65_535) {
+            throw new SyncConfigException(path + ".port must be between 0 and 65535");
+        }
+    }
+}
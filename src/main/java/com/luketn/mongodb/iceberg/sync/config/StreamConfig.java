@@ -0,0 +1,18 @@
+package com.luketn.mongodb.iceberg.sync.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = false)
+public record StreamConfig(String scope) {
+
+    public static final String SCOPE_COLLECTION = "collection";
+    public static final String SCOPE_DATABASE = "database";
+
+    public StreamConfig withDefaults() {
+        return new StreamConfig(scope == null ? SCOPE_COLLECTION : scope.trim().toLowerCase());
+    }
+
+    public void validate(String path) {
+        ConfigValidators.requireOneOf(scope, path + ".scope", SCOPE_COLLECTION, SCOPE_DATABASE);
+    }
+}
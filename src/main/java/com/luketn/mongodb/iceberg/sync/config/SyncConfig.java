@@ -32,14 +32,35 @@ public record SyncConfig(MongoConfig mongodb, IcebergConfig iceberg, SyncSection
     }
 
     @JsonIgnoreProperties(ignoreUnknown = false)
-    public record SyncSection(List<CollectionSyncConfig> collections) {
+    public record SyncSection(
+            List<CollectionSyncConfig> collections,
+            CheckpointConfig checkpoint,
+            StreamConfig stream,
+            CompactionConfig compaction,
+            StatusConfig status,
+            LeaseConfig leases,
+            WalConfig wal,
+            MemoryConfig memory
+    ) {
 
         public SyncSection withDefaults() {
             List<CollectionSyncConfig> normalizedCollections = ConfigValidators.nullToEmpty(collections)
                     .stream()
                     .map(CollectionSyncConfig::withDefaults)
                     .toList();
-            return new SyncSection(normalizedCollections);
+            CheckpointConfig normalizedCheckpoint = (checkpoint == null ? new CheckpointConfig(null, null) : checkpoint)
+                    .withDefaults();
+            StreamConfig normalizedStream = (stream == null ? new StreamConfig(null) : stream).withDefaults();
+            CompactionConfig normalizedCompaction = (compaction == null
+                    ? new CompactionConfig(null, null, null, null, null, null, null, null, null)
+                    : compaction).withDefaults();
+            StatusConfig normalizedStatus = (status == null ? new StatusConfig(null, null, null) : status).withDefaults();
+            LeaseConfig normalizedLeases = (leases == null ? new LeaseConfig(null, null, null, null) : leases).withDefaults();
+            WalConfig normalizedWal = (wal == null ? new WalConfig(null, null, null, null) : wal).withDefaults();
+            MemoryConfig normalizedMemory = (memory == null ? new MemoryConfig(null, null, null, null) : memory)
+                    .withDefaults();
+            return new SyncSection(normalizedCollections, normalizedCheckpoint, normalizedStream, normalizedCompaction,
+                    normalizedStatus, normalizedLeases, normalizedWal, normalizedMemory);
         }
 
         public void validate(String path) {
@@ -49,6 +70,18 @@ public record SyncConfig(MongoConfig mongodb, IcebergConfig iceberg, SyncSection
             for (int i = 0; i < collections.size(); i++) {
                 collections.get(i).validate(path + ".collections[" + i + "]");
             }
+            checkpoint.validate(path + ".checkpoint");
+            stream.validate(path + ".stream");
+            compaction.validate(path + ".compaction");
+            status.validate(path + ".status");
+            leases.validate(path + ".leases");
+            // Leases fence the target tables; checkpoints in the shared table would not be fenced.
+            if (leases.enabled() && CheckpointConfig.MODE_TABLE.equals(checkpoint.mode())) {
+                throw new SyncConfigException(path + ".leases.enabled requires " + path
+                        + ".checkpoint.mode to be " + CheckpointConfig.MODE_SNAPSHOT);
+            }
+            wal.validate(path + ".wal");
+            memory.validate(path + ".memory");
         }
     }
 }
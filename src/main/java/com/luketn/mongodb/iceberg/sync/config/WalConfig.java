@@ -0,0 +1,31 @@
+package com.luketn.mongodb.iceberg.sync.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = false)
+public record WalConfig(Boolean enabled, String directory, Long maxBytes, Long segmentBytes) {
+
+    public static final String DEFAULT_DIRECTORY = "./data/wal";
+    public static final long DEFAULT_MAX_BYTES = 10_737_418_240L;
+    public static final long DEFAULT_SEGMENT_BYTES = 67_108_864L;
+
+    public WalConfig withDefaults() {
+        return new WalConfig(
+                enabled != null && enabled,
+                directory == null ? DEFAULT_DIRECTORY : directory,
+                maxBytes == null ? DEFAULT_MAX_BYTES : maxBytes,
+                segmentBytes == null ? DEFAULT_SEGMENT_BYTES : segmentBytes
+        );
+    }
+
+    public void validate(String path) {
+        ConfigValidators.requireNonBlank(directory, path + ".directory");
+        if (maxBytes == null || maxBytes <= 0) {
+            throw new SyncConfigException(path + ".maxBytes must be > 0");
+        }
+        // Segments are mapped whole; a mapping is limited to 2 GB.
+        if (segmentBytes == null || segmentBytes <= 0 || segmentBytes > Integer.MAX_VALUE) {
+            throw new SyncConfigException(path + ".segmentBytes must be > 0 and below 2 GB");
+        }
+    }
+}
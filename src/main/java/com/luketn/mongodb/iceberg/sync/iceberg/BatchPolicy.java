@@ -0,0 +1,126 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import org.apache.iceberg.DataFile;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a table's batch is flushed.
+ * <p>
+ * In {@code fixed} mode this is the first of the {@link BatchConfig} thresholds to be reached.
+ * In {@code adaptive} mode the policy learns from the batches it sees:
+ * <ul>
+ *   <li>on-disk bytes per row and data files per batch, from the data files actually written,
+ *       to project the size of the files the pending rows would make. The batch is flushed once
+ *       that reaches {@code targetFileBytes}. Before the first file, in-memory bytes are assumed
+ *       to compress {@value #ASSUMED_COMPRESSION_RATIO}:1;</li>
+ *   <li>the row rate, to stretch the flush interval to the time a target file takes to fill,
+ *       between {@code flushIntervalSeconds} and {@code maxStalenessSeconds}. A quiet table
+ *       then flushes rarely instead of writing a tiny file every interval.</li>
+ * </ul>
+ * {@code maxRecords} is not used in adaptive mode. {@code maxBytes} still bounds the memory a
+ * batch holds, and so caps the file size that can be reached.
+ * <p>
+ * Estimates are exponentially weighted moving averages, so they follow drifting document sizes
+ * and traffic. Thread-safe.
+ */
+public final class BatchPolicy {
+
+    static final double ASSUMED_COMPRESSION_RATIO = 4;
+    private static final double WEIGHT = 0.3;
+
+    private final BatchConfig config;
+
+    // Guarded by this. NaN until the first observation.
+    private double bytesPerRow = Double.NaN;
+    private double filesPerBatch = Double.NaN;
+    private double rowsPerSecond = Double.NaN;
+
+    public BatchPolicy(BatchConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * @param rows         buffered rows
+     * @param deletes      buffered deletes
+     * @param bytes        bytes the buffered rows and deletes hold in memory
+     * @param elapsedNanos time since the last flush
+     */
+    public synchronized boolean isFlushDue(long rows, long deletes, long bytes, long elapsedNanos) {
+        if (rows + deletes == 0) {
+            return false;
+        }
+        if (bytes >= config.maxBytes()) {
+            return true;
+        }
+        if (!BatchConfig.MODE_ADAPTIVE.equals(config.mode())) {
+            return rows + deletes >= config.maxRecords()
+                    || elapsedNanos >= TimeUnit.SECONDS.toNanos(config.flushIntervalSeconds());
+        }
+        return projectedFileBytes(rows, bytes) >= config.targetFileBytes()
+                || elapsedNanos >= TimeUnit.SECONDS.toNanos(intervalSeconds());
+    }
+
+    /**
+     * Size of the data files the given rows are expected to be written as.
+     */
+    public synchronized long projectedFileBytes(long rows, long bytes) {
+        double batchBytes = Double.isNaN(bytesPerRow) ? bytes / ASSUMED_COMPRESSION_RATIO : rows * bytesPerRow;
+        return (long) (batchBytes / (Double.isNaN(filesPerBatch) ? 1 : Math.max(1, filesPerBatch)));
+    }
+
+    /**
+     * Current flush interval: in fixed mode {@code flushIntervalSeconds}. In adaptive mode, the
+     * time a target file takes to fill at the observed rate, within {@code flushIntervalSeconds}
+     * and {@code maxStalenessSeconds}.
+     */
+    public synchronized long intervalSeconds() {
+        if (!BatchConfig.MODE_ADAPTIVE.equals(config.mode()) || Double.isNaN(bytesPerRow) || Double.isNaN(rowsPerSecond)) {
+            return config.flushIntervalSeconds();
+        }
+        double fillSeconds = rowsPerSecond <= 0
+                ? Double.MAX_VALUE
+                : config.targetFileBytes() * Math.max(1, filesPerBatch) / (bytesPerRow * rowsPerSecond);
+        return (long) Math.clamp(fillSeconds, config.flushIntervalSeconds(), config.maxStalenessSeconds());
+    }
+
+    /**
+     * Learned on-disk bytes per row, or {@code NaN} before the first data file.
+     */
+    public synchronized double bytesPerRow() {
+        return bytesPerRow;
+    }
+
+    /**
+     * Records a flush of {@code rows} rows gathered over {@code elapsedNanos}.
+     */
+    public synchronized void flushed(long rows, long elapsedNanos) {
+        if (elapsedNanos <= 0) {
+            return;
+        }
+        rowsPerSecond = average(rowsPerSecond, rows / (elapsedNanos / 1e9));
+    }
+
+    /**
+     * Records the data files a batch was written as.
+     */
+    public synchronized void written(List<DataFile> dataFiles) {
+        long rows = 0;
+        long bytes = 0;
+        for (DataFile file : dataFiles) {
+            rows += file.recordCount();
+            bytes += file.fileSizeInBytes();
+        }
+        if (rows == 0) {
+            return;
+        }
+        bytesPerRow = average(bytesPerRow, (double) bytes / rows);
+        filesPerBatch = average(filesPerBatch, dataFiles.size());
+    }
+
+    private static double average(double current, double sample) {
+        return Double.isNaN(current) ? sample : current + WEIGHT * (sample - current);
+    }
+}
@@ -0,0 +1,503 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.types.Type;
+import org.apache.iceberg.types.Types;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Append-only storage for the values of one column of a {@link RecordBuffer}.
+ * <p>
+ * Flat types are stored in primitive arrays (strings dictionary-encoded into a UTF-8 slab), so
+ * {@link #allocatedBytes()} is the exact size of the arrays backing the column. Nested types
+ * (struct, list, map) keep their generic objects and report a structural estimate instead.
+ */
+abstract class ColumnVector {
+
+    static final int INITIAL_CAPACITY = 1024;
+
+    private long[] nulls = new long[INITIAL_CAPACITY / Long.SIZE];
+    private int size;
+
+    static ColumnVector forType(Type type) {
+        return switch (type.typeId()) {
+            case BOOLEAN -> new BooleanVector();
+            case INTEGER, DATE -> new IntVector(type);
+            case LONG, TIME, TIMESTAMP -> new LongVector(type);
+            case FLOAT, DOUBLE -> new DoubleVector(type);
+            case STRING -> new DictionaryStringVector();
+            case BINARY, FIXED, UUID, DECIMAL -> new BytesVector(type);
+            default -> new ObjectVector();
+        };
+    }
+
+    final void append(Object value) {
+        if (size == nulls.length * Long.SIZE) {
+            nulls = Arrays.copyOf(nulls, grow(nulls.length));
+        }
+        if (value == null) {
+            nulls[size >>> 6] |= 1L << size;
+            appendNull(size);
+        } else {
+            appendValue(size, value);
+        }
+        size++;
+    }
+
+    final Object get(int row) {
+        return (nulls[row >>> 6] & (1L << row)) != 0 ? null : getValue(row);
+    }
+
+    final int size() {
+        return size;
+    }
+
+    final long allocatedBytes() {
+        return (long) nulls.length * Long.BYTES + valueBytes();
+    }
+
+    abstract void appendNull(int row);
+
+    abstract void appendValue(int row, Object value);
+
+    abstract Object getValue(int row);
+
+    abstract long valueBytes();
+
+    static int grow(int length) {
+        return Math.max(length + 1, length + (length >> 1));
+    }
+
+    private static final class BooleanVector extends ColumnVector {
+
+        private long[] bits = new long[INITIAL_CAPACITY / Long.SIZE];
+
+        @Override
+        void appendNull(int row) {
+            ensure(row);
+        }
+
+        @Override
+        void appendValue(int row, Object value) {
+            ensure(row);
+            if ((Boolean) value) {
+                bits[row >>> 6] |= 1L << row;
+            }
+        }
+
+        private void ensure(int row) {
+            if (row == bits.length * Long.SIZE) {
+                bits = Arrays.copyOf(bits, grow(bits.length));
+            }
+        }
+
+        @Override
+        Object getValue(int row) {
+            return (bits[row >>> 6] & (1L << row)) != 0;
+        }
+
+        @Override
+        long valueBytes() {
+            return (long) bits.length * Long.BYTES;
+        }
+    }
+
+    private static final class IntVector extends ColumnVector {
+
+        private final boolean date;
+        private int[] values = new int[INITIAL_CAPACITY];
+
+        private IntVector(Type type) {
+            this.date = type.typeId() == Type.TypeID.DATE;
+        }
+
+        @Override
+        void appendNull(int row) {
+            ensure(row);
+        }
+
+        @Override
+        void appendValue(int row, Object value) {
+            ensure(row);
+            values[row] = date ? (int) ((LocalDate) value).toEpochDay() : (Integer) value;
+        }
+
+        private void ensure(int row) {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+        }
+
+        @Override
+        Object getValue(int row) {
+            return date ? LocalDate.ofEpochDay(values[row]) : values[row];
+        }
+
+        @Override
+        long valueBytes() {
+            return (long) values.length * Integer.BYTES;
+        }
+    }
+
+    private static final class LongVector extends ColumnVector {
+
+        private final Type.TypeID typeId;
+        private final boolean withZone;
+        private long[] values = new long[INITIAL_CAPACITY];
+
+        private LongVector(Type type) {
+            this.typeId = type.typeId();
+            this.withZone = type instanceof Types.TimestampType timestamp && timestamp.shouldAdjustToUTC();
+        }
+
+        @Override
+        void appendNull(int row) {
+            ensure(row);
+        }
+
+        @Override
+        void appendValue(int row, Object value) {
+            ensure(row);
+            values[row] = switch (typeId) {
+                case LONG -> (Long) value;
+                case TIME -> ((LocalTime) value).toNanoOfDay() / 1_000L;
+                default -> withZone
+                        ? ChronoUnit.MICROS.between(Instant.EPOCH, ((OffsetDateTime) value).toInstant())
+                        : ChronoUnit.MICROS.between(Instant.EPOCH, ((LocalDateTime) value).toInstant(ZoneOffset.UTC));
+            };
+        }
+
+        private void ensure(int row) {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+        }
+
+        @Override
+        Object getValue(int row) {
+            long value = values[row];
+            return switch (typeId) {
+                case LONG -> value;
+                case TIME -> LocalTime.ofNanoOfDay(value * 1_000L);
+                default -> {
+                    Instant instant = Instant.EPOCH.plus(value, ChronoUnit.MICROS);
+                    yield withZone
+                            ? OffsetDateTime.ofInstant(instant, ZoneOffset.UTC)
+                            : LocalDateTime.ofInstant(instant, ZoneOffset.UTC);
+                }
+            };
+        }
+
+        @Override
+        long valueBytes() {
+            return (long) values.length * Long.BYTES;
+        }
+    }
+
+    private static final class DoubleVector extends ColumnVector {
+
+        private final boolean isFloat;
+        private double[] values = new double[INITIAL_CAPACITY];
+
+        private DoubleVector(Type type) {
+            this.isFloat = type.typeId() == Type.TypeID.FLOAT;
+        }
+
+        @Override
+        void appendNull(int row) {
+            ensure(row);
+        }
+
+        @Override
+        void appendValue(int row, Object value) {
+            ensure(row);
+            values[row] = ((Number) value).doubleValue();
+        }
+
+        private void ensure(int row) {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+        }
+
+        @Override
+        Object getValue(int row) {
+            return isFloat ? (Object) (float) values[row] : (Object) values[row];
+        }
+
+        @Override
+        long valueBytes() {
+            return (long) values.length * Double.BYTES;
+        }
+    }
+
+    /**
+     * Strings are stored as a code per row into a dictionary of distinct UTF-8 values kept in a
+     * single byte slab. Low-cardinality columns therefore cost four bytes per row.
+     */
+    static final class DictionaryStringVector extends ColumnVector {
+
+        private int[] codes = new int[INITIAL_CAPACITY];
+        private byte[] slab = new byte[INITIAL_CAPACITY * 8];
+        private int slabSize;
+        private int[] offsets = new int[INITIAL_CAPACITY + 1];
+        private int entries;
+        private int[] hashTable = new int[INITIAL_CAPACITY * 2];
+        private String[] decoded;
+
+        @Override
+        void appendNull(int row) {
+            ensure(row);
+        }
+
+        @Override
+        void appendValue(int row, Object value) {
+            ensure(row);
+            codes[row] = lookupOrAdd(value.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void ensure(int row) {
+            if (row == codes.length) {
+                codes = Arrays.copyOf(codes, grow(codes.length));
+            }
+        }
+
+        private int lookupOrAdd(byte[] bytes) {
+            int hash = hash(bytes, 0, bytes.length);
+            int mask = hashTable.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int entry = hashTable[slot] - 1;
+                if (entry < 0) {
+                    int code = addEntry(bytes);
+                    hashTable[slot] = code + 1;
+                    if (entries * 2 > hashTable.length) {
+                        rehash();
+                    }
+                    return code;
+                }
+                if (Arrays.equals(slab, offsets[entry], offsets[entry + 1], bytes, 0, bytes.length)) {
+                    return entry;
+                }
+            }
+        }
+
+        private int addEntry(byte[] bytes) {
+            if (slabSize + bytes.length > slab.length) {
+                slab = Arrays.copyOf(slab, Math.max(slabSize + bytes.length, grow(slab.length)));
+            }
+            if (entries + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, grow(offsets.length));
+            }
+            System.arraycopy(bytes, 0, slab, slabSize, bytes.length);
+            slabSize += bytes.length;
+            offsets[entries + 1] = slabSize;
+            return entries++;
+        }
+
+        private void rehash() {
+            int[] table = new int[hashTable.length * 2];
+            int mask = table.length - 1;
+            for (int entry = 0; entry < entries; entry++) {
+                int slot = hash(slab, offsets[entry], offsets[entry + 1]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = entry + 1;
+            }
+            hashTable = table;
+        }
+
+        private static int hash(byte[] bytes, int from, int to) {
+            int hash = 1;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            return hash ^ (hash >>> 16);
+        }
+
+        int dictionarySize() {
+            return entries;
+        }
+
+        @Override
+        Object getValue(int row) {
+            // Decoded lazily, once per distinct value, when the batch is read back at flush time.
+            if (decoded == null || decoded.length < entries) {
+                decoded = decoded == null ? new String[entries] : Arrays.copyOf(decoded, entries);
+            }
+            int code = codes[row];
+            String value = decoded[code];
+            if (value == null) {
+                value = new String(slab, offsets[code], offsets[code + 1] - offsets[code], StandardCharsets.UTF_8);
+                decoded[code] = value;
+            }
+            return value;
+        }
+
+        @Override
+        long valueBytes() {
+            return (long) codes.length * Integer.BYTES
+                    + slab.length
+                    + (long) offsets.length * Integer.BYTES
+                    + (long) hashTable.length * Integer.BYTES;
+        }
+    }
+
+    /**
+     * Variable-length values (binary, fixed, UUID and decimal unscaled values) in a byte slab.
+     */
+    private static final class BytesVector extends ColumnVector {
+
+        private final Type type;
+        private byte[] slab = new byte[INITIAL_CAPACITY * 16];
+        private int[] offsets = new int[INITIAL_CAPACITY + 1];
+
+        private BytesVector(Type type) {
+            this.type = type;
+        }
+
+        @Override
+        void appendNull(int row) {
+            append(row, new byte[0]);
+        }
+
+        @Override
+        void appendValue(int row, Object value) {
+            append(row, switch (type.typeId()) {
+                case BINARY -> toArray((ByteBuffer) value);
+                case FIXED -> (byte[]) value;
+                case UUID -> {
+                    UUID uuid = (UUID) value;
+                    yield ByteBuffer.allocate(16)
+                            .putLong(uuid.getMostSignificantBits())
+                            .putLong(uuid.getLeastSignificantBits())
+                            .array();
+                }
+                default -> ((BigDecimal) value).unscaledValue().toByteArray();
+            });
+        }
+
+        private void append(int row, byte[] bytes) {
+            if (row + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, grow(offsets.length));
+            }
+            int start = offsets[row];
+            if (start + bytes.length > slab.length) {
+                slab = Arrays.copyOf(slab, Math.max(start + bytes.length, grow(slab.length)));
+            }
+            System.arraycopy(bytes, 0, slab, start, bytes.length);
+            offsets[row + 1] = start + bytes.length;
+        }
+
+        private static byte[] toArray(ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            return bytes;
+        }
+
+        @Override
+        Object getValue(int row) {
+            byte[] bytes = Arrays.copyOfRange(slab, offsets[row], offsets[row + 1]);
+            return switch (type.typeId()) {
+                case BINARY -> ByteBuffer.wrap(bytes);
+                case FIXED -> bytes;
+                case UUID -> {
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    yield new UUID(buffer.getLong(), buffer.getLong());
+                }
+                default -> new BigDecimal(new BigInteger(bytes), ((Types.DecimalType) type).scale());
+            };
+        }
+
+        @Override
+        long valueBytes() {
+            return slab.length + (long) offsets.length * Integer.BYTES;
+        }
+    }
+
+    /**
+     * Struct, list and map values are kept as generic objects; their size is estimated.
+     */
+    private static final class ObjectVector extends ColumnVector {
+
+        private static final int REFERENCE_BYTES = 8;
+        private static final int OBJECT_HEADER_BYTES = 16;
+
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private long estimatedPayloadBytes;
+
+        @Override
+        void appendNull(int row) {
+            ensure(row);
+        }
+
+        @Override
+        void appendValue(int row, Object value) {
+            ensure(row);
+            values[row] = value;
+            estimatedPayloadBytes += estimate(value);
+        }
+
+        private void ensure(int row) {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+        }
+
+        @Override
+        Object getValue(int row) {
+            return values[row];
+        }
+
+        @Override
+        long valueBytes() {
+            return (long) values.length * REFERENCE_BYTES + estimatedPayloadBytes;
+        }
+
+        private static long estimate(Object value) {
+            return switch (value) {
+                case null -> 0;
+                case CharSequence chars -> OBJECT_HEADER_BYTES + chars.length();
+                case ByteBuffer buffer -> OBJECT_HEADER_BYTES + buffer.remaining();
+                case byte[] bytes -> OBJECT_HEADER_BYTES + bytes.length;
+                case Record record -> {
+                    long size = OBJECT_HEADER_BYTES + (long) record.size() * REFERENCE_BYTES;
+                    for (int i = 0; i < record.size(); i++) {
+                        size += estimate(record.get(i));
+                    }
+                    yield size;
+                }
+                case List<?> list -> {
+                    long size = OBJECT_HEADER_BYTES + (long) list.size() * REFERENCE_BYTES;
+                    for (Object element : list) {
+                        size += estimate(element);
+                    }
+                    yield size;
+                }
+                case Map<?, ?> map -> {
+                    long size = OBJECT_HEADER_BYTES + (long) map.size() * 4 * REFERENCE_BYTES;
+                    for (Map.Entry<?, ?> entry : map.entrySet()) {
+                        size += estimate(entry.getKey()) + estimate(entry.getValue());
+                    }
+                    yield size;
+                }
+                default -> OBJECT_HEADER_BYTES + 8;
+            };
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Paces background maintenance so it stays within an I/O rate and a share of one core, and
+ * yields entirely while the live sync has CPU work waiting.
+ * <p>
+ * Work reports itself in chunks through {@link #charge}. Each chunk is stretched to the longer
+ * of the time its bytes take at {@code maxBytesPerSecond} and the time its work takes at
+ * {@code maxCpuPercent}, by sleeping for the difference.
+ */
+final class CompactionBudget {
+
+    private static final long BACKLOG_POLL_MILLIS = 100;
+
+    private final long maxBytesPerSecond;
+    private final double cpuShare;
+    private final IntSupplier liveBacklog;
+
+    private long throttledNanos;
+
+    /**
+     * @param liveBacklog number of live sync tasks waiting for a CPU; maintenance pauses while
+     *                    it is above zero
+     */
+    CompactionBudget(long maxBytesPerSecond, int maxCpuPercent, IntSupplier liveBacklog) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.cpuShare = maxCpuPercent / 100.0;
+        this.liveBacklog = liveBacklog;
+    }
+
+    /**
+     * Accounts for a chunk that moved {@code bytes} in {@code workNanos}, sleeping as long as the
+     * budget requires before the next chunk may start.
+     */
+    void charge(long bytes, long workNanos) throws InterruptedException {
+        long ioNanos = (long) (bytes * 1e9 / maxBytesPerSecond);
+        long cpuNanos = (long) (workNanos / cpuShare);
+        long sleepNanos = Math.max(ioNanos, cpuNanos) - workNanos;
+        if (sleepNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            throttledNanos += sleepNanos;
+        }
+        while (liveBacklog.getAsInt() > 0) {
+            TimeUnit.MILLISECONDS.sleep(BACKLOG_POLL_MILLIS);
+            throttledNanos += TimeUnit.MILLISECONDS.toNanos(BACKLOG_POLL_MILLIS);
+        }
+    }
+
+    /**
+     * Total time spent waiting on the budget, reset by each call.
+     */
+    long takeThrottledNanos() {
+        long nanos = throttledNanos;
+        throttledNanos = 0;
+        return nanos;
+    }
+}
@@ -0,0 +1,612 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import com.luketn.mongodb.iceberg.sync.config.CompactionConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.iceberg.ContentFile;
+import org.apache.iceberg.DataFile;
+import org.apache.iceberg.DataOperations;
+import org.apache.iceberg.DeleteFile;
+import org.apache.iceberg.FileContent;
+import org.apache.iceberg.FileFormat;
+import org.apache.iceberg.FileScanTask;
+import org.apache.iceberg.ManifestContent;
+import org.apache.iceberg.ManifestFile;
+import org.apache.iceberg.ManifestFiles;
+import org.apache.iceberg.PartitionSpec;
+import org.apache.iceberg.RewriteFiles;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.SnapshotUpdate;
+import org.apache.iceberg.StructLike;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.TableProperties;
+import org.apache.iceberg.data.GenericAppenderFactory;
+import org.apache.iceberg.data.GenericDeleteFilter;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.data.parquet.GenericParquetReaders;
+import org.apache.iceberg.encryption.EncryptedOutputFile;
+import org.apache.iceberg.events.CreateSnapshotEvent;
+import org.apache.iceberg.exceptions.CommitFailedException;
+import org.apache.iceberg.exceptions.ValidationException;
+import org.apache.iceberg.io.CloseableIterable;
+import org.apache.iceberg.io.DataWriter;
+import org.apache.iceberg.io.FileInfo;
+import org.apache.iceberg.io.OutputFileFactory;
+import org.apache.iceberg.io.SupportsPrefixOperations;
+import org.apache.iceberg.parquet.Parquet;
+import org.apache.iceberg.types.Types;
+import org.apache.iceberg.util.SnapshotUtil;
+import org.apache.iceberg.util.StructLikeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Background maintenance of the target tables, run inside the daemon rather than by Spark's
+ * {@code RewriteDataFilesAction}.
+ * <p>
+ * Each run, for every registered table:
+ * <ul>
+ *     <li>Partitions that no commit has written to for {@code coldAfterSeconds} are compacted.
+ *     Their small files, and files that deletes apply to, are bin-packed toward
+ *     {@code targetFileBytes} and rewritten with their deletes applied. Each partition is
+ *     committed as one {@code RewriteFiles}, and delete files are removed once no live data file
+ *     is left that they apply to.</li>
+ *     <li>Snapshots older than {@code snapshotRetentionSeconds} are expired, always keeping the
+ *     newest snapshot committed by the sync itself, which carries the checkpoint.</li>
+ *     <li>Files under the table's data location that no snapshot references and that are older
+ *     than {@code orphanFileAgeSeconds} are deleted.</li>
+ * </ul>
+ * Rewritten files keep the data sequence number of the snapshot the run planned from, so
+ * equality deletes committed by the sync while a partition is rewritten still apply to them. A
+ * rewrite that conflicts with concurrent position deletes fails validation and is dropped until
+ * the next run. The sync's own position deletes fall back to equality deletes in that case.
+ * A table registered with its {@link IdLocationIndex} gets each rewrite's row moves reported to
+ * the index, so the sync's next commit does not rebuild it.
+ * <p>
+ * Runs happen one at a time on a single low-priority thread, paced by a {@link CompactionBudget}.
+ * A table without partition fields is one partition, so it is only compacted once its sync has
+ * been quiet for {@code coldAfterSeconds}.
+ */
+public final class CompactionManager implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompactionManager.class);
+
+    private static final FileFormat FILE_FORMAT = FileFormat.PARQUET;
+
+    // Files at least this share of the target size are left alone unless deletes apply to them.
+    private static final double SMALL_FILE_RATIO = 0.75;
+    private static final int ROWS_PER_CHARGE = 4096;
+
+    /**
+     * What one run did to a table.
+     *
+     * @param deletedRows rows dropped from rewritten files because deletes applied to them
+     */
+    public record Result(
+            String table,
+            int partitionsRewritten,
+            int dataFilesRemoved,
+            int dataFilesAdded,
+            int deleteFilesRemoved,
+            long deletedRows,
+            long bytesRewritten,
+            int snapshotsExpired,
+            int expiredFilesRemoved,
+            int orphanFilesRemoved
+    ) {
+    }
+
+    private final CompactionConfig config;
+    private final CompactionBudget budget;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    private final Map<String, IdLocationIndex> indexes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param liveBacklog CPU-bound tasks of the live sync waiting for a worker (see
+     *                    {@code SyncRuntime.cpuBacklog}); compaction pauses while it is above zero
+     */
+    public CompactionManager(CompactionConfig config, IntSupplier liveBacklog, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.budget = new CompactionBudget(config.maxBytesPerSecond(), config.maxCpuPercent(), liveBacklog);
+        this.meterRegistry = meterRegistry;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("compaction")
+                .daemon(true)
+                .priority(Thread.MIN_PRIORITY)
+                .factory());
+    }
+
+    /**
+     * Schedules a run every {@code intervalSeconds}, unless compaction is disabled.
+     */
+    public void start() {
+        if (!config.enabled()) {
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::runAll, config.intervalSeconds(), config.intervalSeconds(), TimeUnit.SECONDS);
+        logger.info("compaction scheduled every {} s", config.intervalSeconds());
+    }
+
+    public void register(Table table) {
+        register(table, null);
+    }
+
+    /**
+     * @param index the sync's id index of {@code table}, told where rewrites move rows, or
+     *              {@code null}
+     */
+    public void register(Table table, IdLocationIndex index) {
+        tables.put(table.name(), table);
+        if (index != null) {
+            indexes.put(table.name(), index);
+        }
+    }
+
+    public void unregister(Table table) {
+        tables.remove(table.name());
+        indexes.remove(table.name());
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runAll() {
+        for (Table table : List.copyOf(tables.values())) {
+            try {
+                compact(table);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.warn("{}: compaction failed", table.name(), e);
+            }
+        }
+    }
+
+    /**
+     * Runs compaction, snapshot expiry and orphan removal on {@code table} now, on the calling
+     * thread.
+     */
+    public Result compact(Table table) throws InterruptedException {
+        long start = System.nanoTime();
+        table.refresh();
+        Rewrite rewrite = rewriteColdPartitions(table);
+        int[] expired = expireSnapshots(table);
+        int orphans = removeOrphanFiles(table);
+        Result result = new Result(table.name(), rewrite.partitions, rewrite.dataFilesRemoved, rewrite.dataFilesAdded,
+                rewrite.deleteFilesRemoved, rewrite.deletedRows, rewrite.bytesRewritten, expired[0], expired[1], orphans);
+        record(result, System.nanoTime() - start);
+        return result;
+    }
+
+    // -- rewrite ----------------------------------------------------------------------------
+
+    private Rewrite rewriteColdPartitions(Table table) throws InterruptedException {
+        Rewrite rewrite = new Rewrite();
+        Snapshot start = table.currentSnapshot();
+        if (start == null) {
+            return rewrite;
+        }
+        Map<Long, Long> commitTimes = new HashMap<>();
+        for (Snapshot snapshot : table.snapshots()) {
+            commitTimes.put(snapshot.sequenceNumber(), snapshot.timestampMillis());
+        }
+        long coldBefore = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(config.coldAfterSeconds());
+
+        Map<Integer, StructLikeMap<List<FileScanTask>>> partitions = new LinkedHashMap<>();
+        // Live data files each delete file still applies to; it can go once they are all rewritten.
+        Map<String, Integer> deleteReferences = new HashMap<>();
+        try (CloseableIterable<FileScanTask> tasks = table.newScan().useSnapshot(start.snapshotId()).planFiles()) {
+            for (FileScanTask task : tasks) {
+                DataFile file = task.file();
+                partitions.computeIfAbsent(file.specId(), specId -> StructLikeMap.create(table.specs().get(specId).partitionType()))
+                        .computeIfAbsent(file.partition(), partition -> new ArrayList<>())
+                        .add(task);
+                for (DeleteFile delete : task.deletes()) {
+                    deleteReferences.merge(delete.location(), 1, Integer::sum);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to plan compaction of " + table.name(), e);
+        }
+
+        for (Map.Entry<Integer, StructLikeMap<List<FileScanTask>>> spec : partitions.entrySet()) {
+            for (Map.Entry<StructLike, List<FileScanTask>> partition : spec.getValue().entrySet()) {
+                List<FileScanTask> tasks = partition.getValue();
+                if (!isCold(tasks, commitTimes, coldBefore)) {
+                    continue;
+                }
+                List<List<FileScanTask>> bins = binPack(tasks);
+                if (!bins.isEmpty()) {
+                    rewritePartition(table, table.specs().get(spec.getKey()), partition.getKey(), bins, start,
+                            deleteReferences, rewrite);
+                }
+            }
+        }
+        return rewrite;
+    }
+
+    /**
+     * Whether every data file of a partition, and every position delete against it, was committed
+     * before {@code coldBefore}. Equality deletes are global and say nothing about the partition.
+     */
+    private static boolean isCold(List<FileScanTask> tasks, Map<Long, Long> commitTimes, long coldBefore) {
+        for (FileScanTask task : tasks) {
+            if (committedAt(task.file(), commitTimes) > coldBefore) {
+                return false;
+            }
+            for (DeleteFile delete : task.deletes()) {
+                if (delete.content() == FileContent.POSITION_DELETES && committedAt(delete, commitTimes) > coldBefore) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static long committedAt(ContentFile<?> file, Map<Long, Long> commitTimes) {
+        Long sequenceNumber = file.dataSequenceNumber();
+        // v1 tables and expired history: old enough either way.
+        return sequenceNumber == null ? Long.MIN_VALUE : commitTimes.getOrDefault(sequenceNumber, Long.MIN_VALUE);
+    }
+
+    /**
+     * Packs the small files of a partition, and the files deletes apply to, first-fit by
+     * decreasing size into bins of up to {@code targetFileBytes}. Bins of fewer than
+     * {@code minInputFiles} files are only kept if they have deletes to apply.
+     */
+    private List<List<FileScanTask>> binPack(List<FileScanTask> tasks) {
+        long target = config.targetFileBytes();
+        List<FileScanTask> candidates = tasks.stream()
+                .filter(task -> task.file().fileSizeInBytes() < target * SMALL_FILE_RATIO || !task.deletes().isEmpty())
+                .sorted(Comparator.comparingLong((FileScanTask task) -> task.file().fileSizeInBytes()).reversed())
+                .toList();
+        List<List<FileScanTask>> bins = new ArrayList<>();
+        List<Long> binBytes = new ArrayList<>();
+        for (FileScanTask task : candidates) {
+            long size = task.file().fileSizeInBytes();
+            int bin = 0;
+            while (bin < bins.size() && binBytes.get(bin) + size > target) {
+                bin++;
+            }
+            if (bin == bins.size()) {
+                bins.add(new ArrayList<>());
+                binBytes.add(0L);
+            }
+            bins.get(bin).add(task);
+            binBytes.set(bin, binBytes.get(bin) + size);
+        }
+        bins.removeIf(bin -> bin.size() < config.minInputFiles() && bin.stream().allMatch(task -> task.deletes().isEmpty()));
+        return bins;
+    }
+
+    private void rewritePartition(
+            Table table,
+            PartitionSpec spec,
+            StructLike partition,
+            List<List<FileScanTask>> bins,
+            Snapshot start,
+            Map<String, Integer> deleteReferences,
+            Rewrite rewrite
+    ) throws InterruptedException {
+        List<DataFile> added = new ArrayList<>();
+        IdLocationIndex index = indexes.get(table.name());
+        IdLocationIndex.Rewrite moves = index == null ? null : index.newRewrite();
+        Map<String, DeleteFile> deletes = new HashMap<>();
+        Map<String, Integer> releasedReferences = new HashMap<>();
+        long deletedRows = 0;
+        long bytes = 0;
+        int removed = 0;
+        try {
+            RewriteFiles rewriteFiles = table.newRewrite()
+                    .validateFromSnapshot(start.snapshotId())
+                    .dataSequenceNumber(start.sequenceNumber());
+            for (List<FileScanTask> bin : bins) {
+                deletedRows += rewriteBin(table, spec, partition, bin, added, moves);
+                for (FileScanTask task : bin) {
+                    rewriteFiles.deleteFile(task.file());
+                    if (moves != null) {
+                        moves.removeDataFile(task.file());
+                    }
+                    bytes += task.file().fileSizeInBytes();
+                    removed++;
+                    for (DeleteFile delete : task.deletes()) {
+                        deletes.put(delete.location(), delete);
+                        releasedReferences.merge(delete.location(), 1, Integer::sum);
+                    }
+                }
+            }
+            added.forEach(rewriteFiles::addFile);
+            List<DeleteFile> obsolete = deletes.values().stream()
+                    .filter(delete -> releasedReferences.get(delete.location()).equals(deleteReferences.get(delete.location())))
+                    .toList();
+            obsolete.forEach(rewriteFiles::deleteFile);
+            if (moves == null) {
+                rewriteFiles.commit();
+            } else {
+                moves.addDataFiles(added);
+                index.rewrite(moves, () -> commit(rewriteFiles));
+            }
+
+            releasedReferences.forEach((location, released) -> deleteReferences.merge(location, -released, Integer::sum));
+            rewrite.partitions++;
+            rewrite.dataFilesRemoved += removed;
+            rewrite.dataFilesAdded += added.size();
+            rewrite.deleteFilesRemoved += obsolete.size();
+            rewrite.deletedRows += deletedRows;
+            rewrite.bytesRewritten += bytes;
+        } catch (ValidationException | CommitFailedException e) {
+            logger.info("{}: compaction of partition {} conflicted with a concurrent commit; retrying next run ({})",
+                    table.name(), spec.partitionToPath(partition), e.getMessage());
+            added.forEach(file -> table.io().deleteFile(file.location()));
+        } catch (InterruptedException | RuntimeException e) {
+            added.forEach(file -> table.io().deleteFile(file.location()));
+            throw e;
+        }
+    }
+
+    private static long commit(SnapshotUpdate<?> update) {
+        update.commit();
+        return ((CreateSnapshotEvent) update.updateEvent()).snapshotId();
+    }
+
+    /**
+     * Writes the live rows of a bin into files of up to {@code targetFileBytes}, adding them to
+     * {@code written} and their new positions to {@code moves} (if any), and returns the number
+     * of rows that deletes removed.
+     */
+    private long rewriteBin(Table table, PartitionSpec spec, StructLike partition, List<FileScanTask> bin,
+                            List<DataFile> written, IdLocationIndex.Rewrite moves) throws InterruptedException {
+        Schema schema = table.schema();
+        GenericAppenderFactory factory = new GenericAppenderFactory(
+                table, schema, spec, table.properties(), null, null, null);
+        OutputFileFactory fileFactory = OutputFileFactory.builderFor(table, 0, System.currentTimeMillis())
+                .format(FILE_FORMAT)
+                .build();
+        StructLike partitionData = spec.isUnpartitioned() ? null : partition;
+        GenericRecord out = GenericRecord.create(schema);
+        List<Types.NestedField> columns = schema.columns();
+        long deletedRows = 0;
+        DataWriter<Record> writer = null;
+        String path = null;
+        long position = 0;
+        try {
+            for (FileScanTask task : bin) {
+                DataFile file = task.file();
+                double bytesPerRow = file.recordCount() == 0 ? 0 : 2.0 * file.fileSizeInBytes() / file.recordCount();
+                GenericDeleteFilter deletes = new GenericDeleteFilter(table.io(), task, schema, schema);
+                Schema required = deletes.requiredSchema();
+                int[] positions = new int[columns.size()];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = required.columns().indexOf(required.findField(columns.get(i).fieldId()));
+                }
+                CloseableIterable<Record> rows = Parquet.read(table.io().newInputFile(file.location(), file.fileSizeInBytes()))
+                        .project(required)
+                        .createReaderFunc(fileSchema -> GenericParquetReaders.buildReader(required, fileSchema))
+                        .build();
+                long kept = 0;
+                int chunk = 0;
+                long chunkStart = System.nanoTime();
+                try (CloseableIterable<Record> live = deletes.filter(rows)) {
+                    for (Record row : live) {
+                        if (writer == null) {
+                            EncryptedOutputFile output = partitionData == null
+                                    ? fileFactory.newOutputFile()
+                                    : fileFactory.newOutputFile(spec, partitionData);
+                            writer = factory.newDataWriter(output, FILE_FORMAT, partitionData);
+                            path = output.encryptingOutputFile().location();
+                            position = 0;
+                        }
+                        for (int i = 0; i < positions.length; i++) {
+                            out.set(i, row.get(positions[i]));
+                        }
+                        writer.write(out);
+                        if (moves != null) {
+                            moves.written(out, path, position);
+                        }
+                        position++;
+                        kept++;
+                        if (writer.length() >= config.targetFileBytes()) {
+                            writer.close();
+                            written.add(writer.toDataFile());
+                            writer = null;
+                        }
+                        if (++chunk == ROWS_PER_CHARGE) {
+                            budget.charge((long) (chunk * bytesPerRow), System.nanoTime() - chunkStart);
+                            chunk = 0;
+                            chunkStart = System.nanoTime();
+                        }
+                    }
+                }
+                budget.charge((long) (chunk * bytesPerRow), System.nanoTime() - chunkStart);
+                deletedRows += file.recordCount() - kept;
+            }
+            if (writer != null) {
+                writer.close();
+                written.add(writer.toDataFile());
+                writer = null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to rewrite data files of " + table.name(), e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                    written.add(writer.toDataFile());
+                } catch (IOException | RuntimeException e) {
+                    logger.debug("{}: failed to close abandoned compaction writer", table.name(), e);
+                }
+            }
+        }
+        return deletedRows;
+    }
+
+    // -- expiry and orphans -----------------------------------------------------------------
+
+    /**
+     * Expires old snapshots and the files only they referenced. Returns the number of snapshots
+     * expired and of files deleted.
+     */
+    private int[] expireSnapshots(Table table) {
+        long olderThan = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(config.snapshotRetentionSeconds());
+        Snapshot current = table.currentSnapshot();
+        if (current == null) {
+            return new int[2];
+        }
+        // Keep the newest snapshot the sync committed: in snapshot checkpoint mode it holds the
+        // checkpoint, which maintenance snapshots do not.
+        for (Snapshot snapshot : SnapshotUtil.ancestorsOf(current.snapshotId(), table::snapshot)) {
+            if (!DataOperations.REPLACE.equals(snapshot.operation())) {
+                olderThan = Math.min(olderThan, snapshot.timestampMillis());
+                break;
+            }
+        }
+        long cutoff = olderThan;
+        int before = 0;
+        boolean expirable = false;
+        for (Snapshot snapshot : table.snapshots()) {
+            before++;
+            expirable |= snapshot.timestampMillis() < cutoff && snapshot.snapshotId() != current.snapshotId();
+        }
+        if (!expirable) {
+            return new int[2];
+        }
+        int[] filesRemoved = new int[1];
+        table.expireSnapshots()
+                .expireOlderThan(cutoff)
+                .deleteWith(location -> {
+                    table.io().deleteFile(location);
+                    filesRemoved[0]++;
+                })
+                .commit();
+        int after = 0;
+        for (Snapshot ignored : table.snapshots()) {
+            after++;
+        }
+        return new int[]{before - after, filesRemoved[0]};
+    }
+
+    /**
+     * Deletes files under the table's data location that no snapshot references. Skipped when
+     * the table's {@code FileIO} cannot list, or when listed and referenced locations do not line
+     * up, since a mismatch in how paths are spelt would make live files look orphaned.
+     */
+    private int removeOrphanFiles(Table table) throws InterruptedException {
+        if (!(table.io() instanceof SupportsPrefixOperations io)) {
+            logger.debug("{}: FileIO cannot list files; skipping orphan removal", table.name());
+            return 0;
+        }
+        String dataLocation = table.properties().getOrDefault(TableProperties.WRITE_DATA_LOCATION, table.location() + "/data");
+        Set<String> referenced = new HashSet<>();
+        Set<String> manifests = new HashSet<>();
+        for (Snapshot snapshot : table.snapshots()) {
+            for (ManifestFile manifest : snapshot.allManifests(table.io())) {
+                if (!manifests.add(manifest.path())) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                if (manifest.content() == ManifestContent.DATA) {
+                    addLocations(ManifestFiles.read(manifest, table.io(), table.specs()), dataLocation, referenced);
+                } else {
+                    addLocations(ManifestFiles.readDeleteManifest(manifest, table.io(), table.specs()), dataLocation, referenced);
+                }
+                budget.charge(manifest.length(), System.nanoTime() - start);
+            }
+        }
+
+        long olderThan = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(config.orphanFileAgeSeconds());
+        List<String> orphans = new ArrayList<>();
+        int listedReferences = 0;
+        for (FileInfo file : io.listPrefix(dataLocation)) {
+            if (referenced.contains(file.location())) {
+                listedReferences++;
+            } else if (file.createdAtMillis() < olderThan) {
+                orphans.add(file.location());
+            }
+        }
+        if (listedReferences < referenced.size()) {
+            logger.warn("{}: {} of {} referenced data files were not found listing {}; skipping orphan removal",
+                    table.name(), referenced.size() - listedReferences, referenced.size(), dataLocation);
+            return 0;
+        }
+        orphans.forEach(io::deleteFile);
+        return orphans.size();
+    }
+
+    private static void addLocations(CloseableIterable<? extends ContentFile<?>> files, String prefix, Set<String> locations) {
+        try (files) {
+            for (ContentFile<?> file : files) {
+                if (file.location().startsWith(prefix)) {
+                    locations.add(file.location());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read manifest", e);
+        }
+    }
+
+    private void record(Result result, long nanos) {
+        Timer.builder("sync.compaction.duration").tag("table", result.table()).register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        Timer.builder("sync.compaction.throttled")
+                .description("time compaction waited on its I/O and CPU budget or for the live sync")
+                .tag("table", result.table()).register(meterRegistry)
+                .record(budget.takeThrottledNanos(), TimeUnit.NANOSECONDS);
+        count("sync.compaction.files.removed", result, "data", result.dataFilesRemoved());
+        count("sync.compaction.files.removed", result, "delete", result.deleteFilesRemoved());
+        count("sync.compaction.files.removed", result, "expired", result.expiredFilesRemoved());
+        count("sync.compaction.files.removed", result, "orphan", result.orphanFilesRemoved());
+        count("sync.compaction.files.added", result, "data", result.dataFilesAdded());
+        Counter.builder("sync.compaction.rows.deleted")
+                .description("rows dropped from rewritten files because deletes applied to them")
+                .tag("table", result.table()).register(meterRegistry)
+                .increment(result.deletedRows());
+        logger.info("{}: compaction rewrote {} partition(s): {} data file(s) into {}, removed {} delete file(s) "
+                        + "and {} deleted row(s); expired {} snapshot(s) ({} file(s)); removed {} orphan file(s) in {} ms",
+                result.table(), result.partitionsRewritten(), result.dataFilesRemoved(), result.dataFilesAdded(),
+                result.deleteFilesRemoved(), result.deletedRows(), result.snapshotsExpired(), result.expiredFilesRemoved(),
+                result.orphanFilesRemoved(), nanos / 1_000_000);
+    }
+
+    private void count(String name, Result result, String type, long amount) {
+        Counter.builder(name).tag("table", result.table()).tag("type", type).register(meterRegistry).increment(amount);
+    }
+
+    private static final class Rewrite {
+
+        private int partitions;
+        private int dataFilesRemoved;
+        private int dataFilesAdded;
+        private int deleteFilesRemoved;
+        private long deletedRows;
+        private long bytesRewritten;
+    }
+}
@@ -0,0 +1,179 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import com.luketn.mongodb.iceberg.sync.config.PartitionConfig;
+import com.luketn.mongodb.iceberg.sync.config.SortFieldConfig;
+import org.apache.iceberg.NullOrder;
+import org.apache.iceberg.PartitionSpec;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.SortOrder;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.TableProperties;
+import org.apache.iceberg.ReplaceSortOrder;
+import org.apache.iceberg.UpdatePartitionSpec;
+import org.apache.iceberg.catalog.Catalog;
+import org.apache.iceberg.catalog.SupportsNamespaces;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.exceptions.AlreadyExistsException;
+import org.apache.iceberg.expressions.Expressions;
+import org.apache.iceberg.expressions.Term;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Creates and loads the target Iceberg tables.
+ * <p>
+ * Tables are created unpartitioned and then evolved to the configured partition spec. The
+ * unpartitioned spec (id 0) stays in the table metadata so equality deletes on {@code _id} can
+ * be written against it and apply globally: a change stream delete does not carry the values
+ * needed to work out which partition the deleted row lives in.
+ * <p>
+ * The configured sort order is recorded as the table's sort order, on creation and whenever it
+ * changes in the configuration. Writers sort the rows of each data file by it and tag the files
+ * with its id, so query engines know the files are sorted.
+ */
+public final class IcebergTableManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(IcebergTableManager.class);
+
+    private static final Pattern BUCKET = Pattern.compile("bucket\\[(\\d+)]");
+
+    /**
+     * Properties of created tables. The sync, compaction and manifest merges all commit to the
+     * same table, so optimistic-concurrency conflicts get more attempts than Iceberg's default of
+     * 4. Old metadata files are deleted after each commit, so a long commit history does not
+     * pile up {@code metadata.json} files for catalogs that keep them in the warehouse.
+     */
+    static final Map<String, String> TABLE_PROPERTIES = Map.of(
+            TableProperties.FORMAT_VERSION, "2",
+            TableProperties.COMMIT_NUM_RETRIES, "10",
+            TableProperties.METADATA_DELETE_AFTER_COMMIT_ENABLED, "true",
+            TableProperties.METADATA_PREVIOUS_VERSIONS_MAX, "100");
+
+    private final Catalog catalog;
+
+    public IcebergTableManager(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public Table loadOrCreate(TableIdentifier identifier, Schema schema, List<PartitionConfig> partitioning) {
+        return loadOrCreate(identifier, schema, partitioning, List.of());
+    }
+
+    public Table loadOrCreate(
+            TableIdentifier identifier,
+            Schema schema,
+            List<PartitionConfig> partitioning,
+            List<SortFieldConfig> sortOrder
+    ) {
+        if (catalog.tableExists(identifier)) {
+            return withSortOrder(catalog.loadTable(identifier), sortOrder);
+        }
+        try {
+            return create(identifier, schema, partitioning, sortOrder);
+        } catch (AlreadyExistsException e) {
+            // Another instance created it first.
+            return withSortOrder(catalog.loadTable(identifier), sortOrder);
+        }
+    }
+
+    public Table create(TableIdentifier identifier, Schema schema, List<PartitionConfig> partitioning) {
+        return create(identifier, schema, partitioning, List.of());
+    }
+
+    public Table create(
+            TableIdentifier identifier,
+            Schema schema,
+            List<PartitionConfig> partitioning,
+            List<SortFieldConfig> sortOrder
+    ) {
+        if (catalog instanceof SupportsNamespaces namespaces && !namespaces.namespaceExists(identifier.namespace())) {
+            try {
+                namespaces.createNamespace(identifier.namespace());
+            } catch (AlreadyExistsException ignored) {
+                // Created concurrently.
+            }
+        }
+        Table table = catalog.buildTable(identifier, schema)
+                .withPartitionSpec(PartitionSpec.unpartitioned())
+                .withProperties(TABLE_PROPERTIES)
+                .create();
+        if (!partitioning.isEmpty()) {
+            UpdatePartitionSpec update = table.updateSpec();
+            for (PartitionConfig partition : partitioning) {
+                update.addField(term(partition));
+            }
+            update.commit();
+        }
+        withSortOrder(table, sortOrder);
+        logger.info("created table {} with partition spec {} and sort order {}", identifier, table.spec(), table.sortOrder());
+        return table;
+    }
+
+    /**
+     * Replaces the table's sort order with {@code sortOrder} unless they already match. An
+     * empty configuration leaves the table's sort order alone, so an order set by other tools is
+     * kept (and used by the writers).
+     */
+    static Table withSortOrder(Table table, List<SortFieldConfig> sortOrder) {
+        if (sortOrder.isEmpty()) {
+            return table;
+        }
+        SortOrder.Builder desired = SortOrder.builderFor(table.schema());
+        ReplaceSortOrder replace = table.replaceSortOrder();
+        for (SortFieldConfig field : sortOrder) {
+            NullOrder nullOrder = SortFieldConfig.NULLS_FIRST.equals(field.nullOrder())
+                    ? NullOrder.NULLS_FIRST
+                    : NullOrder.NULLS_LAST;
+            if (SortFieldConfig.DIRECTION_DESC.equals(field.direction())) {
+                desired.desc(field.field(), nullOrder);
+                replace.desc(field.field(), nullOrder);
+            } else {
+                desired.asc(field.field(), nullOrder);
+                replace.asc(field.field(), nullOrder);
+            }
+        }
+        if (!table.sortOrder().sameOrder(desired.build())) {
+            replace.commit();
+            logger.info("{}: sort order is now {}", table.name(), table.sortOrder());
+        }
+        return table;
+    }
+
+    /**
+     * Returns a spec of the table without partition fields, or {@code null} if there is none.
+     */
+    public static PartitionSpec unpartitionedSpec(Table table) {
+        if (table.spec().isUnpartitioned()) {
+            return table.spec();
+        }
+        return table.specs().values().stream()
+                .filter(PartitionSpec::isUnpartitioned)
+                .findFirst()
+                .orElse(null);
+    }
+
+    static Term term(PartitionConfig partition) {
+        String field = partition.field();
+        String transform = partition.transform().trim().toLowerCase(Locale.ROOT);
+        return switch (transform) {
+            case "identity" -> Expressions.ref(field);
+            case "year" -> Expressions.year(field);
+            case "month" -> Expressions.month(field);
+            case "day" -> Expressions.day(field);
+            case "hour" -> Expressions.hour(field);
+            default -> {
+                Matcher bucket = BUCKET.matcher(transform);
+                if (!bucket.matches()) {
+                    throw new IllegalArgumentException("unsupported partition transform: " + partition.transform());
+                }
+                yield Expressions.bucket(field, Integer.parseInt(bucket.group(1)));
+            }
+        };
+    }
+}
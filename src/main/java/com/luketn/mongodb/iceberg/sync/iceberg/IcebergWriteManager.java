@@ -0,0 +1,922 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.config.LayoutConfig;
+import com.luketn.mongodb.iceberg.sync.metrics.BatchTrace;
+import com.luketn.mongodb.iceberg.sync.metrics.CommitEvent;
+import com.luketn.mongodb.iceberg.sync.metrics.FlushEvent;
+import com.luketn.mongodb.iceberg.sync.metrics.StartupTimer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.iceberg.AppendFiles;
+import org.apache.iceberg.DataFile;
+import org.apache.iceberg.DeleteFile;
+import org.apache.iceberg.FileFormat;
+import org.apache.iceberg.PartitionSpec;
+import org.apache.iceberg.RowDelta;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.SnapshotUpdate;
+import org.apache.iceberg.StructLike;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.TableUtil;
+import org.apache.iceberg.data.BaseDeleteLoader;
+import org.apache.iceberg.data.GenericAppenderFactory;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.deletes.BaseDVFileWriter;
+import org.apache.iceberg.deletes.EqualityDeleteWriter;
+import org.apache.iceberg.deletes.PositionDelete;
+import org.apache.iceberg.deletes.PositionDeleteIndex;
+import org.apache.iceberg.deletes.PositionDeleteWriter;
+import org.apache.iceberg.encryption.EncryptedOutputFile;
+import org.apache.iceberg.events.CreateSnapshotEvent;
+import org.apache.iceberg.exceptions.ValidationException;
+import org.apache.iceberg.io.DataWriter;
+import org.apache.iceberg.io.DeleteWriteResult;
+import org.apache.iceberg.io.OutputFileFactory;
+import org.apache.iceberg.types.Types;
+import org.apache.iceberg.util.StructLikeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Manages all Iceberg write operations for a single table.
+ * <p>
+ * Flushing is pipelined. {@link #flush} snapshots the buffers and returns straight away while
+ * the batch moves through an encode stage (Parquet data and equality delete files written
+ * through the table's {@code FileIO}, which streams them to object storage) and a commit stage.
+ * The next batch fills while earlier ones are written and committed.
+ * <p>
+ * At most {@code batch.maxInFlightBatches} batches are in flight; {@link #flush} blocks its
+ * caller once that limit is reached. Commits run on one thread per table in flush order, and a
+ * batch's {@link CommitListener} runs right after its commit and before the next commit, so a
+ * checkpoint never advances past data that is not yet committed. A failed commit fails every
+ * later batch as well. Batches without deletes are committed as fast appends, and a
+ * {@link ManifestMerger} merges their manifests in the background.
+ * <p>
+ * With a {@link WriteAheadLog}, every batch is logged to local disk before it is submitted, and
+ * {@link #flush} does not block on the in-flight limit: batches past it are kept only on disk
+ * and submitted in order as the pipeline catches up, and
+ * batches whose commit failed are retried with backoff instead of failing (see
+ * {@link WalQueue}).
+ * <p>
+ * With an {@link IdLocationIndex}, deletes of ids the index knows become position deletes (or
+ * deletion vectors on v3 tables), and deletes of ids the table has no row for are dropped. Ids
+ * the index cannot hold still get equality deletes. The encode stage then runs one batch at a
+ * time, since a batch's deletes must see where the previous batch wrote its rows. If the data
+ * files a batch's position deletes refer to are rewritten before it commits, the batch is
+ * committed with equality deletes instead.
+ * <p>
+ * With a {@link LayoutConfig}, the Parquet layout of the data files is kept in the table's
+ * properties. In {@code auto} mode, the first batch of at least
+ * {@value ParquetLayout#MIN_SAMPLE_ROWS} rows is sampled to choose it, and the layout applies
+ * from the next batch on.
+ * <p>
+ * With a {@link MemoryGovernor}, the buffered bytes count against a budget shared with the other
+ * tables, which can ask for a flush before the table's own thresholds are reached (see
+ * {@link #isFlushDue(long, long)} and {@link #awaitMemory}).
+ * <p>
+ * Each batch carries a {@link BatchTrace} that the stages add their write, upload, commit and
+ * checkpoint times to, and emits a {@link FlushEvent} and a {@link CommitEvent} to JFR.
+ */
+public final class IcebergWriteManager implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(IcebergWriteManager.class);
+
+    private static final FileFormat FILE_FORMAT = FileFormat.PARQUET;
+
+    private static final String DELETE_EQUALITY = "equality";
+    private static final String DELETE_POSITION = "position";
+    private static final String DELETE_VECTOR = "vector";
+    private static final String DELETE_SKIPPED = "skipped";
+
+    /**
+     * Called on the commit thread once a batch has been committed (or, for a batch with nothing
+     * to write, once every earlier batch has been committed).
+     */
+    @FunctionalInterface
+    public interface CommitListener {
+        void committed(Snapshot snapshot);
+    }
+
+    /**
+     * Optional parts of a write manager; a {@code null} component leaves its part out.
+     *
+     * @param locationIndex index of the id column used to write position deletes, or
+     *                      {@code null} for equality deletes only; kept up to date by the write
+     *                      manager but not closed by it
+     * @param wal           write-ahead log that every batch is appended to before it is
+     *                      submitted, which keeps those past {@code maxInFlightBatches}
+     *                      uncommitted ones, and that failed commits are retried from, or
+     *                      {@code null} to make flushes wait instead; closed by the write
+     *                      manager. Batches left in it by an earlier run are replayed right away;
+     *                      see {@link #awaitReplay}
+     * @param layout        Parquet layout of the data files, applied to the table's properties
+     *                      (see {@link ParquetLayout}), or {@code null} to leave them alone
+     * @param memory        daemon-wide budget the buffered rows and deletes count against (see
+     *                      {@link MemoryGovernor}), or {@code null} for the table's own
+     *                      {@code batch.maxBytes} only
+     */
+    public record Options(IdLocationIndex locationIndex, WriteAheadLog wal, LayoutConfig layout, MemoryGovernor memory) {
+
+        /**
+         * Equality deletes only, no write-ahead log, no layout and no shared memory budget.
+         */
+        public static final Options NONE = new Options(null, null, null, null);
+
+        public Options withLocationIndex(IdLocationIndex locationIndex) {
+            return new Options(locationIndex, wal, layout, memory);
+        }
+
+        public Options withWal(WriteAheadLog wal) {
+            return new Options(locationIndex, wal, layout, memory);
+        }
+
+        public Options withLayout(LayoutConfig layout) {
+            return new Options(locationIndex, wal, layout, memory);
+        }
+
+        public Options withMemory(MemoryGovernor memory) {
+            return new Options(locationIndex, wal, layout, memory);
+        }
+    }
+
+    private final Table table;
+    private final String tableName;
+    private final String idColumn;
+    private final BatchConfig batchConfig;
+    private final BatchPolicy batchPolicy;
+    private final Schema deleteSchema;
+    private final PartitionSpec deleteSpec;
+    private final GenericAppenderFactory deleteFactory;
+    private final OutputFileFactory fileFactory;
+    private final IdLocationIndex locationIndex;
+    private final boolean deletionVectors;
+    private final OutputFileFactory vectorFileFactory;
+    private final BaseDeleteLoader deleteLoader;
+    private final Executor encodePool;
+    private final ExecutorService commitExecutor;
+    private final Semaphore inFlightBatches;
+    private final WalQueue walQueue;
+    private final ManifestMerger manifestMerger;
+    private final Map<String, String> layout;
+    private final AtomicBoolean sampleLayout;
+    private final AtomicReference<Map<String, String>> sampledLayout = new AtomicReference<>();
+    private final MemoryGovernor.Reservation memory;
+
+    private final AtomicInteger encodeQueueDepth = new AtomicInteger();
+    private final AtomicInteger commitQueueDepth = new AtomicInteger();
+    private final MeterRegistry meterRegistry;
+    private final List<Meter> meters = new ArrayList<>();
+    private final Counter commits;
+    private final Timer commitLatency;
+    private final DistributionSummary fileSizes;
+    private final Map<String, Counter> deleteCounters = new HashMap<>();
+
+    private RecordBuffer buffer;
+    private RecordBuffer deletes;
+    private final GenericRecord deleteKey;
+    private long lastFlushNanos = System.nanoTime();
+    private CompletableFuture<Snapshot> lastCommit = CompletableFuture.completedFuture(null);
+    private CompletableFuture<WrittenFiles> lastEncode = CompletableFuture.completedFuture(null);
+
+    /**
+     * @param table      target table; must have an unpartitioned spec (see {@link IcebergTableManager})
+     * @param idColumn   column holding the MongoDB {@code _id}, used for equality deletes
+     * @param encodePool pool running the encode stage; may be shared between tables
+     * @param options    optional parts, {@link Options#NONE} for none
+     */
+    public IcebergWriteManager(
+            Table table,
+            String idColumn,
+            BatchConfig batchConfig,
+            Executor encodePool,
+            MeterRegistry meterRegistry,
+            Options options
+    ) {
+        IdLocationIndex locationIndex = options.locationIndex();
+        WriteAheadLog wal = options.wal();
+        LayoutConfig layout = options.layout();
+        MemoryGovernor memory = options.memory();
+        this.table = table;
+        this.tableName = table.name();
+        this.idColumn = idColumn;
+        this.batchConfig = batchConfig;
+        this.batchPolicy = new BatchPolicy(batchConfig);
+        this.encodePool = encodePool;
+        this.meterRegistry = meterRegistry;
+        this.memory = memory == null ? null : memory.reserve(table.name());
+
+        Types.NestedField idField = table.schema().findField(idColumn);
+        if (idField == null) {
+            throw new IllegalArgumentException("id column does not exist in table " + tableName + ": " + idColumn);
+        }
+        this.layout = layout == null ? Map.of() : ParquetLayout.configured(layout, idColumn);
+        Map<String, String> changed = ParquetLayout.apply(table, this.layout);
+        if (!changed.isEmpty()) {
+            logger.info("{}: Parquet layout set to {}", tableName, changed);
+        }
+        this.sampleLayout = new AtomicBoolean(layout != null && LayoutConfig.MODE_AUTO.equals(layout.mode()));
+        this.deleteSpec = IcebergTableManager.unpartitionedSpec(table);
+        if (deleteSpec == null) {
+            throw new IllegalStateException("table " + tableName
+                    + " has no unpartitioned spec to write global equality deletes against");
+        }
+        this.deleteSchema = table.schema().select(idColumn);
+        this.deleteFactory = new GenericAppenderFactory(
+                table, table.schema(), deleteSpec, table.properties(),
+                new int[]{idField.fieldId()}, deleteSchema, null);
+        this.fileFactory = OutputFileFactory.builderFor(table, 0, System.currentTimeMillis())
+                .format(FILE_FORMAT)
+                .build();
+        this.locationIndex = locationIndex;
+        this.deletionVectors = locationIndex != null && TableUtil.formatVersion(table) >= 3;
+        this.vectorFileFactory = OutputFileFactory.builderFor(table, 0, System.currentTimeMillis())
+                .format(FileFormat.PUFFIN)
+                .build();
+        this.deleteLoader = new BaseDeleteLoader(file -> table.io().newInputFile(file.location(), file.fileSizeInBytes()));
+
+        this.buffer = new RecordBuffer(table.schema());
+        this.deletes = new RecordBuffer(deleteSchema);
+        this.deleteKey = GenericRecord.create(deleteSchema);
+        this.inFlightBatches = new Semaphore(batchConfig.maxInFlightBatches());
+        // Commits wait on the catalog and object store; a virtual thread per table keeps hundreds
+        // of tables from holding hundreds of platform threads.
+        this.commitExecutor = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("iceberg-commit-" + tableName).factory());
+
+        meters.add(Gauge.builder("sync.iceberg.pipeline.queue.depth", encodeQueueDepth, AtomicInteger::get)
+                .tag("table", tableName).tag("stage", "encode").register(meterRegistry));
+        meters.add(Gauge.builder("sync.iceberg.pipeline.queue.depth", commitQueueDepth, AtomicInteger::get)
+                .tag("table", tableName).tag("stage", "commit").register(meterRegistry));
+        meters.add(Gauge.builder("sync.iceberg.pipeline.inflight", inFlightBatches,
+                        permits -> batchConfig.maxInFlightBatches() - permits.availablePermits())
+                .tag("table", tableName).register(meterRegistry));
+        this.commits = Counter.builder("sync.iceberg.commits").tag("table", tableName).register(meterRegistry);
+        this.commitLatency = Timer.builder("sync.iceberg.commit.latency")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .tag("table", tableName).register(meterRegistry);
+        this.fileSizes = DistributionSummary.builder("sync.iceberg.file.size")
+                .description("size of the data files written")
+                .baseUnit("bytes")
+                .tag("table", tableName).register(meterRegistry);
+        meters.add(commits);
+        meters.add(commitLatency);
+        meters.add(fileSizes);
+        meters.add(Gauge.builder("sync.iceberg.batch.interval", batchPolicy, BatchPolicy::intervalSeconds)
+                .description("current flush interval; adaptive batching stretches it for quiet tables")
+                .baseUnit("seconds")
+                .tag("table", tableName).register(meterRegistry));
+        for (String type : List.of(DELETE_EQUALITY, DELETE_POSITION, DELETE_VECTOR, DELETE_SKIPPED)) {
+            Counter counter = Counter.builder("sync.iceberg.deletes")
+                    .description("deleted ids by how the delete was written; skipped ids had no row")
+                    .tag("table", tableName).tag("type", type).register(meterRegistry);
+            deleteCounters.put(type, counter);
+            meters.add(counter);
+        }
+        this.manifestMerger = new ManifestMerger(table, meterRegistry);
+        this.walQueue = wal == null ? null : new WalQueue(table, wal, new WalQueue.Pipeline() {
+            @Override
+            public CompletableFuture<Snapshot> submit(
+                    RecordBuffer.Batch rows,
+                    RecordBuffer.Batch deletes,
+                    Map<String, String> properties,
+                    BatchTrace trace,
+                    CommitListener listener
+            ) throws InterruptedException {
+                inFlightBatches.acquire();
+                synchronized (IcebergWriteManager.this) {
+                    return IcebergWriteManager.this.submit(rows, deletes, properties, trace, listener);
+                }
+            }
+
+            @Override
+            public void reset() {
+                synchronized (IcebergWriteManager.this) {
+                    lastEncode = CompletableFuture.completedFuture(null);
+                    lastCommit = CompletableFuture.completedFuture(null);
+                }
+            }
+        }, batchConfig.maxInFlightBatches(), meterRegistry);
+    }
+
+    public Table table() {
+        return table;
+    }
+
+    /**
+     * Column holding the MongoDB {@code _id}, which {@link #delete} matches on.
+     */
+    public String idColumn() {
+        return idColumn;
+    }
+
+    /**
+     * Buffers a row to append. The record is copied, so callers may reuse it.
+     */
+    public synchronized void write(Record record) {
+        buffer.add(record);
+    }
+
+    /**
+     * Switches the row buffer to {@code schema}, a later version of the table schema with added
+     * columns, for example after {@link SchemaEvolver#evolve}. Rows already buffered are kept,
+     * with the added columns null; records written afterwards must have the new schema.
+     */
+    public synchronized void evolveSchema(Schema schema) {
+        if (schema.schemaId() != buffer.schema().schemaId()) {
+            buffer = buffer.evolve(schema);
+        }
+    }
+
+    /**
+     * Buffers a delete of every row with the given {@code _id} value, written as an equality
+     * delete or, with a location index, a position delete. Rows written in the same batch are
+     * not affected by it, so {@code delete} followed by {@code write} is an upsert.
+     */
+    public synchronized void delete(Object id) {
+        deleteKey.set(0, id);
+        deletes.add(deleteKey);
+    }
+
+    /**
+     * Whether the batch should be flushed, as decided by the table's {@link BatchPolicy} or,
+     * with a {@link MemoryGovernor}, because the daemon-wide memory budget asks for it.
+     */
+    public boolean isFlushDue() {
+        return isFlushDue(0, 0);
+    }
+
+    /**
+     * Like {@link #isFlushDue()}, counting {@code heldRows} rows of {@code heldBytes} that the
+     * caller holds back (a coalescing window) as if they were already buffered. Also reports
+     * the bytes to the memory governor.
+     */
+    public synchronized boolean isFlushDue(long heldRows, long heldBytes) {
+        long rows = buffer.size() + heldRows;
+        long bytes = buffer.sizeInBytes() + deletes.sizeInBytes() + heldBytes;
+        if (memory != null) {
+            memory.update(bytes);
+            if (memory.isFlushRequested() && rows + deletes.size() > 0) {
+                return true;
+            }
+        }
+        return batchPolicy.isFlushDue(rows, deletes.size(), bytes, System.nanoTime() - lastFlushNanos);
+    }
+
+    /**
+     * Waits while the memory governor's budget is used up, unless this table was asked to flush
+     * to free it. Producers call this between reads, outside any lock, so that a full budget
+     * pauses their cursors rather than growing the heap. Returns at once without a governor.
+     */
+    public void awaitMemory() {
+        if (memory == null) {
+            return;
+        }
+        try {
+            memory.awaitRoom();
+        } catch (InterruptedException e) {
+            // Left for the producer to act on.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public BatchPolicy batchPolicy() {
+        return batchPolicy;
+    }
+
+    /**
+     * Hands the buffered rows and deletes to the pipeline and returns a future completing once
+     * they are committed and {@code listener} has run. Blocks while the maximum number of
+     * batches is already in flight, or with a write-ahead log, while its disk budget is used up.
+     */
+    public CompletableFuture<Snapshot> flush(CommitListener listener) {
+        return flush(Map.of(), listener);
+    }
+
+    /**
+     * Like {@link #flush(CommitListener)}, also setting {@code snapshotProperties} in the summary
+     * of the batch's snapshot. When properties are given, a batch with nothing to write is still
+     * committed as an empty snapshot so that they are recorded.
+     */
+    public CompletableFuture<Snapshot> flush(Map<String, String> snapshotProperties, CommitListener listener) {
+        return flush(snapshotProperties, BatchTrace.untracked(), listener);
+    }
+
+    /**
+     * Like {@link #flush(Map, CommitListener)}, adding the batch's stage times to {@code trace}
+     * and completing it after {@code listener} has run.
+     */
+    public CompletableFuture<Snapshot> flush(
+            Map<String, String> snapshotProperties,
+            BatchTrace trace,
+            CommitListener listener
+    ) {
+        Map<String, String> properties = Map.copyOf(snapshotProperties);
+        if (walQueue != null) {
+            RecordBuffer.Batch rows;
+            RecordBuffer.Batch deleted;
+            synchronized (this) {
+                rows = snapshot();
+                deleted = deletes.snapshotAndReset();
+            }
+            return walQueue.enqueue(rows, deleted, properties, trace, listener);
+        }
+        try {
+            inFlightBatches.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        synchronized (this) {
+            return submit(snapshot(), deletes.snapshotAndReset(), properties, trace, listener);
+        }
+    }
+
+    /**
+     * Takes the buffered rows for a flush. Called holding the lock.
+     */
+    private RecordBuffer.Batch snapshot() {
+        RecordBuffer.Batch rows = buffer.snapshotAndReset();
+        if (memory != null) {
+            // The deletes are taken right after, under the same lock.
+            memory.flushed();
+        }
+        long now = System.nanoTime();
+        batchPolicy.flushed(rows.size(), now - lastFlushNanos);
+        lastFlushNanos = now;
+        return rows;
+    }
+
+    /**
+     * Hands a batch to the encode and commit stages. Called holding the lock and an in-flight
+     * permit, which is released once the batch has settled. The returned future completes after
+     * that, so the queue depths and the permit are given back by the time a caller sees a result.
+     */
+    private CompletableFuture<Snapshot> submit(
+            RecordBuffer.Batch rows,
+            RecordBuffer.Batch deleted,
+            Map<String, String> properties,
+            BatchTrace trace,
+            CommitListener listener
+    ) {
+        IdLocationIndex.Delta delta = locationIndex == null ? null : locationIndex.newDelta();
+        // With an index, a batch's lookups must see where the previous batch wrote its rows.
+        CompletableFuture<?> encodeAfter = locationIndex == null ? CompletableFuture.completedFuture(null) : lastEncode;
+        // The depths count batches waiting for or in a stage. They are moved on in callbacks that
+        // run on every outcome: an encode is skipped when the one before it failed, and a commit
+        // when its encode or the commit before it failed.
+        encodeQueueDepth.incrementAndGet();
+        CompletableFuture<WrittenFiles> encoded = encodeAfter.thenApplyAsync(
+                previous -> encode(rows, deleted, delta, trace), encodePool).whenComplete((files, error) -> {
+            encodeQueueDepth.decrementAndGet();
+            commitQueueDepth.incrementAndGet();
+            if (files != null) {
+                batchPolicy.written(files.dataFiles());
+                files.dataFiles().forEach(file -> fileSizes.record(file.fileSizeInBytes()));
+            }
+        });
+        lastEncode = encoded;
+
+        CompletableFuture<Snapshot> committed = lastCommit.thenCombineAsync(
+                encoded, (previous, files) -> commit(files, properties, listener, trace), commitExecutor);
+        lastCommit = committed;
+        // A commit fails as soon as the commit before it did, possibly while this batch is still
+        // encoding; the batch has only settled once both stages are done.
+        CompletableFuture<Void> settled = CompletableFuture.allOf(encoded, committed).handle((ignored, error) -> {
+            commitQueueDepth.decrementAndGet();
+            if (error != null) {
+                logger.error("{}: batch commit failed", tableName, error);
+                if (delta != null) {
+                    locationIndex.discard(delta);
+                }
+            }
+            inFlightBatches.release();
+            return null;
+        });
+        return settled.thenCompose(ignored -> committed);
+    }
+
+    /**
+     * Waits for every flushed batch to be committed.
+     */
+    public void awaitCommits() {
+        if (walQueue != null) {
+            walQueue.awaitQueued();
+        }
+        CompletableFuture<Snapshot> last;
+        synchronized (this) {
+            last = lastCommit;
+        }
+        last.join();
+    }
+
+    /**
+     * Waits until the batches found in the write-ahead log at startup are committed, so that the
+     * table's checkpoint includes them. Returns right away without a log.
+     */
+    public void awaitReplay() {
+        if (walQueue != null) {
+            walQueue.recovered().join();
+        }
+    }
+
+    /**
+     * Waits for the flushed batches to be committed. With a write-ahead log, waits only for the
+     * batches in flight; the rest stay in the log for the next start.
+     */
+    @Override
+    public void close() {
+        try {
+            if (walQueue != null) {
+                walQueue.close();
+            } else {
+                awaitCommits();
+            }
+        } finally {
+            commitExecutor.shutdown();
+            manifestMerger.close();
+            if (memory != null) {
+                memory.close();
+            }
+            meters.forEach(meterRegistry::remove);
+        }
+    }
+
+    private WrittenFiles encode(
+            RecordBuffer.Batch rows,
+            RecordBuffer.Batch deleted,
+            IdLocationIndex.Delta delta,
+            BatchTrace trace
+    ) {
+        if (rows.size() >= ParquetLayout.MIN_SAMPLE_ROWS && sampleLayout.compareAndSet(true, false)) {
+            // Applied by the commit stage; this batch is written with the current layout.
+            Map<String, String> sampled = new HashMap<>(ParquetLayout.sampled(rows));
+            sampled.putAll(layout);
+            sampledLayout.set(sampled);
+        }
+        FlushEvent event = new FlushEvent();
+        event.begin();
+        WrittenFiles files = delta == null ? encode(rows, deleted, trace) : encodeAgainstIndex(rows, deleted, delta, trace);
+        event.end();
+        if (event.shouldCommit()) {
+            event.table = tableName;
+            event.rows = rows.size();
+            event.deletes = deleted.size();
+            event.dataFiles = files.dataFiles().size();
+            event.deleteFiles = files.deleteFiles().size();
+            event.bytes = files.dataFiles().stream().mapToLong(DataFile::fileSizeInBytes).sum()
+                    + files.deleteFiles().stream().mapToLong(DeleteFile::fileSizeInBytes).sum();
+            event.commit();
+        }
+        return files;
+    }
+
+    private WrittenFiles encode(RecordBuffer.Batch rows, RecordBuffer.Batch deleted, BatchTrace trace) {
+        List<DataFile> dataFiles = rows.isEmpty() ? List.of() : writeDataFiles(rows, null, trace);
+        List<DeleteFile> deleteFiles = deleted.isEmpty() ? List.of() : List.of(writeDeleteFile(deleted, trace));
+        deleteCounters.get(DELETE_EQUALITY).increment(deleted.size());
+        return new WrittenFiles(dataFiles, deleteFiles);
+    }
+
+    /**
+     * Encodes a batch against the location index: deletes are resolved to row positions before
+     * the batch's own rows are recorded, so a delete and a write of one id in a batch is an
+     * upsert as with equality deletes.
+     */
+    private WrittenFiles encodeAgainstIndex(
+            RecordBuffer.Batch rows,
+            RecordBuffer.Batch deleted,
+            IdLocationIndex.Delta delta,
+            BatchTrace trace
+    ) {
+        long basedOnSnapshotId = locationIndex.snapshotId();
+        List<IdLocationIndex.Location> located = new ArrayList<>();
+        RecordBuffer unindexed = new RecordBuffer(deleteSchema);
+        deleted.forEach(key -> {
+            Object id = key.get(0);
+            if (!locationIndex.isIndexable(id)) {
+                unindexed.add(key);
+                return;
+            }
+            IdLocationIndex.Location location = locationIndex.lookup(id);
+            if (location != null) {
+                located.add(location);
+            }
+            delta.deleted(id);
+        });
+        List<DataFile> dataFiles = rows.isEmpty() ? List.of() : writeDataFiles(rows, delta, trace);
+        delta.addDataFiles(dataFiles);
+
+        List<DeleteFile> deleteFiles = new ArrayList<>();
+        List<DeleteFile> rewrittenDeleteFiles = List.of();
+        RecordBuffer.Batch equalityDeletes = unindexed.snapshotAndReset();
+        if (!equalityDeletes.isEmpty()) {
+            deleteFiles.add(writeDeleteFile(equalityDeletes, trace));
+        }
+        if (!located.isEmpty()) {
+            long start = System.nanoTime();
+            if (deletionVectors) {
+                DeleteWriteResult result = writeDeletionVectors(located);
+                deleteFiles.addAll(result.deleteFiles());
+                rewrittenDeleteFiles = result.rewrittenDeleteFiles();
+                delta.addDeletionVectors(result.deleteFiles());
+            } else {
+                deleteFiles.addAll(writePositionDeletes(located));
+            }
+            // Position delete and deletion vector files are small; they count as written.
+            trace.addWrite(System.nanoTime() - start);
+        }
+        locationIndex.stage(delta);
+
+        deleteCounters.get(DELETE_EQUALITY).increment(equalityDeletes.size());
+        deleteCounters.get(deletionVectors ? DELETE_VECTOR : DELETE_POSITION).increment(located.size());
+        deleteCounters.get(DELETE_SKIPPED).increment(deleted.size() - equalityDeletes.size() - located.size());
+        List<String> referencedDataFiles = located.stream().map(location -> location.file().location()).distinct().toList();
+        return new WrittenFiles(dataFiles, deleteFiles, rewrittenDeleteFiles, referencedDataFiles,
+                basedOnSnapshotId, deleted, delta);
+    }
+
+    /**
+     * Writes one data file per partition the batch spans, one file at a time, with rows sorted
+     * by the table's sort order (see {@link RowLayout}).
+     */
+    private List<DataFile> writeDataFiles(RecordBuffer.Batch rows, IdLocationIndex.Delta delta, BatchTrace trace) {
+        PartitionSpec spec = table.spec();
+        Schema schema = rows.schema();
+        GenericAppenderFactory factory = new GenericAppenderFactory(
+                table, schema, spec, table.properties(), null, null, null);
+        long writing = 0;
+        long uploading = 0;
+        long start = System.nanoTime();
+        RowLayout layout = RowLayout.plan(rows, spec, table.sortOrder());
+        GenericRecord reuse = GenericRecord.create(schema);
+        List<DataFile> dataFiles = new ArrayList<>(layout.groups().size());
+        for (RowLayout.Group group : layout.groups()) {
+            EncryptedOutputFile output = outputFile(spec, group.partition());
+            String path = output.encryptingOutputFile().location();
+            DataWriter<Record> writer = new DataWriter<>(factory.newAppender(output, FILE_FORMAT), FILE_FORMAT,
+                    path, spec, group.partition(), output.keyMetadata(), layout.sortOrder());
+            long closing;
+            try (writer) {
+                long position = 0;
+                for (int row : group.rows()) {
+                    Record record = rows.get(row, reuse);
+                    if (delta != null) {
+                        delta.written(record.getField(idColumn), path, position);
+                    }
+                    writer.write(record);
+                    position++;
+                }
+                closing = System.nanoTime();
+                writing += closing - start;
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to write data file for " + tableName, e);
+            }
+            start = System.nanoTime();
+            uploading += start - closing;
+            dataFiles.add(writer.toDataFile());
+        }
+        trace.addWrite(writing);
+        trace.addUpload(uploading);
+        return dataFiles;
+    }
+
+    private DeleteFile writeDeleteFile(RecordBuffer.Batch deleted, BatchTrace trace) {
+        EqualityDeleteWriter<Record> writer = deleteFactory.newEqDeleteWriter(
+                outputFile(deleteSpec, null), FILE_FORMAT, null);
+        long start = System.nanoTime();
+        long closing = start;
+        try (writer) {
+            deleted.forEach(writer::write);
+            closing = System.nanoTime();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write equality delete file for " + tableName, e);
+        }
+        trace.addWrite(closing - start);
+        trace.addUpload(System.nanoTime() - closing);
+        return writer.toDeleteFile();
+    }
+
+    /**
+     * Writes one position delete file per partition, rows sorted by file and position as the
+     * spec requires.
+     */
+    private List<DeleteFile> writePositionDeletes(List<IdLocationIndex.Location> located) {
+        Map<Integer, StructLikeMap<List<IdLocationIndex.Location>>> bySpec = new HashMap<>();
+        for (IdLocationIndex.Location location : located) {
+            DataFile file = location.file();
+            bySpec.computeIfAbsent(file.specId(), specId -> StructLikeMap.create(table.specs().get(specId).partitionType()))
+                    .computeIfAbsent(file.partition(), partition -> new ArrayList<>())
+                    .add(location);
+        }
+        List<DeleteFile> deleteFiles = new ArrayList<>();
+        PositionDelete<Record> positionDelete = PositionDelete.create();
+        bySpec.forEach((specId, partitions) -> {
+            PartitionSpec spec = table.specs().get(specId);
+            GenericAppenderFactory factory = new GenericAppenderFactory(
+                    table, table.schema(), spec, table.properties(), null, null, null);
+            partitions.forEach((partition, locations) -> {
+                locations.sort(Comparator.comparing((IdLocationIndex.Location location) -> location.file().location())
+                        .thenComparingLong(IdLocationIndex.Location::position));
+                StructLike partitionData = spec.isUnpartitioned() ? null : partition;
+                PositionDeleteWriter<Record> writer = factory.newPosDeleteWriter(
+                        outputFile(spec, partitionData), FILE_FORMAT, partitionData);
+                try (writer) {
+                    for (IdLocationIndex.Location location : locations) {
+                        writer.write(positionDelete.set(location.file().location(), location.position()));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("failed to write position delete file for " + tableName, e);
+                }
+                deleteFiles.add(writer.toDeleteFile());
+            });
+        });
+        return deleteFiles;
+    }
+
+    /**
+     * Writes deletion vectors, merging each with the data file's current vector. The result
+     * lists the current vectors it replaces.
+     */
+    private DeleteWriteResult writeDeletionVectors(List<IdLocationIndex.Location> located) {
+        BaseDVFileWriter writer = new BaseDVFileWriter(vectorFileFactory, this::previousDeletes);
+        try (writer) {
+            for (IdLocationIndex.Location location : located) {
+                DataFile file = location.file();
+                writer.delete(file.location(), location.position(), table.specs().get(file.specId()), file.partition());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write deletion vectors for " + tableName, e);
+        }
+        return writer.result();
+    }
+
+    private PositionDeleteIndex previousDeletes(String dataFilePath) {
+        DeleteFile vector = locationIndex.deletionVector(dataFilePath);
+        return vector == null ? null : deleteLoader.loadPositionDeletes(List.of(vector), dataFilePath);
+    }
+
+    private EncryptedOutputFile outputFile(PartitionSpec spec, StructLike partition) {
+        return partition == null ? fileFactory.newOutputFile() : fileFactory.newOutputFile(spec, partition);
+    }
+
+    private Snapshot commit(
+            WrittenFiles files,
+            Map<String, String> properties,
+            CommitListener listener,
+            BatchTrace trace
+    ) {
+        applySampledLayout();
+        CommitEvent event = new CommitEvent();
+        event.begin();
+        boolean commit = !files.isEmpty() || !properties.isEmpty();
+        Snapshot snapshot;
+        if (commit) {
+            long start = System.nanoTime();
+            if (files.deleteFiles().isEmpty()) {
+                AppendFiles append = table.newFastAppend();
+                files.dataFiles().forEach(append::appendFile);
+                properties.forEach(append::set);
+                snapshot = commit(append);
+            } else if (files.referencedDataFiles().isEmpty()) {
+                snapshot = commit(rowDelta(files.dataFiles(), files.deleteFiles(), properties));
+            } else {
+                snapshot = commitPositionDeletes(files, properties, trace);
+            }
+            long elapsed = System.nanoTime() - start;
+            commitLatency.record(elapsed, TimeUnit.NANOSECONDS);
+            trace.addCommit(elapsed);
+            commits.increment();
+            StartupTimer.committed();
+            logger.debug("{}: committed {} data file(s) and {} delete file(s)",
+                    tableName, files.dataFiles().size(), files.deleteFiles().size());
+        } else {
+            snapshot = table.currentSnapshot();
+        }
+        if (commit) {
+            manifestMerger.committed(snapshot);
+        }
+        if (files.delta() != null) {
+            if (commit) {
+                locationIndex.commit(files.delta(), snapshot);
+            } else {
+                locationIndex.discard(files.delta());
+            }
+        }
+        long checkpointStart = System.nanoTime();
+        listener.committed(snapshot);
+        trace.addCheckpoint(System.nanoTime() - checkpointStart);
+        long commitMillis = commit && snapshot != null ? snapshot.timestampMillis() : System.currentTimeMillis();
+        event.end();
+        if (event.shouldCommit()) {
+            event.table = tableName;
+            event.snapshotId = snapshot == null ? -1 : snapshot.snapshotId();
+            event.dataFiles = files.dataFiles().size();
+            event.deleteFiles = files.deleteFiles().size();
+            event.lag = trace.oldestSourceMillis() > 0 ? commitMillis - trace.oldestSourceMillis() : 0;
+            event.commit();
+        }
+        trace.completed(commitMillis);
+        return snapshot;
+    }
+
+    private void applySampledLayout() {
+        Map<String, String> sampled = sampledLayout.getAndSet(null);
+        if (sampled == null) {
+            return;
+        }
+        try {
+            Map<String, String> changed = ParquetLayout.apply(table, sampled);
+            logger.info("{}: Parquet layout chosen from a sample: {}", tableName, changed.isEmpty() ? "unchanged" : changed);
+        } catch (RuntimeException e) {
+            logger.warn("{}: failed to apply the sampled Parquet layout", tableName, e);
+        }
+    }
+
+    /**
+     * Commits a batch whose position deletes refer to data files, failing validation if any of
+     * them was removed after the index snapshot the positions were looked up in. The batch is
+     * then committed with equality deletes of all its deleted ids instead.
+     */
+    private Snapshot commitPositionDeletes(WrittenFiles files, Map<String, String> properties, BatchTrace trace) {
+        RowDelta rowDelta = rowDelta(files.dataFiles(), files.deleteFiles(), properties)
+                .validateDataFilesExist(files.referencedDataFiles())
+                .validateDeletedFiles();
+        files.rewrittenDeleteFiles().forEach(rowDelta::removeDeletes);
+        if (files.basedOnSnapshotId() >= 0) {
+            rowDelta.validateFromSnapshot(files.basedOnSnapshotId());
+        }
+        try {
+            return commit(rowDelta);
+        } catch (ValidationException e) {
+            logger.warn("{}: data files were rewritten under the batch's position deletes ({}); "
+                    + "committing it with equality deletes", tableName, e.getMessage());
+            files.deleteFiles().forEach(file -> table.io().deleteFile(file.location()));
+            DeleteFile equalityDeletes = writeDeleteFile(files.deletedIds(), trace);
+            return commit(rowDelta(files.dataFiles(), List.of(equalityDeletes), properties));
+        }
+    }
+
+    /**
+     * Commits {@code update} and returns the snapshot it created. The table's current snapshot
+     * may already be a later one, such as a {@link ManifestMerger} rewrite committed in between.
+     */
+    private Snapshot commit(SnapshotUpdate<?> update) {
+        update.commit();
+        CreateSnapshotEvent created = (CreateSnapshotEvent) update.updateEvent();
+        return table.snapshot(created.snapshotId());
+    }
+
+    private RowDelta rowDelta(List<DataFile> dataFiles, List<DeleteFile> deleteFiles, Map<String, String> properties) {
+        RowDelta rowDelta = table.newRowDelta();
+        dataFiles.forEach(rowDelta::addRows);
+        deleteFiles.forEach(rowDelta::addDeletes);
+        properties.forEach(rowDelta::set);
+        return rowDelta;
+    }
+
+    /**
+     * Output of the encode stage. With a location index it also carries what the commit stage
+     * needs to validate position deletes, fall back to equality deletes, and update the index.
+     */
+    private record WrittenFiles(
+            List<DataFile> dataFiles,
+            List<DeleteFile> deleteFiles,
+            List<DeleteFile> rewrittenDeleteFiles,
+            List<String> referencedDataFiles,
+            long basedOnSnapshotId,
+            RecordBuffer.Batch deletedIds,
+            IdLocationIndex.Delta delta
+    ) {
+
+        WrittenFiles(List<DataFile> dataFiles, List<DeleteFile> deleteFiles) {
+            this(dataFiles, deleteFiles, List.of(), List.of(), -1, null, null);
+        }
+
+        boolean isEmpty() {
+            return dataFiles.isEmpty() && deleteFiles.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,842 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import org.apache.iceberg.DataFile;
+import org.apache.iceberg.DeleteFile;
+import org.apache.iceberg.FileContent;
+import org.apache.iceberg.FileFormat;
+import org.apache.iceberg.FileScanTask;
+import org.apache.iceberg.MetadataColumns;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.SnapshotSummary;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.data.GenericDeleteFilter;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.data.parquet.GenericParquetReaders;
+import org.apache.iceberg.io.CloseableIterable;
+import org.apache.iceberg.parquet.Parquet;
+import org.apache.iceberg.types.Conversions;
+import org.apache.iceberg.types.Type;
+import org.apache.iceberg.types.Types;
+import org.apache.iceberg.util.SnapshotUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * Persistent map from MongoDB {@code _id} to the data file and row position of its live row, so
+ * that updates and deletes can be written as position deletes (or deletion vectors on v3
+ * tables) instead of equality deletes that every reader has to join against every data file.
+ * <p>
+ * Entries live in an open-addressing hash file on local disk, memory-mapped in segments. Keys are
+ * the id value in Iceberg's single-value binary form and are stored inline when they fit in
+ * {@value #MAX_KEY_BYTES} bytes, which covers a hex {@code ObjectId}. Longer ids are not
+ * indexed; deletes of them fall back to equality deletes.
+ * <p>
+ * The file reflects the table as of {@link #snapshotId()}. A batch that has been encoded but not
+ * committed yet is held in memory as a {@link Delta}, which lookups see on top of the file, and
+ * is applied to the file once its commit lands. A {@link CompactionManager} rewrite reports
+ * where it moved each row as a {@link Rewrite}, which moves the entries of the rewritten files.
+ * If the file is missing or unreadable, or a snapshot it has not seen otherwise added or removed
+ * data files (another writer, a rewrite without its moves), the index is rebuilt by reading the
+ * id column and row positions of every live row in the table.
+ */
+public final class IdLocationIndex implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdLocationIndex.class);
+
+    static final int MAX_KEY_BYTES = 24;
+
+    private static final int MAGIC = 0x4D494458;
+    private static final int VERSION = 1;
+    private static final long NO_SNAPSHOT = -1;
+
+    // Header: magic, version, capacity, size, tombstones, path count, snapshot id.
+    private static final int HEADER_BYTES = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 12;
+    private static final int TOMBSTONES_OFFSET = 16;
+    private static final int PATH_COUNT_OFFSET = 20;
+    private static final int SNAPSHOT_OFFSET = 24;
+
+    // Slot: key length (0 empty, -1 removed), key bytes, file ordinal, row position.
+    private static final int SLOT_BYTES = 40;
+    private static final int ORDINAL_OFFSET = 28;
+    private static final int POSITION_OFFSET = 32;
+    private static final byte EMPTY = 0;
+    private static final byte REMOVED = -1;
+
+    private static final int SEGMENT_SHIFT = 24;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    private static final int MIN_CAPACITY = 1024;
+
+    /**
+     * Where the live row of an id is.
+     */
+    public record Location(DataFile file, long position) {
+    }
+
+    private final Table table;
+    private final Types.NestedField idField;
+    private final Path indexFile;
+    private final Path pathsFile;
+
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] segments;
+    private int capacity;
+    private int size;
+    private int tombstones;
+    private long snapshotId = NO_SNAPSHOT;
+
+    private final List<String> paths = new ArrayList<>();
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private int persistedPaths;
+    private final Map<String, DataFile> dataFiles = new HashMap<>();
+    private final Map<String, DeleteFile> deletionVectors = new HashMap<>();
+    private final Deque<Delta> pending = new ArrayDeque<>();
+    // Rewrites committed but not applied yet, by snapshot id.
+    private final Map<Long, Rewrite> rewrites = new HashMap<>();
+    private int rewritesInProgress;
+
+    private IdLocationIndex(Table table, Types.NestedField idField, Path directory) {
+        this.table = table;
+        this.idField = idField;
+        String name = table.name().replaceAll("[^A-Za-z0-9._-]", "_");
+        this.indexFile = directory.resolve(name + ".idx");
+        this.pathsFile = directory.resolve(name + ".files");
+    }
+
+    /**
+     * Opens the index of {@code table} kept in {@code directory}, rebuilding it from the table
+     * when it is missing or out of date.
+     */
+    public static IdLocationIndex open(Path directory, Table table, String idColumn) {
+        Types.NestedField idField = table.schema().findField(idColumn);
+        if (idField == null) {
+            throw new IllegalArgumentException("id column does not exist in table " + table.name() + ": " + idColumn);
+        }
+        if (!idField.type().isPrimitiveType()) {
+            throw new IllegalArgumentException("id column " + idColumn + " of table " + table.name()
+                    + " has type " + idField.type() + "; only primitive ids can be indexed");
+        }
+        IdLocationIndex index = new IdLocationIndex(table, idField, directory);
+        try {
+            Files.createDirectories(directory);
+            table.refresh();
+            if (!index.load()) {
+                index.rebuild();
+            }
+        } catch (IOException e) {
+            index.close();
+            throw new UncheckedIOException("failed to open id index " + index.indexFile, e);
+        } catch (RuntimeException e) {
+            index.close();
+            throw e;
+        }
+        return index;
+    }
+
+    /**
+     * Snapshot of the table the on-disk entries reflect, or {@code -1} for an empty table.
+     */
+    public synchronized long snapshotId() {
+        return snapshotId;
+    }
+
+    /**
+     * Number of indexed ids in the committed table.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Whether {@code id} is short enough to be indexed. Deletes of other ids need an equality
+     * delete.
+     */
+    public boolean isIndexable(Object id) {
+        return id != null && key(id).remaining() <= MAX_KEY_BYTES;
+    }
+
+    /**
+     * Returns the location of the live row of an indexable {@code id}, including rows of batches
+     * that are staged but not committed yet, or {@code null} if the table has no row for it.
+     */
+    public synchronized Location lookup(Object id) {
+        ByteBuffer key = key(id);
+        for (Iterator<Delta> deltas = pending.descendingIterator(); deltas.hasNext(); ) {
+            Delta delta = deltas.next();
+            if (delta.entries.containsKey(key)) {
+                Entry entry = delta.entries.get(key);
+                return entry == null ? null : new Location(dataFile(entry.path()), entry.position());
+            }
+        }
+        int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        ByteBuffer segment = segments[slot >>> SEGMENT_SHIFT];
+        int offset = (slot & SEGMENT_MASK) * SLOT_BYTES;
+        String path = paths.get(segment.getInt(offset + ORDINAL_OFFSET));
+        return new Location(dataFile(path), segment.getLong(offset + POSITION_OFFSET));
+    }
+
+    /**
+     * Returns the current deletion vector of a data file, including ones of staged batches.
+     */
+    public synchronized DeleteFile deletionVector(String dataFilePath) {
+        for (Iterator<Delta> deltas = pending.descendingIterator(); deltas.hasNext(); ) {
+            DeleteFile vector = deltas.next().deletionVectors.get(dataFilePath);
+            if (vector != null) {
+                return vector;
+            }
+        }
+        return deletionVectors.get(dataFilePath);
+    }
+
+    public Delta newDelta() {
+        return new Delta();
+    }
+
+    /**
+     * Makes an encoded batch visible to lookups ahead of its commit. Deltas are committed in the
+     * order they are staged.
+     */
+    public synchronized void stage(Delta delta) {
+        pending.addLast(delta);
+    }
+
+    /**
+     * Drops a staged delta whose batch failed to commit.
+     */
+    public synchronized void discard(Delta delta) {
+        pending.remove(delta);
+    }
+
+    /**
+     * Applies the delta of a batch committed as {@code snapshot}, after the rewrites committed
+     * since the snapshot the index reflects. If a snapshot in between changed data files in
+     * another way, the index is rebuilt instead.
+     */
+    public synchronized void commit(Delta delta, Snapshot snapshot) {
+        pending.remove(delta);
+        List<Long> rewritten = rewritesSince(snapshot.parentId());
+        if (rewritten == null) {
+            logger.info("{}: data files changed outside this writer; rebuilding id index", table.name());
+            rebuild();
+            return;
+        }
+        try {
+            for (long rewriteId : rewritten) {
+                apply(rewrites.remove(rewriteId));
+            }
+            dataFiles.putAll(delta.dataFiles);
+            deletionVectors.putAll(delta.deletionVectors);
+            for (Map.Entry<ByteBuffer, Entry> entry : delta.entries.entrySet()) {
+                if (entry.getValue() == null) {
+                    remove(entry.getKey());
+                } else {
+                    put(entry.getKey(), ordinal(entry.getValue().path()), entry.getValue().position());
+                }
+            }
+            persist(snapshot.snapshotId());
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to update id index " + indexFile, e);
+        }
+    }
+
+    /**
+     * Rebuilds the index from the live rows of the table's current snapshot. Staged deltas are
+     * kept and still apply on top.
+     */
+    public synchronized void rebuild() {
+        long start = System.nanoTime();
+        table.refresh();
+        Snapshot current = table.currentSnapshot();
+        long rows = current == null ? 0
+                : Long.parseLong(current.summary().getOrDefault(SnapshotSummary.TOTAL_RECORDS_PROP, "0"));
+        try {
+            reset(capacityFor(rows));
+            if (current != null) {
+                Schema projection = new Schema(idField, MetadataColumns.ROW_POSITION);
+                try (CloseableIterable<FileScanTask> tasks = table.newScan().useSnapshot(current.snapshotId()).planFiles()) {
+                    for (FileScanTask task : tasks) {
+                        indexFile(task, projection);
+                    }
+                }
+            }
+            persist(current == null ? NO_SNAPSHOT : current.snapshotId());
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to rebuild id index " + indexFile, e);
+        }
+        if (current != null) {
+            rewrites.keySet().removeIf(id -> SnapshotUtil.isAncestorOf(table, current.snapshotId(), id));
+        }
+        logger.info("{}: rebuilt id index with {} id(s) from {} data file(s) in {} ms", table.name(), size,
+                dataFiles.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public Rewrite newRewrite() {
+        return new Rewrite();
+    }
+
+    /**
+     * Runs the commit of a compaction rewrite and records where it moved the rows, so the index
+     * follows the rewrite instead of being rebuilt. A batch commit that finds the rewrite's
+     * snapshot while {@code commit} is still running waits for it.
+     *
+     * @param commit commits the rewrite and returns its snapshot id
+     */
+    public void rewrite(Rewrite rewrite, LongSupplier commit) {
+        synchronized (this) {
+            rewritesInProgress++;
+        }
+        try {
+            long rewriteId = commit.getAsLong();
+            synchronized (this) {
+                rewrites.put(rewriteId, rewrite);
+                Snapshot snapshot = table.snapshot(rewriteId);
+                // Nothing committed between the index snapshot and the rewrite: apply it now, so
+                // the next batches already look up the rewritten files.
+                if (snapshot != null && snapshot.parentId() != null && snapshot.parentId() == snapshotId) {
+                    try {
+                        apply(rewrites.remove(rewriteId));
+                        persist(rewriteId);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("failed to update id index " + indexFile, e);
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                rewritesInProgress--;
+                notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            force();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to close id index " + indexFile, e);
+        } finally {
+            channel = null;
+        }
+    }
+
+    /**
+     * Changes of one batch: where its rows were written and which ids it deleted, plus the data
+     * files and deletion vectors it adds.
+     */
+    public final class Delta {
+
+        // A null value marks an id whose row was deleted.
+        private final Map<ByteBuffer, Entry> entries = new HashMap<>();
+        private final Map<String, DataFile> dataFiles = new HashMap<>();
+        private final Map<String, DeleteFile> deletionVectors = new HashMap<>();
+
+        private Delta() {
+        }
+
+        public void written(Object id, String path, long position) {
+            ByteBuffer key = key(id);
+            if (key.remaining() <= MAX_KEY_BYTES) {
+                entries.put(key, new Entry(path, position));
+            }
+        }
+
+        public void deleted(Object id) {
+            ByteBuffer key = key(id);
+            if (key.remaining() <= MAX_KEY_BYTES) {
+                entries.put(key, null);
+            }
+        }
+
+        public void addDataFiles(List<DataFile> files) {
+            files.forEach(file -> dataFiles.put(file.location(), file));
+        }
+
+        public void addDeletionVectors(List<DeleteFile> vectors) {
+            vectors.forEach(vector -> deletionVectors.put(vector.referencedDataFile(), vector));
+        }
+    }
+
+    /**
+     * Rows a compaction rewrite moved: the data files it removed and, for each rewritten id, the
+     * file and position its row was written to.
+     */
+    public final class Rewrite {
+
+        private final Map<ByteBuffer, Entry> entries = new HashMap<>();
+        private final Set<String> removedFiles = new HashSet<>();
+        private final Map<String, DataFile> addedFiles = new HashMap<>();
+
+        private Rewrite() {
+        }
+
+        public void written(Record row, String path, long position) {
+            Object id = row.getField(idField.name());
+            if (id != null) {
+                ByteBuffer key = key(id);
+                if (key.remaining() <= MAX_KEY_BYTES) {
+                    entries.put(key, new Entry(path, position));
+                }
+            }
+        }
+
+        public void removeDataFile(DataFile file) {
+            removedFiles.add(file.location());
+        }
+
+        public void addDataFiles(List<DataFile> files) {
+            files.forEach(file -> addedFiles.put(file.location(), file));
+        }
+    }
+
+    private record Entry(String path, long position) {
+    }
+
+    private ByteBuffer key(Object id) {
+        return Conversions.toByteBuffer(idField.type(), id);
+    }
+
+    private DataFile dataFile(String path) {
+        for (Iterator<Delta> deltas = pending.descendingIterator(); deltas.hasNext(); ) {
+            DataFile file = deltas.next().dataFiles.get(path);
+            if (file != null) {
+                return file;
+            }
+        }
+        DataFile file = dataFiles.get(path);
+        if (file == null) {
+            throw new IllegalStateException("id index of " + table.name() + " refers to unknown data file " + path);
+        }
+        return file;
+    }
+
+    /**
+     * Whether no snapshot from {@code snapshotId} back to the one the index reflects added or
+     * removed data files.
+     */
+    private boolean coversAncestorsOf(Long ancestorId) {
+        Long id = ancestorId;
+        while (id != null && id != snapshotId) {
+            Snapshot snapshot = table.snapshot(id);
+            if (snapshot == null) {
+                // Expired history: cannot tell what happened in between.
+                return false;
+            }
+            if (changesDataFiles(snapshot)) {
+                return false;
+            }
+            id = snapshot.parentId();
+        }
+        return id != null || snapshotId == NO_SNAPSHOT;
+    }
+
+    /**
+     * The rewrites from {@code ancestorId} back to the snapshot the index reflects, oldest first,
+     * or {@code null} if a snapshot in between changed data files in another way. Waits for
+     * rewrites still committing, which may be the snapshots it does not know yet.
+     */
+    private List<Long> rewritesSince(Long ancestorId) {
+        while (true) {
+            List<Long> found = new ArrayList<>();
+            boolean unknown = false;
+            Long id = ancestorId;
+            while (id != null && id != snapshotId) {
+                Snapshot snapshot = table.snapshot(id);
+                if (snapshot == null) {
+                    // Expired history: cannot tell what happened in between.
+                    return null;
+                }
+                if (changesDataFiles(snapshot)) {
+                    if (!rewrites.containsKey(id)) {
+                        unknown = true;
+                        break;
+                    }
+                    found.add(id);
+                }
+                id = snapshot.parentId();
+            }
+            if (!unknown) {
+                if (id == null && snapshotId != NO_SNAPSHOT) {
+                    return null;
+                }
+                Collections.reverse(found);
+                return found;
+            }
+            if (rewritesInProgress == 0) {
+                return null;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private static boolean changesDataFiles(Snapshot snapshot) {
+        Map<String, String> summary = snapshot.summary();
+        return Long.parseLong(summary.getOrDefault(SnapshotSummary.ADDED_FILES_PROP, "0")) > 0
+                || Long.parseLong(summary.getOrDefault(SnapshotSummary.DELETED_FILES_PROP, "0")) > 0;
+    }
+
+    /**
+     * Moves the entries of the files a rewrite removed to where it wrote their rows. Entries of
+     * rows it did not write (deleted before the rewrite was planned) are removed.
+     */
+    private void apply(Rewrite rewrite) throws IOException {
+        Set<Integer> removedOrdinals = new HashSet<>();
+        for (String path : rewrite.removedFiles) {
+            Integer ordinal = ordinals.get(path);
+            if (ordinal != null) {
+                removedOrdinals.add(ordinal);
+            }
+            dataFiles.remove(path);
+            deletionVectors.remove(path);
+        }
+        dataFiles.putAll(rewrite.addedFiles);
+        if (removedOrdinals.isEmpty()) {
+            return;
+        }
+        ByteBuffer key = ByteBuffer.allocate(MAX_KEY_BYTES);
+        for (int slot = 0; slot < capacity; slot++) {
+            ByteBuffer segment = segments[slot >>> SEGMENT_SHIFT];
+            int offset = (slot & SEGMENT_MASK) * SLOT_BYTES;
+            byte length = segment.get(offset);
+            if (length == EMPTY || length == REMOVED
+                    || !removedOrdinals.contains(segment.getInt(offset + ORDINAL_OFFSET))) {
+                continue;
+            }
+            key.clear().put(0, segment, offset + 1, length).limit(length);
+            Entry moved = rewrite.entries.get(key);
+            if (moved == null) {
+                segment.put(offset, REMOVED);
+                size--;
+                tombstones++;
+            } else {
+                segment.putInt(offset + ORDINAL_OFFSET, ordinal(moved.path()));
+                segment.putLong(offset + POSITION_OFFSET, moved.position());
+            }
+        }
+    }
+
+    private void indexFile(FileScanTask task, Schema projection) throws IOException {
+        DataFile file = task.file();
+        if (file.format() != FileFormat.PARQUET) {
+            throw new IllegalStateException("cannot index " + file.format() + " data file " + file.location());
+        }
+        dataFiles.put(file.location(), file);
+        for (DeleteFile delete : task.deletes()) {
+            if (delete.content() == FileContent.POSITION_DELETES && delete.format() == FileFormat.PUFFIN) {
+                deletionVectors.put(file.location(), delete);
+            }
+        }
+        int ordinal = ordinal(file.location());
+        GenericDeleteFilter deletes = new GenericDeleteFilter(table.io(), task, table.schema(), projection);
+        Schema required = deletes.requiredSchema();
+        CloseableIterable<Record> rows = Parquet.read(table.io().newInputFile(file.location(), file.fileSizeInBytes()))
+                .project(required)
+                .createReaderFunc(fileSchema -> GenericParquetReaders.buildReader(required, fileSchema))
+                .build();
+        try (CloseableIterable<Record> live = deletes.filter(rows)) {
+            for (Record row : live) {
+                ByteBuffer key = key(row.getField(idField.name()));
+                if (key.remaining() <= MAX_KEY_BYTES) {
+                    put(key, ordinal, (Long) row.getField(MetadataColumns.ROW_POSITION.name()));
+                }
+            }
+        }
+    }
+
+    private int ordinal(String path) {
+        Integer ordinal = ordinals.get(path);
+        if (ordinal == null) {
+            ordinal = paths.size();
+            paths.add(path);
+            ordinals.put(path, ordinal);
+        }
+        return ordinal;
+    }
+
+    // -- hash file --------------------------------------------------------------------------
+
+    /**
+     * Maps the existing index file and loads the data file metadata it refers to. Returns
+     * {@code false} if the file has to be rebuilt.
+     */
+    private boolean load() throws IOException {
+        if (!Files.exists(indexFile) || !Files.exists(pathsFile)) {
+            return false;
+        }
+        map(indexFile);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            logger.warn("{}: id index {} has an unknown format", table.name(), indexFile);
+            return false;
+        }
+        capacity = header.getInt(CAPACITY_OFFSET);
+        size = header.getInt(SIZE_OFFSET);
+        tombstones = header.getInt(TOMBSTONES_OFFSET);
+        snapshotId = header.getLong(SNAPSHOT_OFFSET);
+        if (channel.size() < HEADER_BYTES + (long) capacity * SLOT_BYTES || !coversAncestorsOf(currentSnapshotId())) {
+            return false;
+        }
+        mapSegments();
+
+        List<String> lines = Files.readAllLines(pathsFile, StandardCharsets.UTF_8);
+        int pathCount = header.getInt(PATH_COUNT_OFFSET);
+        if (lines.size() < pathCount) {
+            return false;
+        }
+        lines.subList(0, pathCount).forEach(this::ordinal);
+        persistedPaths = pathCount;
+
+        Snapshot current = table.currentSnapshot();
+        if (current != null) {
+            try (CloseableIterable<FileScanTask> tasks = table.newScan().useSnapshot(current.snapshotId()).planFiles()) {
+                for (FileScanTask task : tasks) {
+                    dataFiles.put(task.file().location(), task.file());
+                    for (DeleteFile delete : task.deletes()) {
+                        if (delete.format() == FileFormat.PUFFIN) {
+                            deletionVectors.put(task.file().location(), delete);
+                        }
+                    }
+                }
+            }
+            // Nothing changed data files since the index snapshot, so the index now reflects
+            // the current one.
+            snapshotId = current.snapshotId();
+        }
+        logger.info("{}: loaded id index with {} id(s)", table.name(), size);
+        return true;
+    }
+
+    private long currentSnapshotId() {
+        Snapshot current = table.currentSnapshot();
+        return current == null ? NO_SNAPSHOT : current.snapshotId();
+    }
+
+    private void reset(int newCapacity) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        Files.deleteIfExists(indexFile);
+        Files.deleteIfExists(pathsFile);
+        paths.clear();
+        ordinals.clear();
+        persistedPaths = 0;
+        dataFiles.clear();
+        deletionVectors.clear();
+        map(indexFile);
+        capacity = newCapacity;
+        size = 0;
+        tombstones = 0;
+        snapshotId = NO_SNAPSHOT;
+        writeHeader();
+        mapSegments();
+    }
+
+    private void map(Path file) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+    }
+
+    private void mapSegments() throws IOException {
+        int count = (int) ((capacity + (long) SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long slots = Math.min(capacity - ((long) i << SEGMENT_SHIFT), 1L << SEGMENT_SHIFT);
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_BYTES + ((long) i << SEGMENT_SHIFT) * SLOT_BYTES, slots * SLOT_BYTES);
+        }
+    }
+
+    /**
+     * Makes the entries and new file paths durable, then records {@code snapshot} in the header.
+     * A crash before the header is written leaves the old snapshot id, and the commit's added
+     * data files then force a rebuild.
+     */
+    private void persist(long snapshot) throws IOException {
+        if (persistedPaths < paths.size()) {
+            StringBuilder appended = new StringBuilder();
+            for (String path : paths.subList(persistedPaths, paths.size())) {
+                appended.append(path).append('\n');
+            }
+            Files.writeString(pathsFile, appended, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+            persistedPaths = paths.size();
+        }
+        force();
+        snapshotId = snapshot;
+        writeHeader();
+        header.force();
+    }
+
+    private void writeHeader() {
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(CAPACITY_OFFSET, capacity);
+        header.putInt(SIZE_OFFSET, size);
+        header.putInt(TOMBSTONES_OFFSET, tombstones);
+        header.putInt(PATH_COUNT_OFFSET, persistedPaths);
+        header.putLong(SNAPSHOT_OFFSET, snapshotId);
+    }
+
+    private void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        header.force();
+    }
+
+    /**
+     * Returns the slot holding {@code key}, or {@code -(insertion slot) - 1} if it is absent.
+     */
+    private int find(ByteBuffer key) {
+        int length = key.remaining();
+        int mask = capacity - 1;
+        int insertAt = -1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            ByteBuffer segment = segments[slot >>> SEGMENT_SHIFT];
+            int offset = (slot & SEGMENT_MASK) * SLOT_BYTES;
+            byte slotLength = segment.get(offset);
+            if (slotLength == EMPTY) {
+                return -(insertAt < 0 ? slot : insertAt) - 1;
+            }
+            if (slotLength == REMOVED) {
+                if (insertAt < 0) {
+                    insertAt = slot;
+                }
+            } else if (slotLength == length && keyEquals(segment, offset + 1, key)) {
+                return slot;
+            }
+        }
+    }
+
+    private void put(ByteBuffer key, int ordinal, long position) throws IOException {
+        int slot = find(key);
+        if (slot < 0) {
+            if ((size + tombstones + 1) * 2L > capacity) {
+                resize();
+                slot = find(key);
+            }
+            slot = -slot - 1;
+            ByteBuffer segment = segments[slot >>> SEGMENT_SHIFT];
+            int offset = (slot & SEGMENT_MASK) * SLOT_BYTES;
+            if (segment.get(offset) == REMOVED) {
+                tombstones--;
+            }
+            segment.put(offset, (byte) key.remaining());
+            segment.put(offset + 1, key, key.position(), key.remaining());
+            size++;
+        }
+        ByteBuffer segment = segments[slot >>> SEGMENT_SHIFT];
+        int offset = (slot & SEGMENT_MASK) * SLOT_BYTES;
+        segment.putInt(offset + ORDINAL_OFFSET, ordinal);
+        segment.putLong(offset + POSITION_OFFSET, position);
+    }
+
+    private void remove(ByteBuffer key) {
+        int slot = find(key);
+        if (slot >= 0) {
+            segments[slot >>> SEGMENT_SHIFT].put((slot & SEGMENT_MASK) * SLOT_BYTES, REMOVED);
+            size--;
+            tombstones++;
+        }
+    }
+
+    /**
+     * Rehashes into a new file, doubling the capacity unless dropping tombstones frees enough
+     * room, and swaps it in with an atomic rename.
+     */
+    private void resize() throws IOException {
+        int newCapacity = (size + 1) * 4L > capacity ? capacity * 2 : capacity;
+        MappedByteBuffer[] oldSegments = segments;
+        int oldCapacity = capacity;
+        Path resized = indexFile.resolveSibling(indexFile.getFileName() + ".resize");
+        Files.deleteIfExists(resized);
+        map(resized);
+        capacity = newCapacity;
+        tombstones = 0;
+        mapSegments();
+        ByteBuffer key = ByteBuffer.allocate(MAX_KEY_BYTES);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            ByteBuffer segment = oldSegments[slot >>> SEGMENT_SHIFT];
+            int offset = (slot & SEGMENT_MASK) * SLOT_BYTES;
+            byte length = segment.get(offset);
+            if (length == EMPTY || length == REMOVED) {
+                continue;
+            }
+            key.clear().put(0, segment, offset + 1, length).limit(length);
+            int target = -find(key) - 1;
+            ByteBuffer targetSegment = segments[target >>> SEGMENT_SHIFT];
+            targetSegment.put((target & SEGMENT_MASK) * SLOT_BYTES, segment, offset, SLOT_BYTES);
+        }
+        writeHeader();
+        force();
+        Files.move(resized, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.debug("{}: resized id index to {} slots", table.name(), capacity);
+    }
+
+    private static boolean keyEquals(ByteBuffer segment, int offset, ByteBuffer key) {
+        for (int i = 0; i < key.remaining(); i++) {
+            if (segment.get(offset + i) != key.get(key.position() + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(ByteBuffer key) {
+        int hash = 0x9747b28c;
+        for (int i = key.position(); i < key.limit(); i++) {
+            hash = (hash ^ key.get(i)) * 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    private static int capacityFor(long rows) {
+        long wanted = Math.max(MIN_CAPACITY, rows * 2);
+        if (wanted > 1 << 30) {
+            throw new IllegalStateException("too many rows to index: " + rows);
+        }
+        return Integer.highestOneBit((int) wanted - 1) << 1;
+    }
+}
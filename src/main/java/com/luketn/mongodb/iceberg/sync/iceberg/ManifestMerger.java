@@ -0,0 +1,153 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.iceberg.ManifestFile;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.SnapshotSummary;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.TableProperties;
+import org.apache.iceberg.util.PropertyUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Merges a table's small data manifests in the background, off the commit path.
+ * <p>
+ * The write manager commits plain appends as fast appends, which write one manifest for the
+ * batch and keep every existing manifest as it is. A commit then costs the same however long
+ * the table's history is, and a commit that loses an optimistic-concurrency race is retried by
+ * re-pointing the already written manifest at the refreshed metadata; nothing else is
+ * rewritten. Left alone, those per-batch manifests would pile up and slow down planning, so
+ * once {@code commit.manifest.min-count-to-merge} manifests have been added since the last
+ * merge, this rewrites the data manifests smaller than {@code commit.manifest.target-size-bytes}
+ * into manifests of about that size, as one {@code RewriteManifests} commit on its own thread.
+ * With {@code commit.manifest-merge.enabled: false} it does nothing, as Iceberg would not merge
+ * either.
+ * <p>
+ * The number of manifests is taken from the snapshot summaries ({@code manifests-created} plus
+ * {@code manifests-kept}), so watching for the threshold reads nothing from storage. Row deltas
+ * are still merged by Iceberg on commit, but with the appends' manifests merged here they
+ * rarely find anything to merge.
+ */
+final class ManifestMerger implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ManifestMerger.class);
+
+    private final Table table;
+    private final String tableName;
+    private final boolean enabled;
+    private final int minCount;
+    private final long targetBytes;
+    private final ExecutorService executor;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicInteger manifests = new AtomicInteger();
+    // Manifests right after the last merge, which count towards no merge.
+    private volatile int merged;
+
+    private final MeterRegistry meterRegistry;
+    private final List<Meter> meters = new ArrayList<>();
+    private final Counter merges;
+    private final Timer mergeDuration;
+
+    ManifestMerger(Table table, MeterRegistry meterRegistry) {
+        this.table = table;
+        this.tableName = table.name();
+        Map<String, String> properties = table.properties();
+        this.enabled = PropertyUtil.propertyAsBoolean(properties,
+                TableProperties.MANIFEST_MERGE_ENABLED, TableProperties.MANIFEST_MERGE_ENABLED_DEFAULT);
+        this.minCount = Math.max(2, PropertyUtil.propertyAsInt(properties,
+                TableProperties.MANIFEST_MIN_MERGE_COUNT, TableProperties.MANIFEST_MIN_MERGE_COUNT_DEFAULT));
+        this.targetBytes = PropertyUtil.propertyAsLong(properties,
+                TableProperties.MANIFEST_TARGET_SIZE_BYTES, TableProperties.MANIFEST_TARGET_SIZE_BYTES_DEFAULT);
+        this.executor = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("iceberg-manifests-" + tableName).factory());
+        this.meterRegistry = meterRegistry;
+
+        meters.add(Gauge.builder("sync.iceberg.manifests", manifests, AtomicInteger::get)
+                .description("manifests in the table's latest snapshot committed by the sync")
+                .tag("table", tableName).register(meterRegistry));
+        this.merges = Counter.builder("sync.iceberg.manifest.merges").tag("table", tableName).register(meterRegistry);
+        this.mergeDuration = Timer.builder("sync.iceberg.manifest.merge.duration").tag("table", tableName).register(meterRegistry);
+        meters.add(merges);
+        meters.add(mergeDuration);
+    }
+
+    /**
+     * Called on the commit thread after each commit; starts a merge if enough manifests were
+     * added and none is running.
+     */
+    void committed(Snapshot snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        Map<String, String> summary = snapshot.summary();
+        int created = PropertyUtil.propertyAsInt(summary, SnapshotSummary.CREATED_MANIFESTS_COUNT, -1);
+        int kept = PropertyUtil.propertyAsInt(summary, SnapshotSummary.KEPT_MANIFESTS_COUNT, -1);
+        if (created < 0 || kept < 0) {
+            return;
+        }
+        int count = created + kept;
+        manifests.set(count);
+        if (enabled && count - merged >= minCount && running.compareAndSet(false, true)) {
+            executor.execute(this::merge);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        meters.forEach(meterRegistry::remove);
+    }
+
+    private void merge() {
+        try {
+            Snapshot current = table.currentSnapshot();
+            List<ManifestFile> all = current.allManifests(table.io());
+            int small = 0;
+            for (ManifestFile manifest : current.dataManifests(table.io())) {
+                if (manifest.length() < targetBytes) {
+                    small++;
+                }
+            }
+            if (small < minCount) {
+                // Small manifests left by other writers or an earlier run; wait for more.
+                merged = all.size() - small;
+                return;
+            }
+            long start = System.nanoTime();
+            table.rewriteManifests()
+                    .rewriteIf(manifest -> manifest.length() < targetBytes)
+                    .clusterBy(file -> file.specId())
+                    .commit();
+            long elapsed = System.nanoTime() - start;
+            mergeDuration.record(elapsed, TimeUnit.NANOSECONDS);
+            merges.increment();
+            merged = all.size() - small + 1;
+            logger.info("{}: merged {} small data manifest(s) in {} ms", tableName, small,
+                    TimeUnit.NANOSECONDS.toMillis(elapsed));
+        } catch (RuntimeException e) {
+            // Retried once another minCount manifests have been added.
+            merged = manifests.get();
+            logger.warn("{}: manifest merge failed", tableName, e);
+        } finally {
+            running.set(false);
+        }
+    }
+}
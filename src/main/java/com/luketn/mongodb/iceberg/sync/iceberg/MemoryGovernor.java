@@ -0,0 +1,259 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Heap budget shared by the write buffers of all tables ({@code sync.memory}).
+ * <p>
+ * Each {@link IcebergWriteManager} holds a {@link Reservation} and reports the bytes its batch
+ * and its caller's coalescing window hold whenever its flush thresholds are checked. Nothing is
+ * set aside per table: a table's share is what it buffers right now, so idle tables do not hold
+ * memory that busy ones need. {@code batch.maxBytes} still caps each table on its own.
+ * <p>
+ * Once the buffers together pass {@code flushAtPercent} of the budget, tables are asked to flush
+ * until the requested flushes bring usage back under that threshold, the ones holding the most
+ * bytes for the longest (bytes times age) first. Once the budget is used up, producers wait in
+ * {@link Reservation#awaitRoom}, which pauses their cursors, until flushes free memory. Tables
+ * asked to flush do not wait, so that they can free it.
+ * <p>
+ * Flushed batches are not counted: {@code batch.maxInFlightBatches} bounds them per table.
+ */
+public final class MemoryGovernor {
+
+    static final long MAX_WAIT_MILLIS = 100;
+
+    private final long budgetBytes;
+    private final long flushAtBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final Set<Reservation> reservations = ConcurrentHashMap.newKeySet();
+    private final MeterRegistry meterRegistry;
+    private final List<Meter> meters = new ArrayList<>();
+
+    // Guarded by this.
+    private long requestedBytes;
+    private volatile int waiting;
+
+    public MemoryGovernor(long budgetBytes, int flushAtPercent, MeterRegistry meterRegistry) {
+        this.budgetBytes = budgetBytes;
+        this.flushAtBytes = budgetBytes / 100 * flushAtPercent;
+        this.meterRegistry = meterRegistry;
+        meters.add(Gauge.builder("sync.memory.budget", () -> budgetBytes)
+                .description("heap budget of the write buffers of all tables")
+                .baseUnit("bytes")
+                .register(meterRegistry));
+        meters.add(Gauge.builder("sync.memory.used", usedBytes, AtomicLong::get)
+                .description("bytes the write buffers of all tables hold")
+                .baseUnit("bytes")
+                .register(meterRegistry));
+    }
+
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    public long usedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Registers the write buffer of {@code table}; closing the reservation releases its bytes.
+     */
+    public Reservation reserve(String table) {
+        Reservation reservation = new Reservation(table);
+        reservations.add(reservation);
+        return reservation;
+    }
+
+    /**
+     * Removes the governor's own meters. Reservations remove theirs when closed.
+     */
+    public void close() {
+        meters.forEach(meterRegistry::remove);
+    }
+
+    private void changed(long delta) {
+        long used = usedBytes.addAndGet(delta);
+        if (used > flushAtBytes || (delta < 0 && waiting > 0)) {
+            synchronized (this) {
+                requestFlushes();
+                if (delta < 0) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Asks the tables with the highest bytes times age to flush, until the flushes asked for
+     * bring usage under the threshold. Called holding the lock.
+     */
+    private void requestFlushes() {
+        if (usedBytes.get() - requestedBytes <= flushAtBytes) {
+            return;
+        }
+        long now = System.nanoTime();
+        record Candidate(Reservation reservation, long bytes, double score) {
+        }
+        List<Candidate> candidates = new ArrayList<>();
+        for (Reservation reservation : reservations) {
+            long bytes = reservation.bytes;
+            if (!reservation.flushRequested && bytes > 0) {
+                double score = (double) bytes * (now - reservation.heldSinceNanos + 1);
+                candidates.add(new Candidate(reservation, bytes, score));
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(Candidate::score).reversed());
+        boolean requested = false;
+        for (Candidate candidate : candidates) {
+            if (usedBytes.get() - requestedBytes <= flushAtBytes) {
+                break;
+            }
+            candidate.reservation().requestedBytes = candidate.bytes();
+            candidate.reservation().flushRequested = true;
+            requestedBytes += candidate.bytes();
+            requested = true;
+        }
+        if (requested) {
+            // Producers of the tables asked to flush may be waiting for room.
+            notifyAll();
+        }
+    }
+
+    /**
+     * One table's share of the budget. Updated by the table's write manager only.
+     */
+    public final class Reservation implements AutoCloseable {
+
+        private final String table;
+        private final Counter forcedFlushes;
+        private final Timer backpressure;
+        private final List<Meter> reservationMeters = new ArrayList<>();
+
+        private volatile long bytes;
+        private volatile long heldSinceNanos;
+        private volatile boolean flushRequested;
+        // Guarded by the governor.
+        private long requestedBytes;
+
+        private Reservation(String table) {
+            this.table = table;
+            reservationMeters.add(Gauge.builder("sync.memory.reserved", this, Reservation::bytes)
+                    .description("bytes the table's write buffer holds")
+                    .baseUnit("bytes")
+                    .tag("table", table).register(meterRegistry));
+            reservationMeters.add(Gauge.builder("sync.memory.share", this,
+                            reservation -> (double) reservation.bytes / budgetBytes)
+                    .description("fraction of the memory budget the table's write buffer holds")
+                    .tag("table", table).register(meterRegistry));
+            this.forcedFlushes = Counter.builder("sync.memory.forced.flushes")
+                    .description("flushes the memory budget asked for before the table's own thresholds")
+                    .tag("table", table).register(meterRegistry);
+            this.backpressure = Timer.builder("sync.memory.backpressure")
+                    .description("time producers waited for room in the memory budget")
+                    .tag("table", table).register(meterRegistry);
+            reservationMeters.add(forcedFlushes);
+            reservationMeters.add(backpressure);
+        }
+
+        public String table() {
+            return table;
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        /**
+         * Records the bytes the table buffers now.
+         */
+        void update(long bytes) {
+            long delta = bytes - this.bytes;
+            if (delta == 0) {
+                return;
+            }
+            if (this.bytes == 0) {
+                heldSinceNanos = System.nanoTime();
+            }
+            this.bytes = bytes;
+            changed(delta);
+        }
+
+        /**
+         * Whether the governor asked the table to flush to free memory.
+         */
+        boolean isFlushRequested() {
+            return flushRequested;
+        }
+
+        /**
+         * Records that the table's buffer was handed to the write pipeline.
+         */
+        void flushed() {
+            if (clearRequest()) {
+                forcedFlushes.increment();
+            }
+            update(0);
+        }
+
+        private boolean clearRequest() {
+            if (!flushRequested) {
+                return false;
+            }
+            synchronized (MemoryGovernor.this) {
+                MemoryGovernor.this.requestedBytes -= requestedBytes;
+                requestedBytes = 0;
+                flushRequested = false;
+            }
+            return true;
+        }
+
+        /**
+         * Waits while the budget is used up, unless the table was asked to flush. A wait lasts at
+         * most {@value #MAX_WAIT_MILLIS} ms, so that a thread driving several tables (a shared
+         * change stream) gets round to flushing the ones asked to; its next call waits again.
+         */
+        void awaitRoom() throws InterruptedException {
+            if (usedBytes.get() < budgetBytes || flushRequested) {
+                return;
+            }
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS);
+            synchronized (MemoryGovernor.this) {
+                waiting++;
+                try {
+                    while (usedBytes.get() >= budgetBytes && !flushRequested) {
+                        requestFlushes();
+                        long remaining = deadline - System.nanoTime();
+                        if (flushRequested || remaining <= 0) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(MemoryGovernor.this, remaining);
+                    }
+                } finally {
+                    waiting--;
+                }
+            }
+            backpressure.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void close() {
+            clearRequest();
+            update(0);
+            reservations.remove(this);
+            reservationMeters.forEach(meterRegistry::remove);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import com.luketn.mongodb.iceberg.sync.config.LayoutConfig;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.TableProperties;
+import org.apache.iceberg.UpdateProperties;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.types.Type;
+import org.apache.iceberg.types.Types;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The Parquet layout of a table's data files, as table properties, so that the sync's writers,
+ * compaction and other engines writing to the table all use it.
+ * <p>
+ * {@link #configured} turns a collection's {@code layout} settings into properties, including a
+ * bloom filter on the {@code _id} column (on by default), which lets point lookups and
+ * {@code _id} predicates skip row groups. In {@code auto} mode, {@link #sampled} chooses the rest
+ * from a batch of the collection's rows:
+ * <ul>
+ *     <li><b>Dictionary size.</b> Parquet dictionary-encodes every column until its dictionary
+ *     outgrows {@code write.parquet.dict-size-bytes} and then falls back to plain encoding for
+ *     that column chunk. The size is set to fit the dictionaries of the low-cardinality columns
+ *     (at most 20% distinct values in the sample), so high-cardinality columns such as ids fall
+ *     back to plain early instead of filling a large dictionary first.</li>
+ *     <li><b>Codec.</b> zstd, at level 1 when low-cardinality columns make up most of the sampled
+ *     bytes (dictionary encoding already shrank them), and level 3 otherwise.</li>
+ *     <li><b>Row groups</b> of about a million rows, between 16 and 128 MB, so narrow tables get
+ *     row group statistics fine enough to skip on.</li>
+ *     <li><b>Pages</b> of about 20,000 values of an average column, between 64 KB and 1 MB.</li>
+ * </ul>
+ * Configured settings always take precedence over sampled ones.
+ */
+final class ParquetLayout {
+
+    /**
+     * The smallest batch worth sampling; smaller batches are written with the configured layout.
+     */
+    static final int MIN_SAMPLE_ROWS = 1_000;
+
+    private static final int SAMPLE_ROWS = 10_000;
+    private static final double LOW_CARDINALITY = 0.2;
+    private static final double DICTIONARY_SHARE = 0.75;
+    private static final long ROWS_PER_ROW_GROUP = 1_000_000;
+    private static final long VALUES_PER_PAGE = 20_000;
+    private static final long KB = 1024;
+    private static final long MB = 1024 * KB;
+
+    private ParquetLayout() {
+    }
+
+    static Map<String, String> configured(LayoutConfig layout, String idColumn) {
+        Map<String, String> properties = new HashMap<>();
+        if (layout.compression() != null) {
+            properties.put(TableProperties.PARQUET_COMPRESSION, layout.compression());
+        }
+        if (layout.compressionLevel() != null) {
+            properties.put(TableProperties.PARQUET_COMPRESSION_LEVEL, layout.compressionLevel().toString());
+        }
+        if (layout.rowGroupBytes() != null) {
+            properties.put(TableProperties.PARQUET_ROW_GROUP_SIZE_BYTES, layout.rowGroupBytes().toString());
+        }
+        if (layout.pageBytes() != null) {
+            properties.put(TableProperties.PARQUET_PAGE_SIZE_BYTES, layout.pageBytes().toString());
+        }
+        if (layout.dictionaryBytes() != null) {
+            properties.put(TableProperties.PARQUET_DICT_SIZE_BYTES, layout.dictionaryBytes().toString());
+        }
+        properties.put(TableProperties.PARQUET_BLOOM_FILTER_COLUMN_ENABLED_PREFIX + idColumn,
+                layout.idBloomFilter().toString());
+        for (String column : layout.bloomFilterColumns()) {
+            properties.put(TableProperties.PARQUET_BLOOM_FILTER_COLUMN_ENABLED_PREFIX + column, "true");
+        }
+        return properties;
+    }
+
+    static Map<String, String> sampled(RecordBuffer.Batch sample) {
+        Schema schema = sample.schema();
+        List<Types.NestedField> columns = schema.columns();
+        int rows = Math.min(sample.size(), SAMPLE_ROWS);
+        List<Set<Object>> distinct = columns.stream().<Set<Object>>map(column -> new HashSet<>()).toList();
+        long[] values = new long[columns.size()];
+        long[] bytes = new long[columns.size()];
+        GenericRecord reuse = GenericRecord.create(schema);
+        // Every n-th row, so a batch sorted by some column is not sampled at one end only.
+        int step = Math.max(1, sample.size() / rows);
+        for (int row = 0; row < sample.size(); row += step) {
+            Record record = sample.get(row, reuse);
+            for (int i = 0; i < columns.size(); i++) {
+                Type type = columns.get(i).type();
+                Object value = record.get(i);
+                if (value == null || !type.isPrimitiveType()) {
+                    continue;
+                }
+                if (value instanceof ByteBuffer buffer) {
+                    value = buffer.duplicate();
+                }
+                distinct.get(i).add(value);
+                values[i]++;
+                bytes[i] += valueBytes(type, value);
+            }
+        }
+
+        long dictionaryBytes = 0;
+        long lowCardinalityBytes = 0;
+        long sampledBytes = 0;
+        for (int i = 0; i < columns.size(); i++) {
+            sampledBytes += bytes[i];
+            int count = distinct.get(i).size();
+            boolean lowCardinality = values[i] > 0 && count <= values[i] * LOW_CARDINALITY
+                    && columns.get(i).type().typeId() != Type.TypeID.BOOLEAN;
+            if (lowCardinality) {
+                lowCardinalityBytes += bytes[i];
+                // Entries are stored plain, plus room for values the sample did not see.
+                dictionaryBytes = Math.max(dictionaryBytes, 2 * count * (bytes[i] / values[i] + 4));
+            }
+        }
+        long rowBytes = Math.max(1, sample.sizeInBytes() / Math.max(1, sample.size()));
+        long columnBytes = Math.max(1, rowBytes / Math.max(1, columns.size()));
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put(TableProperties.PARQUET_COMPRESSION, "zstd");
+        properties.put(TableProperties.PARQUET_COMPRESSION_LEVEL,
+                sampledBytes > 0 && lowCardinalityBytes >= sampledBytes * DICTIONARY_SHARE ? "1" : "3");
+        properties.put(TableProperties.PARQUET_DICT_SIZE_BYTES,
+                Long.toString(sizeBetween(dictionaryBytes, 64 * KB, 8 * MB)));
+        properties.put(TableProperties.PARQUET_ROW_GROUP_SIZE_BYTES,
+                Long.toString(sizeBetween(rowBytes * ROWS_PER_ROW_GROUP, 16 * MB, 128 * MB)));
+        properties.put(TableProperties.PARQUET_PAGE_SIZE_BYTES,
+                Long.toString(sizeBetween(columnBytes * VALUES_PER_PAGE, 64 * KB, MB)));
+        return properties;
+    }
+
+    /**
+     * Sets the properties the table does not have yet, or has with another value.
+     *
+     * @return the properties that were changed
+     */
+    static Map<String, String> apply(Table table, Map<String, String> properties) {
+        Map<String, String> current = table.properties();
+        Map<String, String> changed = new HashMap<>();
+        properties.forEach((key, value) -> {
+            if (!value.equals(current.get(key))) {
+                changed.put(key, value);
+            }
+        });
+        if (!changed.isEmpty()) {
+            UpdateProperties update = table.updateProperties();
+            changed.forEach(update::set);
+            update.commit();
+        }
+        return changed;
+    }
+
+    private static long valueBytes(Type type, Object value) {
+        return switch (type.typeId()) {
+            case STRING -> ((CharSequence) value).length();
+            case BINARY, FIXED -> value instanceof ByteBuffer buffer ? buffer.remaining() : ((byte[]) value).length;
+            case BOOLEAN -> 1;
+            case INTEGER, FLOAT, DATE -> 4;
+            case UUID, DECIMAL -> 16;
+            default -> 8;
+        };
+    }
+
+    /**
+     * The power of two at or above {@code bytes}, within {@code min} and {@code max}.
+     */
+    private static long sizeBetween(long bytes, long min, long max) {
+        long size = Long.highestOneBit(Math.max(1, bytes));
+        if (size < bytes) {
+            size <<= 1;
+        }
+        return Math.min(max, Math.max(min, size));
+    }
+}
@@ -0,0 +1,165 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.types.Types;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe columnar buffer of records waiting to be flushed to a data file.
+ * <p>
+ * Appended records are decomposed into one {@link ColumnVector} per top-level column, so the
+ * buffer holds primitive arrays rather than one {@link GenericRecord} object graph per row.
+ * {@link #sizeInBytes()} is the allocated size of those arrays, which makes
+ * {@code BatchConfig.maxBytes} a memory bound rather than an estimate; only struct, list and map
+ * columns fall back to a structural estimate.
+ */
+public final class RecordBuffer {
+
+    private final Schema schema;
+    private ColumnVector[] columns;
+    private int size;
+
+    public RecordBuffer(Schema schema) {
+        this.schema = schema;
+        this.columns = newColumns(schema);
+    }
+
+    public Schema schema() {
+        return schema;
+    }
+
+    /**
+     * Appends the record's values. The record is not retained, so callers may reuse it.
+     */
+    public synchronized void add(Record record) {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].append(record.get(i));
+        }
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized long sizeInBytes() {
+        return sizeInBytes(columns);
+    }
+
+    /**
+     * Returns the buffered rows as an immutable batch and resets the buffer for new writes.
+     */
+    public synchronized Batch snapshotAndReset() {
+        Batch batch = new Batch(schema, columns, size, sizeInBytes(columns));
+        columns = newColumns(schema);
+        size = 0;
+        return batch;
+    }
+
+    /**
+     * Moves the buffered rows into a new buffer for {@code evolved}, a later version of this
+     * buffer's schema that adds columns after the existing ones, and leaves this buffer empty.
+     * The column vectors are handed over as they are; the added columns are null for the rows.
+     */
+    public synchronized RecordBuffer evolve(Schema evolved) {
+        List<Types.NestedField> current = schema.columns();
+        List<Types.NestedField> next = evolved.columns();
+        for (int i = 0; i < current.size(); i++) {
+            if (i >= next.size() || current.get(i).fieldId() != next.get(i).fieldId()) {
+                throw new IllegalArgumentException("schema " + evolved.schemaId()
+                        + " does not extend the buffered schema " + schema.schemaId());
+            }
+        }
+        RecordBuffer buffer = new RecordBuffer(evolved);
+        System.arraycopy(columns, 0, buffer.columns, 0, columns.length);
+        for (int i = columns.length; i < buffer.columns.length; i++) {
+            for (int row = 0; row < size; row++) {
+                buffer.columns[i].append(null);
+            }
+        }
+        buffer.size = size;
+        columns = newColumns(schema);
+        size = 0;
+        return buffer;
+    }
+
+    private static ColumnVector[] newColumns(Schema schema) {
+        List<Types.NestedField> fields = schema.columns();
+        ColumnVector[] columns = new ColumnVector[fields.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = ColumnVector.forType(fields.get(i).type());
+        }
+        return columns;
+    }
+
+    private static long sizeInBytes(ColumnVector[] columns) {
+        long bytes = 0;
+        for (ColumnVector column : columns) {
+            bytes += column.allocatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Rows taken from a {@link RecordBuffer} by {@link #snapshotAndReset()}.
+     */
+    public static final class Batch {
+
+        private final Schema schema;
+        private final ColumnVector[] columns;
+        private final int size;
+        private final long sizeInBytes;
+
+        private Batch(Schema schema, ColumnVector[] columns, int size, long sizeInBytes) {
+            this.schema = schema;
+            this.columns = columns;
+            this.size = size;
+            this.sizeInBytes = sizeInBytes;
+        }
+
+        public Schema schema() {
+            return schema;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public long sizeInBytes() {
+            return sizeInBytes;
+        }
+
+        /**
+         * Reads one row into {@code reuse}.
+         */
+        public Record get(int row, GenericRecord reuse) {
+            for (int i = 0; i < columns.length; i++) {
+                reuse.set(i, columns[i].get(row));
+            }
+            return reuse;
+        }
+
+        /**
+         * Replays every row, in append order, through a single reused record. Consumers such as
+         * Parquet appenders copy the values out immediately and must not retain the record.
+         */
+        public void forEach(Consumer<Record> consumer) {
+            GenericRecord reuse = GenericRecord.create(schema);
+            for (int row = 0; row < size; row++) {
+                consumer.accept(get(row, reuse));
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import org.apache.iceberg.PartitionKey;
+import org.apache.iceberg.PartitionSpec;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.SortField;
+import org.apache.iceberg.SortOrder;
+import org.apache.iceberg.SortOrderComparators;
+import org.apache.iceberg.StructLike;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.data.InternalRecordWrapper;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.types.Types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The order a batch's rows are written in: grouped by partition, each group sorted by the
+ * table's sort order.
+ * <p>
+ * The rows stay in the batch's column vectors; the layout is a permutation of row numbers, so
+ * grouping costs an {@code int} per row and sorting a copy of the sort columns per row, plus
+ * the {@code int} scratch array of a merge sort on the row numbers themselves. Writing
+ * one group at a time keeps a single Parquet writer (and its row group buffer) open however many
+ * partitions a batch spans, and rows sorted within each file give tight min/max statistics on
+ * the sort columns.
+ */
+final class RowLayout {
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final SortOrder sortOrder;
+    private final List<Group> groups;
+
+    private RowLayout(SortOrder sortOrder, List<Group> groups) {
+        this.sortOrder = sortOrder;
+        this.groups = groups;
+    }
+
+    /**
+     * The order the rows are sorted in within each group: {@code sortOrder} as given, or
+     * unsorted if the batch's schema lacks one of its columns.
+     */
+    SortOrder sortOrder() {
+        return sortOrder;
+    }
+
+    List<Group> groups() {
+        return groups;
+    }
+
+    /**
+     * @param partition the group's partition, or {@code null} for an unpartitioned spec
+     * @param rows      row numbers of the group in write order
+     */
+    record Group(StructLike partition, int[] rows) {
+    }
+
+    static RowLayout plan(RecordBuffer.Batch rows, PartitionSpec spec, SortOrder sortOrder) {
+        Schema schema = rows.schema();
+        int[] keyColumns = keyColumns(schema, sortOrder);
+        if (keyColumns == null) {
+            sortOrder = SortOrder.unsorted();
+        }
+        int size = rows.size();
+        if (spec.isUnpartitioned() && keyColumns == null) {
+            int[] order = new int[size];
+            Arrays.setAll(order, row -> row);
+            return new RowLayout(sortOrder, List.of(new Group(null, order)));
+        }
+
+        PartitionKey partitionKey = new PartitionKey(spec, schema);
+        InternalRecordWrapper wrapper = new InternalRecordWrapper(schema.asStruct());
+        Map<PartitionKey, Integer> ordinals = new HashMap<>();
+        List<PartitionKey> partitions = new ArrayList<>();
+        int[] partitionOf = new int[size];
+        Schema keySchema = keyColumns == null ? null : keySchema(schema, keyColumns);
+        GenericRecord keyTemplate = keySchema == null ? null : GenericRecord.create(keySchema);
+        Record[] keys = keyColumns == null ? null : new Record[size];
+        GenericRecord reuse = GenericRecord.create(schema);
+        for (int row = 0; row < size; row++) {
+            Record record = rows.get(row, reuse);
+            partitionKey.partition(wrapper.wrap(record));
+            Integer ordinal = ordinals.get(partitionKey);
+            if (ordinal == null) {
+                ordinal = partitions.size();
+                PartitionKey partition = partitionKey.copy();
+                ordinals.put(partition, ordinal);
+                partitions.add(partition);
+            }
+            partitionOf[row] = ordinal;
+            if (keys != null) {
+                GenericRecord key = keyTemplate.copy();
+                for (int i = 0; i < keyColumns.length; i++) {
+                    key.set(i, record.get(keyColumns[i]));
+                }
+                keys[row] = key;
+            }
+        }
+
+        // Counting sort by partition, keeping append order within each partition.
+        int[] starts = new int[partitions.size() + 1];
+        for (int ordinal : partitionOf) {
+            starts[ordinal + 1]++;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        int[] next = Arrays.copyOf(starts, partitions.size());
+        int[] order = new int[size];
+        for (int row = 0; row < size; row++) {
+            order[next[partitionOf[row]]++] = row;
+        }
+
+        RowComparator byKey = keys == null ? null : byKey(keySchema, sortOrder, keys);
+        List<Group> groups = new ArrayList<>(partitions.size());
+        for (int i = 0; i < partitions.size(); i++) {
+            int[] group = Arrays.copyOfRange(order, starts[i], starts[i + 1]);
+            if (byKey != null && group.length > 1) {
+                sort(group, byKey);
+            }
+            groups.add(new Group(spec.isUnpartitioned() ? null : partitions.get(i), group));
+        }
+        return new RowLayout(sortOrder, groups);
+    }
+
+    /**
+     * Positions of the top-level columns holding the sort order's source columns, or
+     * {@code null} if the order is unsorted or a source column is missing from the schema.
+     */
+    private static int[] keyColumns(Schema schema, SortOrder sortOrder) {
+        if (sortOrder.isUnsorted()) {
+            return null;
+        }
+        List<Types.NestedField> columns = schema.columns();
+        List<Integer> positions = new ArrayList<>();
+        for (SortField field : sortOrder.fields()) {
+            int position = -1;
+            for (int i = 0; i < columns.size() && position < 0; i++) {
+                if (new Schema(columns.get(i)).findField(field.sourceId()) != null) {
+                    position = i;
+                }
+            }
+            if (position < 0) {
+                return null;
+            }
+            if (!positions.contains(position)) {
+                positions.add(position);
+            }
+        }
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static Schema keySchema(Schema schema, int[] keyColumns) {
+        List<Types.NestedField> columns = new ArrayList<>(keyColumns.length);
+        for (int position : keyColumns) {
+            columns.add(schema.columns().get(position));
+        }
+        return new Schema(columns);
+    }
+
+    @FunctionalInterface
+    private interface RowComparator {
+        int compare(int left, int right);
+    }
+
+    /**
+     * Stable sort of row numbers, so rows with equal keys keep their append order as they did
+     * before sorting. A merge sort alternating between {@code rows} and one scratch copy.
+     */
+    private static void sort(int[] rows, RowComparator comparator) {
+        mergeSort(rows.clone(), rows, 0, rows.length, comparator);
+    }
+
+    /**
+     * Sorts {@code target[from, to)}, which {@code source} holds a copy of, using
+     * {@code source} as scratch space.
+     */
+    private static void mergeSort(int[] source, int[] target, int from, int to, RowComparator comparator) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int row = target[i];
+                int j = i - 1;
+                while (j >= from && comparator.compare(target[j], row) > 0) {
+                    target[j + 1] = target[j];
+                    j--;
+                }
+                target[j + 1] = row;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(target, source, from, middle, comparator);
+        mergeSort(target, source, middle, to, comparator);
+        if (comparator.compare(source[middle - 1], source[middle]) <= 0) {
+            System.arraycopy(source, from, target, from, to - from);
+            return;
+        }
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < middle && comparator.compare(source[left], source[right]) <= 0) {
+                target[i] = source[left++];
+            } else {
+                target[i] = source[right++];
+            }
+        }
+    }
+
+    private static RowComparator byKey(Schema keySchema, SortOrder sortOrder, Record[] keys) {
+        Comparator<StructLike> comparator = SortOrderComparators.forSchema(keySchema, sortOrder);
+        // Sort transforms and comparators work on Iceberg's internal representation of dates
+        // and timestamps; one wrapper per side of a comparison.
+        InternalRecordWrapper left = new InternalRecordWrapper(keySchema.asStruct());
+        InternalRecordWrapper right = new InternalRecordWrapper(keySchema.asStruct());
+        return (a, b) -> comparator.compare(left.wrap(keys[a]), right.wrap(keys[b]));
+    }
+}
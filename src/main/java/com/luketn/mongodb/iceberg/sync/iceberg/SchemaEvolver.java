@@ -0,0 +1,125 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import com.luketn.mongodb.iceberg.sync.config.MappingConfig;
+import com.luketn.mongodb.iceberg.sync.mapping.BsonToIcebergConverter;
+import com.luketn.mongodb.iceberg.sync.mapping.NewFieldCollector;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.UpdateSchema;
+import org.apache.iceberg.exceptions.CommitFailedException;
+import org.apache.iceberg.types.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the converter of a table in step with its schema.
+ * <p>
+ * Each schema version is compiled into a {@link BsonToIcebergConverter} once and cached by
+ * schema id. In auto mode the converter records fields the schema has no column for in a
+ * {@link NewFieldCollector}; {@link #evolve} adds all of them in one schema update, meant to run
+ * right before the batch that brought them is flushed, so a burst of documents with new fields
+ * makes one metadata commit rather than one per field or document.
+ */
+public final class SchemaEvolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaEvolver.class);
+
+    private static final int MAX_COMMIT_ATTEMPTS = 4;
+
+    private final Table table;
+    private final MappingConfig mapping;
+    private final NewFieldCollector newFields;
+    private final Map<Integer, BsonToIcebergConverter> converters = new ConcurrentHashMap<>();
+    private volatile BsonToIcebergConverter converter;
+
+    private SchemaEvolver(Table table, MappingConfig mapping, NewFieldCollector newFields, BsonToIcebergConverter converter) {
+        this.table = table;
+        this.mapping = mapping;
+        this.newFields = newFields;
+        this.converter = converter;
+    }
+
+    /**
+     * An evolver for the table's current schema that adds new fields in auto mode.
+     */
+    public static SchemaEvolver forTable(Table table, MappingConfig mapping) {
+        NewFieldCollector newFields = MappingConfig.MODE_AUTO.equals(mapping.mode()) ? new NewFieldCollector() : null;
+        SchemaEvolver evolver = new SchemaEvolver(table, mapping, newFields, null);
+        evolver.converter = evolver.converterFor(table.schema());
+        return evolver;
+    }
+
+    /**
+     * An evolver that always uses {@code converter} and never changes the schema.
+     */
+    public static SchemaEvolver fixed(BsonToIcebergConverter converter) {
+        return new SchemaEvolver(null, null, null, converter);
+    }
+
+    /**
+     * The converter for the newest schema this evolver has seen.
+     */
+    public BsonToIcebergConverter converter() {
+        return converter;
+    }
+
+    /**
+     * Whether documents have brought fields that {@link #evolve} would add.
+     */
+    public boolean hasNewFields() {
+        return newFields != null && !newFields.isEmpty();
+    }
+
+    /**
+     * Adds every field collected so far to the table in a single schema update and switches to
+     * the converter of the new schema. Fields another writer added in the meantime are not added
+     * again. Not to be called concurrently with itself.
+     *
+     * @return the table's schema after the update
+     */
+    public Schema evolve() {
+        if (newFields == null) {
+            return converter.schema();
+        }
+        Map<String, Type> fields = new TreeMap<>(newFields.drain());
+        for (int attempt = 1; ; attempt++) {
+            table.refresh();
+            Schema current = table.schema();
+            UpdateSchema update = table.updateSchema();
+            int added = 0;
+            for (Map.Entry<String, Type> field : fields.entrySet()) {
+                if (current.asStruct().field(field.getKey()) == null) {
+                    // A null parent takes the name as is, even when it contains a dot.
+                    update.addColumn(null, field.getKey(), field.getValue());
+                    added++;
+                }
+            }
+            if (added == 0) {
+                break;
+            }
+            try {
+                update.commit();
+                logger.info("{}: added {} columns in schema {}: {}",
+                        table.name(), added, table.schema().schemaId(), fields.keySet());
+                break;
+            } catch (CommitFailedException e) {
+                if (attempt == MAX_COMMIT_ATTEMPTS) {
+                    throw e;
+                }
+                logger.debug("{}: schema update conflicted, retrying", table.name(), e);
+            }
+        }
+        Schema schema = table.schema();
+        converter = converterFor(schema);
+        return schema;
+    }
+
+    private BsonToIcebergConverter converterFor(Schema schema) {
+        return converters.computeIfAbsent(schema.schemaId(),
+                ignored -> BsonToIcebergConverter.forMapping(schema, mapping, newFields));
+    }
+}
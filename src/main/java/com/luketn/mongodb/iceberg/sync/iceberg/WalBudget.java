@@ -0,0 +1,41 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+/**
+ * Disk space shared by the {@link WriteAheadLog}s of all tables ({@code sync.wal.maxBytes}).
+ * <p>
+ * A log appending past the budget waits until commits have freed enough space, which holds up
+ * the flush of its collection as the in-flight limit did without a log. A record larger than the
+ * whole budget is admitted once the budget is empty, so it cannot wait forever.
+ */
+public final class WalBudget {
+
+    private final long maxBytes;
+    private long usedBytes;
+
+    public WalBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    synchronized void acquire(long bytes) throws InterruptedException {
+        while (usedBytes > 0 && usedBytes + bytes > maxBytes) {
+            wait();
+        }
+        usedBytes += bytes;
+    }
+
+    /**
+     * Accounts for records found on disk at startup, which are there whether they fit or not.
+     */
+    synchronized void acquireUnchecked(long bytes) {
+        usedBytes += bytes;
+    }
+
+    synchronized void release(long bytes) {
+        usedBytes -= bytes;
+        notifyAll();
+    }
+}
@@ -0,0 +1,537 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import com.luketn.mongodb.iceberg.sync.lease.FencedException;
+import com.luketn.mongodb.iceberg.sync.metrics.BatchTrace;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.exceptions.ValidationException;
+import org.apache.iceberg.util.SnapshotUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Feeds a table's flushed batches to its write pipeline in flush order, logging them to a
+ * {@link WriteAheadLog} first and retrying them while commits fail.
+ * <p>
+ * Every flushed batch is appended to the log before it is handed to the pipeline, so the log
+ * always holds every batch after the table's newest one and a crash cannot leave a gap. Up to
+ * {@code maxInMemory} uncommitted batches also stay in memory. A flush beyond that keeps its
+ * batch only in the log instead of waiting for the pipeline, so the collection's change stream
+ * keeps being consumed while the catalog or object store is slow; only a full disk budget holds
+ * the flush up. One driver thread per table submits the batches in sequence order, from memory
+ * or from the log. When a commit fails, the driver lets the batches behind it fail too, backs
+ * off (1 s doubling to 60 s) and resubmits from the oldest uncommitted batch. A
+ * {@link FencedException} or a failed validation is not retried: every queued batch fails with
+ * it.
+ * <p>
+ * Every commit records {@value #SEQUENCE_PROPERTY} ({@code "<log id>:<sequence>"}) in its
+ * snapshot summary, next to the checkpoint. On startup, and before resubmitting after a failure
+ * whose outcome is unknown, the newest such marker tells which logged batches the table already
+ * has. Logged batches are only replayed if they continue the table's history without a gap; a
+ * record torn by the crash, or a newer commit by another writer, makes the log stale and it is
+ * discarded, and the sync resumes from the table's checkpoint.
+ */
+final class WalQueue implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WalQueue.class);
+
+    static final String SEQUENCE_PROPERTY = "mongodb-iceberg-sync.wal-sequence";
+
+    private static final String SYNC_PROPERTY_PREFIX = "mongodb-iceberg-sync.";
+    private static final long FOREIGN = -1;
+    private static final long INITIAL_BACKOFF_MILLIS = 1_000;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    /**
+     * The write manager's encode and commit stages.
+     */
+    interface Pipeline {
+
+        /**
+         * Submits a batch, waiting while the in-flight limit is reached.
+         */
+        CompletableFuture<Snapshot> submit(
+                RecordBuffer.Batch rows,
+                RecordBuffer.Batch deletes,
+                Map<String, String> properties,
+                BatchTrace trace,
+                IcebergWriteManager.CommitListener listener
+        ) throws InterruptedException;
+
+        /**
+         * Clears a failed commit so later batches can commit again. Called with nothing in flight.
+         */
+        void reset() throws InterruptedException;
+    }
+
+    private static final class Queued {
+
+        private final long sequence;
+        private final Map<String, String> properties;
+        private final BatchTrace trace;
+        private final IcebergWriteManager.CommitListener listener;
+        private final CompletableFuture<Snapshot> result = new CompletableFuture<>();
+        // Guarded by the queued batch: null once the batch is only in the log.
+        private RecordBuffer.Batch rows;
+        private RecordBuffer.Batch deletes;
+        private boolean logged;
+        // Guarded by the queue: counted in inMemory.
+        private boolean held;
+
+        private Queued(
+                long sequence,
+                Map<String, String> properties,
+                RecordBuffer.Batch rows,
+                RecordBuffer.Batch deletes,
+                BatchTrace trace,
+                IcebergWriteManager.CommitListener listener
+        ) {
+            this.sequence = sequence;
+            this.properties = properties;
+            this.rows = rows;
+            this.deletes = deletes;
+            this.trace = trace;
+            this.listener = listener;
+        }
+    }
+
+    private final Table table;
+    private final String tableName;
+    private final WriteAheadLog wal;
+    private final Pipeline pipeline;
+    private final int maxInMemory;
+    private final Thread driver;
+
+    private final Deque<Queued> queue = new ArrayDeque<>();
+    private final CompletableFuture<Void> recovered;
+    private long nextSequence;
+    private int inMemory;
+    private int outstanding;
+    private Throwable failure;
+    private Throwable fatal;
+    private boolean closed;
+    private long backoffMillis = INITIAL_BACKOFF_MILLIS;
+
+    private final MeterRegistry meterRegistry;
+    private final List<Meter> meters = new ArrayList<>();
+    private final Counter spills;
+    private final Counter retries;
+
+    WalQueue(Table table, WriteAheadLog wal, Pipeline pipeline, int maxInMemory, MeterRegistry meterRegistry) {
+        this.table = table;
+        this.tableName = table.name();
+        this.wal = wal;
+        this.pipeline = pipeline;
+        this.maxInMemory = maxInMemory;
+        this.meterRegistry = meterRegistry;
+        this.recovered = recover();
+
+        meters.add(Gauge.builder("sync.wal.batches", wal, WriteAheadLog::size)
+                .description("batches in the write-ahead log and not committed yet")
+                .tag("table", tableName).register(meterRegistry));
+        meters.add(Gauge.builder("sync.wal.bytes", wal, WriteAheadLog::sizeInBytes)
+                .baseUnit("bytes")
+                .tag("table", tableName).register(meterRegistry));
+        this.spills = Counter.builder("sync.wal.spills")
+                .description("batches kept only in the write-ahead log while the pipeline was behind")
+                .tag("table", tableName).register(meterRegistry);
+        this.retries = Counter.builder("sync.wal.retries")
+                .description("failed commits retried from the queue")
+                .tag("table", tableName).register(meterRegistry);
+        meters.add(spills);
+        meters.add(retries);
+
+        this.driver = Thread.ofVirtual().name("wal-replay-" + tableName).start(this::drive);
+    }
+
+    /**
+     * Completes once every batch found in the log at startup is committed, after which the
+     * table's checkpoint reflects them.
+     */
+    CompletableFuture<Void> recovered() {
+        return recovered;
+    }
+
+    /**
+     * Logs and queues a flushed batch and returns a future completing once it is committed.
+     * Waits only while the disk budget is used up.
+     */
+    CompletableFuture<Snapshot> enqueue(
+            RecordBuffer.Batch rows,
+            RecordBuffer.Batch deletes,
+            Map<String, String> properties,
+            BatchTrace trace,
+            IcebergWriteManager.CommitListener listener
+    ) {
+        Queued queued;
+        boolean hold;
+        synchronized (this) {
+            if (fatal != null || closed) {
+                return CompletableFuture.failedFuture(fatal != null ? fatal : new IllegalStateException(tableName + ": closed"));
+            }
+            long sequence = nextSequence++;
+            Map<String, String> marked = new HashMap<>(properties);
+            // A batch with nothing to record is not committed, so it is not marked either.
+            if (rows.size() > 0 || deletes.size() > 0 || !properties.isEmpty()) {
+                marked.put(SEQUENCE_PROPERTY, wal.id() + ":" + sequence);
+            }
+            queued = new Queued(sequence, Map.copyOf(marked), rows, deletes, trace, listener);
+            hold = inMemory < maxInMemory;
+            if (hold) {
+                queued.held = true;
+                inMemory++;
+            }
+            // Queued in sequence order; the driver only submits it once it is logged.
+            queue.add(queued);
+        }
+        try {
+            wal.append(queued.sequence, new WriteAheadLog.Entry(queued.properties, rows, deletes));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failAll(e);
+            return queued.result;
+        }
+        if (!hold) {
+            spills.increment();
+        }
+        logged(queued, hold);
+        return queued.result;
+    }
+
+    /**
+     * Waits for every batch queued so far to be committed.
+     */
+    void awaitQueued() {
+        CompletableFuture<Snapshot> last;
+        synchronized (this) {
+            last = queue.isEmpty() ? null : queue.getLast().result;
+        }
+        if (last != null) {
+            last.join();
+        }
+    }
+
+    /**
+     * Stops the driver once the batches in flight have settled. Batches not committed by then
+     * stay in the log for the next start, and their futures fail.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        driver.interrupt();
+        List<Queued> left;
+        try {
+            driver.join();
+            synchronized (this) {
+                awaitOutstanding();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            left = new ArrayList<>(queue);
+            queue.clear();
+        }
+        for (Queued queued : left) {
+            queued.result.completeExceptionally(new IllegalStateException(
+                    tableName + ": closed before batch " + queued.sequence + " was committed"));
+        }
+        wal.close();
+        meters.forEach(meterRegistry::remove);
+    }
+
+    private CompletableFuture<Void> recover() {
+        long committed = committedSequence();
+        NavigableSet<Long> sequences = wal.sequences();
+        long last = sequences.isEmpty() ? 0 : sequences.last();
+        nextSequence = Math.max(committed, last) + 1;
+        if (sequences.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (committed == FOREIGN) {
+            logger.warn("{}: another writer committed after the {} batch(es) in the write-ahead log; discarding them",
+                    tableName, sequences.size());
+            wal.clear();
+            return CompletableFuture.completedFuture(null);
+        }
+        for (long sequence : sequences.headSet(committed, true)) {
+            wal.remove(sequence);
+        }
+        NavigableSet<Long> pending = sequences.tailSet(committed, false);
+        if (pending.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (pending.first() != committed + 1 || pending.last() - pending.first() + 1 != pending.size()) {
+            logger.warn("{}: write-ahead log does not continue the table (committed through {}, logged {}..{}); "
+                    + "discarding it", tableName, committed, pending.first(), pending.last());
+            wal.clear();
+            return CompletableFuture.completedFuture(null);
+        }
+        logger.info("{}: replaying {} batch(es) from the write-ahead log", tableName, pending.size());
+        Queued queued = null;
+        for (long sequence : pending) {
+            queued = new Queued(sequence, null, null, null, BatchTrace.untracked(), snapshot -> { });
+            queued.logged = true;
+            queue.add(queued);
+        }
+        return queued.result.thenApply(snapshot -> null);
+    }
+
+    private void drive() {
+        long submittedThrough = 0;
+        try {
+            while (true) {
+                Queued next;
+                Throwable failed;
+                synchronized (this) {
+                    while (!closed && failure == null
+                            && ((next = firstAfter(submittedThrough)) == null || !isLogged(next))) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    failed = failure;
+                    next = firstAfter(submittedThrough);
+                }
+                if (failed != null) {
+                    if (!recoverFrom(failed)) {
+                        return;
+                    }
+                    submittedThrough = 0;
+                    continue;
+                }
+                submit(next);
+                submittedThrough = next.sequence;
+            }
+        } catch (InterruptedException e) {
+            // Closing.
+        } catch (RuntimeException e) {
+            logger.error("{}: write-ahead log replay failed", tableName, e);
+            failAll(e);
+        }
+    }
+
+    private void submit(Queued queued) throws InterruptedException {
+        RecordBuffer.Batch rows;
+        RecordBuffer.Batch deletes;
+        synchronized (queued) {
+            rows = queued.rows;
+            deletes = queued.deletes;
+        }
+        Map<String, String> properties = queued.properties;
+        if (rows == null) {
+            WriteAheadLog.Entry entry = wal.read(queued.sequence);
+            rows = entry.rows();
+            deletes = entry.deletes();
+            properties = entry.properties();
+        }
+        synchronized (this) {
+            outstanding++;
+        }
+        pipeline.submit(rows, deletes, properties, queued.trace, queued.listener)
+                .whenComplete((snapshot, error) -> settled(queued, snapshot, error));
+    }
+
+    private void settled(Queued queued, Snapshot snapshot, Throwable error) {
+        if (error == null) {
+            committed(queued, snapshot);
+        }
+        synchronized (this) {
+            if (error != null && failure == null) {
+                failure = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            }
+            outstanding--;
+            notifyAll();
+        }
+    }
+
+    private void committed(Queued queued, Snapshot snapshot) {
+        synchronized (queued) {
+            queued.rows = null;
+            queued.deletes = null;
+        }
+        // Only logged batches are submitted.
+        wal.remove(queued.sequence);
+        synchronized (this) {
+            queue.remove(queued);
+            release(queued);
+            backoffMillis = INITIAL_BACKOFF_MILLIS;
+        }
+        queued.result.complete(snapshot);
+    }
+
+    /**
+     * Waits for the batches in flight to settle after a failure, then prepares to resubmit from
+     * the oldest uncommitted batch.
+     *
+     * @return whether to carry on
+     */
+    private boolean recoverFrom(Throwable failed) throws InterruptedException {
+        long delay;
+        synchronized (this) {
+            awaitOutstanding();
+            failure = null;
+            delay = backoffMillis;
+            backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+        }
+        pipeline.reset();
+        if (failed instanceof FencedException || failed instanceof ValidationException) {
+            logger.error("{}: commit failed and cannot be retried", tableName, failed);
+            failAll(failed);
+            return false;
+        }
+        retries.increment();
+        int queued;
+        synchronized (this) {
+            queued = queue.size();
+        }
+        logger.warn("{}: commit failed; retrying {} uncommitted batch(es) in {} ms: {}",
+                tableName, queued, delay, failed.toString());
+        Thread.sleep(delay);
+        skipCommitted();
+        return true;
+    }
+
+    /**
+     * Completes the queued batches that the table already has, which happens when a commit
+     * failed after all, such as on a timeout waiting for the catalog's answer.
+     */
+    private void skipCommitted() {
+        long committed = committedSequence();
+        if (committed == FOREIGN) {
+            return;
+        }
+        while (true) {
+            Queued head;
+            synchronized (this) {
+                head = queue.peekFirst();
+            }
+            if (head == null || head.sequence > committed) {
+                return;
+            }
+            logger.info("{}: batch {} was committed despite the error", tableName, head.sequence);
+            Snapshot snapshot = snapshotOf(head.sequence);
+            head.listener.committed(snapshot);
+            committed(head, snapshot);
+        }
+    }
+
+    /**
+     * Marks an appended batch as logged, so the driver can submit it, and drops its rows from
+     * memory unless it is one of the batches held there.
+     */
+    private void logged(Queued queued, boolean keepRows) {
+        synchronized (queued) {
+            queued.logged = true;
+            if (!keepRows) {
+                queued.rows = null;
+                queued.deletes = null;
+            }
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private void failAll(Throwable error) {
+        List<Queued> failed;
+        synchronized (this) {
+            fatal = error;
+            failed = new ArrayList<>(queue);
+            queue.clear();
+            inMemory = 0;
+        }
+        failed.forEach(queued -> queued.result.completeExceptionally(error));
+    }
+
+    // Called holding the queue's lock.
+    private void release(Queued queued) {
+        if (queued.held) {
+            queued.held = false;
+            inMemory--;
+        }
+    }
+
+    // Called holding the queue's lock.
+    private Queued firstAfter(long sequence) {
+        for (Queued queued : queue) {
+            if (queued.sequence > sequence) {
+                return queued;
+            }
+        }
+        return null;
+    }
+
+    // Called holding the queue's lock.
+    private void awaitOutstanding() throws InterruptedException {
+        while (outstanding > 0) {
+            wait();
+        }
+    }
+
+    private static boolean isLogged(Queued queued) {
+        synchronized (queued) {
+            return queued.logged;
+        }
+    }
+
+    /**
+     * The snapshot that committed batch {@code sequence}, which later maintenance commits may
+     * have followed already.
+     */
+    private Snapshot snapshotOf(long sequence) {
+        Snapshot current = table.currentSnapshot();
+        String marker = wal.id() + ":" + sequence;
+        for (Snapshot snapshot : SnapshotUtil.ancestorsOf(current.snapshotId(), table::snapshot)) {
+            if (marker.equals(snapshot.summary().get(SEQUENCE_PROPERTY))) {
+                return snapshot;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * The sequence number of the newest batch of this log in the table, 0 if there is none, or
+     * {@link #FOREIGN} if a sync commit by another writer is newer.
+     */
+    private long committedSequence() {
+        table.refresh();
+        Snapshot current = table.currentSnapshot();
+        if (current == null) {
+            return 0;
+        }
+        String prefix = wal.id() + ":";
+        for (Snapshot snapshot : SnapshotUtil.ancestorsOf(current.snapshotId(), table::snapshot)) {
+            Map<String, String> summary = snapshot.summary();
+            String marker = summary.get(SEQUENCE_PROPERTY);
+            if (marker != null) {
+                return marker.startsWith(prefix) ? Long.parseLong(marker.substring(prefix.length())) : FOREIGN;
+            }
+            // Maintenance commits such as compaction carry no sync properties and are skipped.
+            for (String key : summary.keySet()) {
+                if (key.startsWith(SYNC_PROPERTY_PREFIX)) {
+                    return FOREIGN;
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,408 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.SchemaParser;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.avro.AvroSchemaUtil;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.data.avro.DataReader;
+import org.apache.iceberg.data.avro.DataWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Flushed batches of one table kept on local disk until they are committed.
+ * <p>
+ * Records are appended to memory-mapped segment files of {@code segmentBytes} (a larger record
+ * gets a segment of its own). A record is a header (magic, length, sequence number, CRC32C)
+ * followed by the batch: its row and delete schemas, snapshot properties and rows, the rows in
+ * Avro binary encoding. Writes to the mapping survive a crash of the process; segments are
+ * forced to disk when they are full and on {@link #close}. A segment is deleted once every
+ * record in it has been {@link #remove removed}.
+ * <p>
+ * On {@link #open}, every intact record is indexed by sequence number. A torn record ends its
+ * segment, and records after it are not read.
+ * <p>
+ * Each log has an id, kept in the directory, that the batches it replays record in their
+ * snapshots (see {@link WalQueue}), so a restart can tell which records made it into the table.
+ */
+public final class WriteAheadLog implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final int MAGIC = 0x57414C31;
+    // Header: magic, payload length, sequence number, CRC32C of the payload.
+    private static final int HEADER_BYTES = 24;
+    private static final String ID_FILE = "wal.id";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    /**
+     * A flushed batch as logged.
+     */
+    record Entry(Map<String, String> properties, RecordBuffer.Batch rows, RecordBuffer.Batch deletes) {
+    }
+
+    private record Location(Segment segment, int offset, int length) {
+    }
+
+    private final Path directory;
+    private final String id;
+    private final long segmentBytes;
+    private final WalBudget budget;
+    private final TreeMap<Long, Location> records = new TreeMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextSegment;
+    private long sizeInBytes;
+
+    private WriteAheadLog(Path directory, String id, long segmentBytes, WalBudget budget) {
+        this.directory = directory;
+        this.id = id;
+        this.segmentBytes = segmentBytes;
+        this.budget = budget;
+    }
+
+    /**
+     * Opens the log of {@code table} in a subdirectory of {@code directory}, indexing the records
+     * left by an earlier run.
+     */
+    public static WriteAheadLog open(Path directory, Table table, long segmentBytes, WalBudget budget) {
+        Path tableDirectory = directory.resolve(table.name().replaceAll("[^A-Za-z0-9._-]", "_"));
+        try {
+            Files.createDirectories(tableDirectory);
+            Path idFile = tableDirectory.resolve(ID_FILE);
+            String id;
+            if (Files.exists(idFile)) {
+                id = Files.readString(idFile).trim();
+            } else {
+                id = UUID.randomUUID().toString();
+                Files.writeString(idFile, id);
+            }
+            WriteAheadLog wal = new WriteAheadLog(tableDirectory, id, segmentBytes, budget);
+            wal.load();
+            return wal;
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to open write-ahead log in " + tableDirectory, e);
+        }
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public synchronized long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public synchronized int size() {
+        return records.size();
+    }
+
+    /**
+     * Sequence numbers of the records in the log, in order.
+     */
+    public synchronized NavigableSet<Long> sequences() {
+        return new TreeSet<>(records.keySet());
+    }
+
+    /**
+     * Appends a record, waiting for disk budget if the logs of all tables are full.
+     */
+    void append(long sequence, Entry entry) throws InterruptedException {
+        byte[] payload = encode(entry);
+        budget.acquire(payload.length + HEADER_BYTES);
+        write(sequence, payload);
+    }
+
+    Entry read(long sequence) {
+        byte[] payload;
+        synchronized (this) {
+            Location location = records.get(sequence);
+            if (location == null) {
+                throw new IllegalArgumentException("no record " + sequence + " in " + directory);
+            }
+            payload = new byte[location.length()];
+            location.segment().buffer.get(location.offset() + HEADER_BYTES, payload);
+        }
+        try {
+            return decode(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read record " + sequence + " from " + directory, e);
+        }
+    }
+
+    /**
+     * Drops a committed record, deleting its segment once nothing in it is left.
+     */
+    synchronized void remove(long sequence) {
+        Location location = records.remove(sequence);
+        if (location == null) {
+            return;
+        }
+        long bytes = location.length() + HEADER_BYTES;
+        sizeInBytes -= bytes;
+        budget.release(bytes);
+        Segment segment = location.segment();
+        segment.live--;
+        if (segment.live == 0 && segment != current()) {
+            segment.delete();
+            segments.remove(segment);
+        }
+    }
+
+    /**
+     * Drops every record, for a log the table has moved on from.
+     */
+    synchronized void clear() {
+        for (Long sequence : new ArrayList<>(records.keySet())) {
+            remove(sequence);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        budget.release(sizeInBytes);
+        segments.clear();
+        records.clear();
+        sizeInBytes = 0;
+    }
+
+    private synchronized void write(long sequence, byte[] payload) {
+        int length = HEADER_BYTES + payload.length;
+        Segment segment = current();
+        try {
+            if (segment == null || segment.capacity - segment.position < length) {
+                if (segment != null) {
+                    segment.seal();
+                    if (segment.live == 0) {
+                        segment.delete();
+                        segments.remove(segment);
+                    }
+                }
+                segment = Segment.create(directory.resolve(segmentName(nextSegment++)), Math.max(segmentBytes, length));
+                segments.add(segment);
+            }
+        } catch (IOException e) {
+            budget.release(length);
+            throw new UncheckedIOException("failed to create write-ahead log segment in " + directory, e);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        int offset = segment.position;
+        MappedByteBuffer buffer = segment.buffer;
+        // The header goes in last, so a record cut short by a crash has no valid magic.
+        buffer.put(offset + HEADER_BYTES, payload);
+        buffer.putInt(offset + 4, payload.length);
+        buffer.putLong(offset + 8, sequence);
+        buffer.putLong(offset + 16, crc.getValue());
+        buffer.putInt(offset, MAGIC);
+        segment.position += length;
+        segment.live++;
+        records.put(sequence, new Location(segment, offset, payload.length));
+        sizeInBytes += length;
+    }
+
+    private Segment current() {
+        return segments.isEmpty() ? null : segments.getLast();
+    }
+
+    private void load() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            nextSegment = Math.max(nextSegment, Long.parseLong(
+                    name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())) + 1);
+            Segment segment = Segment.open(file);
+            int offset = 0;
+            while (offset + HEADER_BYTES <= segment.capacity && segment.buffer.getInt(offset) == MAGIC) {
+                int length = segment.buffer.getInt(offset + 4);
+                if (length < 0 || offset + HEADER_BYTES + (long) length > segment.capacity) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                segment.buffer.get(offset + HEADER_BYTES, payload);
+                CRC32C crc = new CRC32C();
+                crc.update(payload);
+                if (crc.getValue() != segment.buffer.getLong(offset + 16)) {
+                    logger.warn("{}: torn record at offset {}; ignoring the rest of the segment", file, offset);
+                    break;
+                }
+                records.put(segment.buffer.getLong(offset + 8), new Location(segment, offset, length));
+                segment.live++;
+                sizeInBytes += HEADER_BYTES + length;
+                offset += HEADER_BYTES + length;
+            }
+            // Segments of an earlier run are only read; new records go to a new segment.
+            segment.position = segment.capacity;
+            if (segment.live == 0) {
+                segment.delete();
+            } else {
+                segments.add(segment);
+            }
+        }
+        budget.acquireUnchecked(sizeInBytes);
+        if (!records.isEmpty()) {
+            logger.info("{}: {} record(s), {} bytes left by the previous run", directory, records.size(), sizeInBytes);
+        }
+    }
+
+    private static String segmentName(long number) {
+        return SEGMENT_PREFIX + String.format("%016d", number) + SEGMENT_SUFFIX;
+    }
+
+    static byte[] encode(Entry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                (int) Math.min(Integer.MAX_VALUE - 8, entry.rows().sizeInBytes() + entry.deletes().sizeInBytes() + 1024));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeString(out, SchemaParser.toJson(entry.rows().schema()));
+            writeString(out, SchemaParser.toJson(entry.deletes().schema()));
+            out.writeInt(entry.properties().size());
+            for (Map.Entry<String, String> property : entry.properties().entrySet()) {
+                writeString(out, property.getKey());
+                writeString(out, property.getValue());
+            }
+            writeRows(out, entry.rows());
+            writeRows(out, entry.deletes());
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to encode batch for the write-ahead log", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Entry decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        Schema rowSchema = SchemaParser.fromJson(readString(in));
+        Schema deleteSchema = SchemaParser.fromJson(readString(in));
+        int count = in.readInt();
+        Map<String, String> properties = new HashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            properties.put(readString(in), readString(in));
+        }
+        RecordBuffer.Batch rows = readRows(in, rowSchema);
+        RecordBuffer.Batch deletes = readRows(in, deleteSchema);
+        return new Entry(Map.copyOf(properties), rows, deletes);
+    }
+
+    private static void writeRows(DataOutputStream out, RecordBuffer.Batch batch) throws IOException {
+        out.writeInt(batch.size());
+        DataWriter<Record> writer = DataWriter.create(AvroSchemaUtil.convert(batch.schema(), "row"));
+        // Direct encoders and decoders do not buffer, so the rows can share the stream.
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+        GenericRecord reuse = GenericRecord.create(batch.schema());
+        for (int row = 0; row < batch.size(); row++) {
+            writer.write(batch.get(row, reuse), encoder);
+        }
+        encoder.flush();
+    }
+
+    private static RecordBuffer.Batch readRows(DataInputStream in, Schema schema) throws IOException {
+        int count = in.readInt();
+        DataReader<Record> reader = DataReader.create(schema, AvroSchemaUtil.convert(schema, "row"));
+        BinaryDecoder decoder = DecoderFactory.get().directBinaryDecoder(in, null);
+        RecordBuffer buffer = new RecordBuffer(schema);
+        for (int row = 0; row < count; row++) {
+            // No reuse: the buffer keeps nested values by reference.
+            buffer.add(reader.read(null, decoder));
+        }
+        return buffer.snapshotAndReset();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Segment {
+
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private int position;
+        private int live;
+
+        private Segment(Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+        }
+
+        static Segment create(Path file, long bytes) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes));
+        }
+
+        static Segment open(Path file) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+
+        void seal() {
+            buffer.force();
+        }
+
+        void close() {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("failed to close write-ahead log segment {}", file, e);
+            }
+        }
+
+        void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("failed to delete write-ahead log segment {}", file, e);
+            }
+        }
+    }
+}
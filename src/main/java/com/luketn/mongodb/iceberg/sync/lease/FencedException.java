@@ -0,0 +1,16 @@
+package com.luketn.mongodb.iceberg.sync.lease;
+
+import org.apache.iceberg.exceptions.CleanableFailure;
+
+/**
+ * Thrown for a commit to a table that a later lease epoch has fenced: another instance has
+ * claimed the collection, and this one must stop writing to it. The commit's new metadata
+ * files are cleaned up.
+ */
+public final class FencedException extends RuntimeException implements CleanableFailure {
+
+    public FencedException(String table, long epoch, long fencingEpoch) {
+        super("commit to " + table + " with lease epoch " + epoch
+                + " rejected: the table is fenced at epoch " + fencingEpoch);
+    }
+}
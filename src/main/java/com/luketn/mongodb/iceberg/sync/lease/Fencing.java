@@ -0,0 +1,145 @@
+package com.luketn.mongodb.iceberg.sync.lease;
+
+import org.apache.iceberg.BaseTable;
+import org.apache.iceberg.HasTableOperations;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.TableMetadata;
+import org.apache.iceberg.TableOperations;
+import org.apache.iceberg.encryption.EncryptionManager;
+import org.apache.iceberg.exceptions.CommitFailedException;
+import org.apache.iceberg.io.FileIO;
+import org.apache.iceberg.io.LocationProvider;
+
+import java.util.Map;
+
+/**
+ * Fences a target table with the epoch of its lease.
+ * <p>
+ * The new holder of a lease raises the table's {@value #EPOCH_PROPERTY} property to its epoch
+ * before it commits anything, and commits through the table returned by {@link #fence}. That
+ * table checks, on every commit attempt, that the metadata the commit is based on still carries
+ * the holder's epoch. Catalog commits only succeed against the metadata they are based on, so a
+ * commit either lands before the next holder raised the epoch or fails with a
+ * {@link FencedException}; Iceberg's retry of a conflicting commit re-runs the check against the
+ * refreshed metadata. A stale holder that has not noticed it lost its lease can therefore not
+ * commit data or checkpoints after the new holder took over.
+ */
+public final class Fencing {
+
+    public static final String EPOCH_PROPERTY = "mongodb-iceberg-sync.fencing-epoch";
+
+    private static final int MAX_COMMIT_ATTEMPTS = 10;
+
+    private Fencing() {
+    }
+
+    /**
+     * Raises the table's fencing epoch to {@code epoch} and returns a view of the table whose
+     * commits are rejected once the epoch is raised again.
+     *
+     * @throws FencedException if the table is already fenced at a later epoch
+     */
+    public static Table fence(Table table, long epoch) {
+        TableOperations ops = ((HasTableOperations) table).operations();
+        for (int attempt = 1; ; attempt++) {
+            TableMetadata base = ops.refresh();
+            long current = epoch(base);
+            if (current > epoch) {
+                throw new FencedException(table.name(), epoch, current);
+            }
+            if (current == epoch) {
+                break;
+            }
+            try {
+                ops.commit(base, TableMetadata.buildFrom(base)
+                        .setProperties(Map.of(EPOCH_PROPERTY, Long.toString(epoch)))
+                        .build());
+                break;
+            } catch (CommitFailedException e) {
+                if (attempt == MAX_COMMIT_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+        return new BaseTable(new FencedTableOperations(ops, table.name(), epoch), table.name());
+    }
+
+    /**
+     * The epoch the table is fenced at, or 0 if it never was.
+     */
+    public static long epoch(Table table) {
+        return epoch(((HasTableOperations) table).operations().current());
+    }
+
+    private static long epoch(TableMetadata metadata) {
+        String epoch = metadata.properties().get(EPOCH_PROPERTY);
+        return epoch == null ? 0 : Long.parseLong(epoch);
+    }
+
+    private static final class FencedTableOperations implements TableOperations {
+
+        private final TableOperations delegate;
+        private final String name;
+        private final long epoch;
+
+        private FencedTableOperations(TableOperations delegate, String name, long epoch) {
+            this.delegate = delegate;
+            this.name = name;
+            this.epoch = epoch;
+        }
+
+        @Override
+        public TableMetadata current() {
+            return delegate.current();
+        }
+
+        @Override
+        public TableMetadata refresh() {
+            return delegate.refresh();
+        }
+
+        @Override
+        public void commit(TableMetadata base, TableMetadata metadata) {
+            long fencedAt = epoch(base);
+            if (fencedAt != epoch) {
+                throw new FencedException(name, epoch, fencedAt);
+            }
+            delegate.commit(base, metadata);
+        }
+
+        @Override
+        public FileIO io() {
+            return delegate.io();
+        }
+
+        @Override
+        public EncryptionManager encryption() {
+            return delegate.encryption();
+        }
+
+        @Override
+        public String metadataFileLocation(String fileName) {
+            return delegate.metadataFileLocation(fileName);
+        }
+
+        @Override
+        public LocationProvider locationProvider() {
+            return delegate.locationProvider();
+        }
+
+        @Override
+        public TableOperations temp(TableMetadata uncommittedMetadata) {
+            return delegate.temp(uncommittedMetadata);
+        }
+
+        @Override
+        public long newSnapshotId() {
+            return delegate.newSnapshotId();
+        }
+
+        @Override
+        public boolean requireStrictCleanup() {
+            return delegate.requireStrictCleanup();
+        }
+    }
+}
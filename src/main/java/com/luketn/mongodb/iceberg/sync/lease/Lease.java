@@ -0,0 +1,52 @@
+package com.luketn.mongodb.iceberg.sync.lease;
+
+import java.util.Set;
+
+/**
+ * The claim of one daemon instance on the sync of one collection.
+ *
+ * @param syncId          {@code "{namespace}.{table}"} of the collection's target table
+ * @param owner           instance id of the holder, or {@code null} if nobody holds it
+ * @param expiresAtMillis time the lease lapses unless renewed
+ * @param epoch           fencing epoch, incremented by every claim; the holder's commits to the
+ *                        target table are rejected once a later epoch has fenced it
+ * @param load            load of the collection as last reported by its holder; used to balance
+ *                        collections between instances
+ */
+public record Lease(String syncId, String owner, long expiresAtMillis, long epoch, double load) {
+
+    static Lease unclaimed(String syncId) {
+        return new Lease(syncId, null, 0, 0, 0);
+    }
+
+    /**
+     * Whether the lease is held by a live owner at {@code nowMillis}.
+     */
+    boolean isHeld(long nowMillis, Set<String> liveInstances) {
+        return owner != null && expiresAtMillis > nowMillis && liveInstances.contains(owner);
+    }
+
+    boolean isHeldBy(String instanceId, long epoch) {
+        return instanceId.equals(owner) && this.epoch == epoch;
+    }
+
+    /**
+     * Weight of the collection when balancing: a collection costs one unit (an open change stream
+     * and its buffers) plus its reported load.
+     */
+    double weight() {
+        return 1 + load;
+    }
+
+    Lease claimedBy(String instanceId, long expiresAtMillis) {
+        return new Lease(syncId, instanceId, expiresAtMillis, epoch + 1, load);
+    }
+
+    Lease renewed(long expiresAtMillis, double load) {
+        return new Lease(syncId, owner, expiresAtMillis, epoch, load);
+    }
+
+    Lease released() {
+        return new Lease(syncId, null, 0, epoch, load);
+    }
+}
@@ -0,0 +1,32 @@
+package com.luketn.mongodb.iceberg.sync.lease;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Starts and stops the syncs of the collections whose leases a {@link LeaseManager} holds.
+ * <p>
+ * Callbacks run on the lease thread and must not block it: a slow callback delays the renewal
+ * of every other lease.
+ */
+public interface LeaseListener {
+
+    /**
+     * This instance now holds {@code lease}. The sync should load its table through
+     * {@code StartupLoader.load(collection, lease)}, which fences it with the lease's epoch (see
+     * {@link Fencing#fence}), and commit only through the fenced table.
+     */
+    void acquired(Lease lease);
+
+    /**
+     * The lease is being handed to a less loaded instance. The sync should stop gracefully,
+     * flushing what it has buffered; the lease is renewed until the returned future completes and
+     * released after that, whether it completed normally or not.
+     */
+    CompletableFuture<Void> revoke(Lease lease);
+
+    /**
+     * The lease lapsed or was claimed by another instance. The sync should stop without flushing:
+     * its commits are rejected by the fencing epoch of the new holder.
+     */
+    void lost(Lease lease);
+}
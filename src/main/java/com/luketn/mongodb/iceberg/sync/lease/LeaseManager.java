@@ -0,0 +1,366 @@
+package com.luketn.mongodb.iceberg.sync.lease;
+
+import com.luketn.mongodb.iceberg.sync.config.LeaseConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Distributes the configured collections between the daemon instances sharing a catalog.
+ * <p>
+ * Every {@code renewSeconds} the manager makes one {@link LeaseStore#update}: it renews its
+ * instance heartbeat and the leases it holds (with the current load of each collection), releases
+ * leases whose syncs have stopped after a {@link LeaseListener#revoke}, and claims free leases.
+ * A lease is free when nobody holds it, it has expired, or its holder's heartbeat has; claiming
+ * it increments its fencing epoch (see {@link Fencing}).
+ * <p>
+ * Free leases go to the least loaded live instance. Every instance runs the same assignment over
+ * the same lease table and claims only the leases that fall to itself, heaviest first, so
+ * instances starting together split the collections without further coordination. Once nothing
+ * is free, an instance above its fair share of the total load revokes its lightest collection
+ * that another instance can take without ending up more loaded than this one was. One lease is
+ * handed over at a time, so a new instance takes its share over a few renewals.
+ * <p>
+ * If renewals keep failing until the leases would have expired, every lease is reported
+ * {@link LeaseListener#lost lost}, as another instance may claim them from then on.
+ */
+public final class LeaseManager implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaseManager.class);
+
+    /**
+     * Heartbeats of instances gone for this many lease lifetimes are removed from the table.
+     */
+    private static final int PRUNE_AFTER_TTLS = 10;
+
+    private final LeaseStore store;
+    private final String instanceId;
+    private final List<String> syncIds;
+    private final long ttlMillis;
+    private final long renewMillis;
+    private final LeaseListener listener;
+    private final ToDoubleFunction<String> load;
+    private final LongSupplier clock;
+
+    private final Map<String, Lease> held = new TreeMap<>();
+    private final Map<String, CompletableFuture<Void>> revoking = new HashMap<>();
+    private long lastRenewMillis;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param syncIds  sync ids ({@code "{namespace}.{table}"}) of the configured collections
+     * @param load     current load of a held collection, such as its events per second; 0 if
+     *                 unknown
+     */
+    public LeaseManager(
+            LeaseStore store,
+            LeaseConfig config,
+            List<String> syncIds,
+            LeaseListener listener,
+            ToDoubleFunction<String> load
+    ) {
+        this(store, config, syncIds, listener, load, System::currentTimeMillis);
+    }
+
+    LeaseManager(
+            LeaseStore store,
+            LeaseConfig config,
+            List<String> syncIds,
+            LeaseListener listener,
+            ToDoubleFunction<String> load,
+            LongSupplier clock
+    ) {
+        this.store = store;
+        this.instanceId = config.instanceId() == null ? generateInstanceId() : config.instanceId();
+        this.syncIds = List.copyOf(syncIds);
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(config.ttlSeconds());
+        this.renewMillis = TimeUnit.SECONDS.toMillis(config.renewSeconds());
+        this.listener = listener;
+        this.load = load;
+        this.clock = clock;
+    }
+
+    public String instanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Sync ids of the leases this instance holds, including those being revoked.
+     */
+    public synchronized Set<String> held() {
+        return Set.copyOf(held.keySet());
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("lease-manager").factory());
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                renew();
+            } catch (RuntimeException e) {
+                logger.warn("lease renewal of instance {} failed", instanceId, e);
+            }
+        }, 0, renewMillis, TimeUnit.MILLISECONDS);
+        logger.info("instance {} sharing {} collections through leases", instanceId, syncIds.size());
+    }
+
+    /**
+     * Renews, releases and claims leases in one lease table commit, then rebalances. Called by
+     * the lease thread every {@code renewSeconds}.
+     */
+    synchronized void renew() {
+        long now = clock.getAsLong();
+        Set<String> released = new HashSet<>();
+        revoking.forEach((syncId, stopped) -> {
+            if (stopped.isDone()) {
+                released.add(syncId);
+            }
+        });
+        Map<String, Lease> claimedFrom = new HashMap<>(held);
+        LeaseView view;
+        try {
+            view = store.update(current -> next(current, now, released));
+        } catch (RuntimeException e) {
+            if (!held.isEmpty() && now >= lastRenewMillis + ttlMillis) {
+                logger.error("instance {} could not renew its leases before they expired", instanceId);
+                new ArrayList<>(held.keySet()).forEach(this::lose);
+            }
+            throw e;
+        }
+        lastRenewMillis = now;
+
+        for (Lease lease : claimedFrom.values()) {
+            Lease current = view.lease(lease.syncId());
+            if (!current.isHeldBy(instanceId, lease.epoch())) {
+                if (released.contains(lease.syncId())) {
+                    logger.info("instance {} released {}", instanceId, lease.syncId());
+                    held.remove(lease.syncId());
+                    revoking.remove(lease.syncId());
+                } else {
+                    logger.warn("instance {} lost the lease of {} to {} (epoch {})",
+                            instanceId, lease.syncId(), current.owner(), current.epoch());
+                    lose(lease.syncId());
+                }
+            } else {
+                held.put(lease.syncId(), current);
+            }
+        }
+        for (String syncId : syncIds) {
+            Lease lease = view.lease(syncId);
+            if (!held.containsKey(syncId) && instanceId.equals(lease.owner())) {
+                logger.info("instance {} acquired {} at epoch {}", instanceId, syncId, lease.epoch());
+                held.put(syncId, lease);
+                listener.acquired(lease);
+            }
+        }
+
+        if (revoking.isEmpty()) {
+            String surplus = surplus(view, now);
+            if (surplus != null) {
+                logger.info("instance {} handing over {} to rebalance", instanceId, surplus);
+                revoking.put(surplus, listener.revoke(held.get(surplus)));
+            }
+        }
+    }
+
+    /**
+     * The lease table after this instance's renewal: heartbeat and held leases renewed, stopped
+     * leases released and free leases that fall to this instance claimed. Free of side effects,
+     * as the store may apply it more than once.
+     */
+    private LeaseView next(LeaseView current, long now, Set<String> released) {
+        LeaseView next = current
+                .withoutInstancesExpiredBefore(now - PRUNE_AFTER_TTLS * ttlMillis)
+                .withHeartbeat(instanceId, now + ttlMillis);
+        for (Lease lease : held.values()) {
+            Lease stored = current.lease(lease.syncId());
+            if (!stored.isHeldBy(instanceId, lease.epoch())) {
+                continue;
+            }
+            next = next.with(released.contains(lease.syncId())
+                    ? stored.released()
+                    : stored.renewed(now + ttlMillis, sanitize(load.applyAsDouble(lease.syncId()))));
+        }
+        for (String syncId : syncIds) {
+            // Left by an earlier process with this instance id: claim it again under a new epoch
+            // so that process is fenced off if it is still running.
+            Lease stored = current.lease(syncId);
+            if (instanceId.equals(stored.owner()) && !held.containsKey(syncId)) {
+                next = next.with(stored.claimedBy(instanceId, now + ttlMillis));
+            }
+        }
+        for (String syncId : claims(next, now)) {
+            if (!released.contains(syncId)) {
+                next = next.with(next.lease(syncId).claimedBy(instanceId, now + ttlMillis));
+            }
+        }
+        return next;
+    }
+
+    /**
+     * The free leases that fall to this instance when each free lease, heaviest first, is given
+     * to the least loaded live instance.
+     */
+    private List<String> claims(LeaseView view, long now) {
+        Set<String> live = view.liveInstances(now);
+        Map<String, Double> loads = loads(view, live, now);
+        List<Lease> free = new ArrayList<>();
+        for (String syncId : syncIds) {
+            Lease lease = view.lease(syncId);
+            if (!lease.isHeld(now, live)) {
+                free.add(lease);
+            }
+        }
+        free.sort(Comparator.comparingDouble(Lease::weight).reversed().thenComparing(Lease::syncId));
+        List<String> claims = new ArrayList<>();
+        for (Lease lease : free) {
+            String target = leastLoaded(loads, null);
+            loads.merge(target, lease.weight(), Double::sum);
+            if (instanceId.equals(target)) {
+                claims.add(lease.syncId());
+            }
+        }
+        return claims;
+    }
+
+    /**
+     * A held lease to hand over, or {@code null} if the load is as balanced as moving a single
+     * collection can make it.
+     */
+    private String surplus(LeaseView view, long now) {
+        Set<String> live = view.liveInstances(now);
+        if (live.size() < 2) {
+            return null;
+        }
+        for (String syncId : syncIds) {
+            if (!view.lease(syncId).isHeld(now, live)) {
+                return null;
+            }
+        }
+        Map<String, Double> loads = loads(view, live, now);
+        double total = loads.values().stream().mapToDouble(Double::doubleValue).sum();
+        double fair = total / live.size();
+        double own = loads.getOrDefault(instanceId, 0.0);
+        double leastOther = loads.get(leastLoaded(loads, instanceId));
+        List<Lease> candidates = new ArrayList<>(held.values());
+        candidates.sort(Comparator.comparingDouble(Lease::weight).thenComparing(Lease::syncId));
+        for (Lease lease : candidates) {
+            double weight = view.lease(lease.syncId()).weight();
+            if (own - weight >= fair && leastOther + weight < own) {
+                return lease.syncId();
+            }
+        }
+        return null;
+    }
+
+    private Map<String, Double> loads(LeaseView view, Set<String> live, long now) {
+        Map<String, Double> loads = new TreeMap<>();
+        live.forEach(instance -> loads.put(instance, 0.0));
+        for (String syncId : syncIds) {
+            Lease lease = view.lease(syncId);
+            if (lease.isHeld(now, live)) {
+                loads.merge(lease.owner(), lease.weight(), Double::sum);
+            }
+        }
+        return loads;
+    }
+
+    /**
+     * The instance with the lowest load, ties going to the lowest instance id.
+     */
+    private static String leastLoaded(Map<String, Double> loads, String excluded) {
+        String least = null;
+        for (Map.Entry<String, Double> entry : loads.entrySet()) {
+            if (!entry.getKey().equals(excluded) && (least == null || entry.getValue() < loads.get(least))) {
+                least = entry.getKey();
+            }
+        }
+        return least;
+    }
+
+    private void lose(String syncId) {
+        Lease lease = held.remove(syncId);
+        revoking.remove(syncId);
+        if (lease != null) {
+            listener.lost(lease);
+        }
+    }
+
+    private static double sanitize(double load) {
+        return Double.isFinite(load) && load > 0 ? load : 0;
+    }
+
+    /**
+     * Stops renewing, stops every held sync gracefully and releases its lease, so other
+     * instances can claim the collections without waiting for the leases to expire.
+     */
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            // A renewal in progress finishes, so the lease table is not left mid-commit.
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(ttlMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<CompletableFuture<Void>> stopping = new ArrayList<>();
+        Map<String, Lease> releasing;
+        synchronized (this) {
+            for (Lease lease : held.values()) {
+                stopping.add(revoking.computeIfAbsent(lease.syncId(), ignored -> listener.revoke(lease)));
+            }
+            releasing = Map.copyOf(held);
+        }
+        try {
+            CompletableFuture.allOf(stopping.toArray(CompletableFuture[]::new)).join();
+        } catch (RuntimeException e) {
+            logger.warn("instance {}: a sync failed to stop cleanly", instanceId, e);
+        }
+        synchronized (this) {
+            try {
+                store.update(current -> {
+                    LeaseView next = current.withoutInstance(instanceId);
+                    for (Lease lease : releasing.values()) {
+                        Lease stored = current.lease(lease.syncId());
+                        if (stored.isHeldBy(instanceId, lease.epoch())) {
+                            next = next.with(stored.released());
+                        }
+                    }
+                    return next;
+                });
+            } catch (RuntimeException e) {
+                logger.warn("instance {} failed to release its leases; they expire in {} ms", instanceId, ttlMillis, e);
+            }
+            held.clear();
+            revoking.clear();
+        }
+    }
+
+    private static String generateInstanceId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "instance";
+        }
+        return host + "-" + ProcessHandle.current().pid() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,164 @@
+package com.luketn.mongodb.iceberg.sync.lease;
+
+import org.apache.iceberg.HasTableOperations;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.TableMetadata;
+import org.apache.iceberg.TableOperations;
+import org.apache.iceberg.TableProperties;
+import org.apache.iceberg.catalog.Catalog;
+import org.apache.iceberg.catalog.SupportsNamespaces;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.exceptions.AlreadyExistsException;
+import org.apache.iceberg.exceptions.CommitFailedException;
+import org.apache.iceberg.types.Types;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Keeps leases in the {@code _sync._sync_leases} table, next to the checkpoint table.
+ * <p>
+ * The table holds no rows: leases and instance heartbeats are table properties, so every change
+ * is a single metadata commit that succeeds only against the metadata version it was computed
+ * from. {@link #update} retries a change against the refreshed table until it commits, which
+ * makes it an atomic read-modify-write across every instance sharing the catalog. Old metadata
+ * files are deleted after each commit so renewals do not pile them up.
+ */
+public final class LeaseStore {
+
+    public static final TableIdentifier TABLE = TableIdentifier.of("_sync", "_sync_leases");
+
+    private static final String LEASE_PREFIX = "mongodb-iceberg-sync.lease.";
+    private static final String INSTANCE_PREFIX = "mongodb-iceberg-sync.instance.";
+    private static final String OWNER = ".owner";
+    private static final String EXPIRES_AT = ".expires-at";
+    private static final String EPOCH = ".epoch";
+    private static final String LOAD = ".load";
+
+    private static final int MAX_COMMIT_ATTEMPTS = 10;
+    private static final Schema SCHEMA = new Schema(Types.NestedField.optional(1, "sync_id", Types.StringType.get()));
+
+    private final Catalog catalog;
+    private TableOperations operations;
+
+    public LeaseStore(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public synchronized LeaseView read() {
+        return decode(operations().refresh().properties());
+    }
+
+    /**
+     * Applies {@code change} to the current leases and commits the result. On a conflict with
+     * another instance the change is applied again to the refreshed leases, so it must be free of
+     * side effects.
+     *
+     * @return the committed leases
+     * @throws CommitFailedException if every attempt conflicted
+     */
+    public synchronized LeaseView update(UnaryOperator<LeaseView> change) {
+        TableOperations ops = operations();
+        for (int attempt = 1; ; attempt++) {
+            TableMetadata base = ops.refresh();
+            LeaseView current = decode(base.properties());
+            LeaseView next = change.apply(current);
+            if (next.equals(current)) {
+                return current;
+            }
+            Map<String, String> properties = encode(next);
+            Set<String> removed = new HashSet<>();
+            for (String key : base.properties().keySet()) {
+                if (isLeaseProperty(key) && !properties.containsKey(key)) {
+                    removed.add(key);
+                }
+            }
+            TableMetadata updated = TableMetadata.buildFrom(base)
+                    .setProperties(properties)
+                    .removeProperties(removed)
+                    .build();
+            try {
+                ops.commit(base, updated);
+                return next;
+            } catch (CommitFailedException e) {
+                if (attempt == MAX_COMMIT_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private TableOperations operations() {
+        if (operations == null) {
+            if (!catalog.tableExists(TABLE)) {
+                create();
+            }
+            operations = ((HasTableOperations) catalog.loadTable(TABLE)).operations();
+        }
+        return operations;
+    }
+
+    private void create() {
+        if (catalog instanceof SupportsNamespaces namespaces && !namespaces.namespaceExists(TABLE.namespace())) {
+            try {
+                namespaces.createNamespace(TABLE.namespace());
+            } catch (AlreadyExistsException ignored) {
+                // Created concurrently.
+            }
+        }
+        try {
+            catalog.buildTable(TABLE, SCHEMA)
+                    .withProperties(Map.of(
+                            TableProperties.METADATA_DELETE_AFTER_COMMIT_ENABLED, "true",
+                            TableProperties.METADATA_PREVIOUS_VERSIONS_MAX, "10"))
+                    .create();
+        } catch (AlreadyExistsException ignored) {
+            // Another instance created it first.
+        }
+    }
+
+    private static boolean isLeaseProperty(String key) {
+        return key.startsWith(LEASE_PREFIX) || key.startsWith(INSTANCE_PREFIX);
+    }
+
+    static Map<String, String> encode(LeaseView view) {
+        Map<String, String> properties = new HashMap<>();
+        for (Lease lease : view.leases().values()) {
+            String prefix = LEASE_PREFIX + lease.syncId();
+            if (lease.owner() != null) {
+                properties.put(prefix + OWNER, lease.owner());
+            }
+            properties.put(prefix + EXPIRES_AT, Long.toString(lease.expiresAtMillis()));
+            properties.put(prefix + EPOCH, Long.toString(lease.epoch()));
+            properties.put(prefix + LOAD, Double.toString(lease.load()));
+        }
+        view.instances().forEach((instance, expiresAt) ->
+                properties.put(INSTANCE_PREFIX + instance + EXPIRES_AT, Long.toString(expiresAt)));
+        return properties;
+    }
+
+    static LeaseView decode(Map<String, String> properties) {
+        Map<String, Lease> leases = new HashMap<>();
+        Map<String, Long> instances = new HashMap<>();
+        properties.forEach((key, value) -> {
+            if (key.startsWith(LEASE_PREFIX) && key.endsWith(EPOCH)) {
+                // Sync ids contain dots, so each lease is found through its epoch key.
+                String syncId = key.substring(LEASE_PREFIX.length(), key.length() - EPOCH.length());
+                String prefix = LEASE_PREFIX + syncId;
+                leases.put(syncId, new Lease(
+                        syncId,
+                        properties.get(prefix + OWNER),
+                        Long.parseLong(properties.getOrDefault(prefix + EXPIRES_AT, "0")),
+                        Long.parseLong(value),
+                        Double.parseDouble(properties.getOrDefault(prefix + LOAD, "0"))));
+            } else if (key.startsWith(INSTANCE_PREFIX) && key.endsWith(EXPIRES_AT)) {
+                instances.put(key.substring(INSTANCE_PREFIX.length(), key.length() - EXPIRES_AT.length()),
+                        Long.parseLong(value));
+            }
+        });
+        return new LeaseView(leases, instances);
+    }
+}
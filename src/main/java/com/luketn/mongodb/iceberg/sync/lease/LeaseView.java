@@ -0,0 +1,69 @@
+package com.luketn.mongodb.iceberg.sync.lease;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A consistent read of the lease table: every lease and the heartbeat of every instance.
+ *
+ * @param leases    leases by sync id; collections never claimed are absent
+ * @param instances heartbeat expiry of each instance by instance id
+ */
+public record LeaseView(Map<String, Lease> leases, Map<String, Long> instances) {
+
+    public LeaseView {
+        leases = Map.copyOf(leases);
+        instances = Map.copyOf(instances);
+    }
+
+    static LeaseView empty() {
+        return new LeaseView(Map.of(), Map.of());
+    }
+
+    public Lease lease(String syncId) {
+        Lease lease = leases.get(syncId);
+        return lease == null ? Lease.unclaimed(syncId) : lease;
+    }
+
+    /**
+     * Instances whose heartbeat has not expired at {@code nowMillis}, in id order.
+     */
+    public Set<String> liveInstances(long nowMillis) {
+        Set<String> live = new TreeSet<>();
+        instances.forEach((instance, expiresAt) -> {
+            if (expiresAt > nowMillis) {
+                live.add(instance);
+            }
+        });
+        return live;
+    }
+
+    LeaseView with(Lease lease) {
+        Map<String, Lease> next = new HashMap<>(leases);
+        next.put(lease.syncId(), lease);
+        return new LeaseView(next, instances);
+    }
+
+    LeaseView withHeartbeat(String instanceId, long expiresAtMillis) {
+        Map<String, Long> next = new HashMap<>(instances);
+        next.put(instanceId, expiresAtMillis);
+        return new LeaseView(leases, next);
+    }
+
+    LeaseView withoutInstance(String instanceId) {
+        Map<String, Long> next = new HashMap<>(instances);
+        next.remove(instanceId);
+        return new LeaseView(leases, next);
+    }
+
+    /**
+     * Drops the heartbeats of instances that expired before {@code cutoffMillis}.
+     */
+    LeaseView withoutInstancesExpiredBefore(long cutoffMillis) {
+        Map<String, Long> next = new HashMap<>(instances);
+        next.values().removeIf(expiresAt -> expiresAt < cutoffMillis);
+        return next.size() == instances.size() ? this : new LeaseView(leases, next);
+    }
+}
@@ -0,0 +1,215 @@
+package com.luketn.mongodb.iceberg.sync.mapping;
+
+import com.luketn.mongodb.iceberg.sync.config.FieldMapping;
+import com.luketn.mongodb.iceberg.sync.config.MappingConfig;
+import com.luketn.mongodb.iceberg.sync.mapping.BsonValueReaders.DroppedValues;
+import com.luketn.mongodb.iceberg.sync.mapping.BsonValueReaders.ValueReader;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.types.Types;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReaderMark;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts {@link RawBsonDocument} bytes straight into Iceberg {@link GenericRecord}s.
+ * <p>
+ * The document is walked once with a {@link BsonBinaryReader}. Only the configured
+ * {@link FieldMapping#source()} dot-paths (explicit mode) or the columns of the table schema
+ * (auto mode) are decoded; every other value is skipped in place without being materialised
+ * into an intermediate {@code org.bson.Document}.
+ * <p>
+ * A converter is compiled once per table schema version: the paths are resolved into a trie and
+ * each mapped column gets a reader for its type up front, so converting a document does no
+ * per-field type lookup. Values that cannot be represented in their column's type are written
+ * as {@code null} and counted in {@link #droppedValues()}.
+ */
+public final class BsonToIcebergConverter {
+
+    private final Schema schema;
+    private final PathNode root;
+    private final NewFieldCollector newFields;
+    private final DroppedValues dropped;
+
+    private BsonToIcebergConverter(Schema schema, PathNode root, NewFieldCollector newFields, DroppedValues dropped) {
+        this.schema = schema;
+        this.root = root;
+        this.newFields = newFields;
+        this.dropped = dropped;
+    }
+
+    /**
+     * Creates a converter for the given table schema and mapping.
+     * <p>
+     * In explicit mode each {@link FieldMapping#target()} must name a top-level column of the
+     * schema. In auto mode every top-level column is read from the document field of the same
+     * name, and nested struct columns are read recursively.
+     */
+    public static BsonToIcebergConverter forMapping(Schema schema, MappingConfig mapping) {
+        return forMapping(schema, mapping, null);
+    }
+
+    /**
+     * Like {@link #forMapping(Schema, MappingConfig)}. In auto mode, top-level fields that have
+     * no column are recorded in {@code newFields} instead of being skipped, and
+     * {@link #convert(RawBsonDocument, GenericRecord)} returns {@code null} for documents that
+     * have them. Ignored in explicit mode, where unmapped fields are never columns.
+     *
+     * @param newFields collector of fields to add to the schema, or {@code null} to skip them
+     */
+    public static BsonToIcebergConverter forMapping(
+            Schema schema,
+            MappingConfig mapping,
+            NewFieldCollector newFields
+    ) {
+        PathNode root = new PathNode();
+        DroppedValues dropped = new DroppedValues();
+        List<Types.NestedField> columns = schema.columns();
+        if (MappingConfig.MODE_EXPLICIT.equals(mapping.mode())) {
+            for (FieldMapping field : mapping.fields()) {
+                int position = positionOf(columns, field.target());
+                if (position < 0) {
+                    throw new IllegalArgumentException(
+                            "mapped target column does not exist in table schema: " + field.target());
+                }
+                root.insert(field.source().split("\\."), 0, position, columns.get(position), dropped);
+            }
+        } else {
+            for (int i = 0; i < columns.size(); i++) {
+                root.insert(new String[]{columns.get(i).name()}, 0, i, columns.get(i), dropped);
+            }
+            return new BsonToIcebergConverter(schema, root, newFields, dropped);
+        }
+        return new BsonToIcebergConverter(schema, root, null, dropped);
+    }
+
+    public Schema schema() {
+        return schema;
+    }
+
+    /**
+     * Values converted so far, on any thread, that had a BSON type or value with no
+     * representation in their column's type and were written as {@code null}.
+     */
+    public long droppedValues() {
+        return dropped.count();
+    }
+
+    public GenericRecord convert(RawBsonDocument document) {
+        return convert(document, GenericRecord.create(schema));
+    }
+
+    /**
+     * Converts the document into {@code reuse}, overwriting every column. Columns whose source
+     * path is missing from the document are set to {@code null}.
+     *
+     * @return {@code reuse}, or {@code null} if the converter collects new fields and the
+     *         document has a field the schema has no column for yet; the caller should hold the
+     *         document back and convert it again once the schema has been evolved
+     */
+    public GenericRecord convert(RawBsonDocument document, GenericRecord reuse) {
+        for (int i = 0; i < reuse.size(); i++) {
+            reuse.set(i, null);
+        }
+        boolean complete = true;
+        try (BsonBinaryReader reader = new BsonBinaryReader(document.getByteBuffer().asNIO())) {
+            if (newFields == null) {
+                readDocument(reader, root, reuse);
+            } else {
+                complete = readCollectingNewFields(reader, reuse);
+            }
+        }
+        return complete ? reuse : null;
+    }
+
+    private static void readDocument(BsonBinaryReader reader, PathNode node, GenericRecord record) {
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            PathNode child = node.children.get(reader.readName());
+            if (child == null) {
+                reader.skipValue();
+            } else {
+                readValue(reader, child, record);
+            }
+        }
+        reader.readEndDocument();
+    }
+
+    /**
+     * Reads the top level of an auto mode document, handing fields without a column to the
+     * collector. Fields that are known cost the same lookup as in {@link #readDocument}.
+     */
+    private boolean readCollectingNewFields(BsonBinaryReader reader, GenericRecord record) {
+        boolean complete = true;
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            PathNode child = root.children.get(name);
+            if (child != null) {
+                readValue(reader, child, record);
+            } else if (newFields.observe(name, reader)) {
+                complete = false;
+            }
+        }
+        reader.readEndDocument();
+        return complete;
+    }
+
+    private static void readValue(BsonBinaryReader reader, PathNode node, GenericRecord record) {
+        boolean descend = !node.children.isEmpty() && reader.getCurrentBsonType() == BsonType.DOCUMENT;
+        if (node.reader != null) {
+            if (descend) {
+                // The same subtree is mapped as a whole and through nested paths: read it twice.
+                BsonReaderMark mark = reader.getMark();
+                record.set(node.position, node.reader.read(reader));
+                mark.reset();
+            } else {
+                record.set(node.position, node.reader.read(reader));
+                return;
+            }
+        }
+        if (descend) {
+            readDocument(reader, node, record);
+        } else {
+            reader.skipValue();
+        }
+    }
+
+    private static int positionOf(List<Types.NestedField> columns, String name) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).name().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Node of the source path trie. A node with a reader is the end of a mapped path; a node
+     * with children is a prefix of one or more longer paths.
+     */
+    private static final class PathNode {
+
+        private final Map<String, PathNode> children = new HashMap<>();
+        private int position = -1;
+        private ValueReader reader;
+
+        private void insert(String[] path, int depth, int position, Types.NestedField column, DroppedValues dropped) {
+            if (depth == path.length) {
+                if (reader != null) {
+                    throw new IllegalArgumentException("source path is mapped more than once: " + String.join(".", path));
+                }
+                this.position = position;
+                this.reader = BsonValueReaders.forType(column.name(), column.type(), dropped);
+                return;
+            }
+            children.computeIfAbsent(path[depth], ignored -> new PathNode())
+                    .insert(path, depth + 1, position, column, dropped);
+        }
+    }
+}
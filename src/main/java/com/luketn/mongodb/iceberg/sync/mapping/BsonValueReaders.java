@@ -0,0 +1,429 @@
+package com.luketn.mongodb.iceberg.sync.mapping;
+
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.types.Type;
+import org.apache.iceberg.types.Types;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.codecs.BsonArrayCodec;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.BsonValueCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriter;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.Decimal128;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-type readers that decode the value at the current position of a {@link BsonReader}
+ * into the Java representation Iceberg generic records expect for the target type.
+ * <p>
+ * Each reader is called with the reader positioned on a value (after {@code readName()} in a
+ * document, or after {@code readBsonType()} in an array). A reader always consumes the value.
+ * Numbers widen to the column's type, and narrow to it when the value fits exactly, so an
+ * Int64 or an integral Double is read into an {@code int} column. A value that still cannot be
+ * represented in the target type is read as {@code null} and recorded in {@link DroppedValues}.
+ */
+final class BsonValueReaders {
+
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+    private static final BsonDocumentCodec DOCUMENT_CODEC = new BsonDocumentCodec();
+    private static final BsonArrayCodec ARRAY_CODEC = new BsonArrayCodec();
+    private static final BsonValueCodec VALUE_CODEC = new BsonValueCodec();
+    private static final JsonWriterSettings JSON_SETTINGS = JsonWriterSettings.builder()
+            .outputMode(JsonMode.RELAXED)
+            .build();
+
+    private BsonValueReaders() {
+    }
+
+    @FunctionalInterface
+    interface ValueReader {
+        Object read(BsonReader reader);
+    }
+
+    /**
+     * The reader of {@code type}, for the column or nested field {@code path}. Values it reads
+     * as {@code null} although they are not BSON nulls are recorded in {@code dropped}.
+     */
+    static ValueReader forType(String path, Type type, DroppedValues dropped) {
+        ValueReader typed = switch (type.typeId()) {
+            case STRING -> BsonValueReaders::readString;
+            case INTEGER -> BsonValueReaders::readInteger;
+            case LONG -> BsonValueReaders::readLong;
+            case FLOAT -> reader -> {
+                Double value = readDouble(reader);
+                return value == null ? null : value.floatValue();
+            };
+            case DOUBLE -> BsonValueReaders::readDouble;
+            case BOOLEAN -> BsonValueReaders::readBoolean;
+            case DECIMAL -> decimalReader((Types.DecimalType) type);
+            case TIMESTAMP -> timestampReader(((Types.TimestampType) type).shouldAdjustToUTC());
+            case DATE -> reader -> {
+                Instant instant = readInstant(reader);
+                return instant == null ? null : LocalDate.ofInstant(instant, ZoneOffset.UTC);
+            };
+            case BINARY -> reader -> {
+                byte[] data = readBinary(reader);
+                return data == null ? null : ByteBuffer.wrap(data);
+            };
+            case FIXED -> BsonValueReaders::readBinary;
+            case UUID -> BsonValueReaders::readUuid;
+            case STRUCT -> new StructReader(path, type.asStructType(), dropped);
+            case LIST -> listReader(forType(path + "[]", type.asListType().elementType(), dropped));
+            case MAP -> mapReader(path, type.asMapType(), dropped);
+            default -> throw new IllegalArgumentException("unsupported Iceberg type for BSON conversion: " + type);
+        };
+        return reader -> {
+            BsonType bsonType = reader.getCurrentBsonType();
+            Object value = typed.read(reader);
+            if (value == null && bsonType != BsonType.NULL && bsonType != BsonType.UNDEFINED) {
+                dropped.record(path, bsonType, type);
+            }
+            return value;
+        };
+    }
+
+    /**
+     * Values read as {@code null} because their BSON type or value has no representation in
+     * the column's type. Counted, and logged once for each path and BSON type; later ones only
+     * at debug level. Shared by the readers of one converter, on any number of threads.
+     */
+    static final class DroppedValues {
+
+        private static final Logger logger = LoggerFactory.getLogger(BsonToIcebergConverter.class);
+
+        private final LongAdder count = new LongAdder();
+        private final Set<String> logged = ConcurrentHashMap.newKeySet();
+
+        void record(String path, BsonType bsonType, Type type) {
+            count.increment();
+            if (logged.add(path + ':' + bsonType)) {
+                logger.warn("{}: {} value cannot be represented as {} and is written as null; "
+                        + "later ones are logged at debug level", path, bsonType, type);
+            } else {
+                logger.debug("{}: {} value written as null", path, bsonType);
+            }
+        }
+
+        long count() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * Reads a nested document into a {@link GenericRecord}, decoding only the fields present in
+     * the struct type and skipping the rest.
+     */
+    static final class StructReader implements ValueReader {
+
+        private final Types.StructType struct;
+        private final Map<String, Integer> positions;
+        private final ValueReader[] readers;
+
+        StructReader(String path, Types.StructType struct, DroppedValues dropped) {
+            this.struct = struct;
+            List<Types.NestedField> fields = struct.fields();
+            this.positions = new HashMap<>(fields.size() * 2);
+            this.readers = new ValueReader[fields.size()];
+            for (int i = 0; i < fields.size(); i++) {
+                positions.put(fields.get(i).name(), i);
+                readers[i] = forType(path + '.' + fields.get(i).name(), fields.get(i).type(), dropped);
+            }
+        }
+
+        @Override
+        public Object read(BsonReader reader) {
+            if (reader.getCurrentBsonType() != BsonType.DOCUMENT) {
+                return skip(reader);
+            }
+            GenericRecord record = GenericRecord.create(struct);
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                Integer position = positions.get(reader.readName());
+                if (position == null) {
+                    reader.skipValue();
+                } else {
+                    record.set(position, readers[position].read(reader));
+                }
+            }
+            reader.readEndDocument();
+            return record;
+        }
+    }
+
+    static Object skip(BsonReader reader) {
+        reader.skipValue();
+        return null;
+    }
+
+    private static String readString(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case STRING -> reader.readString();
+            case OBJECT_ID -> reader.readObjectId().toHexString();
+            case SYMBOL -> reader.readSymbol();
+            case JAVASCRIPT -> reader.readJavaScript();
+            case REGULAR_EXPRESSION -> reader.readRegularExpression().getPattern();
+            case INT32 -> Integer.toString(reader.readInt32());
+            case INT64 -> Long.toString(reader.readInt64());
+            case DOUBLE -> Double.toString(reader.readDouble());
+            case DECIMAL128 -> reader.readDecimal128().toString();
+            case BOOLEAN -> Boolean.toString(reader.readBoolean());
+            case DATE_TIME -> Instant.ofEpochMilli(reader.readDateTime()).toString();
+            // Type conflicts are promoted to string with JSON serialization. This is the only
+            // place a subtree is materialised, and only when the column is a string.
+            case DOCUMENT -> DOCUMENT_CODEC.decode(reader, DECODER_CONTEXT).toJson(JSON_SETTINGS);
+            case ARRAY -> toJson(ARRAY_CODEC.decode(reader, DECODER_CONTEXT));
+            case NULL -> {
+                reader.readNull();
+                yield null;
+            }
+            default -> (String) skip(reader);
+        };
+    }
+
+    private static Integer readInteger(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case INT32 -> reader.readInt32();
+            case INT64 -> {
+                long value = reader.readInt64();
+                yield value == (int) value ? (int) value : null;
+            }
+            case DOUBLE -> {
+                double value = reader.readDouble();
+                yield value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE && value == Math.rint(value)
+                        ? (int) value
+                        : null;
+            }
+            case DECIMAL128 -> {
+                BigInteger value = readIntegral(reader);
+                yield value == null || value.bitLength() > 31 ? null : value.intValue();
+            }
+            case NULL -> {
+                reader.readNull();
+                yield null;
+            }
+            default -> (Integer) skip(reader);
+        };
+    }
+
+    private static Long readLong(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case INT32 -> (long) reader.readInt32();
+            case INT64 -> reader.readInt64();
+            case DOUBLE -> {
+                double value = reader.readDouble();
+                // 2^63 is the first double past Long.MAX_VALUE; -2^63 is Long.MIN_VALUE itself.
+                yield value >= -0x1p63 && value < 0x1p63 && value == Math.rint(value) ? (long) value : null;
+            }
+            case DECIMAL128 -> {
+                BigInteger value = readIntegral(reader);
+                yield value == null || value.bitLength() > 63 ? null : value.longValue();
+            }
+            case NULL -> {
+                reader.readNull();
+                yield null;
+            }
+            default -> (Long) skip(reader);
+        };
+    }
+
+    /**
+     * Reads a Decimal128 that is a whole number, or {@code null} for one with a fraction, NaN,
+     * an infinity or negative zero, which has no {@link BigDecimal} form.
+     */
+    private static BigInteger readIntegral(BsonReader reader) {
+        Decimal128 decimal = reader.readDecimal128();
+        if (decimal.isNaN() || decimal.isInfinite()) {
+            return null;
+        }
+        try {
+            return decimal.bigDecimalValue().toBigIntegerExact();
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    private static Double readDouble(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case DOUBLE -> reader.readDouble();
+            case INT32 -> (double) reader.readInt32();
+            case INT64 -> (double) reader.readInt64();
+            case DECIMAL128 -> {
+                Decimal128 decimal = reader.readDecimal128();
+                yield decimal.isNaN() || decimal.isInfinite() ? null : decimal.bigDecimalValue().doubleValue();
+            }
+            case NULL -> {
+                reader.readNull();
+                yield null;
+            }
+            default -> (Double) skip(reader);
+        };
+    }
+
+    private static Boolean readBoolean(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case BOOLEAN -> reader.readBoolean();
+            case NULL -> {
+                reader.readNull();
+                yield null;
+            }
+            default -> (Boolean) skip(reader);
+        };
+    }
+
+    private static ValueReader decimalReader(Types.DecimalType type) {
+        int precision = type.precision();
+        int scale = type.scale();
+        return reader -> {
+            BigDecimal value = switch (reader.getCurrentBsonType()) {
+                case DECIMAL128 -> {
+                    Decimal128 decimal = reader.readDecimal128();
+                    yield decimal.isNaN() || decimal.isInfinite() ? null : decimal.bigDecimalValue();
+                }
+                case INT32 -> BigDecimal.valueOf(reader.readInt32());
+                case INT64 -> BigDecimal.valueOf(reader.readInt64());
+                case DOUBLE -> {
+                    double d = reader.readDouble();
+                    yield Double.isFinite(d) ? BigDecimal.valueOf(d) : null;
+                }
+                case NULL -> {
+                    reader.readNull();
+                    yield null;
+                }
+                default -> (BigDecimal) skip(reader);
+            };
+            if (value == null) {
+                return null;
+            }
+            BigDecimal scaled = value.setScale(scale, RoundingMode.HALF_UP);
+            return scaled.precision() > precision ? null : scaled;
+        };
+    }
+
+    private static ValueReader timestampReader(boolean withZone) {
+        return reader -> {
+            Instant instant = readInstant(reader);
+            if (instant == null) {
+                return null;
+            }
+            return withZone
+                    ? OffsetDateTime.ofInstant(instant, ZoneOffset.UTC)
+                    : LocalDateTime.ofInstant(instant, ZoneOffset.UTC);
+        };
+    }
+
+    private static Instant readInstant(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case DATE_TIME -> Instant.ofEpochMilli(reader.readDateTime());
+            case TIMESTAMP -> Instant.ofEpochSecond(reader.readTimestamp().getTime());
+            case NULL -> {
+                reader.readNull();
+                yield null;
+            }
+            default -> (Instant) skip(reader);
+        };
+    }
+
+    private static byte[] readBinary(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case BINARY -> reader.readBinaryData().getData();
+            case NULL -> {
+                reader.readNull();
+                yield null;
+            }
+            default -> (byte[]) skip(reader);
+        };
+    }
+
+    private static UUID readUuid(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.BINARY
+                && reader.peekBinarySubType() == BsonBinarySubType.UUID_STANDARD.getValue()) {
+            return reader.readBinaryData().asUuid();
+        }
+        if (reader.getCurrentBsonType() == BsonType.STRING) {
+            try {
+                return UUID.fromString(reader.readString());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return (UUID) skip(reader);
+    }
+
+    private static ValueReader listReader(ValueReader elementReader) {
+        return reader -> {
+            if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+                return skip(reader);
+            }
+            List<Object> values = new ArrayList<>();
+            reader.readStartArray();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                values.add(elementReader.read(reader));
+            }
+            reader.readEndArray();
+            return values;
+        };
+    }
+
+    private static ValueReader mapReader(String path, Types.MapType type, DroppedValues dropped) {
+        if (type.keyType().typeId() != Type.TypeID.STRING) {
+            throw new IllegalArgumentException("only string-keyed maps can be read from BSON: " + type);
+        }
+        ValueReader valueReader = forType(path + "{}", type.valueType(), dropped);
+        return reader -> {
+            if (reader.getCurrentBsonType() != BsonType.DOCUMENT) {
+                return skip(reader);
+            }
+            Map<String, Object> values = new LinkedHashMap<>();
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                String key = reader.readName();
+                values.put(key, valueReader.read(reader));
+            }
+            reader.readEndDocument();
+            return values;
+        };
+    }
+
+    static String toJson(BsonValue value) {
+        if (value.isDocument()) {
+            return value.asDocument().toJson(JSON_SETTINGS);
+        }
+        // JsonWriter only starts at a document, so any other value is written as the field of
+        // one, and its JSON is whatever the writer wrote after the field name.
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json, JSON_SETTINGS);
+        writer.writeStartDocument();
+        writer.writeName("v");
+        int start = json.getBuffer().length();
+        VALUE_CODEC.encode(writer, value, ENCODER_CONTEXT);
+        return json.getBuffer().substring(start);
+    }
+}
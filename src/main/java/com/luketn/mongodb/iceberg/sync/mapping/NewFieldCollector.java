@@ -0,0 +1,167 @@
+package com.luketn.mongodb.iceberg.sync.mapping;
+
+import org.apache.iceberg.types.Type;
+import org.apache.iceberg.types.Types;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.types.Decimal128;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Top-level document fields that an auto mode table has no column for yet, with the Iceberg
+ * type inferred from the values seen so far.
+ * <p>
+ * Converters on any number of threads record fields here as they meet them, and the fields are
+ * {@link #drain drained} into a single schema update before the batch is flushed, however many
+ * documents of the batch brought them. Types follow the type mapping of the design; a field seen
+ * with conflicting types is promoted to {@code string}, which the converter fills with the JSON
+ * form of documents and arrays. {@code int} and {@code long} widen to {@code long}, and either
+ * with {@code double} to {@code double}, as the readers of those types accept the narrower ones.
+ * <p>
+ * Types are built with placeholder field ids; the schema update assigns the real ones.
+ */
+public final class NewFieldCollector {
+
+    private static final int MAX_DECIMAL_PRECISION = 38;
+
+    private final Map<String, Type> fields = new ConcurrentHashMap<>();
+
+    /**
+     * Records the field whose value the reader is positioned on, consuming the value.
+     *
+     * @return {@code false} if the value carries no type (such as {@code null}), in which case
+     *         nothing is recorded and the field can be treated as missing
+     */
+    boolean observe(String name, BsonReader reader) {
+        Type type = infer(reader);
+        if (type == null) {
+            return false;
+        }
+        fields.merge(name, type, NewFieldCollector::merge);
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return fields.isEmpty();
+    }
+
+    /**
+     * Removes and returns the fields recorded so far, in no particular order. Fields recorded
+     * concurrently are either returned or left for the next call.
+     */
+    public Map<String, Type> drain() {
+        Map<String, Type> drained = new HashMap<>();
+        for (String name : fields.keySet()) {
+            Type type = fields.remove(name);
+            if (type != null) {
+                drained.put(name, type);
+            }
+        }
+        return drained;
+    }
+
+    static Type infer(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case STRING, OBJECT_ID, SYMBOL, JAVASCRIPT, REGULAR_EXPRESSION -> skipAs(reader, Types.StringType.get());
+            case INT32 -> skipAs(reader, Types.IntegerType.get());
+            case INT64 -> skipAs(reader, Types.LongType.get());
+            case DOUBLE -> skipAs(reader, Types.DoubleType.get());
+            case BOOLEAN -> skipAs(reader, Types.BooleanType.get());
+            case DATE_TIME, TIMESTAMP -> skipAs(reader, Types.TimestampType.withZone());
+            case DECIMAL128 -> decimal(reader.readDecimal128());
+            case BINARY -> skipAs(reader, reader.peekBinarySubType() == BsonBinarySubType.UUID_STANDARD.getValue()
+                    ? Types.UUIDType.get()
+                    : Types.BinaryType.get());
+            case DOCUMENT -> inferStruct(reader);
+            case ARRAY -> inferList(reader);
+            default -> skipAs(reader, null);
+        };
+    }
+
+    private static Type skipAs(BsonReader reader, Type type) {
+        reader.skipValue();
+        return type;
+    }
+
+    private static Type decimal(Decimal128 value) {
+        if (value.isNaN() || value.isInfinite()) {
+            return Types.DecimalType.of(MAX_DECIMAL_PRECISION, 0);
+        }
+        int scale = Math.clamp(value.bigDecimalValue().scale(), 0, MAX_DECIMAL_PRECISION);
+        return Types.DecimalType.of(MAX_DECIMAL_PRECISION, scale);
+    }
+
+    private static Type inferStruct(BsonReader reader) {
+        Map<String, Type> children = new LinkedHashMap<>();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            Type type = infer(reader);
+            if (type != null) {
+                children.merge(name, type, NewFieldCollector::merge);
+            }
+        }
+        reader.readEndDocument();
+        return children.isEmpty() ? null : struct(children);
+    }
+
+    private static Type inferList(BsonReader reader) {
+        Type element = null;
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            Type type = infer(reader);
+            if (type != null) {
+                element = element == null ? type : merge(element, type);
+            }
+        }
+        reader.readEndArray();
+        return element == null ? null : Types.ListType.ofOptional(0, element);
+    }
+
+    static Type merge(Type left, Type right) {
+        if (left.equals(right)) {
+            return left;
+        }
+        Type.TypeID l = left.typeId();
+        Type.TypeID r = right.typeId();
+        if (isNumber(l) && isNumber(r)) {
+            return l == Type.TypeID.DOUBLE || r == Type.TypeID.DOUBLE ? Types.DoubleType.get() : Types.LongType.get();
+        }
+        if (l == Type.TypeID.DECIMAL && r == Type.TypeID.DECIMAL) {
+            int scale = Math.max(((Types.DecimalType) left).scale(), ((Types.DecimalType) right).scale());
+            return Types.DecimalType.of(MAX_DECIMAL_PRECISION, scale);
+        }
+        if (l == Type.TypeID.STRUCT && r == Type.TypeID.STRUCT) {
+            Map<String, Type> children = new LinkedHashMap<>();
+            for (Types.NestedField field : left.asStructType().fields()) {
+                children.put(field.name(), field.type());
+            }
+            for (Types.NestedField field : right.asStructType().fields()) {
+                children.merge(field.name(), field.type(), NewFieldCollector::merge);
+            }
+            return struct(children);
+        }
+        if (l == Type.TypeID.LIST && r == Type.TypeID.LIST) {
+            return Types.ListType.ofOptional(0,
+                    merge(left.asListType().elementType(), right.asListType().elementType()));
+        }
+        return Types.StringType.get();
+    }
+
+    private static boolean isNumber(Type.TypeID type) {
+        return type == Type.TypeID.INTEGER || type == Type.TypeID.LONG || type == Type.TypeID.DOUBLE;
+    }
+
+    private static Types.StructType struct(Map<String, Type> children) {
+        List<Types.NestedField> fields = new ArrayList<>(children.size());
+        children.forEach((name, type) -> fields.add(Types.NestedField.optional(0, name, type)));
+        return Types.StructType.of(fields);
+    }
+}
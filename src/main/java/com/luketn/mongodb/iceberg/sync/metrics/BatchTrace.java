@@ -0,0 +1,99 @@
+package com.luketn.mongodb.iceberg.sync.metrics;
+
+/**
+ * Timings of one flushed batch, filled in by each stage of the pipeline it passes through.
+ * <p>
+ * A trace is handed from stage to stage along with its batch (consumer thread, encode pool,
+ * commit thread), so it is never written by two threads at once and needs no locking; the
+ * hand-offs order the writes. Stages add to it rather than set it, as a batch may be written in
+ * several parts.
+ */
+public final class BatchTrace {
+
+    private final CollectionMetrics metrics;
+    private final long oldestSourceMillis;
+    private final long newestSourceMillis;
+    private final long bufferNanos;
+    private long decodeNanos;
+    private long writeNanos;
+    private long uploadNanos;
+    private long commitNanos;
+    private long checkpointNanos;
+
+    BatchTrace(CollectionMetrics metrics, long oldestSourceMillis, long newestSourceMillis, long bufferNanos) {
+        this.metrics = metrics;
+        this.oldestSourceMillis = oldestSourceMillis;
+        this.newestSourceMillis = newestSourceMillis;
+        this.bufferNanos = bufferNanos;
+    }
+
+    /**
+     * A trace that is not recorded anywhere, for batches of callers without metrics.
+     */
+    public static BatchTrace untracked() {
+        return new BatchTrace(null, 0, 0, 0);
+    }
+
+    public long oldestSourceMillis() {
+        return oldestSourceMillis;
+    }
+
+    public long newestSourceMillis() {
+        return newestSourceMillis;
+    }
+
+    public long bufferNanos() {
+        return bufferNanos;
+    }
+
+    public long decodeNanos() {
+        return decodeNanos;
+    }
+
+    public long writeNanos() {
+        return writeNanos;
+    }
+
+    public long uploadNanos() {
+        return uploadNanos;
+    }
+
+    public long commitNanos() {
+        return commitNanos;
+    }
+
+    public long checkpointNanos() {
+        return checkpointNanos;
+    }
+
+    public void addDecode(long nanos) {
+        decodeNanos += nanos;
+    }
+
+    public void addWrite(long nanos) {
+        writeNanos += nanos;
+    }
+
+    public void addUpload(long nanos) {
+        uploadNanos += nanos;
+    }
+
+    public void addCommit(long nanos) {
+        commitNanos += nanos;
+    }
+
+    public void addCheckpoint(long nanos) {
+        checkpointNanos += nanos;
+    }
+
+    /**
+     * Records the trace once the batch is committed and checkpointed.
+     *
+     * @param commitMillis time of the batch's Iceberg snapshot
+     */
+    public void completed(long commitMillis) {
+        if (metrics != null) {
+            metrics.completed(this, commitMillis);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.luketn.mongodb.iceberg.sync.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replication lag and per-stage latency of one collection's batches.
+ * <p>
+ * Nothing is recorded per event: the change stream consumer tracks the source time of the
+ * oldest and newest event of its window in two longs and hands them over with the flush in a
+ * {@link BatchTrace}, which the write pipeline fills in as the batch moves through it. The
+ * trace is recorded once the batch's checkpoint has been persisted.
+ * <p>
+ * Lag is measured from the event's time in MongoDB (its {@code wallTime}, or its
+ * {@code clusterTime} where the server does not report one) to the time of the Iceberg
+ * snapshot that committed it. {@code sync.lag} records it for the oldest event of each batch,
+ * the longest any of its events waited. The {@code sync.lag.current} gauge is the age of the
+ * oldest event not yet committed, so it stays at zero while the collection is quiet and grows
+ * while commits are stuck.
+ */
+public final class CollectionMetrics implements AutoCloseable {
+
+    /**
+     * Where a batch spends its time, in pipeline order.
+     */
+    public enum Stage {
+        /**
+         * Converting BSON documents to Iceberg records.
+         */
+        DECODE("decode"),
+        /**
+         * From the first event of a window to its flush.
+         */
+        BUFFER("buffer"),
+        /**
+         * Encoding rows and deletes into Parquet files. Object stores receive the parts of a
+         * large file while it is written, so this includes part of the upload.
+         */
+        WRITE("write"),
+        /**
+         * Closing the files: flushing the last row group and completing their upload.
+         */
+        UPLOAD("upload"),
+        /**
+         * The catalog commit of the batch's snapshot.
+         */
+        COMMIT("commit"),
+        /**
+         * Persisting the checkpoint after the commit.
+         */
+        CHECKPOINT("checkpoint");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+
+        public String tag() {
+            return tag;
+        }
+    }
+
+    private static final Duration MIN_EXPECTED = Duration.ofMillis(1);
+    private static final Duration MAX_EXPECTED = Duration.ofHours(1);
+
+    private final String collection;
+    private final MeterRegistry meterRegistry;
+    private final List<Meter> meters = new ArrayList<>();
+    private final Map<Stage, Timer> stages = new EnumMap<>(Stage.class);
+    private final Timer lag;
+
+    /**
+     * Batches flushed but not yet committed, in flush (and so commit) order.
+     */
+    private final ArrayDeque<BatchTrace> inFlight = new ArrayDeque<>();
+    private long windowSourceMillis;
+    private long lastCommitMillis;
+    private long committedThroughMillis;
+    private long batchesCommitted;
+
+    public CollectionMetrics(String collection, MeterRegistry meterRegistry) {
+        this.collection = collection;
+        this.meterRegistry = meterRegistry;
+        for (Stage stage : Stage.values()) {
+            Timer timer = Timer.builder("sync.stage.duration")
+                    .description("time a batch spends in each stage of the pipeline")
+                    .tag("collection", collection)
+                    .tag("stage", stage.tag())
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(MIN_EXPECTED)
+                    .maximumExpectedValue(MAX_EXPECTED)
+                    .register(meterRegistry);
+            stages.put(stage, timer);
+            meters.add(timer);
+        }
+        this.lag = Timer.builder("sync.lag")
+                .description("MongoDB event time to Iceberg commit time of the oldest event of each batch")
+                .tag("collection", collection)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(MIN_EXPECTED)
+                .maximumExpectedValue(MAX_EXPECTED)
+                .register(meterRegistry);
+        meters.add(lag);
+        meters.add(TimeGauge.builder("sync.lag.current", this,
+                        TimeUnit.MILLISECONDS, metrics -> metrics.currentLagMillis(System.currentTimeMillis()))
+                .description("age of the oldest event not yet committed")
+                .tag("collection", collection)
+                .register(meterRegistry));
+        meters.add(FunctionCounter.builder("sync.batches.committed", this, CollectionMetrics::batchesCommitted)
+                .tag("collection", collection)
+                .register(meterRegistry));
+    }
+
+    public String collection() {
+        return collection;
+    }
+
+    /**
+     * Records that a window opened with an event of the given source time, so that the current
+     * lag covers events that have not been flushed yet. Called once per window.
+     */
+    public synchronized void windowOpened(long sourceMillis) {
+        windowSourceMillis = sourceMillis;
+    }
+
+    /**
+     * Starts the trace of a flushed change stream window.
+     *
+     * @param oldestSourceMillis source time of the window's oldest event, or 0 if unknown
+     * @param newestSourceMillis source time of the window's newest event, or 0 if unknown
+     * @param bufferNanos        time from the window's first event to its flush
+     */
+    public synchronized BatchTrace newBatch(long oldestSourceMillis, long newestSourceMillis, long bufferNanos) {
+        BatchTrace trace = new BatchTrace(this, oldestSourceMillis, newestSourceMillis, bufferNanos);
+        inFlight.addLast(trace);
+        windowSourceMillis = 0;
+        return trace;
+    }
+
+    /**
+     * Starts the trace of a batch with no source times, such as a batch of an initial sync.
+     */
+    public BatchTrace newBatch() {
+        return newBatch(0, 0, 0);
+    }
+
+    /**
+     * Milliseconds since the time of the oldest event that is not committed yet, or 0 if every
+     * event seen has been committed.
+     */
+    public synchronized long currentLagMillis(long nowMillis) {
+        long oldest = windowSourceMillis;
+        for (BatchTrace trace : inFlight) {
+            if (trace.oldestSourceMillis() > 0) {
+                oldest = trace.oldestSourceMillis();
+                break;
+            }
+        }
+        return oldest == 0 ? 0 : Math.max(0, nowMillis - oldest);
+    }
+
+    public synchronized long batchesCommitted() {
+        return batchesCommitted;
+    }
+
+    /**
+     * Status of the collection for the status endpoint.
+     *
+     * @param state current state of the collection's sync, as reported by its owner
+     */
+    public synchronized CollectionStatus status(String state) {
+        long now = System.currentTimeMillis();
+        return new CollectionStatus(
+                collection,
+                state,
+                currentLagMillis(now),
+                timestamp(lastCommitMillis),
+                timestamp(committedThroughMillis),
+                batchesCommitted,
+                inFlight.size());
+    }
+
+    void completed(BatchTrace trace, long commitMillis) {
+        record(Stage.DECODE, trace.decodeNanos());
+        record(Stage.BUFFER, trace.bufferNanos());
+        record(Stage.WRITE, trace.writeNanos());
+        record(Stage.UPLOAD, trace.uploadNanos());
+        record(Stage.COMMIT, trace.commitNanos());
+        record(Stage.CHECKPOINT, trace.checkpointNanos());
+        if (trace.oldestSourceMillis() > 0) {
+            lag.record(Math.max(0, commitMillis - trace.oldestSourceMillis()), TimeUnit.MILLISECONDS);
+        }
+        synchronized (this) {
+            // Batches commit in flush order, so traces still ahead of this one belong to batches
+            // that failed; their events were replayed after a restart and are in this one.
+            BatchTrace head;
+            do {
+                head = inFlight.pollFirst();
+            } while (head != null && head != trace);
+            lastCommitMillis = commitMillis;
+            if (trace.newestSourceMillis() > 0) {
+                committedThroughMillis = trace.newestSourceMillis();
+            }
+            batchesCommitted++;
+        }
+    }
+
+    private static String timestamp(long millis) {
+        return millis == 0 ? null : Instant.ofEpochMilli(millis).toString();
+    }
+
+    /**
+     * Records a stage the batch went through; stages it skipped (a batch with nothing to write
+     * is not encoded) are left out so they do not pull the histograms toward zero.
+     */
+    private void record(Stage stage, long nanos) {
+        if (nanos > 0) {
+            stages.get(stage).record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void close() {
+        meters.forEach(meterRegistry::remove);
+    }
+}
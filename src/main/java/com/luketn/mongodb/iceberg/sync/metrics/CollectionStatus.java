@@ -0,0 +1,23 @@
+package com.luketn.mongodb.iceberg.sync.metrics;
+
+/**
+ * State of one collection's sync as served by the status endpoint.
+ *
+ * @param collection       MongoDB collection name
+ * @param state            state of the collection's sync, as reported by its owner
+ * @param lagMillis        age of the oldest event not committed yet; 0 when caught up
+ * @param lastCommit       time of the last committed batch (ISO-8601), or {@code null}
+ * @param committedThrough MongoDB time of the newest committed event (ISO-8601), or {@code null}
+ * @param batchesCommitted batches committed since start
+ * @param batchesInFlight  batches flushed and not committed yet
+ */
+public record CollectionStatus(
+        String collection,
+        String state,
+        long lagMillis,
+        String lastCommit,
+        String committedThrough,
+        long batchesCommitted,
+        int batchesInFlight
+) {
+}
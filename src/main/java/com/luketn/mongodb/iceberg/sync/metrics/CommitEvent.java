@@ -0,0 +1,38 @@
+package com.luketn.mongodb.iceberg.sync.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event spanning the commit stage of one batch: the catalog commit and the checkpoint
+ * persisted after it.
+ */
+@Name("com.luketn.mongodb.iceberg.sync.Commit")
+@Label("Iceberg Commit")
+@Category({"MongoDB Iceberg Sync"})
+@Description("Catalog commit of one batch and its checkpoint")
+@StackTrace(false)
+public final class CommitEvent extends Event {
+
+    @Label("Table")
+    public String table;
+
+    @Label("Snapshot Id")
+    public long snapshotId;
+
+    @Label("Data Files")
+    public int dataFiles;
+
+    @Label("Delete Files")
+    public int deleteFiles;
+
+    @Label("Lag")
+    @Description("MongoDB time of the batch's oldest event to the commit; 0 if unknown")
+    @Timespan(Timespan.MILLISECONDS)
+    public long lag;
+}
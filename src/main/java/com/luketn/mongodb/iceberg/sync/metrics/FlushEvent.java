@@ -0,0 +1,40 @@
+package com.luketn.mongodb.iceberg.sync.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event spanning the encode stage of one batch: its rows and deletes written to Parquet
+ * files and uploaded through the table's {@code FileIO}.
+ */
+@Name("com.luketn.mongodb.iceberg.sync.Flush")
+@Label("Iceberg Flush")
+@Category({"MongoDB Iceberg Sync"})
+@Description("Encoding and upload of one batch's data and delete files")
+@StackTrace(false)
+public final class FlushEvent extends Event {
+
+    @Label("Table")
+    public String table;
+
+    @Label("Rows")
+    public long rows;
+
+    @Label("Deletes")
+    public long deletes;
+
+    @Label("Data Files")
+    public int dataFiles;
+
+    @Label("Delete Files")
+    public int deleteFiles;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytes;
+}
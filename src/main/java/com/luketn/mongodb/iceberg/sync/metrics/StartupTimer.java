@@ -0,0 +1,53 @@
+package com.luketn.mongodb.iceberg.sync.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time from JVM start to the process's first Iceberg commit, the cost of a (rolling) restart as
+ * seen from the tables: class loading, catalog initialisation, loading tables and checkpoints,
+ * and the first batch. It is logged once and reported as the {@code sync.startup.first.commit}
+ * gauge, which stays NaN until then.
+ */
+public final class StartupTimer {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupTimer.class);
+
+    private static final AtomicLong firstCommitMillis = new AtomicLong(-1);
+
+    private StartupTimer() {
+    }
+
+    public static void register(MeterRegistry meterRegistry) {
+        TimeGauge.builder("sync.startup.first.commit", firstCommitMillis, TimeUnit.MILLISECONDS,
+                        millis -> millis.get() < 0 ? Double.NaN : millis.get())
+                .description("time from JVM start to the first Iceberg commit")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Called after every commit; records the first.
+     */
+    public static void committed() {
+        if (firstCommitMillis.get() >= 0) {
+            return;
+        }
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        if (firstCommitMillis.compareAndSet(-1, uptime)) {
+            logger.info("first commit {} ms after JVM start", uptime);
+        }
+    }
+
+    /**
+     * Milliseconds from JVM start to the first commit, or -1 before it.
+     */
+    public static long firstCommitMillis() {
+        return firstCommitMillis.get();
+    }
+}
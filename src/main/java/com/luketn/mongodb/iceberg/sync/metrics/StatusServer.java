@@ -0,0 +1,111 @@
+package com.luketn.mongodb.iceberg.sync.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.luketn.mongodb.iceberg.sync.config.StatusConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Optional built-in HTTP endpoint, enabled by {@code sync.status}.
+ * <ul>
+ *   <li>{@code GET /metrics}: every meter in the Prometheus text format</li>
+ *   <li>{@code GET /status}: JSON with the {@link CollectionStatus} of each collection</li>
+ * </ul>
+ * Requests are served on virtual threads, so a slow scraper holds no platform thread.
+ */
+public final class StatusServer implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatusServer.class);
+
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String JSON_CONTENT_TYPE = "application/json";
+
+    private final StatusConfig config;
+    private final PrometheusMeterRegistry prometheus;
+    private final Supplier<List<CollectionStatus>> statuses;
+    private final ObjectMapper json = new ObjectMapper();
+    private ExecutorService executor;
+    private HttpServer server;
+
+    /**
+     * @param prometheus registry the meters are scraped from; usually a member of the daemon's
+     *                   composite registry
+     * @param statuses   current status of every collection
+     */
+    public StatusServer(
+            StatusConfig config,
+            PrometheusMeterRegistry prometheus,
+            Supplier<List<CollectionStatus>> statuses
+    ) {
+        this.config = config;
+        this.prometheus = prometheus;
+        this.statuses = statuses;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(config.host(), config.port()), 0);
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("status-http-", 0).factory());
+        server.setExecutor(executor);
+        server.createContext("/metrics", exchange -> respond(exchange, PROMETHEUS_CONTENT_TYPE,
+                () -> prometheus.scrape().getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/status", exchange -> respond(exchange, JSON_CONTENT_TYPE,
+                () -> json.writeValueAsBytes(Map.of("collections", statuses.get()))));
+        server.start();
+        logger.info("status endpoint listening on {}:{}", config.host(), port());
+    }
+
+    /**
+     * The bound port, which differs from the configured one when that is 0.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdown();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, Body body) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] bytes;
+            try {
+                bytes = body.render();
+            } catch (Exception e) {
+                logger.warn("status endpoint failed to render {}", exchange.getRequestURI(), e);
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Body {
+        byte[] render() throws Exception;
+    }
+}
@@ -0,0 +1,107 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import org.bson.RawBsonDocument;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An uncompressed {@code .bson} file of a {@code mongodump}, memory-mapped so that several
+ * threads can parse pieces of it at once.
+ * <p>
+ * The file is a sequence of BSON documents, each starting with its little-endian length.
+ * {@link #splitEnd} walks those prefixes to cut the file into pieces that start and end on
+ * document boundaries. Collection dumps are routinely larger than the 2 GB a
+ * {@link java.nio.MappedByteBuffer} can map, so the file is mapped as one {@link MemorySegment}.
+ */
+final class BsonDumpFile implements AutoCloseable {
+
+    private static final ValueLayout.OfInt LENGTH = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final int MIN_DOCUMENT_BYTES = 5;
+
+    private final Path path;
+    private final Arena arena;
+    private final MemorySegment segment;
+
+    private BsonDumpFile(Path path, Arena arena, MemorySegment segment) {
+        this.path = path;
+        this.arena = arena;
+        this.segment = segment;
+    }
+
+    static BsonDumpFile open(Path path) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            MemorySegment segment = size == 0
+                    ? MemorySegment.NULL
+                    : channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+            return new BsonDumpFile(path, arena, segment);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    long size() {
+        return segment.byteSize();
+    }
+
+    /**
+     * End of the piece starting at {@code start}: the first document boundary at least
+     * {@code targetBytes} past it, or the end of the file.
+     */
+    long splitEnd(long start, long targetBytes) throws IOException {
+        long position = start;
+        while (position < size() && position - start < targetBytes) {
+            position += documentLength(position);
+        }
+        return position;
+    }
+
+    /**
+     * Length of the document at {@code position}, checked against the file so that a truncated
+     * or corrupt dump fails instead of being misread.
+     */
+    int documentLength(long position) throws IOException {
+        if (size() - position < MIN_DOCUMENT_BYTES) {
+            throw corrupt(position, "truncated document");
+        }
+        int length = segment.get(LENGTH, position);
+        if (length < MIN_DOCUMENT_BYTES || length > MongodumpReader.MAX_DOCUMENT_BYTES) {
+            throw corrupt(position, "invalid document length " + length);
+        }
+        if (length > size() - position) {
+            throw corrupt(position, "truncated document");
+        }
+        if (segment.get(ValueLayout.JAVA_BYTE, position + length - 1) != 0) {
+            throw corrupt(position, "document is not terminated");
+        }
+        return length;
+    }
+
+    /**
+     * Copies the document at {@code position} out of the mapping, so that it stays valid after
+     * the file is closed.
+     */
+    RawBsonDocument document(long position, int length) {
+        byte[] bytes = new byte[length];
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, position, bytes, 0, length);
+        return new RawBsonDocument(bytes);
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private IOException corrupt(long position, String reason) {
+        return new IOException(path + ": " + reason + " at offset " + position + "; the dump is corrupt");
+    }
+}
@@ -0,0 +1,320 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Collapses the change events of one flush window to at most one operation per {@code _id}.
+ * <p>
+ * Only the latest full document of each {@code _id} is kept, and the row it replaces needs at
+ * most one equality delete, so a document updated fifty times in a window costs one row and one
+ * delete instead of fifty of each. An insert that is known to be new followed by a delete
+ * cancels out completely.
+ * <p>
+ * Entries are keyed on the raw BSON bytes of the {@code _id} value (type byte plus value, 13
+ * bytes for an {@code ObjectId}). They live in an open-addressing table over primitive arrays,
+ * so no key object is created per event. Not thread-safe; owned by one change stream consumer.
+ */
+public final class ChangeEventCoalescer {
+
+    private static final byte MUST_DELETE = 1;
+    private static final byte HAS_IMAGE = 2;
+    private static final int INITIAL_ENTRIES = 1024;
+
+    /**
+     * Receives the coalesced operations of a window, in the order each {@code _id} first
+     * appeared in it.
+     */
+    public interface Output {
+
+        /**
+         * Writes the latest image of a document, preceded by an equality delete of its current
+         * row when {@code deleteExisting} is set.
+         */
+        void upsert(RawBsonDocument fullDocument, boolean deleteExisting);
+
+        /**
+         * Deletes the row of the document identified by {@code documentKey}.
+         */
+        void delete(RawBsonDocument documentKey);
+    }
+
+    private final Counter events;
+    private final DistributionSummary collapseRatio;
+
+    private int[] slots = new int[INITIAL_ENTRIES * 2];
+    private int[] hashes = new int[INITIAL_ENTRIES];
+    private int[] keyOffsets = new int[INITIAL_ENTRIES];
+    private byte[] keyBytes = new byte[INITIAL_ENTRIES * 13];
+    private byte[] flags = new byte[INITIAL_ENTRIES];
+    private RawBsonDocument[] images = new RawBsonDocument[INITIAL_ENTRIES];
+    private int entries;
+    private int keyBytesUsed;
+    private long eventCount;
+    private long imageBytes;
+
+    // Result of the last failed lookup, consumed by addEntry.
+    private int stagedHash;
+    private int stagedSlot;
+    private int stagedLength;
+
+    public ChangeEventCoalescer(String collection, MeterRegistry meterRegistry) {
+        this.events = Counter.builder("sync.changestream.events.processed")
+                .tag("collection", collection)
+                .register(meterRegistry);
+        this.collapseRatio = DistributionSummary.builder("sync.changestream.coalesce.ratio")
+                .description("change events per emitted row or delete, per flush")
+                .tag("collection", collection)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Records an insert. {@code knownNew} means the document cannot already be in the table
+     * (the event is not being replayed over data from the initial scan or an earlier commit), so
+     * its row needs no delete and a later delete in the same window cancels it.
+     */
+    public void insert(RawBsonDocument documentKey, RawBsonDocument fullDocument, boolean knownNew) {
+        countEvent();
+        int entry = entryFor(documentKey);
+        if (entry < 0) {
+            entry = addEntry(knownNew ? 0 : MUST_DELETE);
+        }
+        setImage(entry, fullDocument);
+    }
+
+    /**
+     * Records a replace or update carrying the full post-image of the document.
+     */
+    public void upsert(RawBsonDocument documentKey, RawBsonDocument fullDocument) {
+        countEvent();
+        int entry = entryFor(documentKey);
+        if (entry < 0) {
+            entry = addEntry(MUST_DELETE);
+        }
+        setImage(entry, fullDocument);
+    }
+
+    public void delete(RawBsonDocument documentKey) {
+        countEvent();
+        clearImage(documentKey);
+    }
+
+    /**
+     * Records an update whose full document is not known yet; {@link #resolve} supplies it
+     * before the window is drained. Until then the entry deletes the current row, which is also
+     * the right outcome if the document turns out to be gone.
+     */
+    public void deferUpdate(RawBsonDocument documentKey) {
+        countEvent();
+        clearImage(documentKey);
+    }
+
+    /**
+     * Supplies the full document of an update recorded with {@link #deferUpdate}. Not counted as
+     * an event.
+     */
+    public void resolve(RawBsonDocument documentKey, RawBsonDocument fullDocument) {
+        int entry = entryFor(documentKey);
+        if (entry < 0) {
+            entry = addEntry(MUST_DELETE);
+        }
+        setImage(entry, fullDocument);
+    }
+
+    /**
+     * Records an event that leaves the row as it is, such as an update of unmapped fields.
+     */
+    public void unchanged() {
+        countEvent();
+    }
+
+    /**
+     * Number of distinct {@code _id}s in the window.
+     */
+    public int size() {
+        return entries;
+    }
+
+    public long eventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Bytes held by buffered document images and keys.
+     */
+    public long sizeInBytes() {
+        return imageBytes + keyBytesUsed;
+    }
+
+    /**
+     * Emits the coalesced window to {@code output} and clears it.
+     */
+    public void drain(Output output) {
+        long emitted = 0;
+        for (int entry = 0; entry < entries; entry++) {
+            boolean mustDelete = (flags[entry] & MUST_DELETE) != 0;
+            if ((flags[entry] & HAS_IMAGE) != 0) {
+                output.upsert(images[entry], mustDelete);
+                emitted += mustDelete ? 2 : 1;
+            } else if (mustDelete) {
+                output.delete(images[entry]);
+                emitted++;
+            }
+        }
+        if (eventCount > 0) {
+            collapseRatio.record(emitted == 0 ? eventCount : (double) eventCount / emitted);
+        }
+        clear();
+    }
+
+    private void clear() {
+        Arrays.fill(slots, 0);
+        Arrays.fill(images, 0, entries, null);
+        entries = 0;
+        keyBytesUsed = 0;
+        eventCount = 0;
+        imageBytes = 0;
+    }
+
+    private void countEvent() {
+        eventCount++;
+        events.increment();
+    }
+
+    private void clearImage(RawBsonDocument documentKey) {
+        int entry = entryFor(documentKey);
+        if (entry < 0) {
+            entry = addEntry(MUST_DELETE);
+        }
+        // The key document stands in for the image so the delete can be emitted.
+        imageBytes -= imageSize(entry);
+        images[entry] = documentKey;
+        flags[entry] &= ~HAS_IMAGE;
+    }
+
+    private void setImage(int entry, RawBsonDocument image) {
+        imageBytes += image.getByteBuffer().remaining() - imageSize(entry);
+        images[entry] = image;
+        flags[entry] |= HAS_IMAGE;
+    }
+
+    private int imageSize(int entry) {
+        return images[entry] == null ? 0 : images[entry].getByteBuffer().remaining();
+    }
+
+    /**
+     * Looks up the entry for the {@code _id} of {@code documentKey}, leaving its key bytes
+     * staged at the end of the key slab so {@link #addEntry} can claim them.
+     */
+    private int entryFor(RawBsonDocument documentKey) {
+        int length = stageIdBytes(documentKey);
+        int hash = hash(keyBytes, keyBytesUsed, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot] - 1;
+            if (entry < 0) {
+                stagedHash = hash;
+                stagedSlot = slot;
+                stagedLength = length;
+                return -1;
+            }
+            if (hashes[entry] == hash && keyEquals(entry, length)) {
+                return entry;
+            }
+        }
+    }
+
+    private int addEntry(int initialFlags) {
+        int entry = entries++;
+        if (entry == flags.length) {
+            growEntries();
+        }
+        hashes[entry] = stagedHash;
+        keyOffsets[entry] = keyBytesUsed;
+        keyBytesUsed += stagedLength;
+        flags[entry] = (byte) initialFlags;
+        slots[stagedSlot] = entry + 1;
+        if (entries * 2 > slots.length) {
+            rehash();
+        }
+        return entry;
+    }
+
+    private boolean keyEquals(int entry, int length) {
+        int offset = keyOffsets[entry];
+        int end = entry + 1 < entries ? keyOffsets[entry + 1] : keyBytesUsed;
+        return end - offset == length
+                && Arrays.equals(keyBytes, offset, end, keyBytes, keyBytesUsed, keyBytesUsed + length);
+    }
+
+    /**
+     * Copies the type byte and value bytes of the key document's {@code _id} to the end of the
+     * key slab, without advancing {@link #keyBytesUsed}.
+     */
+    private int stageIdBytes(RawBsonDocument documentKey) {
+        ByteBuffer bytes = documentKey.getByteBuffer().asNIO();
+        try (BsonBinaryReader reader = new BsonBinaryReader(bytes.duplicate())) {
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                if (!reader.readName().equals("_id")) {
+                    reader.skipValue();
+                    continue;
+                }
+                byte type = (byte) reader.getCurrentBsonType().getValue();
+                int start = reader.getBsonInput().getPosition();
+                reader.skipValue();
+                int length = reader.getBsonInput().getPosition() - start;
+                ensureKeyCapacity(length + 1);
+                keyBytes[keyBytesUsed] = type;
+                bytes.get(start, keyBytes, keyBytesUsed + 1, length);
+                return length + 1;
+            }
+        }
+        throw new IllegalArgumentException("change event document key has no _id: " + documentKey.toJson());
+    }
+
+    private void ensureKeyCapacity(int length) {
+        if (keyBytesUsed + length > keyBytes.length) {
+            keyBytes = Arrays.copyOf(keyBytes, Math.max(keyBytes.length * 2, keyBytesUsed + length));
+        }
+    }
+
+    private void growEntries() {
+        int capacity = flags.length * 2;
+        hashes = Arrays.copyOf(hashes, capacity);
+        keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        images = Arrays.copyOf(images, capacity);
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int entry = 0; entry < entries; entry++) {
+            int slot = hashes[entry] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0x9747b28c;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ bytes[i]) * 0x01000193;
+        }
+        // Final avalanche: ObjectIds differ mostly in their trailing counter bytes.
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
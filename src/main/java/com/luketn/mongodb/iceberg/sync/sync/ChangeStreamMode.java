@@ -0,0 +1,19 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+/**
+ * How a change stream learns the state of an updated document.
+ */
+public enum ChangeStreamMode {
+
+    /**
+     * Every update event carries the whole current document, looked up by the server
+     * ({@code fullDocument: updateLookup}).
+     */
+    FULL_DOCUMENT,
+
+    /**
+     * Events are trimmed to the mapped fields, and updates are applied to cached images or
+     * looked up in batches per flush (see {@link FieldProjection}).
+     */
+    PROJECTED
+}
@@ -0,0 +1,109 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.config.ChangeStreamConfig;
+import com.luketn.mongodb.iceberg.sync.config.MappingConfig;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+
+import java.util.List;
+
+/**
+ * Chooses the {@link ChangeStreamMode} of a collection.
+ * <p>
+ * Projection pays off when the mapping reads a small part of each document: every
+ * {@code updateLookup} is a server-side read of the whole document, shipped over the wire and
+ * decoded, while a projected event carries only the mapped fields. {@code auto} samples the
+ * collection and picks the projected mode when the mapped top-level fields are at most half of
+ * a document's, or most of a large document.
+ */
+public final class ChangeStreamModeSelector {
+
+    static final double MAX_MAPPED_FIELD_RATIO = 0.5;
+    static final double MAX_MAPPED_FIELD_RATIO_LARGE_DOCUMENTS = 0.9;
+    static final double LARGE_DOCUMENT_BYTES = 16 * 1024;
+    private static final int SAMPLE_SIZE = 200;
+
+    /**
+     * Average shape of the documents of a collection, from a sample.
+     */
+    public record CollectionProfile(double averageDocumentBytes, double averageTopLevelFields) {
+    }
+
+    private ChangeStreamModeSelector() {
+    }
+
+    /**
+     * Resolves the configured mode, sampling {@code collection} when it is {@code auto}.
+     */
+    public static ChangeStreamMode select(
+            ChangeStreamConfig config,
+            MappingConfig mapping,
+            MongoCollection<RawBsonDocument> collection
+    ) {
+        if (ChangeStreamConfig.MODE_FULL.equals(config.mode())
+                || !MappingConfig.MODE_EXPLICIT.equals(mapping.mode())) {
+            return ChangeStreamMode.FULL_DOCUMENT;
+        }
+        if (ChangeStreamConfig.MODE_PROJECTED.equals(config.mode())) {
+            return ChangeStreamMode.PROJECTED;
+        }
+        return choose(FieldProjection.forMapping(mapping), profile(collection));
+    }
+
+    static ChangeStreamMode choose(FieldProjection projection, CollectionProfile profile) {
+        int mapped = projection.topLevelFieldCount();
+        // An empty sample says nothing about the documents; an explicit mapping rarely reads
+        // all of them.
+        double ratio = mapped / Math.max(profile.averageTopLevelFields(), mapped);
+        double maxRatio = profile.averageDocumentBytes() >= LARGE_DOCUMENT_BYTES
+                ? MAX_MAPPED_FIELD_RATIO_LARGE_DOCUMENTS
+                : MAX_MAPPED_FIELD_RATIO;
+        return profile.averageTopLevelFields() == 0 || ratio <= maxRatio
+                ? ChangeStreamMode.PROJECTED
+                : ChangeStreamMode.FULL_DOCUMENT;
+    }
+
+    /**
+     * Samples the collection for its average document size and top-level field count.
+     */
+    public static CollectionProfile profile(MongoCollection<RawBsonDocument> collection) {
+        Document averages = collection.aggregate(List.of(
+                        Aggregates.sample(SAMPLE_SIZE),
+                        Aggregates.project(new Document("bytes", new Document("$bsonSize", "$$ROOT"))
+                                .append("fields", new Document("$size", new Document("$objectToArray", "$$ROOT")))),
+                        Aggregates.group(null,
+                                Accumulators.avg("bytes", "$bytes"),
+                                Accumulators.avg("fields", "$fields"))),
+                Document.class).first();
+        if (averages == null) {
+            return new CollectionProfile(0, 0);
+        }
+        return new CollectionProfile(
+                averages.get("bytes", Number.class).doubleValue(),
+                averages.get("fields", Number.class).doubleValue());
+    }
+
+    /**
+     * Whether the collection records post-images, so update events can carry the projected
+     * document without a lookup ({@code fullDocument: whenAvailable}).
+     */
+    public static boolean postImagesEnabled(MongoDatabase database, String collection) {
+        BsonDocument info = database.listCollections(BsonDocument.class)
+                .filter(Filters.eq("name", collection))
+                .first();
+        if (info == null) {
+            return false;
+        }
+        BsonDocument options = info.getDocument("options", new BsonDocument());
+        return options.getDocument("changeStreamPreAndPostImages", new BsonDocument())
+                .getBoolean("enabled", BsonBoolean.FALSE)
+                .getValue();
+    }
+}
@@ -0,0 +1,48 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointStore;
+import com.luketn.mongodb.iceberg.sync.metrics.BatchTrace;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Destination of coalesced change stream operations.
+ * <p>
+ * Called from the change stream consumer thread only.
+ */
+public interface ChangeStreamSink extends ChangeEventCoalescer.Output {
+
+    /**
+     * Whether the sink's own batch thresholds call for a flush.
+     */
+    boolean isFlushDue();
+
+    /**
+     * Like {@link #isFlushDue()}, counting {@code heldRecords} records of {@code heldBytes} that
+     * the caller has not written yet as if they were, so that the sink's thresholds cover
+     * the caller's coalescing window too.
+     */
+    default boolean isFlushDue(int heldRecords, long heldBytes) {
+        return isFlushDue();
+    }
+
+    /**
+     * Waits while a memory budget shared with other collections is used up, unless this sink
+     * was asked to flush to free it. Called between events, so a full budget pauses the
+     * consumer's cursor. The default returns at once.
+     */
+    default void awaitCapacity() {
+    }
+
+    /**
+     * Hands everything written so far to be committed together with {@code checkpoint}, and
+     * returns without waiting for the commit. The checkpoint is persisted through the sink's
+     * {@link CheckpointStore} once the data is durable, after the checkpoints of all earlier
+     * flushes. May block while too many earlier flushes are still in flight.
+     * <p>
+     * The sink adds the batch's stage times to {@code trace} and completes it once the
+     * checkpoint is persisted.
+     */
+    CompletableFuture<Void> flush(CheckpointRecord checkpoint, BatchTrace trace);
+}
@@ -0,0 +1,608 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.metrics.BatchTrace;
+import com.luketn.mongodb.iceberg.sync.metrics.CollectionMetrics;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the change stream of one collection and writes its changes to the sink.
+ * <p>
+ * Events of a flush window are collapsed per {@code _id} by a {@link ChangeEventCoalescer}
+ * before they reach the sink. Besides saving rows and deletes, this is what makes a batch
+ * correct: equality deletes do not apply to rows committed in the same snapshot, so two images
+ * of one {@code _id} in a batch would both survive.
+ * <p>
+ * In {@link ChangeStreamMode#PROJECTED} mode the stream is trimmed to the mapped fields and
+ * updates are not looked up by the server one by one. An update is resolved, in order of
+ * preference, from its post-image, by applying its {@code updateDescription} to a cached
+ * projected image, or by one batched {@code find} per flush for all updates of the window that
+ * could not be resolved otherwise. Updates that touch no mapped field are skipped.
+ * <p>
+ * The window's buffering time and the MongoDB times of its oldest and newest event go with each
+ * flush in a {@link BatchTrace}, from which {@link CollectionMetrics} derives the replication
+ * lag once the batch is committed.
+ * <p>
+ * Events come from an {@link EventSource}: the collection's change stream cursor, or a
+ * generator standing in for it (the load generator drives managers this way).
+ */
+public final class ChangeStreamSyncManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChangeStreamSyncManager.class);
+
+    private static final long MAX_AWAIT_MILLIS = 1_000;
+    /**
+     * A quiet collection still checkpoints its advancing resume token this often, so the token
+     * does not fall off the oplog.
+     */
+    private static final long IDLE_CHECKPOINT_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final BsonDocumentCodec DOCUMENT_CODEC = new BsonDocumentCodec();
+    private static final int LOOKUP_BATCH_SIZE = 1_000;
+
+    /**
+     * Settings of the projected mode.
+     *
+     * @param fields            the mapped paths events are trimmed to
+     * @param postImages        the collection records post-images
+     * @param imageCacheEntries projected images kept to apply updates to; 0 disables the cache
+     */
+    public record Projection(FieldProjection fields, boolean postImages, int imageCacheEntries) {
+    }
+
+    /**
+     * Where a manager reads its events from, in stream order. Closed when the manager stops
+     * reading from it.
+     */
+    public interface EventSource extends AutoCloseable {
+
+        /**
+         * The next event, or {@code null} if none arrived within a short wait.
+         */
+        ChangeStreamDocument<RawBsonDocument> tryNext();
+
+        /**
+         * The position the events returned so far are complete up to; {@code null} if not known
+         * yet.
+         */
+        BsonDocument resumeToken();
+
+        @Override
+        void close();
+    }
+
+    private record CursorSource(MongoChangeStreamCursor<ChangeStreamDocument<RawBsonDocument>> cursor)
+            implements EventSource {
+
+        @Override
+        public ChangeStreamDocument<RawBsonDocument> tryNext() {
+            return cursor.tryNext();
+        }
+
+        @Override
+        public BsonDocument resumeToken() {
+            return cursor.getResumeToken();
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+    }
+
+    private final String syncId;
+    private final MongoCollection<RawBsonDocument> collection;
+    private final MongoNamespace namespace;
+    private final BatchConfig batch;
+    private final ChangeStreamSink sink;
+    private final ChangeEventCoalescer coalescer;
+    private final Projection projection;
+    private final long idleCheckpointNanos;
+    private final Map<BsonValue, RawBsonDocument> images;
+    private final Map<BsonValue, RawBsonDocument> pendingLookups = new LinkedHashMap<>();
+    private final Map<String, Counter> updateResolutions = new LinkedHashMap<>();
+    // Bytes of the images and pending lookups, counted towards the memory budget with the window.
+    private long cachedBytes;
+    private final MeterRegistry meterRegistry;
+    private final CollectionMetrics metrics;
+
+    private volatile boolean stopped;
+    private BsonTimestamp insertsNewAfter;
+    private long documentsProcessed;
+    private long lastFlushNanos;
+    private long windowOpenedNanos;
+    private long oldestEventMillis;
+    private long newestEventMillis;
+    private BsonDocument checkpointedToken;
+    private CompletableFuture<Void> lastFlush = CompletableFuture.completedFuture(null);
+
+    public ChangeStreamSyncManager(
+            String syncId,
+            MongoCollection<RawBsonDocument> collection,
+            BatchConfig batch,
+            ChangeStreamSink sink,
+            MeterRegistry meterRegistry
+    ) {
+        this(syncId, collection, batch, sink, meterRegistry, null);
+    }
+
+    /**
+     * @param projection settings of the projected mode, or {@code null} to follow the stream
+     *                   with full documents
+     */
+    public ChangeStreamSyncManager(
+            String syncId,
+            MongoCollection<RawBsonDocument> collection,
+            BatchConfig batch,
+            ChangeStreamSink sink,
+            MeterRegistry meterRegistry,
+            Projection projection
+    ) {
+        this(syncId, collection, batch, sink, meterRegistry, projection, null);
+    }
+
+    /**
+     * @param metrics lag and stage metrics of the collection, kept by the caller across restarts
+     *                of the stream; {@code null} to register them here
+     */
+    public ChangeStreamSyncManager(
+            String syncId,
+            MongoCollection<RawBsonDocument> collection,
+            BatchConfig batch,
+            ChangeStreamSink sink,
+            MeterRegistry meterRegistry,
+            Projection projection,
+            CollectionMetrics metrics
+    ) {
+        this(syncId, collection, collection.getNamespace(), batch, sink, meterRegistry, projection, metrics,
+                IDLE_CHECKPOINT_NANOS);
+    }
+
+    /**
+     * A manager without a collection, which follows only the {@link EventSource} given to
+     * {@link #run(CheckpointRecord, BsonTimestamp, EventSource)}. Its events carry full
+     * documents.
+     *
+     * @param namespace the collection the events are of
+     */
+    public ChangeStreamSyncManager(
+            String syncId,
+            MongoNamespace namespace,
+            BatchConfig batch,
+            ChangeStreamSink sink,
+            MeterRegistry meterRegistry,
+            CollectionMetrics metrics
+    ) {
+        this(syncId, null, namespace, batch, sink, meterRegistry, null, metrics, IDLE_CHECKPOINT_NANOS);
+    }
+
+    /**
+     * @param collection          the collection to open the change stream on and to look up
+     *                            updates in, or {@code null} to follow an {@link EventSource}
+     * @param idleCheckpointNanos how long a quiet collection goes without checkpointing its
+     *                            advancing resume token
+     */
+    ChangeStreamSyncManager(
+            String syncId,
+            MongoCollection<RawBsonDocument> collection,
+            MongoNamespace namespace,
+            BatchConfig batch,
+            ChangeStreamSink sink,
+            MeterRegistry meterRegistry,
+            Projection projection,
+            CollectionMetrics metrics,
+            long idleCheckpointNanos
+    ) {
+        this.syncId = syncId;
+        this.collection = collection;
+        this.namespace = namespace;
+        this.batch = batch;
+        this.sink = sink;
+        this.meterRegistry = meterRegistry;
+        this.coalescer = new ChangeEventCoalescer(namespace.getCollectionName(), meterRegistry);
+        this.metrics = metrics != null
+                ? metrics
+                : new CollectionMetrics(namespace.getCollectionName(), meterRegistry);
+        this.projection = projection;
+        this.idleCheckpointNanos = idleCheckpointNanos;
+        this.images = projection == null ? Map.of() : new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BsonValue, RawBsonDocument> eldest) {
+                if (size() <= projection.imageCacheEntries()) {
+                    return false;
+                }
+                cachedBytes -= sizeOf(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Follows the change stream from the checkpoint's resume token until {@link #stop} is
+     * called, then flushes and waits for the last commit.
+     *
+     * @param insertsNewAfter inserts with a later cluster time cannot already be in the table
+     *                        (see {@link ChangeEventCoalescer#insert}); {@code null} if unknown
+     */
+    public void run(CheckpointRecord checkpoint, BsonTimestamp insertsNewAfter) {
+        start(checkpoint, insertsNewAfter);
+        logger.info("{}: following change stream", syncId);
+        follow(openCursor());
+    }
+
+    /**
+     * Like {@link #run(CheckpointRecord, BsonTimestamp)}, but reads the events from
+     * {@code source}, which has to start after the checkpoint's resume token.
+     */
+    public void run(CheckpointRecord checkpoint, BsonTimestamp insertsNewAfter, EventSource source) {
+        start(checkpoint, insertsNewAfter);
+        logger.info("{}: following {}", syncId, source);
+        follow(source);
+    }
+
+    private void follow(EventSource source) {
+        BsonDocument token;
+        try (source) {
+            while (!stopped) {
+                next(source);
+            }
+            token = source.resumeToken();
+        }
+        finish(token);
+    }
+
+    /**
+     * Like {@link #run(CheckpointRecord, BsonTimestamp)}, but follows the collection through a
+     * database-level stream shared with other collections. While the checkpoint is behind the
+     * shared stream (after an initial sync, or a restart where this collection checkpointed
+     * before the others), the collection catches up on its own cursor and then hands over. Once
+     * handed over, the shared stream's thread drives this manager and the calling thread waits.
+     */
+    public void run(CheckpointRecord checkpoint, BsonTimestamp insertsNewAfter, SharedChangeStream shared) {
+        start(checkpoint, insertsNewAfter);
+        CompletableFuture<Void> followed = shared.join(this, checkpointedToken);
+        if (followed == null) {
+            logger.info("{}: catching up with the shared change stream", syncId);
+            BsonDocument token = checkpointedToken;
+            try (EventSource cursor = openCursor()) {
+                while (!stopped && followed == null) {
+                    token = next(cursor);
+                    if (token != null) {
+                        followed = shared.join(this, token);
+                    }
+                }
+            }
+            if (followed == null) {
+                finish(token);
+                return;
+            }
+        }
+        logger.info("{}: following shared change stream", syncId);
+        try {
+            followed.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private EventSource openCursor() {
+        if (collection == null) {
+            throw new IllegalStateException(syncId + ": no collection to open a change stream on");
+        }
+        ChangeStreamIterable<RawBsonDocument> stream = projection == null
+                ? collection.watch().fullDocument(FullDocument.UPDATE_LOOKUP)
+                : collection.watch(List.of(projection.fields().changeStreamStage()))
+                        .fullDocument(projection.postImages() ? FullDocument.WHEN_AVAILABLE : FullDocument.DEFAULT);
+        return new CursorSource(stream
+                .resumeAfter(checkpointedToken)
+                .maxAwaitTime(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS)
+                .cursor());
+    }
+
+    private BsonDocument next(EventSource source) {
+        ChangeStreamDocument<RawBsonDocument> event = source.tryNext();
+        if (event != null) {
+            apply(event);
+        }
+        BsonDocument token = source.resumeToken();
+        awaitCapacity();
+        poll(token);
+        return token;
+    }
+
+    void start(CheckpointRecord checkpoint, BsonTimestamp insertsNewAfter) {
+        this.insertsNewAfter = insertsNewAfter;
+        documentsProcessed = checkpoint.documentsProcessed();
+        checkpointedToken = BsonDocument.parse(checkpoint.resumeToken());
+        lastFlushNanos = System.nanoTime();
+    }
+
+    /**
+     * Applies an event of a shared stream, unless it is at or before {@code appliedThrough}:
+     * those were applied from this collection's own cursor before it joined.
+     */
+    void accept(ChangeStreamDocument<RawBsonDocument> event, BsonDocument appliedThrough) {
+        if (ResumeTokens.compare(event.getResumeToken(), appliedThrough) > 0) {
+            apply(event);
+        }
+    }
+
+    /**
+     * Waits while the memory budget shared with other collections is used up.
+     */
+    void awaitCapacity() {
+        sink.awaitCapacity();
+    }
+
+    /**
+     * Flushes if a threshold is reached, with {@code token} as the position the window is
+     * complete up to.
+     */
+    void poll(BsonDocument token) {
+        if (isFlushDue(token)) {
+            flush(token);
+        }
+    }
+
+    /**
+     * Flushes what is left and waits for the last commit.
+     */
+    void finish(BsonDocument token) {
+        if (coalescer.size() > 0 || (token != null && !token.equals(checkpointedToken))) {
+            flush(token);
+        }
+        lastFlush.join();
+    }
+
+    String collectionName() {
+        return namespace.getCollectionName();
+    }
+
+    Projection projection() {
+        return projection;
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    private void apply(ChangeStreamDocument<RawBsonDocument> event) {
+        observe(event);
+        switch (event.getOperationType()) {
+            case INSERT -> {
+                boolean knownNew = insertsNewAfter != null
+                        && event.getClusterTime() != null
+                        && event.getClusterTime().compareTo(insertsNewAfter) > 0;
+                coalescer.insert(documentKey(event), event.getFullDocument(), knownNew);
+                remember(event.getDocumentKey().get("_id"), event.getFullDocument());
+            }
+            case UPDATE -> {
+                if (projection != null) {
+                    applyProjectedUpdate(event);
+                } else if (event.getFullDocument() != null) {
+                    // No post-image means the document was deleted before the lookup; its
+                    // delete event follows.
+                    coalescer.upsert(documentKey(event), event.getFullDocument());
+                }
+            }
+            case REPLACE -> {
+                coalescer.upsert(documentKey(event), event.getFullDocument());
+                remember(event.getDocumentKey().get("_id"), event.getFullDocument());
+            }
+            case DELETE -> {
+                coalescer.delete(documentKey(event));
+                forget(event.getDocumentKey().get("_id"));
+            }
+            case DROP, RENAME, DROP_DATABASE, INVALIDATE -> throw new ResyncRequiredException(
+                    syncId + ": change stream ended by " + event.getOperationTypeString() + " event");
+            default -> logger.debug("{}: ignoring {} event", syncId, event.getOperationTypeString());
+        }
+    }
+
+    /**
+     * Tracks the window's first event time and the MongoDB times of its oldest and newest event,
+     * without allocating.
+     */
+    private void observe(ChangeStreamDocument<RawBsonDocument> event) {
+        long sourceMillis = sourceMillis(event);
+        if (windowOpenedNanos == 0) {
+            windowOpenedNanos = System.nanoTime();
+            oldestEventMillis = sourceMillis;
+            metrics.windowOpened(sourceMillis);
+        }
+        if (sourceMillis > 0) {
+            newestEventMillis = sourceMillis;
+        }
+    }
+
+    /**
+     * The event's {@code wallTime}, or its {@code clusterTime} (second precision) on servers that
+     * do not report one; 0 if neither is known.
+     */
+    private static long sourceMillis(ChangeStreamDocument<RawBsonDocument> event) {
+        BsonDateTime wallTime = event.getWallTime();
+        if (wallTime != null) {
+            return wallTime.getValue();
+        }
+        BsonTimestamp clusterTime = event.getClusterTime();
+        return clusterTime == null ? 0 : clusterTime.getTime() * 1_000L;
+    }
+
+    private void applyProjectedUpdate(ChangeStreamDocument<RawBsonDocument> event) {
+        RawBsonDocument key = documentKey(event);
+        BsonValue id = key.get("_id");
+        if (event.getFullDocument() != null) {
+            coalescer.upsert(key, event.getFullDocument());
+            remember(id, event.getFullDocument());
+            countUpdate("post-image");
+            return;
+        }
+        UpdateDescription update = event.getUpdateDescription();
+        // A pending lookup will read the latest document anyway; applying to it is not possible.
+        if (update != null && !pendingLookups.containsKey(id)) {
+            if (!projection.fields().touches(update)) {
+                coalescer.unchanged();
+                countUpdate("unchanged");
+                return;
+            }
+            RawBsonDocument cached = images.get(id);
+            if (cached != null) {
+                BsonDocument image = cached.decode(DOCUMENT_CODEC);
+                if (projection.fields().apply(image, update)) {
+                    RawBsonDocument updated = new RawBsonDocument(image, DOCUMENT_CODEC);
+                    coalescer.upsert(key, updated);
+                    remember(id, updated);
+                    countUpdate("applied");
+                    return;
+                }
+            }
+        }
+        cachedBytes -= sizeOf(images.remove(id));
+        cachedBytes += sizeOf(key) - sizeOf(pendingLookups.put(id, key));
+        coalescer.deferUpdate(key);
+        countUpdate("lookup");
+    }
+
+    private void remember(BsonValue id, RawBsonDocument image) {
+        if (projection == null) {
+            return;
+        }
+        cachedBytes -= sizeOf(pendingLookups.remove(id));
+        if (projection.imageCacheEntries() > 0) {
+            // The put can evict the eldest image, which updates the count itself.
+            long replaced = sizeOf(images.put(id, image));
+            cachedBytes += sizeOf(image) - replaced;
+        }
+    }
+
+    private void forget(BsonValue id) {
+        if (projection != null) {
+            cachedBytes -= sizeOf(pendingLookups.remove(id));
+            cachedBytes -= sizeOf(images.remove(id));
+        }
+    }
+
+    private static long sizeOf(RawBsonDocument document) {
+        return document == null ? 0 : document.getByteBuffer().remaining();
+    }
+
+    /**
+     * Reads the current projected documents of the window's deferred updates. Documents that are
+     * gone keep the delete {@link ChangeEventCoalescer#deferUpdate} recorded. The results are
+     * not cached: they can be newer than the stream position, and later events would be applied
+     * to them twice.
+     */
+    private void resolveLookups() {
+        if (pendingLookups.isEmpty()) {
+            return;
+        }
+        List<BsonValue> ids = new ArrayList<>(pendingLookups.keySet());
+        for (int from = 0; from < ids.size(); from += LOOKUP_BATCH_SIZE) {
+            List<BsonValue> chunk = ids.subList(from, Math.min(ids.size(), from + LOOKUP_BATCH_SIZE));
+            for (RawBsonDocument document : collection.find(Filters.in("_id", chunk))
+                    .projection(projection.fields().findProjection())) {
+                coalescer.resolve(pendingLookups.get(document.get("_id")), document);
+            }
+        }
+        for (RawBsonDocument key : pendingLookups.values()) {
+            cachedBytes -= sizeOf(key);
+        }
+        pendingLookups.clear();
+    }
+
+    private void countUpdate(String resolution) {
+        updateResolutions.computeIfAbsent(resolution, r -> Counter.builder("sync.changestream.updates")
+                .tag("collection", namespace.getCollectionName())
+                .tag("resolution", r)
+                .register(meterRegistry)).increment();
+    }
+
+    private static RawBsonDocument documentKey(ChangeStreamDocument<RawBsonDocument> event) {
+        BsonDocument key = event.getDocumentKey();
+        return key instanceof RawBsonDocument raw ? raw : new RawBsonDocument(key, DOCUMENT_CODEC);
+    }
+
+    private boolean isFlushDue(BsonDocument token) {
+        long elapsed = System.nanoTime() - lastFlushNanos;
+        if (coalescer.size() == 0) {
+            return elapsed >= idleCheckpointNanos && token != null && !token.equals(checkpointedToken);
+        }
+        // The projected images and pending lookups are held for the window too.
+        long heldBytes = coalescer.sizeInBytes() + cachedBytes;
+        if (BatchConfig.MODE_ADAPTIVE.equals(batch.mode())) {
+            // The sink sizes batches; the window counts towards its thresholds.
+            return sink.isFlushDue(coalescer.size(), heldBytes);
+        }
+        return coalescer.size() >= batch.maxRecords()
+                || coalescer.sizeInBytes() >= batch.maxBytes()
+                || elapsed >= TimeUnit.SECONDS.toNanos(batch.flushIntervalSeconds())
+                // The window counts towards a memory budget shared with other collections.
+                || sink.isFlushDue(coalescer.size(), heldBytes);
+    }
+
+    /**
+     * Flushes the window with {@code token} as the position it is complete up to. Without a
+     * token (a source that has not reported one yet), the checkpoint stays at the last
+     * checkpointed token, and the window's events are replayed after a restart.
+     */
+    private void flush(BsonDocument token) {
+        FlushCoordinator.surfaceFailure(lastFlush);
+        BsonDocument position = token != null ? token : checkpointedToken;
+        long bufferNanos = windowOpenedNanos == 0 ? 0 : System.nanoTime() - windowOpenedNanos;
+        BatchTrace trace = metrics.newBatch(oldestEventMillis, newestEventMillis, bufferNanos);
+        windowOpenedNanos = 0;
+        oldestEventMillis = 0;
+        newestEventMillis = 0;
+        resolveLookups();
+        documentsProcessed += coalescer.eventCount();
+        coalescer.drain(sink);
+        CheckpointRecord checkpoint = new CheckpointRecord(
+                syncId,
+                CheckpointRecord.State.STEADY_STATE,
+                namespace.getDatabaseName(),
+                namespace.getCollectionName(),
+                position.toJson(),
+                null,
+                documentsProcessed,
+                null,
+                Instant.now(),
+                List.of()
+        );
+        lastFlush = sink.flush(checkpoint, trace);
+        checkpointedToken = position;
+        lastFlushNanos = System.nanoTime();
+    }
+}
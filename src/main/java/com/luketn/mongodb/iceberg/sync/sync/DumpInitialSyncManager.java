@@ -0,0 +1,554 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.BsonJson;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord.RangeCheckpoint;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointStore;
+import com.luketn.mongodb.iceberg.sync.config.CollectionSyncConfig;
+import com.luketn.mongodb.iceberg.sync.config.InitialSyncConfig;
+import com.mongodb.client.MongoDatabase;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonTimestamp;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Performs the initial sync of one collection from a {@code mongodump} instead of scanning the
+ * collection (see {@code initialSync.source: dump}). Documents go through the same
+ * {@link InitialSyncSink} as a scan, so the table gets the same mapping and partitioning.
+ * <p>
+ * A directory dump ({@code mongodump --out}) is read from {@code <path>/<db>/<collection>.bson}.
+ * The file is memory-mapped and cut into pieces of {@code dump.splitBytes} on document
+ * boundaries, and up to {@code initialSync.scanParallelism} pieces are parsed concurrently on
+ * the scan pool. The checkpoint records the offset all pieces before are loaded through, and
+ * the progress of the pieces after it, so a restart resumes every piece where it stopped.
+ * <p>
+ * The path can also be a single {@code .bson} file of the collection: an archive is told apart
+ * from it by its magic number.
+ * <p>
+ * Gzipped {@code .bson} files and archives ({@code mongodump --archive}, gzipped or not) can
+ * only be read sequentially: chunks of documents are prepared in parallel on the decode pool
+ * and written in order, and the checkpoint records how many documents of the collection are
+ * loaded, which a restart skips.
+ * <p>
+ * The change stream starts at the first entry of the oplog taken with {@code --oplog}, or at
+ * {@code dump.oplogStart}: every write made while the dump was taken is then replayed. Inserts
+ * after the last oplog entry cannot be in the dump.
+ */
+public final class DumpInitialSyncManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(DumpInitialSyncManager.class);
+
+    private static final int DECODE_CHUNK_SIZE = 250;
+    private static final String OPLOG_FILE = "oplog.bson";
+    private static final String GZIP_SUFFIX = ".gz";
+
+    /**
+     * Outcome of a dump load.
+     *
+     * @param resumeToken     token the change stream must be opened from
+     * @param insertsNewAfter cluster time of the last oplog entry of the dump, after which
+     *                        inserts cannot already be in the table; {@code null} if unknown
+     */
+    public record Result(BsonDocument resumeToken, BsonTimestamp insertsNewAfter) {
+    }
+
+    private final String syncId;
+    private final String databaseName;
+    private final CollectionSyncConfig config;
+    private final CheckpointStore checkpointStore;
+    private final ExecutorService scanPool;
+    private final Function<BsonTimestamp, BsonDocument> resumeTokenAt;
+    /**
+     * Chunks advance their progress to their end: the file offset of a piece, or the document
+     * count of a stream.
+     */
+    private final FlushCoordinator<Long> flusher;
+
+    /**
+     * @param decodePool pool preparing chunks of the sequential formats (see
+     *                   {@link InitialSyncSink#prepare}), or {@code null} to prepare them on the
+     *                   reading thread
+     */
+    public DumpInitialSyncManager(
+            String syncId,
+            MongoDatabase database,
+            CollectionSyncConfig config,
+            CheckpointStore checkpointStore,
+            InitialSyncSink sink,
+            ExecutorService scanPool,
+            Executor decodePool
+    ) {
+        this(syncId, database.getName(), config, checkpointStore, sink, scanPool, decodePool,
+                operationTime -> ResumeTokens.at(database, config.source().collection(), operationTime));
+    }
+
+    DumpInitialSyncManager(
+            String syncId,
+            String databaseName,
+            CollectionSyncConfig config,
+            CheckpointStore checkpointStore,
+            InitialSyncSink sink,
+            ExecutorService scanPool,
+            Executor decodePool,
+            Function<BsonTimestamp, BsonDocument> resumeTokenAt
+    ) {
+        this.syncId = syncId;
+        this.databaseName = databaseName;
+        this.config = config;
+        this.checkpointStore = checkpointStore;
+        this.scanPool = scanPool;
+        this.resumeTokenAt = resumeTokenAt;
+        this.flusher = new FlushCoordinator<>(sink, config.batch(), decodePool);
+    }
+
+    /**
+     * Loads (or resumes loading) the dump and returns where the change stream must start.
+     */
+    public Result run() {
+        InitialSyncConfig.DumpConfig dump = config.initialSync().dump();
+        Path path = Path.of(dump.path());
+        CheckpointRecord checkpoint = checkpointStore.read(syncId);
+        if (checkpoint != null && checkpoint.state() == CheckpointRecord.State.INITIAL_SYNC) {
+            if (checkpoint.resumeToken() != null) {
+                throw new IllegalStateException(syncId + ": the checkpoint is of an initial sync by collection scan;"
+                        + " finish it with initialSync.source: cursor or remove the checkpoint to load a dump");
+            }
+            flusher.resume(checkpoint.documentsProcessed());
+            logger.info("{}: resuming dump load from {} after {} document(s)",
+                    syncId, path, checkpoint.documentsProcessed());
+        } else {
+            checkpoint = null;
+            logger.info("{}: loading dump {}", syncId, path);
+        }
+
+        Oplog oplog = new Oplog();
+        Progress progress;
+        try {
+            if (Files.isDirectory(path)) {
+                progress = loadDirectory(path, checkpoint, oplog, dump);
+            } else if (MongodumpReader.isArchive(path)) {
+                progress = loadArchive(path, checkpoint, oplog);
+            } else {
+                progress = loadFile(path, checkpoint, dump);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        BsonTimestamp start = dump.oplogStart() != null ? dump.oplogStartTimestamp() : oplog.first;
+        if (start == null) {
+            throw new IllegalStateException(syncId + ": " + path + " has no oplog to start the change stream at;"
+                    + " take the dump with --oplog or set initialSync.dump.oplogStart");
+        }
+        BsonDocument resumeToken = resumeTokenAt.apply(start);
+        flusher.finish(CheckpointRecord.State.STEADY_STATE, state -> toCheckpoint(state, resumeToken, progress));
+        logger.info("{}: dump load complete after {} document(s); change stream starts at {}",
+                syncId, flusher.documentsProcessed(), start);
+        return new Result(resumeToken, oplog.last);
+    }
+
+    private Progress loadDirectory(
+            Path directory,
+            CheckpointRecord checkpoint,
+            Oplog oplog,
+            InitialSyncConfig.DumpConfig dump
+    ) throws IOException {
+        // The oplog is read first so that a dump without one fails before the long part.
+        Path oplogFile = existing(directory.resolve(OPLOG_FILE));
+        if (oplogFile != null) {
+            try (InputStream in = MongodumpReader.open(oplogFile)) {
+                MongodumpReader.readDocuments(in, oplogFile.toString(), oplog);
+            }
+        } else if (dump.oplogStart() == null) {
+            throw new IllegalStateException(syncId + ": " + directory + " has no " + OPLOG_FILE
+                    + "; take the dump with --oplog or set initialSync.dump.oplogStart");
+        }
+
+        String collectionName = config.source().collection();
+        Path file = existing(directory.resolve(databaseName).resolve(collectionName + ".bson"));
+        if (file == null) {
+            throw new IOException(directory + " has no dump of " + databaseName + "." + collectionName);
+        }
+        return loadCollection(file, checkpoint, dump);
+    }
+
+    /**
+     * Loads a single {@code .bson} file of the collection, which has no oplog beside it.
+     */
+    private Progress loadFile(Path file, CheckpointRecord checkpoint, InitialSyncConfig.DumpConfig dump)
+            throws IOException {
+        if (dump.oplogStart() == null) {
+            throw new IllegalStateException(syncId + ": " + file + " is a .bson file without an oplog;"
+                    + " set initialSync.dump.oplogStart");
+        }
+        return loadCollection(file, checkpoint, dump);
+    }
+
+    /**
+     * Loads the collection's {@code .bson} file: in parallel pieces if it is plain, sequentially
+     * if it is gzipped.
+     */
+    private Progress loadCollection(Path file, CheckpointRecord checkpoint, InitialSyncConfig.DumpConfig dump)
+            throws IOException {
+        if (MongodumpReader.isGzipped(file)) {
+            StreamProgress progress = StreamProgress.fromCheckpoint(checkpoint);
+            writeInitialCheckpoint(checkpoint, progress);
+            ChunkPipeline pipeline = new ChunkPipeline(progress);
+            try (InputStream in = MongodumpReader.open(file)) {
+                MongodumpReader.readDocuments(in, file.toString(), pipeline);
+            }
+            pipeline.finish();
+            return progress;
+        }
+
+        SplitPlan plan = SplitPlan.fromCheckpoint(checkpoint);
+        writeInitialCheckpoint(checkpoint, plan);
+        try (BsonDumpFile bson = BsonDumpFile.open(file)) {
+            loadSplits(bson, plan, dump.splitBytes());
+        }
+        return plan;
+    }
+
+    /**
+     * {@code file}, or its gzipped form, or {@code null} if neither exists.
+     */
+    private static Path existing(Path file) {
+        if (Files.isRegularFile(file)) {
+            return file;
+        }
+        Path gzipped = file.resolveSibling(file.getFileName() + GZIP_SUFFIX);
+        return Files.isRegularFile(gzipped) ? gzipped : null;
+    }
+
+    private Progress loadArchive(Path archive, CheckpointRecord checkpoint, Oplog oplog) throws IOException {
+        StreamProgress progress = StreamProgress.fromCheckpoint(checkpoint);
+        writeInitialCheckpoint(checkpoint, progress);
+        String collectionName = config.source().collection();
+        ChunkPipeline pipeline = new ChunkPipeline(progress);
+        try (InputStream in = MongodumpReader.open(archive)) {
+            MongodumpReader.readArchive(in, archive.toString(), (database, collection) -> {
+                if (database.equals(databaseName) && collection.equals(collectionName)) {
+                    return pipeline;
+                }
+                if (database.isEmpty() && collection.equals(MongodumpReader.OPLOG_COLLECTION)) {
+                    return oplog;
+                }
+                return null;
+            });
+        }
+        pipeline.finish();
+        return progress;
+    }
+
+    private void writeInitialCheckpoint(CheckpointRecord checkpoint, Progress progress) {
+        if (checkpoint == null) {
+            checkpointStore.write(toCheckpoint(CheckpointRecord.State.INITIAL_SYNC, null, progress));
+        }
+    }
+
+    /**
+     * Parses the pieces of a mapped file on the scan pool, at most
+     * {@code initialSync.scanParallelism} at a time. Pieces are planned as slots free up, so the
+     * walk over the length prefixes stays just ahead of the parsing.
+     */
+    private void loadSplits(BsonDumpFile file, SplitPlan plan, long splitBytes) throws IOException {
+        Semaphore slots = new Semaphore(config.initialSync().scanParallelism());
+        List<Future<?>> loads = new ArrayList<>();
+        List<SplitProgress> resumed = plan.splits.stream().filter(split -> !split.complete).toList();
+        long next = plan.plannedThrough();
+        int index = 0;
+        try {
+            while (index < resumed.size() || next < file.size()) {
+                slots.acquire();
+                reapCompleted(loads);
+                SplitProgress split;
+                if (index < resumed.size()) {
+                    split = resumed.get(index++);
+                } else {
+                    split = new SplitProgress(next, file.splitEnd(next, splitBytes));
+                    next = split.end;
+                    flusher.update(() -> plan.splits.add(split));
+                }
+                loads.add(scanPool.submit(() -> {
+                    try {
+                        loadSplit(file, split, plan);
+                    } finally {
+                        slots.release();
+                    }
+                    return null;
+                }));
+            }
+        } catch (InterruptedException e) {
+            loads.forEach(load -> load.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("dump load interrupted", e);
+        } catch (IOException | RuntimeException e) {
+            // The file is unmapped on return; stop the pieces still reading it.
+            loads.forEach(load -> load.cancel(true));
+            throw e;
+        }
+        FlushCoordinator.awaitAll(loads, "dump load");
+    }
+
+    private void loadSplit(BsonDumpFile file, SplitProgress split, SplitPlan plan) throws IOException {
+        Consumer<Long> advance = position -> split.position = position;
+        List<RawBsonDocument> chunk = new ArrayList<>(DECODE_CHUNK_SIZE);
+        FlushCoordinator.Chunk<Long> preparing = null;
+        long position = split.position;
+        while (position < split.end) {
+            int length = file.documentLength(position);
+            chunk.add(file.document(position, length));
+            position += length;
+            if (chunk.size() == DECODE_CHUNK_SIZE || position == split.end) {
+                if (preparing != null) {
+                    write(preparing, advance, plan);
+                }
+                preparing = flusher.prepare(chunk, position);
+                chunk = new ArrayList<>(DECODE_CHUNK_SIZE);
+            }
+        }
+        if (preparing != null) {
+            write(preparing, advance, plan);
+        }
+
+        flusher.update(() -> split.complete = true);
+    }
+
+    /**
+     * Writes a prepared chunk and advances the progress to its end, atomically with respect to
+     * flushes.
+     */
+    private void write(FlushCoordinator.Chunk<Long> chunk, Consumer<Long> advance, Progress progress) {
+        flusher.write(chunk, advance, state -> toCheckpoint(state, null, progress));
+    }
+
+    private CheckpointRecord toCheckpoint(CheckpointRecord.State state, BsonDocument resumeToken, Progress progress) {
+        return new CheckpointRecord(
+                syncId,
+                state,
+                databaseName,
+                config.source().collection(),
+                resumeToken == null ? null : resumeToken.toJson(),
+                progress.highWaterMarkId(),
+                flusher.documentsProcessed(),
+                null,
+                Instant.now(),
+                progress.ranges()
+        );
+    }
+
+    /**
+     * Surfaces the failure of a finished piece before starting another one.
+     */
+    private static void reapCompleted(List<Future<?>> loads) {
+        List<Future<?>> completed = loads.stream().filter(Future::isDone).toList();
+        loads.removeAll(completed);
+        try {
+            FlushCoordinator.awaitAll(completed, "dump load");
+        } catch (RuntimeException e) {
+            loads.forEach(load -> load.cancel(true));
+            throw e;
+        }
+    }
+
+    /**
+     * Load progress as recorded in the checkpoint. Read by the flushing thread under the write
+     * lock.
+     */
+    private interface Progress {
+
+        String highWaterMarkId();
+
+        List<RangeCheckpoint> ranges();
+    }
+
+    /**
+     * Prepares chunks of a sequentially read collection on the decode pool, up to
+     * {@code initialSync.scanParallelism} at a time, and writes them in order.
+     */
+    private final class ChunkPipeline implements Consumer<RawBsonDocument> {
+
+        private final StreamProgress progress;
+        private final Deque<FlushCoordinator.Chunk<Long>> preparing = new ArrayDeque<>();
+        private final Consumer<Long> advance;
+        private long skip;
+        private long read;
+        private List<RawBsonDocument> chunk = new ArrayList<>(DECODE_CHUNK_SIZE);
+
+        private ChunkPipeline(StreamProgress progress) {
+            this.progress = progress;
+            this.advance = written -> progress.written = written;
+            this.skip = progress.written;
+            this.read = progress.written;
+        }
+
+        @Override
+        public void accept(RawBsonDocument document) {
+            if (skip > 0) {
+                // Loaded before the restart.
+                skip--;
+                return;
+            }
+            chunk.add(document);
+            read++;
+            if (chunk.size() == DECODE_CHUNK_SIZE) {
+                handOver();
+            }
+        }
+
+        private void handOver() {
+            if (preparing.size() >= config.initialSync().scanParallelism()) {
+                write(preparing.removeFirst(), advance, progress);
+            }
+            preparing.addLast(flusher.prepare(chunk, read));
+            chunk = new ArrayList<>(DECODE_CHUNK_SIZE);
+        }
+
+        /**
+         * Writes what is left once the whole input was read.
+         */
+        private void finish() {
+            if (!chunk.isEmpty()) {
+                handOver();
+            }
+            while (!preparing.isEmpty()) {
+                write(preparing.removeFirst(), advance, progress);
+            }
+        }
+    }
+
+    /**
+     * Count of the collection's documents of a sequentially read dump that were written.
+     */
+    private static final class StreamProgress implements Progress {
+
+        private long written;
+
+        private static StreamProgress fromCheckpoint(CheckpointRecord checkpoint) {
+            StreamProgress progress = new StreamProgress();
+            if (checkpoint != null && checkpoint.highWaterMarkId() != null) {
+                progress.written = BsonJson.decode(checkpoint.highWaterMarkId()).asNumber().longValue();
+            }
+            return progress;
+        }
+
+        @Override
+        public String highWaterMarkId() {
+            return BsonJson.encode(new BsonInt64(written));
+        }
+
+        @Override
+        public List<RangeCheckpoint> ranges() {
+            return List.of();
+        }
+    }
+
+    /**
+     * Pieces of a mapped file. Everything before {@code completedThrough} is loaded; the pieces
+     * after it are contiguous and in file order. Pieces are added under the flush read lock by
+     * the planning thread only, and completed ones are pruned under the write lock.
+     */
+    private static final class SplitPlan implements Progress {
+
+        private final List<SplitProgress> splits = new ArrayList<>();
+        private long completedThrough;
+
+        private static SplitPlan fromCheckpoint(CheckpointRecord checkpoint) {
+            SplitPlan plan = new SplitPlan();
+            if (checkpoint == null || checkpoint.highWaterMarkId() == null) {
+                return plan;
+            }
+            plan.completedThrough = offset(checkpoint.highWaterMarkId());
+            for (RangeCheckpoint range : checkpoint.ranges()) {
+                SplitProgress split = new SplitProgress(offset(range.lowerBound()), offset(range.upperBound()));
+                split.position = offset(range.highWaterMarkId());
+                split.complete = range.complete();
+                plan.splits.add(split);
+            }
+            return plan;
+        }
+
+        private long plannedThrough() {
+            return splits.isEmpty() ? completedThrough : splits.getLast().end;
+        }
+
+        @Override
+        public String highWaterMarkId() {
+            while (!splits.isEmpty() && splits.getFirst().complete) {
+                completedThrough = splits.removeFirst().end;
+            }
+            return BsonJson.encode(new BsonInt64(completedThrough));
+        }
+
+        @Override
+        public List<RangeCheckpoint> ranges() {
+            return splits.stream()
+                    .map(split -> new RangeCheckpoint(
+                            BsonJson.encode(new BsonInt64(split.start)),
+                            BsonJson.encode(new BsonInt64(split.end)),
+                            BsonJson.encode(new BsonInt64(split.position)),
+                            split.complete))
+                    .toList();
+        }
+
+        private static long offset(String json) {
+            return BsonJson.decode(json).asNumber().longValue();
+        }
+    }
+
+    /**
+     * Mutable progress of one piece. Written by its loading thread under the flush read lock
+     * and read by the flushing thread under the write lock.
+     */
+    private static final class SplitProgress {
+
+        private final long start;
+        private final long end;
+        private long position;
+        private boolean complete;
+
+        private SplitProgress(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+    }
+
+    /**
+     * First and last cluster time of the dump's oplog.
+     */
+    private static final class Oplog implements Consumer<RawBsonDocument> {
+
+        private BsonTimestamp first;
+        private BsonTimestamp last;
+
+        @Override
+        public void accept(RawBsonDocument entry) {
+            BsonTimestamp ts = entry.getTimestamp("ts");
+            if (first == null) {
+                first = ts;
+            }
+            last = ts;
+        }
+    }
+}
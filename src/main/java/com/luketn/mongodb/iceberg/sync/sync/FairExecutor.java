@@ -0,0 +1,193 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed pool of platform threads for CPU-bound work (BSON decoding, Parquet encoding), shared
+ * by all collections.
+ * <p>
+ * Work is submitted through per-collection {@link #lane lanes}. Workers take one task at a time
+ * from the lanes that have work, round-robin, so a collection with a deep backlog (an initial
+ * sync) delays a collection with little work (a quiet change stream) by at most one task per
+ * worker rather than by its whole queue. Tasks of one lane may run concurrently.
+ * <p>
+ * Tasks must not block on work that needs this pool, or the pool can run out of workers.
+ */
+public final class FairExecutor implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FairExecutor.class);
+
+    private final String name;
+    private final Thread[] workers;
+    private final MeterRegistry meterRegistry;
+    private final List<Meter> meters = new ArrayList<>();
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    // Guarded by lock: lanes with queued tasks, in the order they are served.
+    private final ArrayDeque<Lane> ready = new ArrayDeque<>();
+
+    private volatile boolean shutdown;
+    private volatile int active;
+    private volatile int queued;
+    private volatile long busyNanos;
+
+    public FairExecutor(String name, int threads, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.workers = new Thread[threads];
+        this.meterRegistry = meterRegistry;
+        for (int i = 0; i < threads; i++) {
+            workers[i] = Thread.ofPlatform()
+                    .name(name + "-" + i)
+                    .daemon(true)
+                    .start(this::work);
+        }
+        meters.add(Gauge.builder("sync.pool.threads", workers, array -> array.length)
+                .tag("pool", name).register(meterRegistry));
+        meters.add(Gauge.builder("sync.pool.active", this, executor -> executor.active)
+                .tag("pool", name).register(meterRegistry));
+        meters.add(Gauge.builder("sync.pool.queued", this, executor -> executor.queued)
+                .tag("pool", name).register(meterRegistry));
+        meters.add(FunctionCounter.builder("sync.pool.busy", this, executor -> executor.busyNanos / 1e9)
+                .description("seconds spent running tasks; its rate over threads is the pool's utilisation")
+                .baseUnit("seconds")
+                .tag("pool", name).register(meterRegistry));
+    }
+
+    /**
+     * Executor queueing into the lane of {@code collection}.
+     */
+    public Executor lane(String collection) {
+        return lanes.computeIfAbsent(collection, Lane::new);
+    }
+
+    public int threads() {
+        return workers.length;
+    }
+
+    /**
+     * Tasks waiting for a worker, across all lanes.
+     */
+    public int queued() {
+        return queued;
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            shutdown = true;
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        meters.forEach(meterRegistry::remove);
+    }
+
+    private void submit(Lane lane, Runnable task) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException(name + " is shut down");
+            }
+            lane.tasks.add(task);
+            queued++;
+            if (!lane.ready) {
+                lane.ready = true;
+                ready.add(lane);
+                workAvailable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Runnable task;
+            lock.lock();
+            try {
+                while (ready.isEmpty() && !shutdown) {
+                    workAvailable.awaitUninterruptibly();
+                }
+                if (ready.isEmpty()) {
+                    return;
+                }
+                Lane lane = ready.poll();
+                task = lane.tasks.poll();
+                queued--;
+                if (lane.tasks.isEmpty()) {
+                    lane.ready = false;
+                } else {
+                    // Back of the queue: every other lane with work goes first.
+                    ready.add(lane);
+                }
+                active++;
+            } finally {
+                lock.unlock();
+            }
+
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                // CompletableFuture tasks report their own failures; this is a plain Runnable.
+                logger.error("{}: task failed", name, e);
+            } finally {
+                lock.lock();
+                try {
+                    active--;
+                    busyNanos += System.nanoTime() - start;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private final class Lane implements Executor {
+
+        private final String collection;
+        // Guarded by lock.
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private boolean ready;
+
+        private Lane(String collection) {
+            this.collection = collection;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            submit(this, task);
+        }
+
+        @Override
+        public String toString() {
+            return name + "[" + collection + "]";
+        }
+    }
+}
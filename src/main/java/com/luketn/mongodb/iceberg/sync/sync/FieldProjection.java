@@ -0,0 +1,310 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.config.FieldMapping;
+import com.luketn.mongodb.iceberg.sync.config.MappingConfig;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.TruncatedArray;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The source paths an explicit mapping reads. Used to trim change stream documents to the mapped
+ * fields and to work out what an update does to them without looking the document up.
+ * <p>
+ * Projected images follow MongoDB projection semantics, so an array reached through a mapped
+ * path (such as {@code items} for {@code items.qty}) can lose elements and its indexes cannot be
+ * trusted. Updates addressing array elements are only applied below a mapped path, where the
+ * array is projected whole.
+ */
+public final class FieldProjection {
+
+    private static final List<String> EVENT_FIELDS = List.of(
+            "operationType", "ns", "to", "documentKey", "clusterTime", "wallTime", "updateDescription");
+
+    private final List<String[]> paths;
+
+    private FieldProjection(List<String[]> paths) {
+        this.paths = paths;
+    }
+
+    /**
+     * Projection of the source paths of an explicit mapping, plus {@code _id}.
+     */
+    public static FieldProjection forMapping(MappingConfig mapping) {
+        if (!MappingConfig.MODE_EXPLICIT.equals(mapping.mode())) {
+            throw new IllegalArgumentException("only explicit mappings can be projected");
+        }
+        List<String[]> sources = new ArrayList<>();
+        sources.add(new String[]{"_id"});
+        for (FieldMapping field : mapping.fields()) {
+            sources.add(field.source().split("\\."));
+        }
+        return minimal(sources);
+    }
+
+    /**
+     * Projection reading the paths of all {@code projections}, for a stream shared by their
+     * collections. Arrays are never less complete than in each projection on its own.
+     */
+    public static FieldProjection union(List<FieldProjection> projections) {
+        List<String[]> sources = new ArrayList<>();
+        projections.forEach(projection -> sources.addAll(projection.paths));
+        return minimal(sources);
+    }
+
+    private static FieldProjection minimal(List<String[]> sources) {
+        // MongoDB rejects a projection that includes a path and one of its descendants.
+        List<String[]> sorted = new ArrayList<>(sources);
+        sorted.sort(Comparator.comparingInt(path -> path.length));
+        List<String[]> paths = new ArrayList<>();
+        for (String[] source : sorted) {
+            if (paths.stream().noneMatch(path -> isPrefix(path, source))) {
+                paths.add(source);
+            }
+        }
+        return new FieldProjection(List.copyOf(paths));
+    }
+
+    public List<String> paths() {
+        return paths.stream().map(path -> String.join(".", path)).toList();
+    }
+
+    /**
+     * Number of distinct top-level fields the projection reads, {@code _id} included.
+     */
+    public int topLevelFieldCount() {
+        return (int) paths.stream().map(path -> path[0]).distinct().count();
+    }
+
+    /**
+     * {@code $project} stage for the change stream pipeline that keeps the event fields the
+     * sync reads and trims {@code fullDocument} to the mapped paths. The event {@code _id} (the
+     * resume token) is kept implicitly.
+     */
+    public Bson changeStreamStage() {
+        List<String> include = new ArrayList<>(EVENT_FIELDS);
+        paths().forEach(path -> include.add("fullDocument." + path));
+        return Aggregates.project(Projections.include(include));
+    }
+
+    /**
+     * Projection for reading mapped documents with {@code find}.
+     */
+    public Bson findProjection() {
+        return Projections.include(paths());
+    }
+
+    /**
+     * Whether an update can change the value of any mapped path.
+     */
+    public boolean touches(UpdateDescription update) {
+        if (update.getUpdatedFields() != null) {
+            for (String field : update.getUpdatedFields().keySet()) {
+                if (touches(field)) {
+                    return true;
+                }
+            }
+        }
+        if (update.getRemovedFields() != null) {
+            for (String field : update.getRemovedFields()) {
+                if (touches(field)) {
+                    return true;
+                }
+            }
+        }
+        if (update.getTruncatedArrays() != null) {
+            for (TruncatedArray truncated : update.getTruncatedArrays()) {
+                if (touches(truncated.getField())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a change at {@code changePath} can change the value of any mapped path: it is a
+     * mapped path, or an ancestor or descendant of one once array indexes are skipped.
+     */
+    public boolean touches(String changePath) {
+        String[] fields = withoutIndexes(changePath.split("\\."));
+        for (String[] path : paths) {
+            if (isPrefix(fields, path) || isPrefix(path, fields)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies an update to a projected image in place, in the order MongoDB reports it:
+     * truncations, then removals, then updated values. Returns {@code false}, leaving the image
+     * partly updated, if a change cannot be applied exactly.
+     */
+    public boolean apply(BsonDocument image, UpdateDescription update) {
+        if (update.getTruncatedArrays() != null) {
+            for (TruncatedArray truncated : update.getTruncatedArrays()) {
+                if (touches(truncated.getField()) && !truncate(image, truncated.getField().split("\\."), truncated.getNewSize())) {
+                    return false;
+                }
+            }
+        }
+        if (update.getRemovedFields() != null) {
+            for (String field : update.getRemovedFields()) {
+                if (touches(field) && !remove(image, field.split("\\."))) {
+                    return false;
+                }
+            }
+        }
+        if (update.getUpdatedFields() != null) {
+            for (Map.Entry<String, BsonValue> field : update.getUpdatedFields().entrySet()) {
+                if (touches(field.getKey()) && !set(image, field.getKey().split("\\."), field.getValue())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean set(BsonDocument image, String[] path, BsonValue value) {
+        BsonValue parent = parentOf(image, path, true);
+        if (parent == null) {
+            return false;
+        }
+        String last = path[path.length - 1];
+        if (parent.isDocument()) {
+            parent.asDocument().put(last, value);
+            return true;
+        }
+        BsonArray array = parent.asArray();
+        int index = index(last);
+        if (index >= 0 && index < array.size()) {
+            array.set(index, value);
+            return true;
+        }
+        if (index == array.size()) {
+            // $push reports the appended element at the old length.
+            array.add(value);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean remove(BsonDocument image, String[] path) {
+        BsonValue parent = parentOf(image, path, false);
+        if (parent == MISSING) {
+            return true;
+        }
+        if (parent == null || !parent.isDocument()) {
+            return false;
+        }
+        parent.asDocument().remove(path[path.length - 1]);
+        return true;
+    }
+
+    private boolean truncate(BsonDocument image, String[] path, int newSize) {
+        String[] parentPath = Arrays.copyOf(path, path.length + 1);
+        parentPath[path.length] = "0";
+        BsonValue array = parentOf(image, parentPath, false);
+        if (array == MISSING) {
+            return true;
+        }
+        if (array == null || !array.isArray()) {
+            return false;
+        }
+        BsonArray values = array.asArray();
+        while (values.size() > newSize) {
+            values.remove(values.size() - 1);
+        }
+        return true;
+    }
+
+    private static final BsonValue MISSING = new BsonDocument();
+
+    /**
+     * Walks to the container of the last path element. Returns {@code null} where the walk is
+     * not exact: a missing element of an array, a scalar on the way, or an array whose indexes
+     * may have been shifted by projection. Missing documents are created when {@code create} is
+     * set and reported as {@link #MISSING} otherwise.
+     */
+    private BsonValue parentOf(BsonDocument image, String[] path, boolean create) {
+        BsonValue current = image;
+        for (int i = 0; i < path.length; i++) {
+            if (current.isArray() && !isWhollyProjected(Arrays.copyOf(path, i))) {
+                return null;
+            }
+            if (i == path.length - 1) {
+                return current;
+            }
+            BsonValue child;
+            if (current.isDocument()) {
+                child = current.asDocument().get(path[i]);
+                if (child == null) {
+                    if (!create) {
+                        return MISSING;
+                    }
+                    child = new BsonDocument();
+                    current.asDocument().put(path[i], child);
+                }
+            } else {
+                int index = index(path[i]);
+                if (index < 0 || index >= current.asArray().size()) {
+                    return null;
+                }
+                child = current.asArray().get(index);
+            }
+            if (!child.isDocument() && !child.isArray()) {
+                return null;
+            }
+            current = child;
+        }
+        return current;
+    }
+
+    /**
+     * Whether the value at {@code path} is included whole, that is some mapped path is the path
+     * itself or one of its ancestors.
+     */
+    private boolean isWhollyProjected(String[] path) {
+        String[] fields = withoutIndexes(path);
+        return paths.stream().anyMatch(mapped -> isPrefix(mapped, fields));
+    }
+
+    private static String[] withoutIndexes(String[] path) {
+        return Arrays.stream(path).filter(field -> index(field) < 0).toArray(String[]::new);
+    }
+
+    private static int index(String field) {
+        if (field.isEmpty() || field.length() > 9) {
+            return -1;
+        }
+        for (int i = 0; i < field.length(); i++) {
+            if (field.charAt(i) < '0' || field.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        return Integer.parseInt(field);
+    }
+
+    private static boolean isPrefix(String[] prefix, String[] path) {
+        if (prefix.length > path.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (!prefix[i].equals(path[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
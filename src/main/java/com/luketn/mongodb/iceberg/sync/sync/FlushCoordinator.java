@@ -0,0 +1,192 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import org.bson.RawBsonDocument;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Flush and checkpoint coordination of an initial sync, shared by the collection scan
+ * ({@link InitialSyncManager}) and the dump load ({@link DumpInitialSyncManager}).
+ * <p>
+ * Several threads hand prepared chunks to the {@link InitialSyncSink}, each advancing its own
+ * progress; whichever crosses the batch threshold first flushes. Flushes are pipelined: writing
+ * carries on while a flushed batch is committed, and the sink only persists a batch's
+ * checkpoint once (or as part of) the batch's commit. The checkpoint itself is built by the
+ * caller from its progress, given the state to record.
+ *
+ * @param <P> position a chunk advances its progress to
+ */
+final class FlushCoordinator<P> {
+
+    private final InitialSyncSink sink;
+    private final BatchConfig batch;
+    private final Executor decodePool;
+
+    /**
+     * Writing threads hold the read lock while handing a chunk to the sink and advancing their
+     * progress; flushing takes the write lock so the checkpoint only records progress of
+     * documents that were part of the flush.
+     */
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+    private final AtomicLong documentsProcessed = new AtomicLong();
+    private final AtomicLong unflushedDocuments = new AtomicLong();
+    private CompletableFuture<Void> lastFlush = CompletableFuture.completedFuture(null);
+
+    /**
+     * @param decodePool pool preparing chunks (see {@link InitialSyncSink#prepare}), or
+     *                   {@code null} to prepare them on the writing threads
+     */
+    FlushCoordinator(InitialSyncSink sink, BatchConfig batch, Executor decodePool) {
+        this.sink = sink;
+        this.batch = batch;
+        this.decodePool = decodePool;
+    }
+
+    /**
+     * Documents written so far, including those of a resumed checkpoint.
+     */
+    long documentsProcessed() {
+        return documentsProcessed.get();
+    }
+
+    /**
+     * Resumes the count of written documents from a checkpoint. Called before any write.
+     */
+    void resume(long documentsProcessed) {
+        this.documentsProcessed.set(documentsProcessed);
+    }
+
+    /**
+     * Starts preparing a chunk, on the decode pool if there is one.
+     *
+     * @param through position the chunk's progress advances to once it is written
+     */
+    Chunk<P> prepare(List<RawBsonDocument> documents, P through) {
+        CompletableFuture<InitialSyncSink.Prepared> prepared = decodePool == null
+                ? CompletableFuture.completedFuture(sink.prepare(documents))
+                : CompletableFuture.supplyAsync(() -> sink.prepare(documents), decodePool);
+        return new Chunk<>(prepared, through, documents.size());
+    }
+
+    /**
+     * Writes a prepared chunk and advances the progress to its end, atomically with respect to
+     * flushes, then flushes if a batch is due.
+     */
+    void write(Chunk<P> chunk, Consumer<P> advance, Function<CheckpointRecord.State, CheckpointRecord> checkpoint) {
+        InitialSyncSink.Prepared prepared = chunk.prepared().join();
+        flushLock.readLock().lock();
+        try {
+            prepared.write();
+            advance.accept(chunk.through());
+        } finally {
+            flushLock.readLock().unlock();
+        }
+        documentsProcessed.addAndGet(chunk.size());
+        unflushedDocuments.addAndGet(chunk.size());
+        sink.awaitCapacity();
+        if (isFlushDue()) {
+            flush(() -> checkpoint.apply(CheckpointRecord.State.INITIAL_SYNC), false);
+        }
+    }
+
+    /**
+     * Changes progress that is not a chunk's end (a range completing, a piece being planned),
+     * atomically with respect to flushes.
+     */
+    void update(Runnable change) {
+        flushLock.readLock().lock();
+        try {
+            change.run();
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes what is left with a checkpoint of {@code state} and waits for the commit.
+     */
+    void finish(CheckpointRecord.State state, Function<CheckpointRecord.State, CheckpointRecord> checkpoint) {
+        flush(() -> checkpoint.apply(state), true);
+        lastFlush.join();
+    }
+
+    private void flush(Supplier<CheckpointRecord> checkpoint, boolean force) {
+        flushLock.writeLock().lock();
+        try {
+            // Several threads can cross the threshold together; only the first one flushes.
+            if (!force && !isFlushDue()) {
+                return;
+            }
+            surfaceFailure(lastFlush);
+            lastFlush = sink.flush(checkpoint.get());
+            unflushedDocuments.set(0);
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    private boolean isFlushDue() {
+        if (BatchConfig.MODE_ADAPTIVE.equals(batch.mode())) {
+            return sink.isFlushDue();
+        }
+        return unflushedDocuments.get() >= batch.maxRecords() || sink.isFlushDue();
+    }
+
+    /**
+     * Throws the failure of a pipelined commit, so that it surfaces instead of more batches
+     * being queued behind it. Also used by the change stream's single-threaded flushes.
+     */
+    static void surfaceFailure(CompletableFuture<?> lastFlush) {
+        if (lastFlush.isCompletedExceptionally()) {
+            lastFlush.join();
+        }
+    }
+
+    /**
+     * Waits for all of {@code tasks}, cancelling the rest once one fails.
+     *
+     * @param what what the tasks do, for the exception messages
+     */
+    static void awaitAll(List<? extends Future<?>> tasks, String what) {
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            tasks.forEach(task -> task.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(what + " interrupted", e);
+        } catch (ExecutionException e) {
+            tasks.forEach(task -> task.cancel(true));
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof IOException ioException) {
+                throw new UncheckedIOException(ioException);
+            }
+            throw new IllegalStateException(what + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * A chunk being prepared.
+     *
+     * @param through position its progress advances to once it is written
+     */
+    record Chunk<P>(CompletableFuture<InitialSyncSink.Prepared> prepared, P through, int size) {
+    }
+}
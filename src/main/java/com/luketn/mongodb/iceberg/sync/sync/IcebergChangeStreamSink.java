@@ -0,0 +1,223 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointStore;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergWriteManager;
+import com.luketn.mongodb.iceberg.sync.iceberg.SchemaEvolver;
+import com.luketn.mongodb.iceberg.sync.mapping.BsonToIcebergConverter;
+import com.luketn.mongodb.iceberg.sync.metrics.BatchTrace;
+import org.apache.iceberg.data.GenericRecord;
+import org.bson.RawBsonDocument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ChangeStreamSink} that converts change stream documents and writes them as upserts and
+ * deletes by {@code _id} through an {@link IcebergWriteManager}.
+ * <p>
+ * With a decode pool, operations are converted and written on the pool in chunks while the
+ * change stream consumer carries on; {@link #flush} waits for them.
+ * <p>
+ * Decoding is timed per chunk on the pool. Without a pool, operations arrive in one burst as the
+ * window is drained right before {@link #flush}, which times the burst as a whole; nothing is
+ * timed per operation.
+ * <p>
+ * With a {@link SchemaEvolver} of an auto mode table, operations on documents with fields the
+ * table has no column for are held back until the flush, which adds all of the window's new
+ * fields in one schema update before writing them.
+ */
+public final class IcebergChangeStreamSink implements ChangeStreamSink {
+
+    private static final int DECODE_CHUNK_SIZE = 250;
+
+    private final SchemaEvolver schemaEvolver;
+    private final IcebergWriteManager writeManager;
+    private final CheckpointStore checkpointStore;
+    private final Executor decodePool;
+    private final ThreadLocal<GenericRecord> reuse;
+    private final List<CompletableFuture<Void>> decoding = new ArrayList<>();
+    private final AtomicLong decodeNanos = new AtomicLong();
+    private final Queue<Runnable> deferred = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger deferredCount = new AtomicInteger();
+    private final AtomicLong deferredBytes = new AtomicLong();
+    private long inlineDecodeStartNanos;
+    private List<Runnable> chunk = new ArrayList<>(DECODE_CHUNK_SIZE);
+
+    public IcebergChangeStreamSink(
+            BsonToIcebergConverter converter,
+            IcebergWriteManager writeManager,
+            CheckpointStore checkpointStore
+    ) {
+        this(converter, writeManager, checkpointStore, null);
+    }
+
+    /**
+     * @param decodePool pool converting and writing operations, or {@code null} to do it on the
+     *                   calling thread
+     */
+    public IcebergChangeStreamSink(
+            BsonToIcebergConverter converter,
+            IcebergWriteManager writeManager,
+            CheckpointStore checkpointStore,
+            Executor decodePool
+    ) {
+        this(SchemaEvolver.fixed(converter), writeManager, checkpointStore, decodePool);
+    }
+
+    /**
+     * @param schemaEvolver source of the table's converter, adding the new fields of a window
+     *                      to the schema before the window is flushed
+     * @param decodePool    pool converting and writing operations, or {@code null} to do it on
+     *                      the calling thread
+     */
+    public IcebergChangeStreamSink(
+            SchemaEvolver schemaEvolver,
+            IcebergWriteManager writeManager,
+            CheckpointStore checkpointStore,
+            Executor decodePool
+    ) {
+        this.schemaEvolver = schemaEvolver;
+        this.writeManager = writeManager;
+        this.checkpointStore = checkpointStore;
+        this.decodePool = decodePool;
+        this.reuse = ThreadLocal.withInitial(() -> GenericRecord.create(schemaEvolver.converter().schema()));
+    }
+
+    @Override
+    public void upsert(RawBsonDocument fullDocument, boolean deleteExisting) {
+        submit(new Operation(fullDocument, true, deleteExisting));
+    }
+
+    @Override
+    public void delete(RawBsonDocument documentKey) {
+        // Only the id column is mapped from a key document; the rest convert to null.
+        submit(new Operation(documentKey, false, true));
+    }
+
+    private GenericRecord reuse(BsonToIcebergConverter converter) {
+        GenericRecord record = reuse.get();
+        if (record.struct() != converter.schema().asStruct()) {
+            record = GenericRecord.create(converter.schema());
+            reuse.set(record);
+        }
+        return record;
+    }
+
+    private void submit(Runnable operation) {
+        if (decodePool == null) {
+            if (inlineDecodeStartNanos == 0) {
+                inlineDecodeStartNanos = System.nanoTime();
+            }
+            operation.run();
+            return;
+        }
+        chunk.add(operation);
+        if (chunk.size() >= DECODE_CHUNK_SIZE) {
+            submitChunk();
+        }
+    }
+
+    private void submitChunk() {
+        List<Runnable> operations = chunk;
+        chunk = new ArrayList<>(DECODE_CHUNK_SIZE);
+        decoding.add(CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            operations.forEach(Runnable::run);
+            decodeNanos.addAndGet(System.nanoTime() - start);
+        }, decodePool));
+    }
+
+    @Override
+    public boolean isFlushDue() {
+        return isFlushDue(0, 0);
+    }
+
+    @Override
+    public boolean isFlushDue(int heldRecords, long heldBytes) {
+        return writeManager.isFlushDue(heldRecords + deferredCount.get(), heldBytes + deferredBytes.get());
+    }
+
+    @Override
+    public void awaitCapacity() {
+        writeManager.awaitMemory();
+    }
+
+    @Override
+    public CompletableFuture<Void> flush(CheckpointRecord checkpoint, BatchTrace trace) {
+        if (!chunk.isEmpty()) {
+            submitChunk();
+        }
+        try {
+            CompletableFuture.allOf(decoding.toArray(CompletableFuture[]::new)).join();
+        } finally {
+            decoding.clear();
+        }
+        if (inlineDecodeStartNanos != 0) {
+            decodeNanos.addAndGet(System.nanoTime() - inlineDecodeStartNanos);
+            inlineDecodeStartNanos = 0;
+        }
+        evolveSchema();
+        trace.addDecode(decodeNanos.getAndSet(0));
+        return writeManager.flush(
+                checkpointStore.snapshotProperties(checkpoint),
+                trace,
+                snapshot -> checkpointStore.committed(checkpoint, snapshot == null ? null : snapshot.snapshotId())
+        ).thenApply(snapshot -> null);
+    }
+
+    private final class Operation implements Runnable {
+
+        private final RawBsonDocument document;
+        private final boolean write;
+        private final boolean deleteExisting;
+
+        private Operation(RawBsonDocument document, boolean write, boolean deleteExisting) {
+            this.document = document;
+            this.write = write;
+            this.deleteExisting = deleteExisting;
+        }
+
+        @Override
+        public void run() {
+            BsonToIcebergConverter converter = schemaEvolver.converter();
+            GenericRecord record = converter.convert(document, reuse(converter));
+            if (record == null) {
+                // The document has fields the table has no column for yet: hold the whole
+                // operation back until the flush has added them.
+                deferred.add(this);
+                deferredCount.incrementAndGet();
+                deferredBytes.addAndGet(document.getByteBuffer().remaining());
+                return;
+            }
+            if (deleteExisting) {
+                writeManager.delete(record.getField(writeManager.idColumn()));
+            }
+            if (write) {
+                writeManager.write(record);
+            }
+        }
+    }
+
+    /**
+     * Adds the fields the window brought to the table in one schema update, then writes the
+     * operations held back for them.
+     */
+    private void evolveSchema() {
+        if (schemaEvolver.hasNewFields()) {
+            writeManager.evolveSchema(schemaEvolver.evolve());
+            long start = System.nanoTime();
+            deferredBytes.set(0);
+            for (int held = deferredCount.getAndSet(0); held > 0; held--) {
+                deferred.poll().run();
+            }
+            decodeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointStore;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergWriteManager;
+import com.luketn.mongodb.iceberg.sync.iceberg.SchemaEvolver;
+import com.luketn.mongodb.iceberg.sync.mapping.BsonToIcebergConverter;
+import org.apache.iceberg.data.GenericRecord;
+import org.bson.RawBsonDocument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link InitialSyncSink} that converts scanned documents and appends them through an
+ * {@link IcebergWriteManager}.
+ * <p>
+ * With a {@link SchemaEvolver} of an auto mode table, documents with fields the table has no
+ * column for are held back until the flush, which adds all of the batch's new fields in one
+ * schema update before writing them.
+ */
+public final class IcebergInitialSyncSink implements InitialSyncSink {
+
+    private final SchemaEvolver schemaEvolver;
+    private final IcebergWriteManager writeManager;
+    private final CheckpointStore checkpointStore;
+    private final ThreadLocal<GenericRecord> reuse;
+    private final Queue<RawBsonDocument> deferred = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger deferredCount = new AtomicInteger();
+    private final AtomicLong deferredBytes = new AtomicLong();
+
+    public IcebergInitialSyncSink(
+            BsonToIcebergConverter converter,
+            IcebergWriteManager writeManager,
+            CheckpointStore checkpointStore
+    ) {
+        this(SchemaEvolver.fixed(converter), writeManager, checkpointStore);
+    }
+
+    /**
+     * @param schemaEvolver source of the table's converter, adding the new fields of a batch to
+     *                      the schema before the batch is flushed
+     */
+    public IcebergInitialSyncSink(
+            SchemaEvolver schemaEvolver,
+            IcebergWriteManager writeManager,
+            CheckpointStore checkpointStore
+    ) {
+        this.schemaEvolver = schemaEvolver;
+        this.writeManager = writeManager;
+        this.checkpointStore = checkpointStore;
+        this.reuse = ThreadLocal.withInitial(() -> GenericRecord.create(schemaEvolver.converter().schema()));
+    }
+
+    @Override
+    public void write(RawBsonDocument document) {
+        // The write manager copies the record into its buffer, so each scanning thread can
+        // keep converting into the same instance.
+        BsonToIcebergConverter converter = schemaEvolver.converter();
+        GenericRecord record = reuse.get();
+        if (record.struct() != converter.schema().asStruct()) {
+            record = GenericRecord.create(converter.schema());
+            reuse.set(record);
+        }
+        write(document, converter.convert(document, record));
+    }
+
+    @Override
+    public Prepared prepare(List<RawBsonDocument> documents) {
+        BsonToIcebergConverter converter = schemaEvolver.converter();
+        List<GenericRecord> records = new ArrayList<>(documents.size());
+        for (RawBsonDocument document : documents) {
+            records.add(converter.convert(document, GenericRecord.create(converter.schema())));
+        }
+        return () -> {
+            if (converter != schemaEvolver.converter()) {
+                // The schema evolved while the chunk was being prepared.
+                documents.forEach(this::write);
+                return;
+            }
+            for (int i = 0; i < records.size(); i++) {
+                write(documents.get(i), records.get(i));
+            }
+        };
+    }
+
+    private void write(RawBsonDocument document, GenericRecord record) {
+        if (record == null) {
+            deferred.add(document);
+            deferredCount.incrementAndGet();
+            deferredBytes.addAndGet(document.getByteBuffer().remaining());
+        } else {
+            writeManager.write(record);
+        }
+    }
+
+    @Override
+    public boolean isFlushDue() {
+        return writeManager.isFlushDue(deferredCount.get(), deferredBytes.get());
+    }
+
+    @Override
+    public void awaitCapacity() {
+        writeManager.awaitMemory();
+    }
+
+    @Override
+    public CompletableFuture<Void> flush(CheckpointRecord checkpoint) {
+        // Flushes are not concurrent with writes, so every held document is in the queue, and
+        // the fields each one brought were collected before it was held.
+        if (schemaEvolver.hasNewFields()) {
+            writeManager.evolveSchema(schemaEvolver.evolve());
+            deferredBytes.set(0);
+            for (int held = deferredCount.getAndSet(0); held > 0; held--) {
+                write(deferred.poll());
+            }
+        }
+        return writeManager.flush(
+                checkpointStore.snapshotProperties(checkpoint),
+                snapshot -> checkpointStore.committed(checkpoint, snapshot == null ? null : snapshot.snapshotId())
+        ).thenApply(snapshot -> null);
+    }
+}
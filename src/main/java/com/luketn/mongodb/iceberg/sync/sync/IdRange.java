@@ -0,0 +1,14 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import org.bson.BsonValue;
+
+/**
+ * A contiguous range of the {@code _id} index, in BSON comparison order.
+ *
+ * @param lowerBound inclusive lower bound, or {@code null} for the start of the collection
+ * @param upperBound exclusive upper bound, or {@code null} for the end of the collection
+ */
+public record IdRange(BsonValue lowerBound, BsonValue upperBound) {
+
+    public static final IdRange ALL = new IdRange(null, null);
+}
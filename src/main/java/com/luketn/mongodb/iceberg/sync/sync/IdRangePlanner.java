@@ -0,0 +1,70 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a collection into {@code _id} ranges of roughly equal document count using sampled
+ * split points.
+ * <p>
+ * Sampled ids are sorted by the server so the split points follow the same BSON comparison
+ * order as the {@code _id} index, including collections with mixed {@code _id} types.
+ */
+public final class IdRangePlanner {
+
+    /**
+     * Samples taken per requested range. Oversampling smooths out the variance of a small
+     * random sample so ranges end up close to equal in size.
+     */
+    static final int SAMPLES_PER_RANGE = 32;
+
+    private IdRangePlanner() {
+    }
+
+    public static List<IdRange> plan(MongoCollection<?> collection, int parallelism) {
+        if (parallelism <= 1 || collection.estimatedDocumentCount() == 0) {
+            return List.of(IdRange.ALL);
+        }
+        List<BsonValue> sampledIds = collection.aggregate(List.of(
+                        Aggregates.sample(parallelism * SAMPLES_PER_RANGE),
+                        Aggregates.project(Projections.include("_id")),
+                        Aggregates.sort(Sorts.ascending("_id"))), BsonDocument.class)
+                .allowDiskUse(true)
+                .map(document -> document.get("_id"))
+                .into(new ArrayList<>());
+        return fromSortedSample(sampledIds, parallelism);
+    }
+
+    /**
+     * Builds up to {@code parallelism} ranges from ids sorted in {@code _id} index order. The
+     * first and last ranges are open-ended so the ranges always cover the whole collection.
+     */
+    static List<IdRange> fromSortedSample(List<BsonValue> sortedIds, int parallelism) {
+        if (parallelism <= 1 || sortedIds.isEmpty()) {
+            return List.of(IdRange.ALL);
+        }
+        List<BsonValue> splitPoints = new ArrayList<>(parallelism - 1);
+        for (int i = 1; i < parallelism; i++) {
+            BsonValue candidate = sortedIds.get((int) ((long) i * sortedIds.size() / parallelism));
+            if (splitPoints.isEmpty() || !splitPoints.getLast().equals(candidate)) {
+                splitPoints.add(candidate);
+            }
+        }
+
+        List<IdRange> ranges = new ArrayList<>(splitPoints.size() + 1);
+        BsonValue lower = null;
+        for (BsonValue splitPoint : splitPoints) {
+            ranges.add(new IdRange(lower, splitPoint));
+            lower = splitPoint;
+        }
+        ranges.add(new IdRange(lower, null));
+        return ranges;
+    }
+}
@@ -0,0 +1,264 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.BsonJson;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord.RangeCheckpoint;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointStore;
+import com.luketn.mongodb.iceberg.sync.config.CollectionSyncConfig;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Performs the full collection scan phase for one collection.
+ * <p>
+ * The collection is split into {@code initialSync.scanParallelism} {@code _id} ranges (see
+ * {@link IdRangePlanner}) that are scanned concurrently on the scan pool. Each range keeps its
+ * own high-water mark in the checkpoint, so a restart resumes every range where it stopped.
+ * The change stream resume token T0 is captured before any range starts and handed back to the
+ * caller once the scan completes.
+ * <p>
+ * Flushes are pipelined (see {@link FlushCoordinator}): scanning carries on while a flushed
+ * batch is written and committed, and the sink only persists a batch's checkpoint once (or as
+ * part of) the batch's commit.
+ * <p>
+ * With a decode pool, each range converts one chunk of documents (up to the end of a cursor
+ * batch) on the pool while its scanning thread waits on the next cursor batch. Scanning threads
+ * then mostly wait on I/O and can be virtual threads.
+ */
+public final class InitialSyncManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(InitialSyncManager.class);
+
+    private static final int CURSOR_BATCH_SIZE = 1000;
+    private static final int DECODE_CHUNK_SIZE = 250;
+    private static final BsonDocument ID_INDEX = new BsonDocument("_id", new BsonInt32(1));
+
+    private final String syncId;
+    private final MongoCollection<RawBsonDocument> collection;
+    private final CollectionSyncConfig config;
+    private final CheckpointStore checkpointStore;
+    private final ExecutorService scanPool;
+    /**
+     * Chunks advance their range's high-water mark to their last {@code _id}.
+     */
+    private final FlushCoordinator<BsonValue> flusher;
+
+    public InitialSyncManager(
+            String syncId,
+            MongoCollection<RawBsonDocument> collection,
+            CollectionSyncConfig config,
+            CheckpointStore checkpointStore,
+            InitialSyncSink sink,
+            ExecutorService scanPool
+    ) {
+        this(syncId, collection, config, checkpointStore, sink, scanPool, null);
+    }
+
+    /**
+     * @param decodePool pool preparing scanned chunks (see {@link InitialSyncSink#prepare}), or
+     *                   {@code null} to prepare them on the scanning threads
+     */
+    public InitialSyncManager(
+            String syncId,
+            MongoCollection<RawBsonDocument> collection,
+            CollectionSyncConfig config,
+            CheckpointStore checkpointStore,
+            InitialSyncSink sink,
+            ExecutorService scanPool,
+            Executor decodePool
+    ) {
+        this.syncId = syncId;
+        this.collection = collection;
+        this.config = config;
+        this.checkpointStore = checkpointStore;
+        this.scanPool = scanPool;
+        this.flusher = new FlushCoordinator<>(sink, config.batch(), decodePool);
+    }
+
+    /**
+     * Runs (or resumes) the initial sync and returns the resume token T0 from which the change
+     * stream must be opened.
+     */
+    public BsonDocument run() {
+        CheckpointRecord checkpoint = checkpointStore.read(syncId);
+        BsonDocument resumeToken;
+        List<RangeProgress> ranges;
+        if (checkpoint != null
+                && checkpoint.state() == CheckpointRecord.State.INITIAL_SYNC
+                && checkpoint.resumeToken() != null) {
+            resumeToken = BsonDocument.parse(checkpoint.resumeToken());
+            ranges = RangeProgress.fromCheckpoint(checkpoint);
+            flusher.resume(checkpoint.documentsProcessed());
+            logger.info("{}: resuming initial sync of {} range(s) after {} document(s)",
+                    syncId, ranges.size(), checkpoint.documentsProcessed());
+        } else {
+            // T0 must be captured before any range starts: every write made while the ranges
+            // are being scanned is then replayed by the change stream.
+            resumeToken = captureResumeToken();
+            ranges = IdRangePlanner.plan(collection, config.initialSync().scanParallelism()).stream()
+                    .map(RangeProgress::new)
+                    .toList();
+            checkpointStore.write(toCheckpoint(CheckpointRecord.State.INITIAL_SYNC, resumeToken, ranges));
+            logger.info("{}: starting initial sync of {} range(s)", syncId, ranges.size());
+        }
+
+        List<Future<?>> scans = new ArrayList<>();
+        for (RangeProgress range : ranges) {
+            if (!range.complete) {
+                scans.add(scanPool.submit(() -> scan(range, resumeToken, ranges)));
+            }
+        }
+        FlushCoordinator.awaitAll(scans, "initial sync");
+
+        flusher.finish(CheckpointRecord.State.STEADY_STATE, state -> toCheckpoint(state, resumeToken, ranges));
+        logger.info("{}: initial sync complete after {} document(s)", syncId, flusher.documentsProcessed());
+        return resumeToken;
+    }
+
+    private BsonDocument captureResumeToken() {
+        try (MongoChangeStreamCursor<ChangeStreamDocument<RawBsonDocument>> cursor = collection.watch().cursor()) {
+            cursor.tryNext();
+            return cursor.getResumeToken();
+        }
+    }
+
+    private void scan(RangeProgress range, BsonDocument resumeToken, List<RangeProgress> ranges) {
+        // min()/max() bounds walk the _id index in BSON order without the type bracketing
+        // that a {$gt: ...} filter would apply to collections with mixed _id types.
+        BsonValue start = range.highWaterMark != null ? range.highWaterMark : range.range.lowerBound();
+        FindIterable<RawBsonDocument> find = collection.find()
+                .hint(ID_INDEX)
+                .sort(ID_INDEX)
+                .batchSize(CURSOR_BATCH_SIZE);
+        if (start != null) {
+            find = find.min(new BsonDocument("_id", start));
+        }
+        if (range.range.upperBound() != null) {
+            find = find.max(new BsonDocument("_id", range.range.upperBound()));
+        }
+
+        try (MongoCursor<RawBsonDocument> cursor = find.cursor()) {
+            List<RawBsonDocument> chunk = new ArrayList<>(DECODE_CHUNK_SIZE);
+            FlushCoordinator.Chunk<BsonValue> preparing = null;
+            while (cursor.hasNext()) {
+                RawBsonDocument document = cursor.next();
+                BsonValue id = document.get("_id");
+                if (id.equals(range.highWaterMark)) {
+                    // min() is inclusive; the high-water mark itself was already committed.
+                    continue;
+                }
+                chunk.add(document);
+                // Hand the chunk over before the cursor blocks on its next batch.
+                if (chunk.size() < DECODE_CHUNK_SIZE && cursor.available() > 0) {
+                    continue;
+                }
+                if (preparing != null) {
+                    write(range, preparing, resumeToken, ranges);
+                }
+                preparing = flusher.prepare(chunk, id);
+                chunk = new ArrayList<>(DECODE_CHUNK_SIZE);
+            }
+            if (preparing != null) {
+                write(range, preparing, resumeToken, ranges);
+            }
+        }
+
+        flusher.update(() -> range.complete = true);
+    }
+
+    /**
+     * Writes a prepared chunk and advances the range's high-water mark to its last document,
+     * atomically with respect to flushes.
+     */
+    private void write(
+            RangeProgress range,
+            FlushCoordinator.Chunk<BsonValue> chunk,
+            BsonDocument resumeToken,
+            List<RangeProgress> ranges
+    ) {
+        flusher.write(chunk, lastId -> range.highWaterMark = lastId,
+                state -> toCheckpoint(state, resumeToken, ranges));
+    }
+
+    private CheckpointRecord toCheckpoint(
+            CheckpointRecord.State state,
+            BsonDocument resumeToken,
+            List<RangeProgress> ranges
+    ) {
+        List<RangeCheckpoint> rangeCheckpoints = ranges.stream()
+                .map(RangeProgress::toCheckpoint)
+                .toList();
+        String highWaterMarkId = ranges.size() == 1 ? rangeCheckpoints.getFirst().highWaterMarkId() : null;
+        return new CheckpointRecord(
+                syncId,
+                state,
+                collection.getNamespace().getDatabaseName(),
+                collection.getNamespace().getCollectionName(),
+                resumeToken.toJson(),
+                highWaterMarkId,
+                flusher.documentsProcessed(),
+                null,
+                Instant.now(),
+                rangeCheckpoints
+        );
+    }
+
+    /**
+     * Mutable scan progress of one range. Fields are written by the range's scanning thread
+     * under the flush read lock and read by the flushing thread under the write lock.
+     */
+    private static final class RangeProgress {
+
+        private final IdRange range;
+        private BsonValue highWaterMark;
+        private boolean complete;
+
+        private RangeProgress(IdRange range) {
+            this.range = range;
+        }
+
+        private static List<RangeProgress> fromCheckpoint(CheckpointRecord checkpoint) {
+            if (checkpoint.ranges().isEmpty()) {
+                // Checkpoint written by a single-cursor scan.
+                RangeProgress progress = new RangeProgress(IdRange.ALL);
+                progress.highWaterMark = BsonJson.decode(checkpoint.highWaterMarkId());
+                return List.of(progress);
+            }
+            return checkpoint.ranges().stream()
+                    .map(rangeCheckpoint -> {
+                        RangeProgress progress = new RangeProgress(new IdRange(
+                                BsonJson.decode(rangeCheckpoint.lowerBound()),
+                                BsonJson.decode(rangeCheckpoint.upperBound())));
+                        progress.highWaterMark = BsonJson.decode(rangeCheckpoint.highWaterMarkId());
+                        progress.complete = rangeCheckpoint.complete();
+                        return progress;
+                    })
+                    .toList();
+        }
+
+        private RangeCheckpoint toCheckpoint() {
+            return new RangeCheckpoint(
+                    BsonJson.encode(range.lowerBound()),
+                    BsonJson.encode(range.upperBound()),
+                    BsonJson.encode(highWaterMark),
+                    complete
+            );
+        }
+    }
+}
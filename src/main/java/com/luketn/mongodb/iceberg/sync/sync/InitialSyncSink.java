@@ -0,0 +1,66 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointStore;
+import org.bson.RawBsonDocument;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Destination of documents scanned during initial sync.
+ * <p>
+ * Implementations must accept concurrent {@link #write} calls: a partitioned initial sync scans
+ * every {@code _id} range on its own worker thread. {@link #flush} is never called concurrently
+ * with {@link #write}.
+ */
+public interface InitialSyncSink {
+
+    /**
+     * A chunk of documents ready to be buffered.
+     */
+    interface Prepared {
+
+        /**
+         * Buffers the chunk. Not concurrent with {@link InitialSyncSink#flush}.
+         */
+        void write();
+    }
+
+    /**
+     * Converts and buffers a scanned document.
+     */
+    void write(RawBsonDocument document);
+
+    /**
+     * Does the CPU-bound part of writing a chunk of documents, such as converting them, so that
+     * it can run on a decode pool apart from the scanning thread. May be called concurrently and
+     * at any time, including during a flush; must not block. The default leaves all the work to
+     * {@link Prepared#write}.
+     */
+    default Prepared prepare(List<RawBsonDocument> documents) {
+        return () -> documents.forEach(this::write);
+    }
+
+    /**
+     * Whether the sink's own batch thresholds (such as buffered bytes) call for a flush.
+     */
+    boolean isFlushDue();
+
+    /**
+     * Waits while a memory budget shared with other collections is used up, unless this sink
+     * was asked to flush to free it. Called by the scanning threads between chunks, outside any
+     * lock, so a full budget pauses their cursors. The default returns at once.
+     */
+    default void awaitCapacity() {
+    }
+
+    /**
+     * Hands everything buffered so far to be written and committed together with
+     * {@code checkpoint}, and returns without waiting for the commit. The checkpoint is persisted
+     * through the sink's {@link CheckpointStore} once the data is durable, after the checkpoints
+     * of all earlier flushes; the returned future completes after that. May block while too many
+     * earlier flushes are still in flight.
+     */
+    CompletableFuture<Void> flush(CheckpointRecord checkpoint);
+}
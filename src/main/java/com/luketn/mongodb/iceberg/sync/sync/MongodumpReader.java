@@ -0,0 +1,195 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Sequential reader of {@code mongodump} output: {@code .bson} streams (concatenated BSON
+ * documents) and {@code --archive} streams, either of them gzipped.
+ * <p>
+ * An archive starts with a magic number, a header document and one metadata document per
+ * namespace, up to a terminator ({@code 0xFFFFFFFF}). Then come blocks of a namespace header
+ * ({@code db}, {@code collection}, {@code EOF}) followed by documents of that namespace up to a
+ * terminator; the blocks of the namespaces dumped concurrently are interleaved. The oplog taken
+ * with {@code --oplog} is the namespace {@value #OPLOG_COLLECTION} of database {@code ""}.
+ */
+final class MongodumpReader {
+
+    static final String OPLOG_COLLECTION = "oplog";
+
+    /**
+     * Largest document a dump holds: a 16 MB document, or an oplog entry of one plus its
+     * envelope.
+     */
+    static final int MAX_DOCUMENT_BYTES = 16 * 1024 * 1024 + 16 * 1024;
+
+    private static final int ARCHIVE_MAGIC = 0x8199e26d;
+    private static final int TERMINATOR = -1;
+    private static final int END = Integer.MIN_VALUE;
+    private static final int MIN_DOCUMENT_BYTES = 5;
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int GZIP_MAGIC_FIRST = 0x1f;
+    private static final int GZIP_MAGIC_SECOND = 0x8b;
+
+    /**
+     * Documents of the namespaces of an archive.
+     */
+    interface Namespaces {
+
+        /**
+         * Receiver of the documents of the namespace, or {@code null} to skip them.
+         */
+        Consumer<RawBsonDocument> documents(String database, String collection);
+    }
+
+    private final InputStream in;
+    private final String source;
+    private final byte[] lengthBytes = new byte[4];
+
+    private MongodumpReader(InputStream in, String source) {
+        this.in = in;
+        this.source = source;
+    }
+
+    /**
+     * Opens {@code file} for reading, decompressing it if it is gzipped.
+     */
+    static InputStream open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_BYTES);
+        if (isGzipped(in)) {
+            return new BufferedInputStream(new GZIPInputStream(in, BUFFER_BYTES), BUFFER_BYTES);
+        }
+        return in;
+    }
+
+    /**
+     * Whether {@code file} is gzipped, whatever its name.
+     */
+    static boolean isGzipped(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 2)) {
+            return isGzipped(in);
+        }
+    }
+
+    private static boolean isGzipped(InputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        return first == GZIP_MAGIC_FIRST && second == GZIP_MAGIC_SECOND;
+    }
+
+    /**
+     * Whether {@code file} is a {@code mongodump --archive}, gzipped or not, rather than a
+     * {@code .bson} file.
+     */
+    static boolean isArchive(Path file) throws IOException {
+        try (InputStream in = open(file)) {
+            return new MongodumpReader(in, file.toString()).nextLength() == ARCHIVE_MAGIC;
+        }
+    }
+
+    /**
+     * Reads the documents of a {@code .bson} stream.
+     */
+    static void readDocuments(InputStream in, String source, Consumer<RawBsonDocument> documents) throws IOException {
+        MongodumpReader reader = new MongodumpReader(in, source);
+        for (int length = reader.nextLength(); length != END; length = reader.nextLength()) {
+            documents.accept(reader.document(length));
+        }
+    }
+
+    /**
+     * Reads an archive, handing the documents of each namespace to the receiver that
+     * {@code namespaces} returns for it. Namespace metadata and the checksums of the blocks are
+     * not checked.
+     */
+    static void readArchive(InputStream in, String source, Namespaces namespaces) throws IOException {
+        MongodumpReader reader = new MongodumpReader(in, source);
+        if (reader.nextLength() != ARCHIVE_MAGIC) {
+            throw new IOException(source + " is not a mongodump archive");
+        }
+        reader.document(reader.requireLength());
+        for (int length = reader.requireLength(); length != TERMINATOR; length = reader.requireLength()) {
+            reader.skip(length);
+        }
+        for (int length = reader.nextLength(); length != END; length = reader.nextLength()) {
+            if (length == TERMINATOR) {
+                throw new IOException(source + ": terminator without a namespace header");
+            }
+            BsonDocument header = reader.document(length);
+            String database = header.getString("db").getValue();
+            String collection = header.getString("collection").getValue();
+            Consumer<RawBsonDocument> documents = header.getBoolean("EOF", BsonBoolean.FALSE).getValue()
+                    ? null
+                    : namespaces.documents(database, collection);
+            for (int body = reader.requireLength(); body != TERMINATOR; body = reader.requireLength()) {
+                if (documents == null) {
+                    reader.skip(body);
+                } else {
+                    documents.accept(reader.document(body));
+                }
+            }
+        }
+    }
+
+    /**
+     * The next length prefix: of a document, or {@link #TERMINATOR}, or {@link #END} at the end
+     * of the stream.
+     */
+    private int nextLength() throws IOException {
+        int read = in.readNBytes(lengthBytes, 0, 4);
+        if (read == 0) {
+            return END;
+        }
+        if (read < 4) {
+            throw new EOFException(source + " ends inside a length prefix");
+        }
+        return (lengthBytes[0] & 0xff)
+                | (lengthBytes[1] & 0xff) << 8
+                | (lengthBytes[2] & 0xff) << 16
+                | (lengthBytes[3] & 0xff) << 24;
+    }
+
+    private int requireLength() throws IOException {
+        int length = nextLength();
+        if (length == END) {
+            throw new EOFException(source + " ends inside a block");
+        }
+        return length;
+    }
+
+    private RawBsonDocument document(int length) throws IOException {
+        checkLength(length);
+        byte[] bytes = new byte[length];
+        System.arraycopy(lengthBytes, 0, bytes, 0, 4);
+        if (in.readNBytes(bytes, 4, length - 4) != length - 4) {
+            throw new EOFException(source + " ends inside a document");
+        }
+        if (bytes[length - 1] != 0) {
+            throw new IOException(source + ": document is not terminated; the dump is corrupt");
+        }
+        return new RawBsonDocument(bytes);
+    }
+
+    private void skip(int length) throws IOException {
+        checkLength(length);
+        in.skipNBytes(length - 4);
+    }
+
+    private void checkLength(int length) throws IOException {
+        if (length < MIN_DOCUMENT_BYTES || length > MAX_DOCUMENT_BYTES) {
+            throw new IOException(source + ": invalid document length " + length + "; the dump is corrupt");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.mongodb.client.MongoDatabase;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+
+import java.util.List;
+
+/**
+ * Ordering and lookup of change stream resume tokens.
+ * <p>
+ * The {@code _data} field of a resume token is a hex-encoded key string that sorts in oplog
+ * order (cluster time first), and tokens of collection- and database-level streams over the
+ * same events are the same, so tokens from either can be compared.
+ */
+final class ResumeTokens {
+
+    private ResumeTokens() {
+    }
+
+    static int compare(BsonDocument a, BsonDocument b) {
+        return data(a).compareTo(data(b));
+    }
+
+    static BsonDocument min(BsonDocument a, BsonDocument b) {
+        return compare(a, b) <= 0 ? a : b;
+    }
+
+    /**
+     * The resume token of a change stream on {@code collection} that starts at
+     * {@code operationTime}. Opens the stream with a zero-size first batch: its
+     * {@code postBatchResumeToken} is the start position, where the driver's cursor only
+     * reports a token after a {@code getMore}.
+     */
+    static BsonDocument at(MongoDatabase database, String collection, BsonTimestamp operationTime) {
+        BsonDocument changeStream = new BsonDocument("$changeStream",
+                new BsonDocument("startAtOperationTime", operationTime));
+        BsonDocument reply = database.runCommand(new BsonDocument("aggregate", new BsonString(collection))
+                .append("pipeline", new BsonArray(List.of(changeStream)))
+                .append("cursor", new BsonDocument("batchSize", new BsonInt32(0))), BsonDocument.class);
+        BsonDocument cursor = reply.getDocument("cursor");
+        long cursorId = cursor.getNumber("id").longValue();
+        if (cursorId != 0) {
+            database.runCommand(new BsonDocument("killCursors", new BsonString(collection))
+                    .append("cursors", new BsonArray(List.of(new BsonInt64(cursorId)))));
+        }
+        return cursor.getDocument("postBatchResumeToken");
+    }
+
+    private static String data(BsonDocument token) {
+        return token.getString("_data").getValue();
+    }
+}
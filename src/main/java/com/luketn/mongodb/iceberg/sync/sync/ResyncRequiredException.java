@@ -0,0 +1,12 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+/**
+ * Thrown when the change stream can no longer be followed (the collection was dropped or
+ * renamed, or the stream was invalidated) and the collection has to be synced from scratch.
+ */
+public final class ResyncRequiredException extends RuntimeException {
+
+    public ResyncRequiredException(String message) {
+        super(message);
+    }
+}
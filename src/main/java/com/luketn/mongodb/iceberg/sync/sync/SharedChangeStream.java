@@ -0,0 +1,267 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One database-level change stream feeding the {@link ChangeStreamSyncManager}s of all
+ * configured collections, so the oplog is read once instead of once per collection.
+ * <p>
+ * A collection is followed from the moment it {@link #join joins}, which it can only do once
+ * its own position is at or after the stream's; a collection that is behind (it just finished
+ * its initial sync, or joined after the stream opened at a later position) catches up on its own
+ * cursor first.
+ * The stream opens once every configured collection has joined, or {@value #START_GRACE_MILLIS}
+ * ms after the first did, at the earliest position of the collections that joined by then. On a
+ * restart the collections join within moments of each other, so they are all followed from the
+ * start instead of the later ones each catching up on a cursor of their own.
+ * Each collection skips events at or before the position it joined at, and checkpoints the
+ * shared stream's token when it flushes: its window holds all of its events up to that token.
+ * <p>
+ * All joined managers are driven from the thread calling {@link #run}, so a slow commit of one
+ * collection (a flush blocked on {@code maxInFlightBatches}) holds up the others.
+ */
+public final class SharedChangeStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedChangeStream.class);
+
+    private static final long MAX_AWAIT_MILLIS = 1_000;
+    static final long START_GRACE_MILLIS = 10_000;
+    private static final List<String> DATABASE_EVENTS = List.of("dropDatabase", "invalidate");
+
+    private record Follower(ChangeStreamSyncManager manager, BsonDocument joinedAt, CompletableFuture<Void> done) {
+    }
+
+    private final MongoDatabase database;
+    private final List<String> collections;
+    private final FieldProjection projection;
+    private final boolean postImages;
+    private final long startGraceMillis;
+    private final Map<String, Follower> followers = new ConcurrentHashMap<>();
+
+    private volatile boolean stopped;
+    // Guarded by this. Null until the stream opens, then its latest resume token.
+    private BsonDocument position;
+
+    /**
+     * @param collections the configured collections, the only ones the stream matches
+     * @param projection  paths to trim documents to, covering every collection's mapping (see
+     *                    {@link FieldProjection#union}); {@code null} to follow with full
+     *                    documents, required when any collection is not projected
+     * @param postImages  use post-images where the collections record them
+     */
+    public SharedChangeStream(
+            MongoDatabase database,
+            List<String> collections,
+            FieldProjection projection,
+            boolean postImages,
+            MeterRegistry meterRegistry
+    ) {
+        this(database, collections, projection, postImages, START_GRACE_MILLIS, meterRegistry);
+    }
+
+    /**
+     * @param startGraceMillis how long after the first collection joins the stream waits for the
+     *                         others before it opens
+     */
+    SharedChangeStream(
+            MongoDatabase database,
+            List<String> collections,
+            FieldProjection projection,
+            boolean postImages,
+            long startGraceMillis,
+            MeterRegistry meterRegistry
+    ) {
+        this.database = database;
+        this.collections = List.copyOf(collections);
+        this.projection = projection;
+        this.postImages = postImages;
+        this.startGraceMillis = startGraceMillis;
+        Gauge.builder("sync.changestream.shared.followers", followers, Map::size)
+                .description("collections followed through the shared database-level change stream")
+                .tag("database", database.getName())
+                .register(meterRegistry);
+    }
+
+    /**
+     * Hands {@code manager} over to this stream if it has caught up, that is {@code position}
+     * (its latest token, every event up to which it has applied) is at or after the stream's.
+     *
+     * @return a future completing when the stream stops following the collection, exceptionally
+     * if applying its events failed; {@code null} if the collection is behind
+     */
+    synchronized CompletableFuture<Void> join(ChangeStreamSyncManager manager, BsonDocument position) {
+        String collection = manager.collectionName();
+        if (!collections.contains(collection)) {
+            throw new IllegalArgumentException(collection + " is not matched by the shared change stream");
+        }
+        if (projection != null && manager.projection() == null) {
+            throw new IllegalArgumentException(collection + " needs full documents, but the shared change stream is projected");
+        }
+        if (stopped || (this.position != null && ResumeTokens.compare(position, this.position) < 0)) {
+            return null;
+        }
+        Follower follower = new Follower(manager, position, new CompletableFuture<>());
+        followers.put(collection, follower);
+        notifyAll();
+        return follower.done();
+    }
+
+    /**
+     * Waits for the collections to join, then follows the stream until {@link #stop} is
+     * called or the stream is invalidated, and finishes every followed collection.
+     */
+    public void run() throws InterruptedException {
+        BsonDocument start = awaitStart();
+        if (start == null) {
+            return;
+        }
+        logger.info("{}: following shared change stream for {} collection(s)", database.getName(), collections.size());
+        try (MongoChangeStreamCursor<ChangeStreamDocument<RawBsonDocument>> cursor = open(start)) {
+            boolean invalidated = false;
+            while (!stopped && !invalidated) {
+                ChangeStreamDocument<RawBsonDocument> event = cursor.tryNext();
+                BsonDocument token = cursor.getResumeToken();
+                Follower any;
+                synchronized (this) {
+                    if (event != null) {
+                        dispatch(event);
+                        invalidated = event.getOperationType() == OperationType.INVALIDATE;
+                    }
+                    if (token != null) {
+                        position = token;
+                    }
+                    for (Follower follower : new ArrayList<>(followers.values())) {
+                        if (follower.manager().isStopped()) {
+                            finish(follower);
+                        } else {
+                            deliver(follower, () -> follower.manager().poll(position));
+                        }
+                    }
+                    any = followers.isEmpty() ? null : followers.values().iterator().next();
+                }
+                // Once per event rather than per collection: the collections share the memory
+                // budget, and the ones asked to free it have just flushed. Waiting outside the
+                // lock lets collections join meanwhile.
+                if (any != null) {
+                    any.manager().awaitCapacity();
+                }
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                stopped = true;
+                followers.values().forEach(follower -> follower.done().completeExceptionally(e));
+                followers.clear();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            stopped = true;
+            new ArrayList<>(followers.values()).forEach(this::finish);
+        }
+    }
+
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+    }
+
+    private synchronized BsonDocument awaitStart() throws InterruptedException {
+        while (!stopped && followers.isEmpty()) {
+            wait();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(startGraceMillis);
+        while (!stopped && followers.size() < collections.size()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (stopped) {
+            return null;
+        }
+        position = followers.values().stream()
+                .map(Follower::joinedAt)
+                .reduce(ResumeTokens::min)
+                .orElseThrow();
+        return position;
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<RawBsonDocument>> open(BsonDocument start) {
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(Filters.or(
+                Filters.in("ns.coll", collections),
+                Filters.in("operationType", DATABASE_EVENTS))));
+        if (projection != null) {
+            pipeline.add(projection.changeStreamStage());
+        }
+        ChangeStreamIterable<RawBsonDocument> stream = database.watch(pipeline, RawBsonDocument.class)
+                .fullDocument(projection == null
+                        ? FullDocument.UPDATE_LOOKUP
+                        : postImages ? FullDocument.WHEN_AVAILABLE : FullDocument.DEFAULT);
+        return stream
+                .resumeAfter(start)
+                .maxAwaitTime(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS)
+                .cursor();
+    }
+
+    private void dispatch(ChangeStreamDocument<RawBsonDocument> event) {
+        if (event.getNamespace() == null) {
+            // dropDatabase and invalidate concern every collection.
+            for (Follower follower : new ArrayList<>(followers.values())) {
+                deliver(follower, () -> follower.manager().accept(event, follower.joinedAt()));
+            }
+            return;
+        }
+        Follower follower = followers.get(event.getNamespace().getCollectionName());
+        if (follower != null) {
+            deliver(follower, () -> follower.manager().accept(event, follower.joinedAt()));
+        }
+    }
+
+    /**
+     * Runs a step of one collection. A failure (a resync, a failed commit) stops following that
+     * collection only.
+     */
+    private void deliver(Follower follower, Runnable step) {
+        try {
+            step.run();
+        } catch (RuntimeException e) {
+            followers.remove(follower.manager().collectionName());
+            follower.done().completeExceptionally(e);
+        }
+    }
+
+    private void finish(Follower follower) {
+        followers.remove(follower.manager().collectionName());
+        try {
+            follower.manager().finish(position);
+            follower.done().complete(null);
+        } catch (RuntimeException e) {
+            follower.done().completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointStore;
+import com.luketn.mongodb.iceberg.sync.config.CollectionSyncConfig;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergTableManager;
+import com.luketn.mongodb.iceberg.sync.lease.FencedException;
+import com.luketn.mongodb.iceberg.sync.lease.Fencing;
+import com.luketn.mongodb.iceberg.sync.lease.Lease;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.catalog.Catalog;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.exceptions.NoSuchTableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the target table and checkpoint of every configured collection at startup.
+ * <p>
+ * Each load is one or more catalog round trips (and, for snapshot checkpoints, a walk over the
+ * table's snapshots), so loading dozens of collections one after another dominates a restart.
+ * Here every table load and every checkpoint read is its own task on the io executor, and all
+ * of them run at once. Existing tables are validated as they arrive: the collection's
+ * {@code _id} column must exist and the table must have an unpartitioned spec for deletes.
+ * Failures are collected, so one start reports every misconfigured table rather than the first.
+ * <p>
+ * Tables that do not exist yet are returned as {@code null}; the collection's sync creates them
+ * once it knows the schema.
+ * <p>
+ * With leases, a collection is loaded once its lease is acquired, and its table is fenced with
+ * the lease's epoch (see {@link Fencing}).
+ */
+public final class StartupLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupLoader.class);
+
+    /**
+     * A collection's target table, or {@code null} if it does not exist yet, and its checkpoint,
+     * or {@code null} if none has been written.
+     */
+    public record LoadedCollection(
+            CollectionSyncConfig config,
+            TableIdentifier identifier,
+            Table table,
+            CheckpointRecord checkpoint
+    ) {
+    }
+
+    private final Catalog catalog;
+    private final CheckpointStore checkpoints;
+    private final ExecutorService io;
+
+    public StartupLoader(Catalog catalog, CheckpointStore checkpoints, ExecutorService io) {
+        this.catalog = catalog;
+        this.checkpoints = checkpoints;
+        this.io = io;
+    }
+
+    /**
+     * Loads all collections concurrently, in the order given.
+     *
+     * @throws IllegalStateException if any table or checkpoint could not be loaded, or a table is
+     *                               not one the sync can write to; the individual failures are
+     *                               attached as suppressed exceptions
+     */
+    public List<LoadedCollection> load(List<CollectionSyncConfig> collections) {
+        long start = System.nanoTime();
+        List<TableIdentifier> identifiers = new ArrayList<>(collections.size());
+        List<CompletableFuture<Table>> tables = new ArrayList<>(collections.size());
+        List<CompletableFuture<CheckpointRecord>> reads = new ArrayList<>(collections.size());
+        for (CollectionSyncConfig collection : collections) {
+            TableIdentifier identifier = TableIdentifier.of(collection.target().namespace(), collection.target().table());
+            identifiers.add(identifier);
+            tables.add(CompletableFuture.supplyAsync(() -> loadTable(collection, identifier), io));
+            reads.add(CompletableFuture.supplyAsync(() -> checkpoints.read(identifier.toString()), io));
+        }
+
+        List<LoadedCollection> loaded = new ArrayList<>(collections.size());
+        List<Throwable> failures = new ArrayList<>();
+        for (int i = 0; i < collections.size(); i++) {
+            Table table = join(tables.get(i), failures);
+            CheckpointRecord checkpoint = join(reads.get(i), failures);
+            loaded.add(new LoadedCollection(collections.get(i), identifiers.get(i), table, checkpoint));
+        }
+        if (!failures.isEmpty()) {
+            IllegalStateException failed = new IllegalStateException(failures.size()
+                    + " target table(s) or checkpoint(s) failed to load: " + failures.getFirst().getMessage());
+            failures.forEach(failed::addSuppressed);
+            throw failed;
+        }
+        logger.info("loaded {} target table(s) and checkpoint(s) in {} ms", collections.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return loaded;
+    }
+
+    /**
+     * Loads one collection whose lease this instance acquired. Its table is returned fenced with
+     * the lease's epoch, and the checkpoint store commits the sync's checkpoint-only snapshots
+     * through it too, so that both are rejected once another instance has taken the lease over.
+     * A table the sync creates later has to be fenced the same way before its first commit.
+     *
+     * @throws FencedException if a later holder has already fenced the table
+     */
+    public LoadedCollection load(CollectionSyncConfig collection, Lease lease) {
+        TableIdentifier identifier = TableIdentifier.of(collection.target().namespace(), collection.target().table());
+        Table table = loadTable(collection, identifier);
+        if (table != null) {
+            table = Fencing.fence(table, lease.epoch());
+            checkpoints.useTable(identifier.toString(), table);
+        }
+        return new LoadedCollection(collection, identifier, table, checkpoints.read(identifier.toString()));
+    }
+
+    private Table loadTable(CollectionSyncConfig collection, TableIdentifier identifier) {
+        Table table;
+        try {
+            table = catalog.loadTable(identifier);
+        } catch (NoSuchTableException e) {
+            return null;
+        }
+        String idColumn = collection.mapping().idColumn();
+        if (idColumn == null) {
+            throw new IllegalStateException(identifier + ": the mapping of " + collection.source().collection()
+                    + " does not map _id");
+        }
+        if (table.schema().findField(idColumn) == null) {
+            throw new IllegalStateException(identifier + ": id column does not exist: " + idColumn);
+        }
+        if (IcebergTableManager.unpartitionedSpec(table) == null) {
+            throw new IllegalStateException(identifier + ": table has no unpartitioned spec for delete files");
+        }
+        return table;
+    }
+
+    private static <T> T join(CompletableFuture<T> future, List<Throwable> failures) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            failures.add(e.getCause());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Threads of a sync daemon, shared by all of its collections.
+ * <p>
+ * Work that mostly waits (MongoDB cursor reads, change stream polling, catalog and object store
+ * calls) runs on virtual threads, one per task, so hundreds of collections cost hundreds of
+ * cheap threads rather than queueing behind a fixed pool. CPU-bound work (BSON decoding, Parquet
+ * encoding) runs on a {@link FairExecutor} with one platform thread per core, shared fairly
+ * between collections.
+ */
+public final class SyncRuntime implements AutoCloseable {
+
+    private final ExecutorService io;
+    private final FairExecutor cpu;
+    private final AtomicInteger ioActive = new AtomicInteger();
+    private final AtomicLong ioStarted = new AtomicLong();
+    private final MeterRegistry meterRegistry;
+    private final List<Meter> meters = new ArrayList<>();
+
+    public SyncRuntime(MeterRegistry meterRegistry) {
+        this(Runtime.getRuntime().availableProcessors(), meterRegistry);
+    }
+
+    public SyncRuntime(int cpuThreads, MeterRegistry meterRegistry) {
+        ThreadFactory virtual = Thread.ofVirtual().name("sync-io-", 0).factory();
+        this.io = Executors.newThreadPerTaskExecutor(task -> virtual.newThread(() -> {
+            ioActive.incrementAndGet();
+            ioStarted.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                ioActive.decrementAndGet();
+            }
+        }));
+        this.cpu = new FairExecutor("cpu", cpuThreads, meterRegistry);
+        this.meterRegistry = meterRegistry;
+        meters.add(Gauge.builder("sync.pool.active", ioActive, AtomicInteger::get)
+                .tag("pool", "io").register(meterRegistry));
+        meters.add(FunctionCounter.builder("sync.pool.tasks", ioStarted, AtomicLong::get)
+                .tag("pool", "io").register(meterRegistry));
+    }
+
+    /**
+     * Virtual-thread executor for blocking I/O: collection lifecycles, initial sync range scans
+     * and change stream consumers.
+     */
+    public ExecutorService io() {
+        return io;
+    }
+
+    /**
+     * CPU-bound work of {@code collection}, such as decoding documents and encoding data files.
+     */
+    public Executor cpu(String collection) {
+        return cpu.lane(collection);
+    }
+
+    /**
+     * CPU-bound tasks waiting for a worker. Background work such as compaction backs off while
+     * this is above zero.
+     */
+    public int cpuBacklog() {
+        return cpu.queued();
+    }
+
+    @Override
+    public void close() {
+        io.shutdown();
+        try {
+            io.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        cpu.close();
+        meters.forEach(meterRegistry::remove);
+    }
+}
@@ -0,0 +1,111 @@
+package com.luketn.mongodb.iceberg.sync.bench;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.SnapshotCheckpointStore;
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.config.CollectionSyncConfig;
+import com.luketn.mongodb.iceberg.sync.config.DeleteConfig;
+import com.luketn.mongodb.iceberg.sync.config.PartitionConfig;
+import com.luketn.mongodb.iceberg.sync.config.SortFieldConfig;
+import com.luketn.mongodb.iceberg.sync.config.SyncConfig;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.hadoop.HadoopCatalog;
+import org.bson.BsonDateTime;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LoadGeneratorTest {
+
+    @TempDir
+    Path workDirectory;
+
+    @Test
+    void generatesDocumentsOfTheRequestedSizeAndLayoutFields() {
+        DocumentGenerator generator = new DocumentGenerator(12, 2, 2048,
+                Map.of("createdAt", DocumentGenerator.FieldKind.TIMESTAMP, "f1", DocumentGenerator.FieldKind.STRING));
+
+        RawBsonDocument document = generator.document(new BsonObjectId(new ObjectId()), new SplittableRandom(1),
+                1_800_000_000_000L);
+
+        assertThat(document.getByteBuffer().remaining()).isBetween(2032, 2064);
+        assertThat(document.keySet()).contains("_id", "f0", "f11", "nested", "payload");
+        assertThat(document.getDocument("nested").getDocument("child").containsKey("s0")).isTrue();
+        assertThat(document.get("createdAt")).isInstanceOf(BsonDateTime.class);
+        assertThat(document.get("f1")).isInstanceOf(BsonString.class);
+    }
+
+    @Test
+    void runsTheConfiguredPipelineIntoALocalWarehouse() throws IOException {
+        CollectionSyncConfig orders = collection("orders",
+                List.of(new PartitionConfig("createdAt", "day"), new PartitionConfig("address.city", "identity")),
+                List.of(new SortFieldConfig("region", null, null)),
+                new DeleteConfig(DeleteConfig.MODE_POSITION, null));
+        CollectionSyncConfig customers = collection("customers", List.of(), List.of(), null);
+        SyncConfig config = new SyncConfig(null, null, new SyncConfig.SyncSection(
+                List.of(orders, customers), null, null, null, null, null, null, null).withDefaults());
+        LoadGenerator.Settings settings = new LoadGenerator.Settings(Duration.ofSeconds(2), Duration.ofMillis(500),
+                8, 1, 512, OperationMix.parse("70:20:10"), 0, 7);
+
+        BenchReport report = new LoadGenerator(config, settings).run(workDirectory);
+
+        assertThat(report.collections()).extracting(BenchReport.CollectionReport::table)
+                .containsExactly("bench.orders", "bench.customers");
+        assertThat(report.eventsPerSecond()).isPositive();
+        assertThat(report.heapMaxBytes()).isPositive();
+        assertThat(report.collections()).allSatisfy(collection -> {
+            assertThat(collection.events()).isPositive();
+            assertThat(collection.dataFiles()).isPositive();
+            assertThat(collection.averageFileBytes()).isPositive();
+            assertThat(collection.lagMaxMillis()).isPositive();
+        });
+        assertThat(report.format()).contains("bench.orders", "total");
+
+        try (HadoopCatalog catalog = new HadoopCatalog(new Configuration(), workDirectory.resolve("warehouse").toString());
+             SnapshotCheckpointStore checkpoints = new SnapshotCheckpointStore(catalog)) {
+            Table table = catalog.loadTable(TableIdentifier.of("bench", "orders"));
+            assertThat(table.spec().fields()).extracting(field -> field.name()).containsExactly("createdAt_day");
+            assertThat(table.sortOrder().isSorted()).isTrue();
+            assertThat(table.schema().findField("payload")).isNotNull();
+            assertThat(checkpoints.read("bench.customers").documentsProcessed()).isPositive();
+        }
+    }
+
+    @Test
+    void rejectsAMixWithoutInserts() {
+        assertThatThrownBy(() -> OperationMix.parse("0:1:1"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("inserts");
+        assertThatThrownBy(() -> OperationMix.parse("80:20"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static CollectionSyncConfig collection(
+            String name,
+            List<PartitionConfig> partitioning,
+            List<SortFieldConfig> sortOrder,
+            DeleteConfig deletes
+    ) {
+        return new CollectionSyncConfig(
+                new CollectionSyncConfig.SourceConfig(name),
+                new CollectionSyncConfig.TargetConfig("bench", name),
+                null, partitioning, sortOrder, null,
+                new BatchConfig(2_000L, null, null, null, null, null, null),
+                null, deletes, null
+        ).withDefaults();
+    }
+}
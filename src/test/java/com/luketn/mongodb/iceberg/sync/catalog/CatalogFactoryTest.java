@@ -0,0 +1,50 @@
+package com.luketn.mongodb.iceberg.sync.catalog;
+
+import com.luketn.mongodb.iceberg.sync.config.IcebergConfig;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergTableManager;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.catalog.Catalog;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.hadoop.HadoopCatalog;
+import org.apache.iceberg.types.Types;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CatalogFactoryTest {
+
+    @TempDir
+    Path warehouse;
+
+    @Test
+    void localCatalogIsAHadoopCatalogOnTheWarehouse() throws IOException {
+        Catalog catalog = CatalogFactory.create(new IcebergConfig(
+                new IcebergConfig.CatalogConfig(" Local ", null, warehouse.toString()), Map.of()));
+        try {
+            assertThat(catalog).isInstanceOf(HadoopCatalog.class);
+            assertThat(catalog.name()).isEqualTo(CatalogFactory.CATALOG_NAME);
+
+            Schema schema = new Schema(Types.NestedField.required(1, "_id", Types.StringType.get()));
+            new IcebergTableManager(catalog).create(TableIdentifier.of("analytics", "orders"), schema, List.of());
+            assertThat(warehouse.resolve("analytics").resolve("orders").resolve("metadata")).isDirectory();
+        } finally {
+            ((HadoopCatalog) catalog).close();
+        }
+    }
+
+    @Test
+    void unsupportedTypeIsRejected() {
+        IcebergConfig config = new IcebergConfig(new IcebergConfig.CatalogConfig("glue", null, "s3://bucket"), Map.of());
+
+        assertThatThrownBy(() -> CatalogFactory.create(config))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("glue");
+    }
+}
@@ -0,0 +1,102 @@
+package com.luketn.mongodb.iceberg.sync.checkpoint;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord.RangeCheckpoint;
+import com.luketn.mongodb.iceberg.sync.config.CheckpointConfig;
+import org.apache.iceberg.data.IcebergGenerics;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.inmemory.InMemoryCatalog;
+import org.apache.iceberg.io.CloseableIterable;
+import org.apache.iceberg.relocated.com.google.common.collect.Iterables;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IcebergCheckpointStoreTest {
+
+    private InMemoryCatalog catalog;
+    private IcebergCheckpointStore store;
+
+    @BeforeEach
+    void setUp() {
+        catalog = new InMemoryCatalog();
+        catalog.initialize("test", Map.of());
+        store = new IcebergCheckpointStore(catalog);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        catalog.close();
+    }
+
+    @Test
+    void writtenCheckpointRoundTripsThroughTheTable() {
+        assertThat(store.read("analytics.orders")).isNull();
+        assertThat(catalog.tableExists(IcebergCheckpointStore.TABLE)).isFalse();
+        CheckpointRecord checkpoint = checkpoint("analytics.orders", CheckpointRecord.State.INITIAL_SYNC, 42)
+                .withLastSnapshotId(1234L);
+
+        store.write(checkpoint);
+
+        assertThat(store.read("analytics.orders")).isEqualTo(checkpoint);
+    }
+
+    @Test
+    void writeReplacesOnlyTheRowOfItsSyncId() throws IOException {
+        store.write(checkpoint("analytics.orders", CheckpointRecord.State.INITIAL_SYNC, 1));
+        store.write(checkpoint("analytics.customers", CheckpointRecord.State.STEADY_STATE, 5));
+        CheckpointRecord latest = checkpoint("analytics.orders", CheckpointRecord.State.STEADY_STATE, 2);
+
+        store.write(latest);
+
+        assertThat(store.read("analytics.orders")).isEqualTo(latest);
+        assertThat(store.read("analytics.customers").documentsProcessed()).isEqualTo(5);
+        try (CloseableIterable<Record> rows = IcebergGenerics.read(catalog.loadTable(IcebergCheckpointStore.TABLE)).build()) {
+            assertThat(Iterables.size(rows)).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void deletedCheckpointIsNotRead() {
+        store.write(checkpoint("analytics.orders", CheckpointRecord.State.STEADY_STATE, 7));
+
+        store.delete("analytics.orders");
+
+        assertThat(store.read("analytics.orders")).isNull();
+    }
+
+    @Test
+    void factoryCreatesTheStoreOfTheConfiguredMode() {
+        CheckpointConfig table = new CheckpointConfig(CheckpointConfig.MODE_TABLE, null).withDefaults();
+        CheckpointConfig snapshot = new CheckpointConfig(null, true).withDefaults();
+
+        try (CheckpointStore tableStore = CheckpointStoreFactory.create(table, catalog);
+             CheckpointStore snapshotStore = CheckpointStoreFactory.create(snapshot, catalog)) {
+            assertThat(tableStore).isInstanceOf(IcebergCheckpointStore.class);
+            assertThat(snapshotStore).isInstanceOf(SnapshotCheckpointStore.class);
+        }
+    }
+
+    private static CheckpointRecord checkpoint(String syncId, CheckpointRecord.State state, long documentsProcessed) {
+        return new CheckpointRecord(
+                syncId,
+                state,
+                "shop",
+                "orders",
+                "{\"_data\": \"8265A1B2C3000000012B0229296E04\"}",
+                null,
+                documentsProcessed,
+                null,
+                Instant.parse("2024-01-15T10:30:00Z"),
+                List.of(
+                        new RangeCheckpoint(null, "{\"v\": {\"$oid\": \"65a1b2c3d4e5f60718293a4b\"}}", null, true),
+                        new RangeCheckpoint("{\"v\": {\"$oid\": \"65a1b2c3d4e5f60718293a4b\"}}", null, null, false))
+        );
+    }
+}
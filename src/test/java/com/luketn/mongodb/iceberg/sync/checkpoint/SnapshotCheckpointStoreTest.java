@@ -0,0 +1,124 @@
+package com.luketn.mongodb.iceberg.sync.checkpoint;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord.RangeCheckpoint;
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergTableManager;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergWriteManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.inmemory.InMemoryCatalog;
+import org.apache.iceberg.types.Types;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotCheckpointStoreTest {
+
+    private static final String SYNC_ID = "analytics.orders";
+    private static final Schema SCHEMA = new Schema(
+            Types.NestedField.required(1, "_id", Types.StringType.get()));
+
+    private InMemoryCatalog catalog;
+    private Table table;
+    private SnapshotCheckpointStore store;
+
+    @BeforeEach
+    void setUp() {
+        catalog = new InMemoryCatalog();
+        catalog.initialize("test", Map.of());
+        table = new IcebergTableManager(catalog).loadOrCreate(TableIdentifier.parse(SYNC_ID), SCHEMA, List.of());
+        store = new SnapshotCheckpointStore(catalog);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        store.close();
+        catalog.close();
+    }
+
+    @Test
+    void writtenCheckpointRoundTripsThroughTheSnapshotSummary() {
+        assertThat(store.read(SYNC_ID)).isNull();
+        CheckpointRecord checkpoint = checkpoint(CheckpointRecord.State.INITIAL_SYNC, 42);
+
+        store.write(checkpoint);
+
+        table.refresh();
+        assertThat(store.read(SYNC_ID))
+                .isEqualTo(checkpoint.withLastSnapshotId(table.currentSnapshot().snapshotId()));
+    }
+
+    @Test
+    void checkpointIsCommittedWithTheDataItCovers() {
+        ExecutorService encodePool = Executors.newSingleThreadExecutor();
+        CheckpointRecord checkpoint = checkpoint(CheckpointRecord.State.STEADY_STATE, 1);
+        Snapshot snapshot;
+        try (IcebergWriteManager writer = new IcebergWriteManager(table, "_id",
+                new BatchConfig(null, null, null, null, null, null, null).withDefaults(), encodePool, new SimpleMeterRegistry(),
+                IcebergWriteManager.Options.NONE)) {
+            GenericRecord row = GenericRecord.create(SCHEMA);
+            row.setField("_id", "a");
+            writer.write(row);
+            snapshot = writer.flush(store.snapshotProperties(checkpoint), committed -> { }).join();
+        } finally {
+            encodePool.shutdownNow();
+        }
+
+        table.refresh();
+        assertThat(table.snapshots()).hasSize(1);
+        assertThat(snapshot.summary()).containsEntry("added-records", "1");
+        assertThat(store.read(SYNC_ID)).isEqualTo(checkpoint.withLastSnapshotId(snapshot.snapshotId()));
+    }
+
+    @Test
+    void snapshotsWithoutACheckpointAreSkipped() {
+        CheckpointRecord checkpoint = checkpoint(CheckpointRecord.State.STEADY_STATE, 7);
+        store.write(checkpoint);
+        table.refresh();
+        long checkpointSnapshotId = table.currentSnapshot().snapshotId();
+
+        // A maintenance commit, such as compaction, carries no checkpoint properties.
+        table.newAppend().commit();
+
+        assertThat(store.read(SYNC_ID).lastSnapshotId()).isEqualTo(checkpointSnapshotId);
+    }
+
+    @Test
+    void deletedCheckpointIsNotRead() {
+        store.write(checkpoint(CheckpointRecord.State.STEADY_STATE, 7));
+
+        store.delete(SYNC_ID);
+
+        assertThat(store.read(SYNC_ID)).isNull();
+    }
+
+    private static CheckpointRecord checkpoint(CheckpointRecord.State state, long documentsProcessed) {
+        return new CheckpointRecord(
+                SYNC_ID,
+                state,
+                "shop",
+                "orders",
+                "{\"_data\": \"8265A1B2C3000000012B0229296E04\"}",
+                null,
+                documentsProcessed,
+                null,
+                Instant.parse("2024-01-15T10:30:00Z"),
+                List.of(
+                        new RangeCheckpoint(null, "{\"v\": {\"$oid\": \"65a1b2c3d4e5f60718293a4b\"}}", null, true),
+                        new RangeCheckpoint("{\"v\": {\"$oid\": \"65a1b2c3d4e5f60718293a4b\"}}", null, null, false))
+        );
+    }
+}
@@ -45,6 +45,8 @@ class ConfigLoaderTest {
                         maxRecords: 10
                         maxBytes: 100
                         flushIntervalSeconds: 5
+                      initialSync:
+                        scanParallelism: 8
                 """);
 
         SyncConfig loaded = loader.load(config);
@@ -54,6 +56,7 @@ class ConfigLoaderTest {
         assertThat(loaded.iceberg().catalog().type()).isEqualTo("local");
         assertThat(loaded.sync().collections()).hasSize(1);
         assertThat(loaded.sync().collections().getFirst().source().collection()).isEqualTo("orders");
+        assertThat(loaded.sync().collections().getFirst().initialSync().scanParallelism()).isEqualTo(8);
     }
 
     @Test
@@ -104,11 +107,94 @@ class ConfigLoaderTest {
         assertThat(collection.mapping().mode()).isEqualTo("auto");
         assertThat(collection.mapping().fields()).isEmpty();
         assertThat(collection.partitioning()).isEmpty();
+        assertThat(collection.sortOrder()).isEmpty();
+        assertThat(collection.layout().mode()).isEqualTo(LayoutConfig.MODE_FIXED);
+        assertThat(collection.layout().idBloomFilter()).isTrue();
 
         assertThat(collection.batch().maxRecords()).isEqualTo(BatchConfig.DEFAULT_MAX_RECORDS);
         assertThat(collection.batch().maxBytes()).isEqualTo(BatchConfig.DEFAULT_MAX_BYTES);
         assertThat(collection.batch().flushIntervalSeconds()).isEqualTo(BatchConfig.DEFAULT_FLUSH_INTERVAL_SECONDS);
+        assertThat(collection.batch().maxInFlightBatches()).isEqualTo(BatchConfig.DEFAULT_MAX_IN_FLIGHT_BATCHES);
+        assertThat(collection.batch().mode()).isEqualTo(BatchConfig.MODE_FIXED);
+        assertThat(collection.initialSync().scanParallelism()).isEqualTo(InitialSyncConfig.DEFAULT_SCAN_PARALLELISM);
+        assertThat(collection.initialSync().source()).isEqualTo(InitialSyncConfig.SOURCE_CURSOR);
+        assertThat(collection.deletes().mode()).isEqualTo(DeleteConfig.MODE_EQUALITY);
+        assertThat(collection.changeStream().mode()).isEqualTo(ChangeStreamConfig.MODE_AUTO);
         assertThat(loaded.iceberg().properties()).isEmpty();
+        assertThat(loaded.sync().checkpoint().mode()).isEqualTo(CheckpointConfig.MODE_SNAPSHOT);
+        assertThat(loaded.sync().checkpoint().tableView()).isFalse();
+        assertThat(loaded.sync().stream().scope()).isEqualTo(StreamConfig.SCOPE_COLLECTION);
+        assertThat(loaded.sync().compaction().enabled()).isFalse();
+        assertThat(loaded.sync().compaction().targetFileBytes()).isEqualTo(CompactionConfig.DEFAULT_TARGET_FILE_BYTES);
+        assertThat(loaded.sync().status().enabled()).isFalse();
+        assertThat(loaded.sync().status().port()).isEqualTo(StatusConfig.DEFAULT_PORT);
+        assertThat(loaded.sync().leases().enabled()).isFalse();
+        assertThat(loaded.sync().leases().ttlSeconds()).isEqualTo(LeaseConfig.DEFAULT_TTL_SECONDS);
+        assertThat(loaded.sync().wal().enabled()).isFalse();
+        assertThat(loaded.sync().wal().maxBytes()).isEqualTo(WalConfig.DEFAULT_MAX_BYTES);
+        assertThat(loaded.sync().memory().enabled()).isFalse();
+        assertThat(loaded.sync().memory().flushAtPercent()).isEqualTo(MemoryConfig.DEFAULT_FLUSH_AT_PERCENT);
+    }
+
+    @Test
+    void leasesRequireSnapshotCheckpoints() throws IOException {
+        Path config = writeConfig("""
+                mongodb:
+                  uri: "mongodb://localhost:27017"
+                  database: "mydb"
+                iceberg:
+                  catalog:
+                    type: "local"
+                    warehouse: "/tmp/warehouse"
+                sync:
+                  collections:
+                    - source:
+                        collection: "orders"
+                      target:
+                        namespace: "analytics"
+                        table: "orders"
+                  checkpoint:
+                    mode: "table"
+                  leases:
+                    enabled: true
+                """);
+
+        assertThatThrownBy(() -> loader.load(config))
+                .isInstanceOf(SyncConfigException.class)
+                .hasMessageContaining("sync.leases.enabled requires sync.checkpoint.mode to be snapshot");
+    }
+
+    @Test
+    void stalenessBoundOnlyAppliesToAdaptiveBatching() throws IOException {
+        String collections = """
+                mongodb:
+                  uri: "mongodb://localhost:27017"
+                  database: "mydb"
+                iceberg:
+                  catalog:
+                    type: "local"
+                    warehouse: "/tmp/warehouse"
+                sync:
+                  collections:
+                    - source:
+                        collection: "orders"
+                      target:
+                        namespace: "analytics"
+                        table: "orders"
+                      batch:
+                        flushIntervalSeconds: 3600
+                """;
+
+        SyncConfig fixed = loader.load(writeConfig(collections));
+        assertThat(fixed.sync().collections().getFirst().batch().maxStalenessSeconds()).isEqualTo(3600);
+
+        Path adaptive = writeConfig(collections + """
+                        mode: "adaptive"
+                        maxStalenessSeconds: 900
+                """);
+        assertThatThrownBy(() -> loader.load(adaptive))
+                .isInstanceOf(SyncConfigException.class)
+                .hasMessageContaining("maxStalenessSeconds must be >= flushIntervalSeconds");
     }
 
     @Test
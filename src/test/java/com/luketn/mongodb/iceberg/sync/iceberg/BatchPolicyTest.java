@@ -0,0 +1,102 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import org.apache.iceberg.DataFile;
+import org.apache.iceberg.DataFiles;
+import org.apache.iceberg.FileFormat;
+import org.apache.iceberg.PartitionSpec;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchPolicyTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void fixedModeFlushesAtTheFirstThreshold() {
+        BatchPolicy policy = new BatchPolicy(new BatchConfig(100L, 10 * MB, 60, null, null, null, null).withDefaults());
+
+        assertThat(policy.isFlushDue(0, 0, 0, seconds(3600))).isFalse();
+        assertThat(policy.isFlushDue(60, 39, MB, seconds(59))).isFalse();
+        assertThat(policy.isFlushDue(60, 40, MB, seconds(59))).isTrue();
+        assertThat(policy.isFlushDue(1, 0, 10 * MB, 0)).isTrue();
+        assertThat(policy.isFlushDue(1, 0, 1, seconds(60))).isTrue();
+        assertThat(policy.intervalSeconds()).isEqualTo(60);
+    }
+
+    @Test
+    void adaptiveModeProjectsFileSizeFromWrittenFiles() {
+        BatchPolicy policy = new BatchPolicy(adaptive(64 * MB, 512 * MB, 60, 900));
+
+        // Before the first file, in-memory bytes are assumed to compress 4:1; record counts play no part.
+        assertThat(policy.isFlushDue(10_000_000, 0, 255 * MB, 0)).isFalse();
+        assertThat(policy.isFlushDue(1, 0, 256 * MB, 0)).isTrue();
+
+        policy.written(List.of(dataFile(1_000, 100_000)));
+
+        assertThat(policy.bytesPerRow()).isEqualTo(100);
+        assertThat(policy.projectedFileBytes(1_000, 0)).isEqualTo(100_000);
+        assertThat(policy.isFlushDue(671_000, 0, MB, 0)).isFalse();
+        assertThat(policy.isFlushDue(672_000, 0, MB, 0)).isTrue();
+        // maxBytes still caps memory.
+        assertThat(policy.isFlushDue(1, 0, 512 * MB, 0)).isTrue();
+    }
+
+    @Test
+    void adaptiveModeSpreadsProjectionOverTheFilesOfABatch() {
+        BatchPolicy policy = new BatchPolicy(adaptive(64 * MB, 512 * MB, 60, 900));
+
+        policy.written(List.of(dataFile(1_000, 100_000), dataFile(1_000, 100_000)));
+
+        assertThat(policy.projectedFileBytes(2_000, 0)).isEqualTo(100_000);
+    }
+
+    @Test
+    void adaptiveModeStretchesTheIntervalForQuietTablesWithinTheStalenessBound() {
+        BatchPolicy policy = new BatchPolicy(adaptive(64 * MB, 512 * MB, 60, 900));
+        assertThat(policy.intervalSeconds()).isEqualTo(60);
+
+        policy.written(List.of(dataFile(1_000, 100_000)));
+        // ~1,000 rows/s of 100 bytes fill 64 MiB in ~671 s.
+        policy.flushed(60_000, seconds(60));
+        assertThat(policy.intervalSeconds()).isBetween(670L, 672L);
+        assertThat(policy.isFlushDue(10, 0, 1_000, seconds(600))).isFalse();
+        assertThat(policy.isFlushDue(10, 0, 1_000, seconds(672))).isTrue();
+
+        // A trickle would take hours to fill a file, so staleness bounds the interval.
+        for (int i = 0; i < 20; i++) {
+            policy.flushed(10, seconds(900));
+        }
+        assertThat(policy.intervalSeconds()).isEqualTo(900);
+
+        // A burst fills files quicker than the minimum interval.
+        for (int i = 0; i < 20; i++) {
+            policy.flushed(10_000_000, seconds(1));
+        }
+        assertThat(policy.intervalSeconds()).isEqualTo(60);
+    }
+
+    private static BatchConfig adaptive(long targetFileBytes, long maxBytes, int flushIntervalSeconds, int maxStalenessSeconds) {
+        BatchConfig config = new BatchConfig(null, maxBytes, flushIntervalSeconds, null,
+                BatchConfig.MODE_ADAPTIVE, targetFileBytes, maxStalenessSeconds).withDefaults();
+        config.validate("batch");
+        return config;
+    }
+
+    private static DataFile dataFile(long records, long bytes) {
+        return DataFiles.builder(PartitionSpec.unpartitioned())
+                .withPath("/tmp/data-" + records + "-" + bytes + "-" + System.nanoTime() + ".parquet")
+                .withFormat(FileFormat.PARQUET)
+                .withRecordCount(records)
+                .withFileSizeInBytes(bytes)
+                .build();
+    }
+
+    private static long seconds(long seconds) {
+        return TimeUnit.SECONDS.toNanos(seconds);
+    }
+}
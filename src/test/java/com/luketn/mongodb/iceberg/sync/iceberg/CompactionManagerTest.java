@@ -0,0 +1,145 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import com.luketn.mongodb.iceberg.sync.config.CompactionConfig;
+import org.apache.iceberg.DataFile;
+import org.apache.iceberg.DataOperations;
+import org.apache.iceberg.FileScanTask;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.data.IcebergGenerics;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.io.CloseableIterable;
+import org.apache.iceberg.relocated.com.google.common.collect.Iterables;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.luketn.mongodb.iceberg.sync.iceberg.IcebergFixture.row;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompactionManagerTest {
+
+    @TempDir
+    Path indexDirectory;
+
+    @RegisterExtension
+    final IcebergFixture iceberg = new IcebergFixture();
+
+    @Test
+    void coldPartitionIsRewrittenWithEqualityDeletesApplied() throws Exception {
+        Table table = tableWithSmallFilesAndAnUpdate();
+
+        CompactionManager.Result result;
+        try (CompactionManager compaction = compaction(0)) {
+            result = compaction.compact(table);
+        }
+
+        assertThat(result.partitionsRewritten()).isEqualTo(1);
+        assertThat(result.dataFilesRemoved()).isEqualTo(4);
+        assertThat(result.dataFilesAdded()).isEqualTo(1);
+        assertThat(result.deleteFilesRemoved()).isEqualTo(1);
+        assertThat(result.deletedRows()).isEqualTo(1);
+        assertThat(table.currentSnapshot().operation()).isEqualTo(DataOperations.REPLACE);
+        try (CloseableIterable<FileScanTask> tasks = table.newScan().planFiles()) {
+            FileScanTask task = Iterables.getOnlyElement(tasks);
+            assertThat(task.deletes()).isEmpty();
+        }
+        assertThat(rows(table)).containsExactlyInAnyOrder("a=2", "b=1", "c=1", "d=1", "e=1");
+        assertThat(iceberg.meterRegistry().counter("sync.compaction.files.removed",
+                "table", table.name(), "type", "delete").count()).isEqualTo(1);
+    }
+
+    @Test
+    void recentlyWrittenPartitionIsLeftAlone() throws Exception {
+        Table table = tableWithSmallFilesAndAnUpdate();
+        long snapshotId = table.currentSnapshot().snapshotId();
+
+        CompactionManager.Result result;
+        try (CompactionManager compaction = compaction(3600)) {
+            result = compaction.compact(table);
+        }
+
+        assertThat(result.partitionsRewritten()).isZero();
+        assertThat(result.dataFilesRemoved()).isZero();
+        assertThat(table.currentSnapshot().snapshotId()).isEqualTo(snapshotId);
+    }
+
+    @Test
+    void rewrittenRowsMoveInTheIdIndexWithoutARebuild() throws Exception {
+        Table table = iceberg.createTable();
+        Snapshot updated;
+        try (IdLocationIndex index = IdLocationIndex.open(indexDirectory, table, "_id");
+             IcebergWriteManager writer = iceberg.writer(table, IcebergWriteManager.Options.NONE.withLocationIndex(index));
+             CompactionManager compaction = compaction(0)) {
+            writer.write(row("a", 1));
+            writer.write(row("b", 1));
+            writer.flush(snapshot -> { }).join();
+            writer.write(row("c", 1));
+            writer.flush(snapshot -> { }).join();
+            writer.delete("a");
+            writer.flush(snapshot -> { }).join();
+
+            compaction.register(table, index);
+            CompactionManager.Result result = compaction.compact(table);
+
+            assertThat(result.dataFilesAdded()).isEqualTo(1);
+            DataFile compacted = Iterables.getOnlyElement(table.currentSnapshot().addedDataFiles(table.io()));
+            assertThat(index.snapshotId()).isEqualTo(table.currentSnapshot().snapshotId());
+            assertThat(index.size()).isEqualTo(2);
+            assertThat(index.lookup("a")).isNull();
+            assertThat(index.lookup("b").file().location()).isEqualTo(compacted.location());
+            assertThat(index.lookup("c").file().location()).isEqualTo(compacted.location());
+
+            // The update finds b in the compacted file, so it needs no equality delete fallback.
+            writer.delete("b");
+            writer.write(row("b", 2));
+            updated = writer.flush(snapshot -> { }).join();
+            assertThat(index.snapshotId()).isEqualTo(updated.snapshotId());
+            assertThat(index.lookup("b").file().location()).isNotEqualTo(compacted.location());
+        }
+
+        assertThat(updated.summary())
+                .containsEntry("added-position-deletes", "1")
+                .doesNotContainKey("added-equality-deletes");
+        assertThat(rows(table)).containsExactlyInAnyOrder("b=2", "c=1");
+    }
+
+    private Table tableWithSmallFilesAndAnUpdate() {
+        Table table = iceberg.createTable();
+        try (IcebergWriteManager writer = iceberg.writer(table, IcebergWriteManager.Options.NONE)) {
+            writer.write(row("a", 1));
+            writer.write(row("b", 1));
+            writer.flush(snapshot -> { });
+            writer.write(row("c", 1));
+            writer.write(row("d", 1));
+            writer.flush(snapshot -> { });
+            writer.write(row("e", 1));
+            writer.flush(snapshot -> { });
+            writer.delete("a");
+            writer.write(row("a", 2));
+            writer.flush(snapshot -> { });
+        }
+        return table;
+    }
+
+    private CompactionManager compaction(int coldAfterSeconds) {
+        CompactionConfig config = new CompactionConfig(true, null, coldAfterSeconds, null, 2, null, 100, null, null)
+                .withDefaults();
+        return new CompactionManager(config, () -> 0, iceberg.meterRegistry());
+    }
+
+    private static List<String> rows(Table table) throws IOException {
+        List<String> rows = new ArrayList<>();
+        try (CloseableIterable<Record> records = IcebergGenerics.read(table).build()) {
+            for (Record record : records) {
+                rows.add(record.getField("_id") + "=" + record.getField("qty"));
+            }
+        }
+        return rows;
+    }
+}
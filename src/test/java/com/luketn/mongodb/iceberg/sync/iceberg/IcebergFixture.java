@@ -0,0 +1,118 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.config.PartitionConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.inmemory.InMemoryCatalog;
+import org.apache.iceberg.types.Types;
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * What the write path tests share: an in-memory catalog, an encode pool and a meter registry,
+ * fresh for each test, with helpers to create the {@code analytics.orders} table, write managers
+ * on it and rows of it. Registered as a field with {@code @RegisterExtension}.
+ */
+public final class IcebergFixture implements BeforeEachCallback, AfterEachCallback {
+
+    public static final Schema SCHEMA = new Schema(
+            Types.NestedField.required(1, "_id", Types.StringType.get()),
+            Types.NestedField.optional(2, "qty", Types.IntegerType.get()));
+
+    public static final TableIdentifier TABLE = TableIdentifier.of("analytics", "orders");
+
+    private InMemoryCatalog catalog;
+    private ExecutorService encodePool;
+    private SimpleMeterRegistry meterRegistry;
+
+    @Override
+    public void beforeEach(ExtensionContext context) {
+        catalog = new InMemoryCatalog();
+        catalog.initialize("test", Map.of());
+        encodePool = Executors.newFixedThreadPool(2);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Override
+    public void afterEach(ExtensionContext context) throws IOException {
+        encodePool.shutdownNow();
+        catalog.close();
+    }
+
+    public InMemoryCatalog catalog() {
+        return catalog;
+    }
+
+    public ExecutorService encodePool() {
+        return encodePool;
+    }
+
+    public SimpleMeterRegistry meterRegistry() {
+        return meterRegistry;
+    }
+
+    /**
+     * Creates {@link #TABLE} with {@link #SCHEMA}, unpartitioned.
+     */
+    public Table createTable() {
+        return createTable(SCHEMA, List.of());
+    }
+
+    public Table createTable(Schema schema, List<PartitionConfig> partitioning) {
+        return new IcebergTableManager(catalog).loadOrCreate(TABLE, schema, partitioning);
+    }
+
+    /**
+     * A write manager on the {@code _id} column with one batch in flight.
+     */
+    public IcebergWriteManager writer(Table table, IcebergWriteManager.Options options) {
+        return writer(table, 1, options);
+    }
+
+    public IcebergWriteManager writer(Table table, int maxInFlightBatches, IcebergWriteManager.Options options) {
+        return writer(table, batch(maxInFlightBatches), options);
+    }
+
+    public IcebergWriteManager writer(Table table, BatchConfig batch, IcebergWriteManager.Options options) {
+        return new IcebergWriteManager(table, "_id", batch, encodePool, meterRegistry, options);
+    }
+
+    /**
+     * A write manager with one batch in flight whose meters go to {@code meterRegistry} instead
+     * of the fixture's.
+     */
+    public IcebergWriteManager writer(Table table, MeterRegistry meterRegistry, IcebergWriteManager.Options options) {
+        return new IcebergWriteManager(table, "_id", batch(1), encodePool, meterRegistry, options);
+    }
+
+    private static BatchConfig batch(int maxInFlightBatches) {
+        return new BatchConfig(null, null, null, maxInFlightBatches, null, null, null).withDefaults();
+    }
+
+    public static GenericRecord row(String id, int qty) {
+        return row(SCHEMA, id, qty);
+    }
+
+    /**
+     * A row of {@code schema}, which has the {@code _id} and {@code qty} columns of
+     * {@link #SCHEMA} and possibly more, left null.
+     */
+    public static GenericRecord row(Schema schema, String id, int qty) {
+        GenericRecord record = GenericRecord.create(schema);
+        record.setField("_id", id);
+        record.setField("qty", qty);
+        return record;
+    }
+}
@@ -0,0 +1,298 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.config.LayoutConfig;
+import com.luketn.mongodb.iceberg.sync.config.PartitionConfig;
+import com.luketn.mongodb.iceberg.sync.config.SortFieldConfig;
+import org.apache.iceberg.DataFile;
+import org.apache.iceberg.DataOperations;
+import org.apache.iceberg.DeleteFile;
+import org.apache.iceberg.FileContent;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.TableProperties;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.data.parquet.GenericParquetReaders;
+import org.apache.iceberg.io.CloseableIterable;
+import org.apache.iceberg.parquet.Parquet;
+import org.apache.iceberg.relocated.com.google.common.collect.Iterables;
+import org.apache.iceberg.types.Types;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.luketn.mongodb.iceberg.sync.iceberg.IcebergFixture.row;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IcebergWriteManagerTest {
+
+    private static final Schema SCHEMA = new Schema(
+            Types.NestedField.required(1, "_id", Types.StringType.get()),
+            Types.NestedField.optional(2, "order_date", Types.DateType.get()),
+            Types.NestedField.optional(3, "qty", Types.IntegerType.get()));
+
+    @RegisterExtension
+    final IcebergFixture iceberg = new IcebergFixture();
+
+    @Test
+    void commitsBatchesInFlushOrder() {
+        Table table = createTable(List.of());
+        List<Long> committedSequenceNumbers = new ArrayList<>();
+        List<CompletableFuture<Snapshot>> flushes = new ArrayList<>();
+
+        try (IcebergWriteManager writer = writer(table, 2)) {
+            for (int batch = 0; batch < 5; batch++) {
+                for (int row = 0; row < 10; row++) {
+                    writer.write(row(SCHEMA, "o-" + batch + "-" + row, 1));
+                }
+                flushes.add(writer.flush(snapshot -> committedSequenceNumbers.add(snapshot.sequenceNumber())));
+            }
+            writer.awaitCommits();
+            assertThat(iceberg.meterRegistry().counter("sync.iceberg.commits", "table", table.name()).count()).isEqualTo(5);
+        }
+
+        assertThat(flushes).allMatch(CompletableFuture::isDone);
+        assertThat(committedSequenceNumbers).containsExactly(1L, 2L, 3L, 4L, 5L);
+        assertThat(table.currentSnapshot().summary()).containsEntry("total-records", "50");
+    }
+
+    @Test
+    void queueDepthsAndInFlightBatchesComeBackWhenBatchesFail() {
+        Table table = createTable(List.of());
+        BatchConfig batch = new BatchConfig(null, null, null, 1, null, null, null).withDefaults();
+        Executor rejecting = command -> {
+            throw new RejectedExecutionException("encode pool is shut down");
+        };
+        IcebergWriteManager writer = new IcebergWriteManager(table, "_id", batch, rejecting, iceberg.meterRegistry(),
+                IcebergWriteManager.Options.NONE);
+
+        // With one batch in flight, a permit that was not given back would block the next flush.
+        for (int batchNumber = 0; batchNumber < 3; batchNumber++) {
+            writer.write(row(SCHEMA, "o-" + batchNumber, 1));
+            assertThatThrownBy(writer.flush(snapshot -> { })::join)
+                    .hasCauseInstanceOf(RejectedExecutionException.class);
+        }
+
+        assertThat(iceberg.meterRegistry().get("sync.iceberg.pipeline.queue.depth").tag("stage", "encode").gauge().value())
+                .isZero();
+        assertThat(iceberg.meterRegistry().get("sync.iceberg.pipeline.queue.depth").tag("stage", "commit").gauge().value())
+                .isZero();
+        assertThat(iceberg.meterRegistry().get("sync.iceberg.pipeline.inflight").gauge().value()).isZero();
+        assertThatThrownBy(writer::close).isInstanceOf(CompletionException.class);
+    }
+
+    @Test
+    void appendsAreFastAndTheirManifestsAreMergedInTheBackground() {
+        Table table = createTable(List.of());
+        table.updateProperties().set(TableProperties.MANIFEST_MIN_MERGE_COUNT, "5").commit();
+
+        try (IcebergWriteManager writer = writer(table, 1)) {
+            for (int batch = 0; batch < 12; batch++) {
+                writer.write(row(SCHEMA, "o-" + batch, 1));
+                writer.flush(snapshot -> { });
+            }
+            writer.awaitCommits();
+        }
+
+        table.refresh();
+        List<String> operations = new ArrayList<>();
+        for (Snapshot snapshot : table.snapshots()) {
+            operations.add(snapshot.operation());
+            if (DataOperations.APPEND.equals(snapshot.operation())) {
+                assertThat(snapshot.summary()).containsEntry("manifests-created", "1");
+            }
+        }
+        assertThat(operations).contains(DataOperations.REPLACE);
+        assertThat(table.currentSnapshot().dataManifests(table.io())).hasSizeLessThan(12);
+        assertThat(table.currentSnapshot().summary()).containsEntry("total-records", "12");
+    }
+
+    @Test
+    void autoLayoutIsChosenFromTheFirstLargeBatch() {
+        Table table = createTable(List.of());
+        LayoutConfig layout = new LayoutConfig(LayoutConfig.MODE_AUTO, null, null, null, 1_048_576L, null, null, null)
+                .withDefaults();
+
+        try (IcebergWriteManager writer = iceberg.writer(table, IcebergWriteManager.Options.NONE.withLayout(layout))) {
+            assertThat(table.properties())
+                    .containsEntry(TableProperties.PARQUET_BLOOM_FILTER_COLUMN_ENABLED_PREFIX + "_id", "true")
+                    .doesNotContainKey(TableProperties.PARQUET_DICT_SIZE_BYTES);
+            for (int batchNumber = 0; batchNumber < 2; batchNumber++) {
+                for (int row = 0; row < 2_000; row++) {
+                    writer.write(row(SCHEMA, "o-" + batchNumber + "-" + row, row % 10));
+                }
+                writer.flush(snapshot -> { });
+            }
+            writer.awaitCommits();
+        }
+
+        table.refresh();
+        // Ten distinct quantities of four bytes each: the smallest dictionary size.
+        assertThat(table.properties())
+                .containsEntry(TableProperties.PARQUET_COMPRESSION, "zstd")
+                .containsEntry(TableProperties.PARQUET_DICT_SIZE_BYTES, "65536")
+                .containsEntry(TableProperties.PARQUET_PAGE_SIZE_BYTES, "1048576")
+                .containsKey(TableProperties.PARQUET_ROW_GROUP_SIZE_BYTES);
+        assertThat(table.currentSnapshot().summary()).containsEntry("total-records", "4000");
+    }
+
+    @Test
+    void deleteFollowedByWriteIsCommittedAsOneRowDelta() {
+        Table table = createTable(List.of());
+
+        try (IcebergWriteManager writer = writer(table, 2)) {
+            writer.write(row(SCHEMA, "a", 1));
+            writer.write(row(SCHEMA, "b", 1));
+            writer.flush(snapshot -> { });
+
+            writer.delete("a");
+            writer.write(row(SCHEMA, "a", 2));
+            writer.delete("b");
+            writer.flush(snapshot -> { });
+        }
+
+        Snapshot snapshot = table.currentSnapshot();
+        assertThat(snapshot.operation()).isEqualTo(DataOperations.OVERWRITE);
+        assertThat(snapshot.summary())
+                .containsEntry("added-records", "1")
+                .containsEntry("added-equality-deletes", "2")
+                .containsEntry("total-records", "3");
+        DeleteFile deleteFile = Iterables.getOnlyElement(snapshot.addedDeleteFiles(table.io()));
+        assertThat(deleteFile.content()).isEqualTo(FileContent.EQUALITY_DELETES);
+        assertThat(deleteFile.equalityFieldIds()).containsExactly(1);
+    }
+
+    @Test
+    void deletesAreWrittenAgainstTheUnpartitionedSpec() {
+        Table table = createTable(List.of(new PartitionConfig("order_date", "month")));
+        assertThat(table.spec().isUnpartitioned()).isFalse();
+
+        try (IcebergWriteManager writer = writer(table, 1)) {
+            GenericRecord january = row(SCHEMA, "jan", 1);
+            january.setField("order_date", LocalDate.of(2024, 1, 15));
+            GenericRecord june = row(SCHEMA, "jun", 1);
+            june.setField("order_date", LocalDate.of(2024, 6, 1));
+            writer.write(january);
+            writer.write(june);
+            writer.flush(snapshot -> { }).join();
+            assertThat(table.currentSnapshot().addedDataFiles(table.io()))
+                    .hasSize(2)
+                    .allMatch(dataFile -> dataFile.specId() == table.spec().specId());
+
+            writer.delete("jan");
+            writer.flush(snapshot -> { });
+        }
+
+        DeleteFile deleteFile = Iterables.getOnlyElement(table.currentSnapshot().addedDeleteFiles(table.io()));
+        assertThat(table.specs().get(deleteFile.specId()).isUnpartitioned()).isTrue();
+    }
+
+    @Test
+    void writesOneSortedFilePerPartition() throws IOException {
+        Table table = new IcebergTableManager(iceberg.catalog()).loadOrCreate(IcebergFixture.TABLE, SCHEMA,
+                List.of(new PartitionConfig("_id", "bucket[4]")),
+                List.of(new SortFieldConfig("qty", "desc", null).withDefaults()));
+        assertThat(table.sortOrder().isSorted()).isTrue();
+
+        try (IcebergWriteManager writer = writer(table, 1)) {
+            for (int i = 0; i < 200; i++) {
+                writer.write(row(SCHEMA, "o-" + i, (i * 37) % 101));
+            }
+            writer.flush(snapshot -> { }).join();
+        }
+
+        List<DataFile> dataFiles = new ArrayList<>();
+        table.currentSnapshot().addedDataFiles(table.io()).forEach(dataFiles::add);
+        assertThat(dataFiles).hasSize(4);
+        long rows = 0;
+        for (DataFile dataFile : dataFiles) {
+            assertThat(dataFile.sortOrderId()).isEqualTo(table.sortOrder().orderId());
+            List<Integer> quantities = new ArrayList<>();
+            try (CloseableIterable<Record> records = Parquet.read(table.io().newInputFile(dataFile.location()))
+                    .project(SCHEMA)
+                    .createReaderFunc(fileSchema -> GenericParquetReaders.buildReader(SCHEMA, fileSchema))
+                    .build()) {
+                records.forEach(record -> quantities.add((Integer) record.getField("qty")));
+            }
+            assertThat(quantities).isSortedAccordingTo((a, b) -> Integer.compare(b, a));
+            rows += quantities.size();
+        }
+        assertThat(rows).isEqualTo(200);
+    }
+
+    @Test
+    void flushIsDueOnceRecordThresholdIsReached() {
+        Table table = createTable(List.of());
+
+        BatchConfig batch = new BatchConfig(2L, null, null, 1, null, null, null).withDefaults();
+        try (IcebergWriteManager writer = iceberg.writer(table, batch, IcebergWriteManager.Options.NONE)) {
+            assertThat(writer.isFlushDue()).isFalse();
+            writer.write(row(SCHEMA, "a", 1));
+            assertThat(writer.isFlushDue()).isFalse();
+            writer.delete("b");
+            assertThat(writer.isFlushDue()).isTrue();
+        }
+    }
+
+    @Test
+    void memoryBudgetForcesAFlushAndReleasesTheWaitingProducer() throws Exception {
+        Table orders = createTable(List.of());
+        Table customers = new IcebergTableManager(iceberg.catalog())
+                .loadOrCreate(TableIdentifier.of("analytics", "customers"), SCHEMA, List.of());
+        // Buffers allocate their arrays up front: four empty ones fill the budget.
+        MemoryGovernor governor = new MemoryGovernor(4 * new RecordBuffer(SCHEMA).sizeInBytes(), 50, iceberg.meterRegistry());
+        BatchConfig batch = new BatchConfig(null, null, null, 1, null, null, null).withDefaults();
+        IcebergWriteManager.Options options = IcebergWriteManager.Options.NONE.withMemory(governor);
+
+        try (IcebergWriteManager large = iceberg.writer(orders, batch, options);
+             IcebergWriteManager small = iceberg.writer(customers, batch, options)) {
+            int rows = 0;
+            while (!large.isFlushDue()) {
+                large.write(row(SCHEMA, "o-" + rows++, 1));
+            }
+            // Far below the table's own thresholds: the budget asked for the flush.
+            assertThat(rows).isLessThan(batch.maxRecords().intValue());
+            while (governor.usedBytes() < governor.budgetBytes()) {
+                large.write(row(SCHEMA, "o-" + rows++, 1));
+                assertThat(large.isFlushDue()).isTrue();
+            }
+            assertThat(small.isFlushDue()).isFalse();
+
+            // The budget is used up: the other table's producer waits until the flush frees it.
+            CompletableFuture<Snapshot> flush = CompletableFuture.supplyAsync(
+                    () -> large.flush(snapshot -> { }).join(),
+                    CompletableFuture.delayedExecutor(20, TimeUnit.MILLISECONDS));
+            small.awaitMemory();
+            flush.get(5, TimeUnit.SECONDS);
+
+            assertThat(governor.usedBytes()).isZero();
+            assertThat(large.isFlushDue()).isFalse();
+            assertThat(orders.currentSnapshot().summary()).containsEntry("total-records", String.valueOf(rows));
+            assertThat(iceberg.meterRegistry().get("sync.memory.forced.flushes").tag("table", orders.name()).counter().count())
+                    .isEqualTo(1);
+            assertThat(iceberg.meterRegistry().get("sync.memory.backpressure").tag("table", customers.name()).timer().count())
+                    .isEqualTo(1);
+        }
+    }
+
+    private IcebergWriteManager writer(Table table, int maxInFlightBatches) {
+        return iceberg.writer(table, maxInFlightBatches, IcebergWriteManager.Options.NONE);
+    }
+
+    private Table createTable(List<PartitionConfig> partitioning) {
+        return iceberg.createTable(SCHEMA, partitioning);
+    }
+}
@@ -0,0 +1,170 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import org.apache.iceberg.DataFile;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.TableProperties;
+import org.apache.iceberg.relocated.com.google.common.collect.Iterables;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static com.luketn.mongodb.iceberg.sync.iceberg.IcebergFixture.row;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdLocationIndexTest {
+
+    @TempDir
+    Path indexDirectory;
+
+    @RegisterExtension
+    final IcebergFixture iceberg = new IcebergFixture();
+
+    @Test
+    void updatesOfIndexedIdsBecomePositionDeletes() {
+        Table table = createTable("2");
+        String longId = "an-id-longer-than-twenty-four-bytes";
+        Snapshot snapshot;
+        try (IdLocationIndex index = IdLocationIndex.open(indexDirectory, table, "_id");
+             IcebergWriteManager writer = writer(table, index)) {
+            writer.write(row("a", 1));
+            writer.write(row("b", 1));
+            writer.write(row(longId, 1));
+            writer.flush(committed -> { }).join();
+
+            writer.delete("b");
+            writer.write(row("b", 2));
+            writer.delete(longId);
+            writer.delete("never-written");
+            snapshot = writer.flush(committed -> { }).join();
+
+            assertThat(index.size()).isEqualTo(2);
+            assertThat(index.lookup("b").position()).isZero();
+            assertThat(index.lookup("never-written")).isNull();
+            assertThat(deletes("position")).isEqualTo(1);
+            assertThat(deletes("equality")).isEqualTo(1);
+            assertThat(deletes("skipped")).isEqualTo(1);
+        }
+
+        assertThat(snapshot.summary())
+                .containsEntry("added-position-deletes", "1")
+                .containsEntry("added-equality-deletes", "1")
+                .containsEntry("total-records", "4");
+    }
+
+    @Test
+    void deletesSeeRowsOfBatchesThatAreNotCommittedYet() {
+        Table table = createTable("2");
+        Snapshot snapshot;
+        try (IdLocationIndex index = IdLocationIndex.open(indexDirectory, table, "_id");
+             IcebergWriteManager writer = writer(table, index)) {
+            writer.write(row("a", 1));
+            CompletableFuture<Snapshot> first = writer.flush(committed -> { });
+            writer.delete("a");
+            snapshot = writer.flush(committed -> { }).join();
+            assertThat(first).isDone();
+        }
+
+        assertThat(snapshot.summary()).containsEntry("added-position-deletes", "1");
+    }
+
+    @Test
+    void v3TablesGetDeletionVectorsMergedAcrossBatches() {
+        Table table = createTable("3");
+        try (IdLocationIndex index = IdLocationIndex.open(indexDirectory, table, "_id");
+             IcebergWriteManager writer = writer(table, index)) {
+            for (int i = 0; i < 10; i++) {
+                writer.write(row("o-" + i, 1));
+            }
+            writer.flush(committed -> { }).join();
+            DataFile dataFile = Iterables.getOnlyElement(table.currentSnapshot().addedDataFiles(table.io()));
+
+            writer.delete("o-1");
+            writer.flush(committed -> { }).join();
+            writer.delete("o-2");
+            writer.delete("o-3");
+            writer.flush(committed -> { }).join();
+
+            table.refresh();
+            assertThat(index.deletionVector(dataFile.location()).recordCount()).isEqualTo(3);
+            assertThat(deletes("vector")).isEqualTo(3);
+        }
+
+        assertThat(table.currentSnapshot().summary())
+                .containsEntry("total-position-deletes", "3")
+                .containsEntry("total-delete-files", "1");
+    }
+
+    @Test
+    void removedDataFilesFallBackToEqualityDeletesAndRebuildTheIndex() {
+        Table table = createTable("2");
+        try (IdLocationIndex index = IdLocationIndex.open(indexDirectory, table, "_id");
+             IcebergWriteManager writer = writer(table, index)) {
+            writer.write(row("a", 1));
+            writer.flush(committed -> { }).join();
+            DataFile dataFile = Iterables.getOnlyElement(table.currentSnapshot().addedDataFiles(table.io()));
+
+            // Stands in for a compaction that rewrote the file after the index was read.
+            table.newDelete().deleteFile(dataFile).commit();
+            writer.delete("a");
+            Snapshot snapshot = writer.flush(committed -> { }).join();
+
+            assertThat(snapshot.summary()).containsEntry("added-equality-deletes", "1");
+            assertThat(index.size()).isZero();
+            assertThat(index.snapshotId()).isEqualTo(snapshot.snapshotId());
+        }
+    }
+
+    @Test
+    void lostIndexIsRebuiltFromTheTable() throws IOException {
+        Table table = createTable("2");
+        try (IdLocationIndex index = IdLocationIndex.open(indexDirectory, table, "_id");
+             IcebergWriteManager writer = writer(table, index)) {
+            for (int i = 0; i < 3_000; i++) {
+                writer.write(row("o-" + i, 1));
+            }
+            writer.flush(committed -> { }).join();
+            writer.delete("o-7");
+            writer.flush(committed -> { }).join();
+        }
+        try (IdLocationIndex reopened = IdLocationIndex.open(indexDirectory, table, "_id")) {
+            assertThat(reopened.size()).isEqualTo(2_999);
+            assertThat(reopened.lookup("o-8").position()).isEqualTo(8);
+        }
+
+        try (Stream<Path> files = Files.list(indexDirectory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+
+        try (IdLocationIndex rebuilt = IdLocationIndex.open(indexDirectory, table, "_id")) {
+            assertThat(rebuilt.size()).isEqualTo(2_999);
+            assertThat(rebuilt.lookup("o-7")).isNull();
+            assertThat(rebuilt.lookup("o-8").position()).isEqualTo(8);
+            assertThat(rebuilt.snapshotId()).isEqualTo(table.currentSnapshot().snapshotId());
+        }
+    }
+
+    private Table createTable(String formatVersion) {
+        Table table = iceberg.createTable();
+        table.updateProperties().set(TableProperties.FORMAT_VERSION, formatVersion).commit();
+        return table;
+    }
+
+    private IcebergWriteManager writer(Table table, IdLocationIndex index) {
+        return iceberg.writer(table, 2, IcebergWriteManager.Options.NONE.withLocationIndex(index));
+    }
+
+    private double deletes(String type) {
+        return iceberg.meterRegistry()
+                .counter("sync.iceberg.deletes", "table", "test.analytics.orders", "type", type).count();
+    }
+}
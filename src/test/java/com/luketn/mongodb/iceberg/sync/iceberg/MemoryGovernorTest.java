@@ -0,0 +1,96 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MemoryGovernorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void asksTheTablesHoldingTheMostBytesForTheLongestToFlushFirst() throws InterruptedException {
+        MemoryGovernor governor = new MemoryGovernor(1_000, 80, meterRegistry);
+        MemoryGovernor.Reservation older = governor.reserve("db.older");
+        MemoryGovernor.Reservation newer = governor.reserve("db.newer");
+        MemoryGovernor.Reservation small = governor.reserve("db.small");
+
+        older.update(300);
+        Thread.sleep(5);
+        newer.update(300);
+        small.update(100);
+        assertThat(older.isFlushRequested()).isFalse();
+
+        small.update(250);
+
+        assertThat(governor.usedBytes()).isEqualTo(850);
+        assertThat(older.isFlushRequested()).isTrue();
+        assertThat(newer.isFlushRequested()).isFalse();
+        assertThat(small.isFlushRequested()).isFalse();
+
+        older.flushed();
+
+        assertThat(governor.usedBytes()).isEqualTo(550);
+        assertThat(older.isFlushRequested()).isFalse();
+        assertThat(meterRegistry.get("sync.memory.forced.flushes").tag("table", "db.older").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void producersWaitForRoomUntilAFlushFreesIt() throws Exception {
+        MemoryGovernor governor = new MemoryGovernor(1_000, 50, meterRegistry);
+        MemoryGovernor.Reservation large = governor.reserve("db.large");
+        MemoryGovernor.Reservation busy = governor.reserve("db.busy");
+        large.update(1_000);
+        busy.update(100);
+        assertThat(large.isFlushRequested()).isTrue();
+
+        // The table asked to flush never waits, or it could not free its memory.
+        large.awaitRoom();
+        CompletableFuture<Void> flush = CompletableFuture.runAsync(large::flushed,
+                CompletableFuture.delayedExecutor(20, TimeUnit.MILLISECONDS));
+        busy.awaitRoom();
+        flush.get(5, TimeUnit.SECONDS);
+
+        assertThat(governor.usedBytes()).isEqualTo(100);
+        assertThat(meterRegistry.get("sync.memory.backpressure").tag("table", "db.large").timer().count()).isZero();
+        assertThat(meterRegistry.get("sync.memory.backpressure").tag("table", "db.busy").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void waitsAreBoundedSoAThreadDrivingSeveralTablesCanFlushTheOthers() throws InterruptedException {
+        MemoryGovernor governor = new MemoryGovernor(1_000, 100, meterRegistry);
+        MemoryGovernor.Reservation stalled = governor.reserve("db.stalled");
+        MemoryGovernor.Reservation waiting = governor.reserve("db.waiting");
+        stalled.update(1_000);
+        waiting.update(0);
+
+        long start = System.nanoTime();
+        waiting.awaitRoom();
+
+        assertThat(System.nanoTime() - start)
+                .isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(MemoryGovernor.MAX_WAIT_MILLIS));
+    }
+
+    @Test
+    void reportsEachTablesShareAndReleasesItOnClose() {
+        MemoryGovernor governor = new MemoryGovernor(1_000, 80, meterRegistry);
+        MemoryGovernor.Reservation orders = governor.reserve("db.orders");
+        orders.update(250);
+
+        assertThat(meterRegistry.get("sync.memory.reserved").tag("table", "db.orders").gauge().value()).isEqualTo(250);
+        assertThat(meterRegistry.get("sync.memory.share").tag("table", "db.orders").gauge().value()).isEqualTo(0.25);
+        assertThat(meterRegistry.get("sync.memory.used").gauge().value()).isEqualTo(250);
+
+        orders.close();
+
+        assertThat(governor.usedBytes()).isZero();
+        assertThat(meterRegistry.find("sync.memory.reserved").tag("table", "db.orders").gauge()).isNull();
+        governor.close();
+        assertThat(meterRegistry.find("sync.memory.budget").gauge()).isNull();
+    }
+}
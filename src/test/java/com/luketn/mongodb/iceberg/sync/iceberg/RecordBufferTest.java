@@ -0,0 +1,128 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.types.Types;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RecordBufferTest {
+
+    private static final Types.StructType ADDRESS = Types.StructType.of(
+            Types.NestedField.optional(20, "city", Types.StringType.get()));
+
+    private static final Schema SCHEMA = new Schema(
+            Types.NestedField.optional(1, "id", Types.StringType.get()),
+            Types.NestedField.optional(2, "qty", Types.IntegerType.get()),
+            Types.NestedField.optional(3, "views", Types.LongType.get()),
+            Types.NestedField.optional(4, "price", Types.DoubleType.get()),
+            Types.NestedField.optional(5, "active", Types.BooleanType.get()),
+            Types.NestedField.optional(6, "total", Types.DecimalType.of(10, 2)),
+            Types.NestedField.optional(7, "created", Types.TimestampType.withZone()),
+            Types.NestedField.optional(8, "day", Types.DateType.get()),
+            Types.NestedField.optional(9, "token", Types.UUIDType.get()),
+            Types.NestedField.optional(10, "payload", Types.BinaryType.get()),
+            Types.NestedField.optional(11, "address", ADDRESS),
+            Types.NestedField.optional(12, "tags", Types.ListType.ofOptional(21, Types.StringType.get())));
+
+    @Test
+    void rowsRoundTripThroughColumns() {
+        RecordBuffer buffer = new RecordBuffer(SCHEMA);
+        GenericRecord address = GenericRecord.create(ADDRESS);
+        address.set(0, "Sydney");
+        GenericRecord full = GenericRecord.create(SCHEMA);
+        full.set(0, "a");
+        full.set(1, 7);
+        full.set(2, 9_000_000_000L);
+        full.set(3, 1.5d);
+        full.set(4, true);
+        full.set(5, new BigDecimal("123.45"));
+        full.set(6, OffsetDateTime.of(2024, 1, 15, 10, 30, 0, 123_456_000, ZoneOffset.UTC));
+        full.set(7, LocalDate.of(2024, 1, 15));
+        full.set(8, UUID.fromString("5f1d7c2e-9b1a-4e0b-8c3d-2a6f0e4b7d91"));
+        full.set(9, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        full.set(10, address);
+        full.set(11, List.of("x", "y"));
+
+        buffer.add(full);
+        buffer.add(GenericRecord.create(SCHEMA));
+        RecordBuffer.Batch batch = buffer.snapshotAndReset();
+
+        assertThat(batch.size()).isEqualTo(2);
+        Record first = batch.get(0, GenericRecord.create(SCHEMA));
+        for (int i = 0; i < SCHEMA.columns().size(); i++) {
+            assertThat(first.get(i)).as(SCHEMA.columns().get(i).name()).isEqualTo(full.get(i));
+        }
+        Record second = batch.get(1, GenericRecord.create(SCHEMA));
+        for (int i = 0; i < SCHEMA.columns().size(); i++) {
+            assertThat(second.get(i)).as(SCHEMA.columns().get(i).name()).isNull();
+        }
+    }
+
+    @Test
+    void snapshotResetsBufferAndReplaysRowsInOrder() {
+        RecordBuffer buffer = new RecordBuffer(SCHEMA);
+        GenericRecord reuse = GenericRecord.create(SCHEMA);
+        for (int i = 0; i < 5_000; i++) {
+            reuse.set(0, "id-" + i);
+            reuse.set(1, i);
+            buffer.add(reuse);
+        }
+
+        RecordBuffer.Batch batch = buffer.snapshotAndReset();
+
+        assertThat(buffer.isEmpty()).isTrue();
+        assertThat(batch.size()).isEqualTo(5_000);
+        List<Object> ids = new ArrayList<>();
+        batch.forEach(record -> ids.add(record.get(0)));
+        assertThat(ids).hasSize(5_000).startsWith("id-0", "id-1").endsWith("id-4999");
+    }
+
+    @Test
+    void repeatedStringsAreDictionaryEncoded() {
+        Schema schema = new Schema(Types.NestedField.optional(1, "status", Types.StringType.get()));
+        RecordBuffer lowCardinality = new RecordBuffer(schema);
+        RecordBuffer highCardinality = new RecordBuffer(schema);
+        GenericRecord reuse = GenericRecord.create(schema);
+        for (int i = 0; i < 100_000; i++) {
+            reuse.set(0, i % 2 == 0 ? "SHIPPED-TO-CUSTOMER" : "AWAITING-FULFILMENT");
+            lowCardinality.add(reuse);
+            reuse.set(0, "order-number-" + i);
+            highCardinality.add(reuse);
+        }
+
+        // Four bytes of dictionary code per row, plus the null bitmap and growth headroom.
+        assertThat(lowCardinality.sizeInBytes()).isLessThan(100_000L * 6);
+        assertThat(highCardinality.sizeInBytes()).isGreaterThan(100_000L * 18);
+    }
+
+    @Test
+    void sizeInBytesTracksAllocatedColumnStorage() {
+        Schema schema = new Schema(Types.NestedField.optional(1, "n", Types.LongType.get()));
+        RecordBuffer buffer = new RecordBuffer(schema);
+        long empty = buffer.sizeInBytes();
+        GenericRecord reuse = GenericRecord.create(schema);
+
+        for (long i = 0; i < ColumnVector.INITIAL_CAPACITY; i++) {
+            reuse.set(0, i);
+            buffer.add(reuse);
+        }
+        assertThat(buffer.sizeInBytes()).isEqualTo(empty);
+
+        buffer.add(reuse);
+        long nulls = (ColumnVector.INITIAL_CAPACITY + ColumnVector.INITIAL_CAPACITY / 2) / Long.SIZE * Long.BYTES;
+        long values = (ColumnVector.INITIAL_CAPACITY + ColumnVector.INITIAL_CAPACITY / 2) * (long) Long.BYTES;
+        assertThat(buffer.sizeInBytes()).isEqualTo(nulls + values);
+    }
+}
@@ -0,0 +1,117 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import org.apache.iceberg.PartitionSpec;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.SortOrder;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.types.Types;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RowLayoutTest {
+
+    private static final Schema SCHEMA = new Schema(
+            Types.NestedField.required(1, "_id", Types.StringType.get()),
+            Types.NestedField.optional(2, "region", Types.StringType.get()),
+            Types.NestedField.optional(3, "qty", Types.IntegerType.get()));
+
+    @Test
+    void rowsAreGroupedByPartitionAndSortedStablyWithinEachGroup() {
+        RecordBuffer buffer = new RecordBuffer(SCHEMA);
+        for (int row = 0; row < 100; row++) {
+            buffer.add(row(String.valueOf(row), row % 3 == 0 ? "eu" : "us", (row * 37) % 10));
+        }
+        RecordBuffer.Batch batch = buffer.snapshotAndReset();
+        PartitionSpec spec = PartitionSpec.builderFor(SCHEMA).identity("region").build();
+        SortOrder sortOrder = SortOrder.builderFor(SCHEMA).asc("qty").build();
+
+        RowLayout layout = RowLayout.plan(batch, spec, sortOrder);
+
+        assertThat(layout.sortOrder()).isEqualTo(sortOrder);
+        assertThat(layout.groups()).hasSize(2);
+        assertThat(layout.groups().get(0).partition().get(0, String.class)).isEqualTo("eu");
+        assertThat(layout.groups().get(1).partition().get(0, String.class)).isEqualTo("us");
+        int rows = 0;
+        for (RowLayout.Group group : layout.groups()) {
+            String region = group.partition().get(0, String.class);
+            Record previous = null;
+            int previousRow = -1;
+            for (int row : group.rows()) {
+                Record record = batch.get(row, GenericRecord.create(SCHEMA));
+                assertThat(record.getField("region")).isEqualTo(region);
+                if (previous != null) {
+                    int qty = (Integer) record.getField("qty");
+                    int previousQty = (Integer) previous.getField("qty");
+                    assertThat(qty).isGreaterThanOrEqualTo(previousQty);
+                    if (qty == previousQty) {
+                        // Equal keys keep their append order.
+                        assertThat(row).isGreaterThan(previousRow);
+                    }
+                }
+                previous = record;
+                previousRow = row;
+                rows++;
+            }
+        }
+        assertThat(rows).isEqualTo(100);
+    }
+
+    @Test
+    void laterSortColumnsBreakTiesOfEarlierOnes() {
+        RecordBuffer buffer = new RecordBuffer(SCHEMA);
+        buffer.add(row("a", "eu", 2));
+        buffer.add(row("b", "eu", 1));
+        buffer.add(row("c", "eu", 2));
+        buffer.add(row("d", "eu", null));
+        buffer.add(row("e", "eu", 1));
+        RecordBuffer.Batch batch = buffer.snapshotAndReset();
+        SortOrder sortOrder = SortOrder.builderFor(SCHEMA).asc("qty").desc("_id").build();
+
+        RowLayout layout = RowLayout.plan(batch, PartitionSpec.unpartitioned(), sortOrder);
+
+        assertThat(layout.sortOrder()).isEqualTo(sortOrder);
+        assertThat(layout.groups()).singleElement()
+                .satisfies(group -> assertThat(group.partition()).isNull());
+        assertThat(ids(batch, layout.groups().getFirst())).containsExactly("d", "e", "b", "c", "a");
+    }
+
+    @Test
+    void sortOrderOnAColumnTheBatchLacksLeavesRowsInAppendOrder() {
+        Schema tableSchema = new Schema(
+                Types.NestedField.required(1, "_id", Types.StringType.get()),
+                Types.NestedField.optional(2, "region", Types.StringType.get()),
+                Types.NestedField.optional(3, "qty", Types.IntegerType.get()),
+                Types.NestedField.optional(4, "priority", Types.IntegerType.get()));
+        RecordBuffer buffer = new RecordBuffer(SCHEMA);
+        buffer.add(row("b", "eu", 2));
+        buffer.add(row("a", "eu", 1));
+        RecordBuffer.Batch batch = buffer.snapshotAndReset();
+        SortOrder sortOrder = SortOrder.builderFor(tableSchema).asc("priority").asc("qty").build();
+
+        RowLayout layout = RowLayout.plan(batch, PartitionSpec.unpartitioned(), sortOrder);
+
+        assertThat(layout.sortOrder().isUnsorted()).isTrue();
+        assertThat(ids(batch, layout.groups().getFirst())).containsExactly("b", "a");
+    }
+
+    private static List<String> ids(RecordBuffer.Batch batch, RowLayout.Group group) {
+        List<String> ids = new ArrayList<>();
+        for (int row : group.rows()) {
+            ids.add((String) batch.get(row, GenericRecord.create(SCHEMA)).getField("_id"));
+        }
+        return ids;
+    }
+
+    private static GenericRecord row(String id, String region, Integer qty) {
+        GenericRecord record = GenericRecord.create(SCHEMA);
+        record.setField("_id", id);
+        record.setField("region", region);
+        record.setField("qty", qty);
+        return record;
+    }
+}
@@ -0,0 +1,119 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.config.FieldMapping;
+import com.luketn.mongodb.iceberg.sync.config.MappingConfig;
+import com.luketn.mongodb.iceberg.sync.mapping.BsonToIcebergConverter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.data.IcebergGenerics;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.inmemory.InMemoryCatalog;
+import org.apache.iceberg.io.CloseableIterable;
+import org.apache.iceberg.types.Types;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SchemaEvolverTest {
+
+    private static final Schema SCHEMA = new Schema(
+            Types.NestedField.optional(1, "_id", Types.StringType.get()),
+            Types.NestedField.optional(2, "a", Types.IntegerType.get()));
+
+    private InMemoryCatalog catalog;
+    private ExecutorService encodePool;
+
+    @BeforeEach
+    void setUp() {
+        catalog = new InMemoryCatalog();
+        catalog.initialize("test", Map.of());
+        encodePool = Executors.newFixedThreadPool(1);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        encodePool.shutdownNow();
+        catalog.close();
+    }
+
+    @Test
+    void newFieldsOfABatchAreAddedInOneSchemaUpdate() throws IOException {
+        Table table = new IcebergTableManager(catalog).loadOrCreate(TableIdentifier.of("analytics", "orders"), SCHEMA, List.of());
+        SchemaEvolver evolver = SchemaEvolver.forTable(table, new MappingConfig(MappingConfig.MODE_AUTO, List.of()));
+        BsonToIcebergConverter initial = evolver.converter();
+        int schemas = table.schemas().size();
+        List<RawBsonDocument> documents = List.of(
+                RawBsonDocument.parse("{\"_id\": \"1\", \"a\": 1}"),
+                RawBsonDocument.parse("{\"_id\": \"2\", \"a\": 2, \"b\": \"x\", \"c\": 1}"),
+                RawBsonDocument.parse("{\"_id\": \"3\", \"b\": {\"k\": 1}, \"c\": {\"$numberLong\": \"5\"}}"),
+                RawBsonDocument.parse("{\"_id\": \"4\", \"d\": null}"));
+
+        BatchConfig batch = new BatchConfig(null, null, null, null, null, null, null).withDefaults();
+        try (IcebergWriteManager writer = new IcebergWriteManager(table, "_id", batch, encodePool, new SimpleMeterRegistry(),
+                IcebergWriteManager.Options.NONE)) {
+            List<RawBsonDocument> held = new ArrayList<>();
+            for (RawBsonDocument document : documents) {
+                GenericRecord record = evolver.converter().convert(document);
+                if (record == null) {
+                    held.add(document);
+                } else {
+                    writer.write(record);
+                }
+            }
+            assertThat(held).hasSize(2);
+            assertThat(evolver.hasNewFields()).isTrue();
+
+            writer.evolveSchema(evolver.evolve());
+            for (RawBsonDocument document : held) {
+                writer.write(evolver.converter().convert(document));
+            }
+            writer.flush(snapshot -> { }).join();
+        }
+
+        assertThat(table.schemas()).hasSize(schemas + 1);
+        assertThat(table.schema().findType("b")).isEqualTo(Types.StringType.get());
+        assertThat(table.schema().findType("c")).isEqualTo(Types.LongType.get());
+        assertThat(table.schema().findField("d")).isNull();
+        assertThat(evolver.converter()).isNotSameAs(initial);
+        assertThat(evolver.hasNewFields()).isFalse();
+
+        Map<String, Record> rows = new HashMap<>();
+        try (CloseableIterable<Record> records = IcebergGenerics.read(table).build()) {
+            records.forEach(record -> rows.put((String) record.getField("_id"), record.copy()));
+        }
+        assertThat(rows).hasSize(4);
+        assertThat(rows.get("1").getField("b")).isNull();
+        assertThat(rows.get("2").getField("b")).isEqualTo("x");
+        assertThat(rows.get("2").getField("c")).isEqualTo(1L);
+        assertThat((String) rows.get("3").getField("b")).contains("\"k\"");
+        assertThat(rows.get("3").getField("c")).isEqualTo(5L);
+    }
+
+    @Test
+    void explicitMappingsNeverEvolveTheSchema() {
+        Table table = new IcebergTableManager(catalog).loadOrCreate(TableIdentifier.of("analytics", "orders"), SCHEMA, List.of());
+        SchemaEvolver evolver = SchemaEvolver.forTable(table, new MappingConfig(MappingConfig.MODE_EXPLICIT, List.of(
+                new FieldMapping("_id", "_id", "string"))));
+
+        GenericRecord record = evolver.converter().convert(RawBsonDocument.parse("{\"_id\": \"1\", \"b\": \"x\"}"));
+
+        assertThat(record).isNotNull();
+        assertThat(evolver.hasNewFields()).isFalse();
+        assertThat(evolver.evolve().schemaId()).isEqualTo(table.schema().schemaId());
+    }
+}
@@ -0,0 +1,193 @@
+package com.luketn.mongodb.iceberg.sync.iceberg;
+
+import com.luketn.mongodb.iceberg.sync.metrics.BatchTrace;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Snapshot;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.types.Types;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.luketn.mongodb.iceberg.sync.iceberg.IcebergFixture.row;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WriteAheadLogTest {
+
+    private static final Schema SCHEMA = new Schema(
+            Types.NestedField.required(1, "_id", Types.StringType.get()),
+            Types.NestedField.optional(2, "qty", Types.IntegerType.get()),
+            Types.NestedField.optional(3, "tags", Types.ListType.ofOptional(4, Types.StringType.get())));
+
+    @TempDir
+    Path directory;
+
+    @RegisterExtension
+    final IcebergFixture iceberg = new IcebergFixture();
+
+    @Test
+    void recordsSurviveReopeningAndFreeTheBudgetWhenRemoved() throws InterruptedException {
+        Table table = createTable();
+        WalBudget budget = new WalBudget(1 << 20);
+        String id;
+        try (WriteAheadLog wal = WriteAheadLog.open(directory, table, 4096, budget)) {
+            id = wal.id();
+            for (long sequence = 1; sequence <= 3; sequence++) {
+                wal.append(sequence, entry(Map.of("k", "v" + sequence), "o-" + sequence, 2));
+            }
+            assertThat(budget.usedBytes()).isEqualTo(wal.sizeInBytes()).isPositive();
+        }
+        assertThat(budget.usedBytes()).isZero();
+
+        try (WriteAheadLog wal = WriteAheadLog.open(directory, table, 4096, budget)) {
+            assertThat(wal.id()).isEqualTo(id);
+            assertThat(wal.sequences()).containsExactly(1L, 2L, 3L);
+
+            WriteAheadLog.Entry entry = wal.read(2);
+            assertThat(entry.properties()).containsExactly(Map.entry("k", "v2"));
+            assertThat(entry.rows().size()).isEqualTo(2);
+            Record row = entry.rows().get(1, GenericRecord.create(SCHEMA));
+            assertThat(row.getField("_id")).isEqualTo("o-2-1");
+            assertThat(row.getField("tags")).isEqualTo(List.of("a", "b"));
+            assertThat(entry.deletes().size()).isEqualTo(1);
+
+            wal.remove(1);
+            wal.remove(2);
+            wal.remove(3);
+            assertThat(wal.size()).isZero();
+            assertThat(budget.usedBytes()).isZero();
+        }
+    }
+
+    @Test
+    void replaysTheBatchesTheTableDoesNotHaveOnStartup() throws InterruptedException {
+        Table table = createTable();
+        WalBudget budget = new WalBudget(1 << 20);
+        try (WriteAheadLog wal = WriteAheadLog.open(directory, table, 1 << 16, budget)) {
+            for (long sequence = 1; sequence <= 3; sequence++) {
+                wal.append(sequence, entry(Map.of(WalQueue.SEQUENCE_PROPERTY, wal.id() + ":" + sequence), "o-" + sequence, 5));
+            }
+            // The first batch was committed before the process stopped.
+            table.newAppend().set(WalQueue.SEQUENCE_PROPERTY, wal.id() + ":1").commit();
+        }
+
+        WriteAheadLog wal = WriteAheadLog.open(directory, table, 1 << 16, budget);
+        String id = wal.id();
+        try (IcebergWriteManager writer = writer(table, wal)) {
+            writer.awaitReplay();
+            table.refresh();
+            assertThat(table.currentSnapshot().summary())
+                    .containsEntry(WalQueue.SEQUENCE_PROPERTY, id + ":3")
+                    .containsEntry("total-records", "10");
+            assertThat(wal.size()).isZero();
+
+            for (int row = 0; row < 5; row++) {
+                writer.write(row(SCHEMA, "o-4-" + row, row));
+            }
+            writer.flush(snapshot -> { });
+            writer.awaitCommits();
+        }
+
+        assertThat(table.currentSnapshot().summary())
+                .containsEntry(WalQueue.SEQUENCE_PROPERTY, id + ":4")
+                .containsEntry("total-records", "15");
+        assertThat(budget.usedBytes()).isZero();
+    }
+
+    @Test
+    void batchesPastTheInFlightLimitAreCommittedInFlushOrder() {
+        Table table = createTable();
+        WalBudget budget = new WalBudget(1 << 20);
+        WriteAheadLog wal = WriteAheadLog.open(directory, table, 1 << 16, budget);
+
+        try (IcebergWriteManager writer = writer(table, wal)) {
+            for (int batch = 1; batch <= 6; batch++) {
+                for (int row = 0; row < 10; row++) {
+                    writer.write(row(SCHEMA, "o-" + batch + "-" + row, row));
+                }
+                writer.flush(Map.of("batch", String.valueOf(batch)), snapshot -> { });
+            }
+            writer.awaitCommits();
+            assertThat(iceberg.meterRegistry().get("sync.wal.batches").gauge().value()).isZero();
+        }
+
+        assertThat(table.currentSnapshot().summary())
+                .containsEntry("batch", "6")
+                .containsEntry("total-records", "60");
+        assertThat(budget.usedBytes()).isZero();
+    }
+
+    @Test
+    void batchesHeldInMemoryAreLoggedBeforeTheyAreSubmitted() throws InterruptedException {
+        Table table = createTable();
+        WriteAheadLog wal = WriteAheadLog.open(directory, table, 1 << 16, new WalBudget(1 << 20));
+        CompletableFuture<Snapshot> stalled = new CompletableFuture<>();
+        List<Boolean> loggedWhenSubmitted = new CopyOnWriteArrayList<>();
+        WalQueue.Pipeline pipeline = new WalQueue.Pipeline() {
+            @Override
+            public CompletableFuture<Snapshot> submit(RecordBuffer.Batch rows, RecordBuffer.Batch deletes,
+                    Map<String, String> properties, BatchTrace trace, IcebergWriteManager.CommitListener listener) {
+                String marker = properties.get(WalQueue.SEQUENCE_PROPERTY);
+                long sequence = Long.parseLong(marker.substring(marker.indexOf(':') + 1));
+                loggedWhenSubmitted.add(wal.sequences().contains(sequence));
+                return stalled;
+            }
+
+            @Override
+            public void reset() {
+            }
+        };
+
+        try (WalQueue queue = new WalQueue(table, wal, pipeline, 2, iceberg.meterRegistry())) {
+            for (int batch = 1; batch <= 3; batch++) {
+                WriteAheadLog.Entry entry = entry(Map.of(), "o-" + batch, 5);
+                queue.enqueue(entry.rows(), entry.deletes(), Map.of("batch", String.valueOf(batch)),
+                        BatchTrace.untracked(), snapshot -> { });
+            }
+            // Batches 1 and 2 are held in memory, 3 only in the log; the catalog never answers.
+            assertThat(wal.sequences()).containsExactly(1L, 2L, 3L);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (loggedWhenSubmitted.size() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(loggedWhenSubmitted).containsExactly(true, true, true);
+            stalled.completeExceptionally(new IllegalStateException("catalog unavailable"));
+        }
+
+        // A crash at this point replays every batch without a gap.
+        try (WriteAheadLog reopened = WriteAheadLog.open(directory, table, 1 << 16, new WalBudget(1 << 20))) {
+            assertThat(reopened.sequences()).containsExactly(1L, 2L, 3L);
+        }
+    }
+
+    private IcebergWriteManager writer(Table table, WriteAheadLog wal) {
+        return iceberg.writer(table, IcebergWriteManager.Options.NONE.withWal(wal));
+    }
+
+    private Table createTable() {
+        return iceberg.createTable(SCHEMA, List.of());
+    }
+
+    private static WriteAheadLog.Entry entry(Map<String, String> properties, String prefix, int rows) {
+        RecordBuffer buffer = new RecordBuffer(SCHEMA);
+        for (int row = 0; row < rows; row++) {
+            GenericRecord record = row(SCHEMA, prefix + "-" + row, row);
+            record.setField("tags", List.of("a", "b"));
+            buffer.add(record);
+        }
+        Schema deleteSchema = SCHEMA.select("_id");
+        RecordBuffer deletes = new RecordBuffer(deleteSchema);
+        GenericRecord deleted = GenericRecord.create(deleteSchema);
+        deleted.setField("_id", "gone");
+        deletes.add(deleted);
+        return new WriteAheadLog.Entry(properties, buffer.snapshotAndReset(), deletes.snapshotAndReset());
+    }
+}
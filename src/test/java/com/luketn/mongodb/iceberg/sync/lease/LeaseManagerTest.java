@@ -0,0 +1,135 @@
+package com.luketn.mongodb.iceberg.sync.lease;
+
+import com.luketn.mongodb.iceberg.sync.config.LeaseConfig;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.Table;
+import org.apache.iceberg.catalog.Namespace;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.hadoop.HadoopCatalog;
+import org.apache.iceberg.types.Types;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LeaseManagerTest {
+
+    private static final List<String> SYNC_IDS = List.of(
+            "analytics.a", "analytics.b", "analytics.c", "analytics.d", "analytics.e", "analytics.f");
+
+    @TempDir
+    Path warehouse;
+
+    // A file-system catalog, so lease commits go through the same optimistic metadata swap
+    // as against a shared warehouse.
+    private HadoopCatalog catalog;
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+    @BeforeEach
+    void setUp() {
+        catalog = new HadoopCatalog(new Configuration(), warehouse.toString());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        catalog.close();
+    }
+
+    @Test
+    void instancesSplitTheCollectionsAndTakeOverFromADeadInstance() {
+        RecordingListener listenerA = new RecordingListener();
+        LeaseManager a = manager("a", listenerA);
+        a.renew();
+        assertThat(a.held()).containsExactlyInAnyOrderElementsOf(SYNC_IDS);
+
+        RecordingListener listenerC = new RecordingListener();
+        LeaseManager b = manager("b", new RecordingListener());
+        LeaseManager c = manager("c", listenerC);
+        for (int round = 0; round < 20; round++) {
+            a.renew();
+            b.renew();
+            c.renew();
+            clock.addAndGet(1_000);
+        }
+        assertThat(a.held()).hasSize(2);
+        assertThat(b.held()).hasSize(2);
+        assertThat(c.held()).hasSize(2);
+        Set<String> all = new HashSet<>(a.held());
+        all.addAll(b.held());
+        all.addAll(c.held());
+        assertThat(all).containsExactlyInAnyOrderElementsOf(SYNC_IDS);
+        assertThat(listenerA.revoked).hasSize(4);
+
+        // c stops renewing; its leases and heartbeat lapse after the 30 second ttl.
+        Map<String, Long> epochsOfC = new HashMap<>();
+        c.held().forEach(syncId -> epochsOfC.put(syncId, listenerC.acquired.get(syncId)));
+        for (int step = 0; step < 5; step++) {
+            clock.addAndGet(10_000);
+            a.renew();
+            b.renew();
+        }
+        assertThat(a.held()).hasSize(3);
+        assertThat(b.held()).hasSize(3);
+        LeaseView view = new LeaseStore(catalog).read();
+        epochsOfC.forEach((syncId, epoch) -> {
+            assertThat(view.lease(syncId).owner()).isIn("a", "b");
+            assertThat(view.lease(syncId).epoch()).isGreaterThan(epoch);
+        });
+    }
+
+    @Test
+    void aFencedTableRejectsCommitsOfTheEarlierHolder() {
+        catalog.createNamespace(Namespace.of("analytics"));
+        TableIdentifier id = TableIdentifier.of("analytics", "orders");
+        catalog.createTable(id, new Schema(Types.NestedField.optional(1, "_id", Types.StringType.get())));
+
+        Table first = Fencing.fence(catalog.loadTable(id), 1);
+        first.newAppend().set("k", "1").commit();
+        Table second = Fencing.fence(catalog.loadTable(id), 2);
+
+        assertThatThrownBy(() -> first.newAppend().set("k", "2").commit()).isInstanceOf(FencedException.class);
+        second.newAppend().set("k", "3").commit();
+        assertThat(Fencing.epoch(catalog.loadTable(id))).isEqualTo(2);
+        assertThatThrownBy(() -> Fencing.fence(catalog.loadTable(id), 1)).isInstanceOf(FencedException.class);
+    }
+
+    private LeaseManager manager(String instanceId, LeaseListener listener) {
+        return new LeaseManager(new LeaseStore(catalog), new LeaseConfig(true, instanceId, 30, 10),
+                SYNC_IDS, listener, syncId -> 0, clock::get);
+    }
+
+    private static final class RecordingListener implements LeaseListener {
+
+        private final Map<String, Long> acquired = new HashMap<>();
+        private final Set<String> revoked = new HashSet<>();
+
+        @Override
+        public void acquired(Lease lease) {
+            acquired.put(lease.syncId(), lease.epoch());
+        }
+
+        @Override
+        public CompletableFuture<Void> revoke(Lease lease) {
+            revoked.add(lease.syncId());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void lost(Lease lease) {
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.luketn.mongodb.iceberg.sync.mapping;
+
+import com.luketn.mongodb.iceberg.sync.config.FieldMapping;
+import com.luketn.mongodb.iceberg.sync.config.MappingConfig;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.data.GenericRecord;
+import org.apache.iceberg.data.Record;
+import org.apache.iceberg.types.Types;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BsonToIcebergConverterTest {
+
+    private static final RawBsonDocument ORDER = RawBsonDocument.parse("""
+            {
+              "_id": {"$oid": "65a1b2c3d4e5f60718293a4b"},
+              "orderDate": {"$date": "2024-01-15T10:30:00Z"},
+              "customer": {"name": "Ada", "address": {"city": "Sydney", "lines": ["1 Main St"]}},
+              "items": [{"sku": "A1", "qty": 2}, {"sku": "B2", "qty": 1}],
+              "total": {"$numberDecimal": "123.45"},
+              "notes": "unmapped",
+              "audit": {"history": [{"at": 1}, {"at": 2}]}
+            }
+            """);
+
+    @Test
+    void explicitModeReadsOnlyConfiguredPaths() {
+        Schema schema = new Schema(
+                Types.NestedField.optional(1, "id", Types.StringType.get()),
+                Types.NestedField.optional(2, "order_date", Types.TimestampType.withZone()),
+                Types.NestedField.optional(3, "customer_name", Types.StringType.get()),
+                Types.NestedField.optional(4, "city", Types.StringType.get()),
+                Types.NestedField.optional(5, "total", Types.DecimalType.of(10, 2)));
+        MappingConfig mapping = new MappingConfig(MappingConfig.MODE_EXPLICIT, List.of(
+                new FieldMapping("_id", "id", "string"),
+                new FieldMapping("orderDate", "order_date", "timestamp"),
+                new FieldMapping("customer.name", "customer_name", "string"),
+                new FieldMapping("customer.address.city", "city", "string"),
+                new FieldMapping("total", "total", "decimal")));
+
+        Record record = BsonToIcebergConverter.forMapping(schema, mapping).convert(ORDER);
+
+        assertThat(record.getField("id")).isEqualTo("65a1b2c3d4e5f60718293a4b");
+        assertThat(record.getField("order_date"))
+                .isEqualTo(OffsetDateTime.of(2024, 1, 15, 10, 30, 0, 0, ZoneOffset.UTC));
+        assertThat(record.getField("customer_name")).isEqualTo("Ada");
+        assertThat(record.getField("city")).isEqualTo("Sydney");
+        assertThat(record.getField("total")).isEqualTo(new BigDecimal("123.45"));
+    }
+
+    @Test
+    void pathMappedAsWholeAndThroughNestedFieldIsReadTwice() {
+        Schema schema = new Schema(
+                Types.NestedField.optional(1, "customer", Types.StringType.get()),
+                Types.NestedField.optional(2, "customer_name", Types.StringType.get()));
+        MappingConfig mapping = new MappingConfig(MappingConfig.MODE_EXPLICIT, List.of(
+                new FieldMapping("customer", "customer", null),
+                new FieldMapping("customer.name", "customer_name", null)));
+
+        Record record = BsonToIcebergConverter.forMapping(schema, mapping).convert(ORDER);
+
+        assertThat((String) record.getField("customer")).startsWith("{\"name\": \"Ada\"");
+        assertThat(record.getField("customer_name")).isEqualTo("Ada");
+    }
+
+    @Test
+    void autoModeReadsNestedStructsAndLists() {
+        Types.StructType item = Types.StructType.of(
+                Types.NestedField.optional(10, "sku", Types.StringType.get()),
+                Types.NestedField.optional(11, "qty", Types.IntegerType.get()));
+        Schema schema = new Schema(
+                Types.NestedField.optional(1, "_id", Types.StringType.get()),
+                Types.NestedField.optional(2, "items", Types.ListType.ofOptional(12, item)),
+                Types.NestedField.optional(3, "customer", Types.StructType.of(
+                        Types.NestedField.optional(13, "name", Types.StringType.get()))),
+                Types.NestedField.optional(4, "missing", Types.LongType.get()));
+        MappingConfig mapping = new MappingConfig(MappingConfig.MODE_AUTO, List.of());
+
+        Record record = BsonToIcebergConverter.forMapping(schema, mapping).convert(ORDER);
+
+        assertThat(record.getField("_id")).isEqualTo("65a1b2c3d4e5f60718293a4b");
+        List<?> items = (List<?>) record.getField("items");
+        assertThat(items).hasSize(2);
+        assertThat(((Record) items.get(0)).getField("sku")).isEqualTo("A1");
+        assertThat(((Record) items.get(1)).getField("qty")).isEqualTo(1);
+        assertThat(((Record) record.getField("customer")).getField("name")).isEqualTo("Ada");
+        assertThat(record.getField("missing")).isNull();
+    }
+
+    @Test
+    void incompatibleValuesBecomeNullAndConflictsPromoteToString() {
+        Schema schema = new Schema(
+                Types.NestedField.optional(1, "total", Types.IntegerType.get()),
+                Types.NestedField.optional(2, "items", Types.StringType.get()));
+        MappingConfig mapping = new MappingConfig(MappingConfig.MODE_AUTO, List.of());
+
+        Record record = BsonToIcebergConverter.forMapping(schema, mapping).convert(ORDER);
+
+        assertThat(record.getField("total")).isNull();
+        assertThat((String) record.getField("items")).startsWith("[{\"sku\": \"A1\"");
+    }
+
+    @Test
+    void numbersNarrowOnlyWhenTheyFitAndDroppedValuesAreCounted() {
+        Schema schema = new Schema(
+                Types.NestedField.optional(1, "a", Types.IntegerType.get()),
+                Types.NestedField.optional(2, "b", Types.IntegerType.get()),
+                Types.NestedField.optional(3, "c", Types.LongType.get()),
+                Types.NestedField.optional(4, "d", Types.IntegerType.get()),
+                Types.NestedField.optional(5, "e", Types.LongType.get()),
+                Types.NestedField.optional(6, "f", Types.IntegerType.get()));
+        BsonToIcebergConverter converter = BsonToIcebergConverter.forMapping(
+                schema, new MappingConfig(MappingConfig.MODE_AUTO, List.of()));
+
+        Record record = converter.convert(RawBsonDocument.parse("""
+                {"a": {"$numberLong": "42"}, "b": 7.0, "c": {"$numberDecimal": "9000000000"},
+                 "d": {"$numberLong": "4294967296"}, "e": 9.223372036854775807E18, "f": 1.5}
+                """));
+
+        assertThat(record.getField("a")).isEqualTo(42);
+        assertThat(record.getField("b")).isEqualTo(7);
+        assertThat(record.getField("c")).isEqualTo(9_000_000_000L);
+        assertThat(record.getField("d")).isNull();
+        assertThat(record.getField("e")).isNull();
+        assertThat(record.getField("f")).isNull();
+        assertThat(converter.droppedValues()).isEqualTo(3);
+
+        converter.convert(RawBsonDocument.parse("{\"a\": null, \"f\": \"x\"}"));
+        assertThat(converter.droppedValues()).isEqualTo(4);
+    }
+
+    @Test
+    void arraysOfScalarsArePromotedToTheirJson() {
+        Schema schema = new Schema(Types.NestedField.optional(1, "tags", Types.StringType.get()));
+        BsonToIcebergConverter converter = BsonToIcebergConverter.forMapping(
+                schema, new MappingConfig(MappingConfig.MODE_AUTO, List.of()));
+
+        Record record = converter.convert(RawBsonDocument.parse("""
+                {"tags": ["a", 1, {"$numberLong": "2"}, {"$date": "2024-01-15T10:30:00Z"}]}
+                """));
+
+        assertThat(record.getField("tags"))
+                .isEqualTo("[\"a\", 1, 2, {\"$date\": \"2024-01-15T10:30:00Z\"}]");
+        assertThat(converter.droppedValues()).isZero();
+    }
+
+    @Test
+    void reusedRecordIsClearedBetweenDocuments() {
+        Schema schema = new Schema(
+                Types.NestedField.optional(1, "a", Types.IntegerType.get()),
+                Types.NestedField.optional(2, "b", Types.IntegerType.get()));
+        BsonToIcebergConverter converter = BsonToIcebergConverter.forMapping(
+                schema, new MappingConfig(MappingConfig.MODE_AUTO, List.of()));
+        GenericRecord reuse = GenericRecord.create(schema);
+
+        converter.convert(RawBsonDocument.parse("{\"a\": 1, \"b\": 2}"), reuse);
+        converter.convert(RawBsonDocument.parse("{\"a\": 3}"), reuse);
+
+        assertThat(reuse.getField("a")).isEqualTo(3);
+        assertThat(reuse.getField("b")).isNull();
+    }
+
+    @Test
+    void unknownTargetColumnIsRejected() {
+        Schema schema = new Schema(Types.NestedField.optional(1, "id", Types.StringType.get()));
+        MappingConfig mapping = new MappingConfig(MappingConfig.MODE_EXPLICIT, List.of(
+                new FieldMapping("_id", "missing", null)));
+
+        assertThatThrownBy(() -> BsonToIcebergConverter.forMapping(schema, mapping))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("missing");
+    }
+}
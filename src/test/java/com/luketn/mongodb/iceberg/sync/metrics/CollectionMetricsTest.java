@@ -0,0 +1,102 @@
+package com.luketn.mongodb.iceberg.sync.metrics;
+
+import com.luketn.mongodb.iceberg.sync.config.StatusConfig;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergFixture;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergWriteManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.apache.iceberg.Table;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.luketn.mongodb.iceberg.sync.iceberg.IcebergFixture.row;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CollectionMetricsTest {
+
+    @RegisterExtension
+    final IcebergFixture iceberg = new IcebergFixture();
+
+    @Test
+    void committedBatchRecordsItsStagesAndLag() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        CollectionMetrics metrics = new CollectionMetrics("orders", meterRegistry);
+        long now = System.currentTimeMillis();
+
+        BatchTrace trace = metrics.newBatch(now - 5_000, now - 1_000, TimeUnit.MILLISECONDS.toNanos(4_000));
+        trace.addDecode(TimeUnit.MILLISECONDS.toNanos(3));
+        assertThat(metrics.currentLagMillis(now)).isEqualTo(5_000);
+        commit(meterRegistry, trace);
+
+        assertThat(metrics.currentLagMillis(System.currentTimeMillis())).isZero();
+        Timer lag = meterRegistry.get("sync.lag").tag("collection", "orders").timer();
+        assertThat(lag.count()).isEqualTo(1);
+        assertThat(lag.totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(5_000);
+        for (CollectionMetrics.Stage stage : CollectionMetrics.Stage.values()) {
+            assertThat(stage(meterRegistry, stage).count()).as(stage.tag()).isEqualTo(1);
+        }
+        assertThat(stage(meterRegistry, CollectionMetrics.Stage.BUFFER).totalTime(TimeUnit.MILLISECONDS))
+                .isEqualTo(4_000);
+
+        CollectionStatus status = metrics.status("STEADY_STATE");
+        assertThat(status.batchesCommitted()).isEqualTo(1);
+        assertThat(status.batchesInFlight()).isZero();
+        assertThat(status.committedThrough()).isNotNull();
+    }
+
+    @Test
+    void statusEndpointServesPrometheusMetricsAndCollectionStatus() throws Exception {
+        PrometheusMeterRegistry prometheus = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        CollectionMetrics metrics = new CollectionMetrics("orders", prometheus);
+        long now = System.currentTimeMillis();
+        commit(prometheus, metrics.newBatch(now - 2_000, now - 2_000, 1));
+
+        StatusConfig config = new StatusConfig(true, "127.0.0.1", 0).withDefaults();
+        try (StatusServer server = new StatusServer(config, prometheus, () -> List.of(metrics.status("STEADY_STATE")));
+             HttpClient client = HttpClient.newHttpClient()) {
+            server.start();
+            String scrape = get(client, server, "/metrics");
+            String status = get(client, server, "/status");
+
+            assertThat(scrape).contains("sync_lag_seconds_bucket{collection=\"orders\"");
+            assertThat(scrape).contains("sync_stage_duration_seconds_count{collection=\"orders\",stage=\"commit\"}");
+            assertThat(scrape).contains("sync_lag_current_seconds{collection=\"orders\"}");
+            assertThat(status).contains("\"collection\":\"orders\"", "\"state\":\"STEADY_STATE\"",
+                    "\"batchesCommitted\":1");
+        }
+    }
+
+    private void commit(MeterRegistry meterRegistry, BatchTrace trace) {
+        Table table = iceberg.createTable();
+        try (IcebergWriteManager writer = iceberg.writer(table, meterRegistry, IcebergWriteManager.Options.NONE)) {
+            writer.delete("a");
+            writer.write(row("a", 1));
+            // The listener stands in for persisting the checkpoint.
+            writer.flush(Map.of(), trace, snapshot -> LockSupport.parkNanos(1_000_000)).join();
+        }
+    }
+
+    private static Timer stage(MeterRegistry meterRegistry, CollectionMetrics.Stage stage) {
+        return meterRegistry.get("sync.stage.duration").tag("collection", "orders").tag("stage", stage.tag()).timer();
+    }
+
+    private static String get(HttpClient client, StatusServer server, String path) throws Exception {
+        HttpResponse<String> response = client.send(
+                HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.port() + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).isEqualTo(200);
+        return response.body();
+    }
+}
@@ -0,0 +1,140 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChangeEventCoalescerTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private ChangeEventCoalescer coalescer;
+    private RecordingOutput output;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        coalescer = new ChangeEventCoalescer("orders", meterRegistry);
+        output = new RecordingOutput();
+    }
+
+    @Test
+    void repeatedUpdatesKeepOnlyTheLatestImage() {
+        for (int version = 1; version <= 50; version++) {
+            coalescer.upsert(key("{\"$oid\": \"65a1b2c3d4e5f60718293a4b\"}"),
+                    document("{\"$oid\": \"65a1b2c3d4e5f60718293a4b\"}", version));
+        }
+
+        coalescer.drain(output);
+
+        assertThat(output.operations).containsExactly("upsert+delete v50");
+        assertThat(meterRegistry.summary("sync.changestream.coalesce.ratio", "collection", "orders").max())
+                .isEqualTo(25.0);
+        assertThat(meterRegistry.counter("sync.changestream.events.processed", "collection", "orders").count())
+                .isEqualTo(50);
+    }
+
+    @Test
+    void newInsertFollowedByDeleteCancelsOut() {
+        coalescer.insert(key("1"), document("1", 1), true);
+        coalescer.upsert(key("1"), document("1", 2));
+        coalescer.delete(key("1"));
+
+        coalescer.drain(output);
+
+        assertThat(output.operations).isEmpty();
+    }
+
+    @Test
+    void replayedInsertFollowedByDeleteStillDeletes() {
+        coalescer.insert(key("1"), document("1", 1), false);
+        coalescer.delete(key("1"));
+
+        coalescer.drain(output);
+
+        assertThat(output.operations).containsExactly("delete {\"_id\": 1}");
+    }
+
+    @Test
+    void newInsertNeedsNoDeleteUnlessItIsDeletedAndReinserted() {
+        coalescer.insert(key("1"), document("1", 1), true);
+        coalescer.insert(key("2"), document("2", 1), true);
+        coalescer.upsert(key("2"), document("2", 2));
+        coalescer.delete(key("3"));
+        coalescer.insert(key("3"), document("3", 1), true);
+
+        coalescer.drain(output);
+
+        assertThat(output.operations).containsExactly("upsert v1", "upsert v2", "upsert+delete v1");
+    }
+
+    @Test
+    void deferredUpdatesAreResolvedOrDeleteTheRow() {
+        coalescer.insert(key("1"), document("1", 1), true);
+        coalescer.deferUpdate(key("1"));
+        coalescer.deferUpdate(key("2"));
+        coalescer.resolve(key("1"), document("1", 2));
+        coalescer.unchanged();
+
+        coalescer.drain(output);
+
+        assertThat(output.operations).containsExactly("upsert v2", "delete {\"_id\": 2}");
+        assertThat(meterRegistry.counter("sync.changestream.events.processed", "collection", "orders").count())
+                .isEqualTo(4);
+    }
+
+    @Test
+    void idsOfDifferentTypesAreDistinct() {
+        coalescer.upsert(key("1"), document("1", 1));
+        coalescer.upsert(key("{\"$numberLong\": \"1\"}"), document("{\"$numberLong\": \"1\"}", 1));
+        coalescer.upsert(key("\"1\""), document("\"1\"", 1));
+
+        assertThat(coalescer.size()).isEqualTo(3);
+    }
+
+    @Test
+    void windowGrowsPastItsInitialCapacityAndIsClearedByDrain() {
+        for (int i = 0; i < 5_000; i++) {
+            coalescer.upsert(key(Integer.toString(i)), document(Integer.toString(i), 1));
+        }
+        for (int i = 0; i < 5_000; i++) {
+            coalescer.upsert(key(Integer.toString(i)), document(Integer.toString(i), 2));
+        }
+        assertThat(coalescer.size()).isEqualTo(5_000);
+        assertThat(coalescer.eventCount()).isEqualTo(10_000);
+
+        coalescer.drain(output);
+
+        assertThat(output.operations).hasSize(5_000).allMatch(operation -> operation.equals("upsert+delete v2"));
+        assertThat(coalescer.size()).isZero();
+        assertThat(coalescer.sizeInBytes()).isZero();
+    }
+
+    private static RawBsonDocument key(String idJson) {
+        return RawBsonDocument.parse("{\"_id\": " + idJson + "}");
+    }
+
+    private static RawBsonDocument document(String idJson, int version) {
+        return RawBsonDocument.parse("{\"_id\": " + idJson + ", \"v\": " + version + "}");
+    }
+
+    private static final class RecordingOutput implements ChangeEventCoalescer.Output {
+
+        private final List<String> operations = new ArrayList<>();
+
+        @Override
+        public void upsert(RawBsonDocument fullDocument, boolean deleteExisting) {
+            operations.add((deleteExisting ? "upsert+delete v" : "upsert v") + fullDocument.getInt32("v").getValue());
+        }
+
+        @Override
+        public void delete(RawBsonDocument documentKey) {
+            operations.add("delete " + documentKey.toJson());
+        }
+    }
+}
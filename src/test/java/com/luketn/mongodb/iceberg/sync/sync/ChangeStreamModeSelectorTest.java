@@ -0,0 +1,42 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.config.FieldMapping;
+import com.luketn.mongodb.iceberg.sync.config.MappingConfig;
+import com.luketn.mongodb.iceberg.sync.sync.ChangeStreamModeSelector.CollectionProfile;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChangeStreamModeSelectorTest {
+
+    // _id, status and total: three top-level fields.
+    private final FieldProjection projection = FieldProjection.forMapping(new MappingConfig("explicit", List.of(
+            new FieldMapping("status", "status", null),
+            new FieldMapping("total", "total", null))));
+
+    @Test
+    void projectsWhenTheMappingReadsAFewFieldsOfEachDocument() {
+        assertThat(ChangeStreamModeSelector.choose(projection, new CollectionProfile(2_000, 12)))
+                .isEqualTo(ChangeStreamMode.PROJECTED);
+    }
+
+    @Test
+    void followsFullDocumentsWhenTheMappingReadsMostOfThem() {
+        assertThat(ChangeStreamModeSelector.choose(projection, new CollectionProfile(2_000, 4)))
+                .isEqualTo(ChangeStreamMode.FULL_DOCUMENT);
+    }
+
+    @Test
+    void projectsLargeDocumentsEvenWhenMostFieldsAreMapped() {
+        assertThat(ChangeStreamModeSelector.choose(projection, new CollectionProfile(64 * 1024, 4)))
+                .isEqualTo(ChangeStreamMode.PROJECTED);
+    }
+
+    @Test
+    void projectsAnEmptyCollection() {
+        assertThat(ChangeStreamModeSelector.choose(projection, new CollectionProfile(0, 0)))
+                .isEqualTo(ChangeStreamMode.PROJECTED);
+    }
+}
@@ -0,0 +1,310 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.config.FieldMapping;
+import com.luketn.mongodb.iceberg.sync.config.MappingConfig;
+import com.luketn.mongodb.iceberg.sync.metrics.BatchTrace;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Testcontainers(disabledWithoutDocker = true)
+class ChangeStreamSyncManagerTest {
+
+    private static final Codec<ChangeStreamDocument<RawBsonDocument>> EVENT_CODEC =
+            ChangeStreamDocument.createCodec(RawBsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    private static final BsonDocumentCodec DOCUMENT_CODEC = new BsonDocumentCodec();
+    private static final String DATABASE = "changes";
+    private static final FieldProjection FIELDS = FieldProjection.forMapping(new MappingConfig("explicit", List.of(
+            new FieldMapping("status", "status", null),
+            new FieldMapping("qty", "qty", null))));
+
+    @Container
+    static final MongoDBContainer mongo = new MongoDBContainer("mongo:7.0");
+
+    private static MongoClient client;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BatchConfig batch = new BatchConfig(null, null, null, null, null, null, null).withDefaults();
+
+    @BeforeAll
+    static void setUp() {
+        client = MongoClients.create(mongo.getReplicaSetUrl());
+    }
+
+    @AfterAll
+    static void tearDown() {
+        client.close();
+    }
+
+    @Test
+    void updatesAreResolvedFromPostImagesCachedImagesAndOneBatchedLookup() {
+        MongoCollection<RawBsonDocument> collection = collection("resolve");
+        collection.insertOne(raw(order(3, "looked-up", 3).append("notes", new BsonString("not mapped"))));
+        RecordingSink sink = new RecordingSink();
+        ChangeStreamSyncManager manager = new ChangeStreamSyncManager("resolve", collection, batch, sink,
+                meterRegistry, new ChangeStreamSyncManager.Projection(FIELDS, true, 10));
+
+        manager.run(checkpoint("resolve"), null, new ScriptedSource(manager, List.of(
+                insert(1, order(1, "new", 1)),
+                update(2, 1, new BsonDocument("status", new BsonString("paid"))),
+                postImage(3, order(2, "shipped", 2)),
+                update(4, 3, new BsonDocument("status", new BsonString("stale"))),
+                update(5, 1, new BsonDocument("notes", new BsonString("not mapped"))))));
+
+        assertThat(sink.upserts).containsOnly(
+                Map.entry(new BsonInt32(1), order(1, "paid", 1)),
+                Map.entry(new BsonInt32(2), order(2, "shipped", 2)),
+                // The lookup reads the projected document as it is now, not the event's change.
+                Map.entry(new BsonInt32(3), order(3, "looked-up", 3)));
+        assertThat(resolutions("applied")).isEqualTo(1);
+        assertThat(resolutions("post-image")).isEqualTo(1);
+        assertThat(resolutions("lookup")).isEqualTo(1);
+        assertThat(resolutions("unchanged")).isEqualTo(1);
+        assertThat(sink.checkpoints).hasSize(1);
+        assertThat(sink.checkpoints.getFirst().resumeToken()).isEqualTo(token(5).toJson());
+    }
+
+    @Test
+    void imageCacheEvictsTheLeastRecentlyUsedImagesAndCountsTowardsTheMemoryBudget() {
+        MongoCollection<RawBsonDocument> collection = collection("cache");
+        collection.insertOne(raw(order(1, "current", 1)));
+        RecordingSink sink = new RecordingSink();
+        ChangeStreamSyncManager manager = new ChangeStreamSyncManager("cache", collection, batch, sink,
+                meterRegistry, new ChangeStreamSyncManager.Projection(FIELDS, false, 2));
+
+        manager.run(checkpoint("cache"), null, new ScriptedSource(manager, List.of(
+                insert(1, order(1, "new", 1)),
+                insert(2, order(2, "new", 2)),
+                insert(3, order(3, "new", 3)),
+                // 1 is evicted by 3: its update is looked up; 3 is still cached.
+                update(4, 1, new BsonDocument("status", new BsonString("paid"))),
+                update(5, 3, new BsonDocument("qty", new BsonInt32(30))))));
+
+        assertThat(sink.upserts)
+                .containsEntry(new BsonInt32(1), order(1, "current", 1))
+                .containsEntry(new BsonInt32(3), order(3, "new", 30));
+        assertThat(resolutions("lookup")).isEqualTo(1);
+        assertThat(resolutions("applied")).isEqualTo(1);
+        // The cached images of 2 and 3 and the key of the pending lookup are held besides the window.
+        long cached = raw(order(2, "new", 2)).getByteBuffer().remaining()
+                + raw(order(3, "new", 30)).getByteBuffer().remaining()
+                + raw(new BsonDocument("_id", new BsonInt32(1))).getByteBuffer().remaining();
+        assertThat(sink.maxHeldBytes).isGreaterThanOrEqualTo(cached);
+    }
+
+    @Test
+    void quietCollectionCheckpointsItsAdvancingResumeToken() {
+        RecordingSink sink = new RecordingSink();
+        ChangeStreamSyncManager manager = new ChangeStreamSyncManager("idle", null,
+                new MongoNamespace(DATABASE, "idle"), batch, sink, meterRegistry, null, null, 0);
+        manager.start(checkpoint("idle"), null);
+
+        manager.poll(token(0));
+        manager.poll(token(7));
+        manager.poll(token(7));
+        manager.poll(null);
+
+        assertThat(sink.checkpoints).extracting(CheckpointRecord::resumeToken).containsExactly(token(7).toJson());
+        assertThat(sink.upserts).isEmpty();
+
+        RecordingSink recentSink = new RecordingSink();
+        ChangeStreamSyncManager recent = new ChangeStreamSyncManager("recent", new MongoNamespace(DATABASE, "recent"),
+                batch, recentSink, meterRegistry, null);
+        recent.start(checkpoint("recent"), null);
+        recent.poll(token(7));
+
+        assertThat(recentSink.checkpoints).as("not idle for the default interval yet").isEmpty();
+    }
+
+    @Test
+    void windowWithoutAResumeTokenKeepsTheLastCheckpointedToken() {
+        RecordingSink sink = new RecordingSink();
+        ChangeStreamSyncManager manager = new ChangeStreamSyncManager("no-token",
+                new MongoNamespace(DATABASE, "no-token"), batch, sink, meterRegistry, null);
+        manager.start(checkpoint("no-token"), null);
+
+        manager.accept(insert(1, order(1, "new", 1)), token(0));
+        manager.finish(null);
+
+        assertThat(sink.upserts).containsOnlyKeys(new BsonInt32(1));
+        assertThat(sink.checkpoints).extracting(CheckpointRecord::resumeToken).containsExactly(token(0).toJson());
+    }
+
+    private double resolutions(String resolution) {
+        return meterRegistry.get("sync.changestream.updates").tag("resolution", resolution).counter().count();
+    }
+
+    private static MongoCollection<RawBsonDocument> collection(String name) {
+        MongoCollection<RawBsonDocument> collection = client.getDatabase(DATABASE).getCollection(name, RawBsonDocument.class);
+        collection.drop();
+        return collection;
+    }
+
+    private static CheckpointRecord checkpoint(String collection) {
+        return new CheckpointRecord(collection, CheckpointRecord.State.STEADY_STATE, DATABASE, collection,
+                token(0).toJson(), null, 0, null, Instant.now(), List.of());
+    }
+
+    private static BsonDocument order(int id, String status, int qty) {
+        return new BsonDocument("_id", new BsonInt32(id))
+                .append("status", new BsonString(status))
+                .append("qty", new BsonInt32(qty));
+    }
+
+    private static RawBsonDocument raw(BsonDocument document) {
+        return new RawBsonDocument(document, DOCUMENT_CODEC);
+    }
+
+    private static BsonDocument token(long sequence) {
+        return new BsonDocument("_data", new BsonString(String.format("%016X", sequence)));
+    }
+
+    private static ChangeStreamDocument<RawBsonDocument> insert(long sequence, BsonDocument document) {
+        return event(sequence, "insert", document.get("_id"))
+                .append("fullDocument", document)
+                .decode();
+    }
+
+    private static ChangeStreamDocument<RawBsonDocument> postImage(long sequence, BsonDocument document) {
+        return event(sequence, "update", document.get("_id"))
+                .append("updateDescription", updateDescription(new BsonDocument()))
+                .append("fullDocument", document)
+                .decode();
+    }
+
+    private static ChangeStreamDocument<RawBsonDocument> update(long sequence, int id, BsonDocument updatedFields) {
+        return event(sequence, "update", new BsonInt32(id))
+                .append("updateDescription", updateDescription(updatedFields))
+                .decode();
+    }
+
+    private static BsonDocument updateDescription(BsonDocument updatedFields) {
+        return new BsonDocument("updatedFields", updatedFields).append("removedFields", new BsonArray());
+    }
+
+    private static EventBuilder event(long sequence, String operationType, BsonValue id) {
+        return new EventBuilder(new BsonDocument("_id", token(sequence))
+                .append("operationType", new BsonString(operationType))
+                .append("clusterTime", new BsonTimestamp(1_800_000_000, (int) sequence))
+                .append("ns", new BsonDocument("db", new BsonString(DATABASE)).append("coll", new BsonString("orders")))
+                .append("documentKey", new BsonDocument("_id", id)));
+    }
+
+    private record EventBuilder(BsonDocument event) {
+
+        private EventBuilder append(String key, BsonValue value) {
+            event.append(key, value);
+            return this;
+        }
+
+        /**
+         * Decoded as the driver decodes a cursor's events.
+         */
+        private ChangeStreamDocument<RawBsonDocument> decode() {
+            return EVENT_CODEC.decode(new BsonDocumentReader(event), DecoderContext.builder().build());
+        }
+    }
+
+    /**
+     * Hands out the events in order, then stops the manager.
+     */
+    private static final class ScriptedSource implements ChangeStreamSyncManager.EventSource {
+
+        private final ChangeStreamSyncManager manager;
+        private final Deque<ChangeStreamDocument<RawBsonDocument>> events;
+        private BsonDocument resumeToken;
+
+        private ScriptedSource(ChangeStreamSyncManager manager, List<ChangeStreamDocument<RawBsonDocument>> events) {
+            this.manager = manager;
+            this.events = new ArrayDeque<>(events);
+        }
+
+        @Override
+        public ChangeStreamDocument<RawBsonDocument> tryNext() {
+            ChangeStreamDocument<RawBsonDocument> event = events.pollFirst();
+            if (event == null) {
+                manager.stop();
+                return null;
+            }
+            resumeToken = event.getResumeToken();
+            return event;
+        }
+
+        @Override
+        public BsonDocument resumeToken() {
+            return resumeToken;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class RecordingSink implements ChangeStreamSink {
+
+        private final Map<BsonValue, BsonDocument> upserts = new LinkedHashMap<>();
+        private final List<CheckpointRecord> checkpoints = new ArrayList<>();
+        private long maxHeldBytes;
+
+        @Override
+        public void upsert(RawBsonDocument fullDocument, boolean deleteExisting) {
+            upserts.put(fullDocument.get("_id"), fullDocument.decode(DOCUMENT_CODEC));
+        }
+
+        @Override
+        public void delete(RawBsonDocument documentKey) {
+            upserts.remove(documentKey.get("_id"));
+        }
+
+        @Override
+        public boolean isFlushDue() {
+            return false;
+        }
+
+        @Override
+        public boolean isFlushDue(int heldRecords, long heldBytes) {
+            maxHeldBytes = Math.max(maxHeldBytes, heldBytes);
+            return false;
+        }
+
+        @Override
+        public CompletableFuture<Void> flush(CheckpointRecord checkpoint, BatchTrace trace) {
+            checkpoints.add(checkpoint);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointStore;
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.config.CollectionSyncConfig;
+import com.luketn.mongodb.iceberg.sync.config.InitialSyncConfig;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DumpInitialSyncManagerTest {
+
+    private static final int DOCUMENT_COUNT = 5_000;
+    private static final List<BsonTimestamp> OPLOG = List.of(
+            new BsonTimestamp(1_800_000_000, 1),
+            new BsonTimestamp(1_800_000_000, 2),
+            new BsonTimestamp(1_800_000_001, 1));
+
+    private static ExecutorService scanPool;
+
+    @TempDir
+    Path directory;
+
+    private final List<BsonTimestamp> tokenRequests = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeAll
+    static void setUp() {
+        scanPool = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        scanPool.shutdownNow();
+    }
+
+    @Test
+    void directoryDumpLoadsEveryDocumentExactlyOnceInParallelPieces() throws IOException {
+        Path dump = directoryDump();
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        CollectingSink sink = new CollectingSink(store, Integer.MAX_VALUE);
+
+        DumpInitialSyncManager.Result result = manager("directory", store, sink, dump, 4, null).run();
+
+        assertThat(sink.written).hasSize(DOCUMENT_COUNT);
+        assertThat(new HashSet<>(sink.written)).hasSize(DOCUMENT_COUNT);
+        assertThat(tokenRequests).containsExactly(OPLOG.getFirst());
+        assertThat(result.insertsNewAfter()).isEqualTo(OPLOG.getLast());
+        CheckpointRecord checkpoint = store.read("directory");
+        assertThat(checkpoint.state()).isEqualTo(CheckpointRecord.State.STEADY_STATE);
+        assertThat(checkpoint.resumeToken()).isEqualTo(result.resumeToken().toJson());
+        assertThat(checkpoint.documentsProcessed()).isEqualTo(DOCUMENT_COUNT);
+        assertThat(checkpoint.ranges()).isEmpty();
+    }
+
+    @Test
+    void restartResumesEveryPieceWhereItStopped() throws IOException {
+        Path dump = directoryDump();
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        CollectingSink failing = new CollectingSink(store, 2_500);
+
+        assertThatThrownBy(() -> manager("resume", store, failing, dump, 4, null).run())
+                .hasMessageContaining("sink failure");
+        CheckpointRecord interrupted = store.read("resume");
+        assertThat(interrupted.state()).isEqualTo(CheckpointRecord.State.INITIAL_SYNC);
+        assertThat(interrupted.resumeToken()).isNull();
+
+        CollectingSink resumed = new CollectingSink(store, Integer.MAX_VALUE);
+        manager("resume", store, resumed, dump, 4, null).run();
+
+        Set<BsonValue> committed = new HashSet<>(failing.flushed);
+        committed.addAll(resumed.written);
+        assertThat(committed).hasSize(DOCUMENT_COUNT);
+        assertThat(resumed.written).hasSizeLessThan(DOCUMENT_COUNT);
+        assertThat(store.read("resume").documentsProcessed()).isEqualTo(DOCUMENT_COUNT);
+    }
+
+    @Test
+    void gzippedArchiveLoadsTheCollectionInOrderAndSkipsOtherNamespaces() throws IOException {
+        Path archive = gzippedArchive();
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        CollectingSink sink = new CollectingSink(store, Integer.MAX_VALUE);
+        ExecutorService decodePool = Executors.newFixedThreadPool(2);
+        DumpInitialSyncManager.Result result;
+        try {
+            result = manager("archive", store, sink, archive, 2, decodePool).run();
+        } finally {
+            decodePool.shutdownNow();
+        }
+
+        assertThat(sink.written).containsExactlyElementsOf(
+                IntStream.range(0, DOCUMENT_COUNT).mapToObj(BsonInt32::new).toList());
+        assertThat(tokenRequests).containsExactly(OPLOG.getFirst());
+        assertThat(result.insertsNewAfter()).isEqualTo(OPLOG.getLast());
+        assertThat(store.read("archive").documentsProcessed()).isEqualTo(DOCUMENT_COUNT);
+    }
+
+    @Test
+    void singleBsonFileLoadsFromTheConfiguredOplogStart() throws IOException {
+        Path file = directoryDump().resolve("test").resolve("orders.bson");
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        CollectingSink sink = new CollectingSink(store, Integer.MAX_VALUE);
+
+        DumpInitialSyncManager.Result result =
+                manager("file", store, sink, file, "1800000000:2", 4, null).run();
+
+        assertThat(new HashSet<>(sink.written)).hasSize(DOCUMENT_COUNT);
+        assertThat(tokenRequests).containsExactly(OPLOG.get(1));
+        assertThat(result.insertsNewAfter()).isNull();
+        assertThat(store.read("file").documentsProcessed()).isEqualTo(DOCUMENT_COUNT);
+
+        assertThatThrownBy(() -> manager("no-start", store, sink, file, 4, null).run())
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("oplogStart");
+    }
+
+    @Test
+    void rejectsADumpWithoutAnOplog() throws IOException {
+        Path dump = directoryDump();
+        Files.delete(dump.resolve("oplog.bson"));
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        CollectingSink sink = new CollectingSink(store, Integer.MAX_VALUE);
+
+        assertThatThrownBy(() -> manager("no-oplog", store, sink, dump, 4, null).run())
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("oplogStart");
+        assertThat(sink.written).isEmpty();
+    }
+
+    private DumpInitialSyncManager manager(
+            String syncId,
+            CheckpointStore store,
+            InitialSyncSink sink,
+            Path dump,
+            int parallelism,
+            ExecutorService decodePool
+    ) {
+        return manager(syncId, store, sink, dump, null, parallelism, decodePool);
+    }
+
+    private DumpInitialSyncManager manager(
+            String syncId,
+            CheckpointStore store,
+            InitialSyncSink sink,
+            Path dump,
+            String oplogStart,
+            int parallelism,
+            ExecutorService decodePool
+    ) {
+        CollectionSyncConfig config = new CollectionSyncConfig(
+                new CollectionSyncConfig.SourceConfig("orders"),
+                new CollectionSyncConfig.TargetConfig("analytics", "orders"),
+                null,
+                null,
+                null,
+                null,
+                new BatchConfig(500L, null, null, null, null, null, null),
+                new InitialSyncConfig(parallelism, InitialSyncConfig.SOURCE_DUMP,
+                        new InitialSyncConfig.DumpConfig(dump.toString(), 4_096L, oplogStart)),
+                null,
+                null
+        ).withDefaults();
+        return new DumpInitialSyncManager(syncId, "test", config, store, sink, scanPool, decodePool, operationTime -> {
+            tokenRequests.add(operationTime);
+            return new BsonDocument("_data", new BsonString(Long.toHexString(operationTime.getValue())));
+        });
+    }
+
+    private Path directoryDump() throws IOException {
+        Files.createDirectories(directory.resolve("test"));
+        try (OutputStream out = Files.newOutputStream(directory.resolve("test").resolve("orders.bson"))) {
+            for (int i = 0; i < DOCUMENT_COUNT; i++) {
+                out.write(bytes(order(i)));
+            }
+        }
+        try (OutputStream out = Files.newOutputStream(directory.resolve("oplog.bson"))) {
+            for (BsonTimestamp ts : OPLOG) {
+                out.write(bytes(oplogEntry(ts)));
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * An archive as {@code mongodump --archive --gzip --oplog} writes it, with the blocks of
+     * {@code test.orders} interleaved with those of another collection.
+     */
+    private Path gzippedArchive() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archive.write(int32(0x8199e26d));
+        archive.write(bytes(new BsonDocument("concurrent_collections", new BsonInt32(4))));
+        archive.write(bytes(new BsonDocument("db", new BsonString("test")).append("collection", new BsonString("orders"))));
+        archive.write(bytes(new BsonDocument("db", new BsonString("test")).append("collection", new BsonString("customers"))));
+        archive.write(int32(-1));
+        for (int block = 0; block < DOCUMENT_COUNT; block += 1_000) {
+            archive.write(bytes(namespaceHeader("test", "orders", false)));
+            for (int i = block; i < block + 1_000; i++) {
+                archive.write(bytes(order(i)));
+            }
+            archive.write(int32(-1));
+            archive.write(bytes(namespaceHeader("test", "customers", false)));
+            archive.write(bytes(new BsonDocument("_id", new BsonInt32(-1 - block))));
+            archive.write(int32(-1));
+        }
+        archive.write(bytes(namespaceHeader("test", "orders", true)));
+        archive.write(int32(-1));
+        archive.write(bytes(namespaceHeader("test", "customers", true)));
+        archive.write(int32(-1));
+        archive.write(bytes(namespaceHeader("", "oplog", false)));
+        for (BsonTimestamp ts : OPLOG) {
+            archive.write(bytes(oplogEntry(ts)));
+        }
+        archive.write(int32(-1));
+        archive.write(bytes(namespaceHeader("", "oplog", true)));
+        archive.write(int32(-1));
+
+        Path file = directory.resolve("dump.archive.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            archive.writeTo(out);
+        }
+        return file;
+    }
+
+    private static BsonDocument order(int i) {
+        return new BsonDocument("_id", new BsonInt32(i)).append("status", new BsonString(i % 2 == 0 ? "open" : "shipped"));
+    }
+
+    private static BsonDocument oplogEntry(BsonTimestamp ts) {
+        return new BsonDocument("ts", ts).append("op", new BsonString("n")).append("ns", new BsonString(""));
+    }
+
+    private static BsonDocument namespaceHeader(String database, String collection, boolean eof) {
+        return new BsonDocument("db", new BsonString(database))
+                .append("collection", new BsonString(collection))
+                .append("EOF", BsonBoolean.valueOf(eof))
+                .append("CRC", new BsonInt64(0));
+    }
+
+    private static byte[] bytes(BsonDocument document) {
+        ByteBuffer buffer = new RawBsonDocument(document, new BsonDocumentCodec()).getByteBuffer().asNIO();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] int32(int value) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+    }
+
+    private static final class CollectingSink implements InitialSyncSink {
+
+        private final CheckpointStore checkpointStore;
+        private final int failAfter;
+        private final AtomicInteger writes = new AtomicInteger();
+        private final List<BsonValue> buffered = Collections.synchronizedList(new ArrayList<>());
+        private final List<BsonValue> written = Collections.synchronizedList(new ArrayList<>());
+        private final List<BsonValue> flushed = new ArrayList<>();
+
+        private CollectingSink(CheckpointStore checkpointStore, int failAfter) {
+            this.checkpointStore = checkpointStore;
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void write(RawBsonDocument document) {
+            if (writes.incrementAndGet() > failAfter) {
+                throw new IllegalStateException("sink failure");
+            }
+            buffered.add(document.get("_id"));
+            written.add(document.get("_id"));
+        }
+
+        @Override
+        public boolean isFlushDue() {
+            return false;
+        }
+
+        @Override
+        public CompletableFuture<Void> flush(CheckpointRecord checkpoint) {
+            flushed.addAll(buffered);
+            buffered.clear();
+            checkpointStore.committed(checkpoint, null);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private static final class InMemoryCheckpointStore implements CheckpointStore {
+
+        private final Map<String, CheckpointRecord> checkpoints = new ConcurrentHashMap<>();
+
+        @Override
+        public CheckpointRecord read(String syncId) {
+            return checkpoints.get(syncId);
+        }
+
+        @Override
+        public void write(CheckpointRecord checkpoint) {
+            checkpoints.put(checkpoint.syncId(), checkpoint);
+        }
+
+        @Override
+        public void delete(String syncId) {
+            checkpoints.remove(syncId);
+        }
+    }
+}
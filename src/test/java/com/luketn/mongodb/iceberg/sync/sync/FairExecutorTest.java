@@ -0,0 +1,70 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FairExecutorTest {
+
+    @Test
+    void lanesWithWorkAreServedRoundRobin() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (FairExecutor executor = new FairExecutor("cpu", 1, meterRegistry)) {
+            Executor backlog = executor.lane("orders");
+            Executor quiet = executor.lane("products");
+            backlog.execute(() -> {
+                started.countDown();
+                await(release);
+                order.add("orders-0");
+            });
+            started.await();
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+            for (int i = 1; i <= 10; i++) {
+                String name = "orders-" + i;
+                tasks.add(CompletableFuture.runAsync(() -> order.add(name), backlog));
+            }
+            tasks.add(CompletableFuture.runAsync(() -> order.add("products-0"), quiet));
+
+            assertThat(meterRegistry.get("sync.pool.queued").tag("pool", "cpu").gauge().value()).isEqualTo(11);
+            release.countDown();
+            CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+            assertThat(meterRegistry.get("sync.pool.busy").tag("pool", "cpu").functionCounter().count()).isPositive();
+        }
+
+        assertThat(order).hasSize(12);
+        assertThat(order.indexOf("products-0")).isEqualTo(2);
+        assertThat(meterRegistry.getMeters()).isEmpty();
+    }
+
+    @Test
+    void closeRunsQueuedTasksBeforeStopping() {
+        List<Integer> done = Collections.synchronizedList(new ArrayList<>());
+        FairExecutor executor = new FairExecutor("cpu", 2, new SimpleMeterRegistry());
+        for (int i = 0; i < 100; i++) {
+            int n = i;
+            executor.lane("orders").execute(() -> done.add(n));
+        }
+        executor.close();
+
+        assertThat(done).hasSize(100);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
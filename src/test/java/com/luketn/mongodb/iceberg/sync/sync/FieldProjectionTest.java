@@ -0,0 +1,75 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.config.FieldMapping;
+import com.luketn.mongodb.iceberg.sync.config.MappingConfig;
+import com.mongodb.client.model.changestream.TruncatedArray;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FieldProjectionTest {
+
+    private final FieldProjection projection = FieldProjection.forMapping(new MappingConfig("explicit", List.of(
+            new FieldMapping("customer", "customer", null),
+            new FieldMapping("customer.name", "customer_name", null),
+            new FieldMapping("status", "status", null),
+            new FieldMapping("lines.sku", "skus", null))));
+
+    @Test
+    void dropsPathsCoveredByAnAncestorAndAlwaysReadsTheId() {
+        assertThat(projection.paths()).containsExactly("_id", "customer", "status", "lines.sku");
+        assertThat(projection.topLevelFieldCount()).isEqualTo(4);
+        assertThat(projection.changeStreamStage().toBsonDocument().getDocument("$project"))
+                .containsKeys("operationType", "documentKey", "clusterTime", "wallTime", "updateDescription",
+                        "fullDocument.lines.sku")
+                .doesNotContainKey("fullDocument.customer.name");
+    }
+
+    @Test
+    void unionKeepsTheWidestPathOfEachCollection() {
+        FieldProjection other = FieldProjection.forMapping(new MappingConfig("explicit", List.of(
+                new FieldMapping("lines", "lines", null),
+                new FieldMapping("total", "total", null))));
+
+        assertThat(FieldProjection.union(List.of(projection, other)).paths())
+                .containsExactly("_id", "customer", "status", "lines", "total");
+    }
+
+    @Test
+    void updatesOfUnmappedFieldsDoNotTouchTheProjection() {
+        assertThat(projection.touches("notes")).isFalse();
+        assertThat(projection.touches("lines.0.price")).isFalse();
+        assertThat(projection.touches("lines.0.sku")).isTrue();
+        assertThat(projection.touches("lines")).isTrue();
+        assertThat(projection.touches("customer.address.city")).isTrue();
+    }
+
+    @Test
+    void appliesUpdatesToAProjectedImage() {
+        BsonDocument image = BsonDocument.parse(
+                "{_id: 1, status: 'new', customer: {name: 'Ann', tags: ['a', 'b', 'c']}}");
+        UpdateDescription update = new UpdateDescription(
+                List.of("customer.name"),
+                BsonDocument.parse("{status: 'paid', 'customer.tags.1': 'x', 'customer.tags.2': 'y', notes: 'ignored'}"),
+                List.of(new TruncatedArray("customer.tags", 2)),
+                null);
+
+        assertThat(projection.apply(image, update)).isTrue();
+
+        assertThat(image).isEqualTo(BsonDocument.parse(
+                "{_id: 1, status: 'paid', customer: {tags: ['a', 'x', 'y']}}"));
+    }
+
+    @Test
+    void refusesUpdatesAddressingArraysThatProjectionMayHaveShortened() {
+        BsonDocument image = BsonDocument.parse("{_id: 1, lines: [{sku: 'a'}]}");
+        UpdateDescription update = new UpdateDescription(
+                null, BsonDocument.parse("{'lines.0.sku': 'b'}"), null, null);
+
+        assertThat(projection.apply(image, update)).isFalse();
+    }
+}
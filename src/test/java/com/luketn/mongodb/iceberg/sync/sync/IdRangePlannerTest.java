@@ -0,0 +1,45 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdRangePlannerTest {
+
+    @Test
+    void splitsSampleIntoContiguousOpenEndedRanges() {
+        List<BsonValue> sample = IntStream.range(0, 100).<BsonValue>mapToObj(BsonInt32::new).toList();
+
+        List<IdRange> ranges = IdRangePlanner.fromSortedSample(sample, 4);
+
+        assertThat(ranges).containsExactly(
+                new IdRange(null, new BsonInt32(25)),
+                new IdRange(new BsonInt32(25), new BsonInt32(50)),
+                new IdRange(new BsonInt32(50), new BsonInt32(75)),
+                new IdRange(new BsonInt32(75), null));
+    }
+
+    @Test
+    void duplicateSplitPointsCollapseIntoFewerRanges() {
+        List<BsonValue> sample = List.of(new BsonString("a"), new BsonString("a"), new BsonString("a"), new BsonString("b"));
+
+        List<IdRange> ranges = IdRangePlanner.fromSortedSample(sample, 4);
+
+        assertThat(ranges).containsExactly(
+                new IdRange(null, new BsonString("a")),
+                new IdRange(new BsonString("a"), new BsonString("b")),
+                new IdRange(new BsonString("b"), null));
+    }
+
+    @Test
+    void singleRangeWhenParallelismIsOneOrSampleIsEmpty() {
+        assertThat(IdRangePlanner.fromSortedSample(List.of(new BsonInt32(1)), 1)).containsExactly(IdRange.ALL);
+        assertThat(IdRangePlanner.fromSortedSample(List.of(), 8)).containsExactly(IdRange.ALL);
+    }
+}
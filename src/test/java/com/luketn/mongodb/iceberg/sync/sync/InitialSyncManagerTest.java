@@ -0,0 +1,205 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointStore;
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.config.CollectionSyncConfig;
+import com.luketn.mongodb.iceberg.sync.config.InitialSyncConfig;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonObjectId;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Testcontainers(disabledWithoutDocker = true)
+class InitialSyncManagerTest {
+
+    private static final int DOCUMENT_COUNT = 5_000;
+
+    @Container
+    static final MongoDBContainer mongo = new MongoDBContainer("mongo:7.0");
+
+    private static MongoClient client;
+    private static MongoCollection<RawBsonDocument> collection;
+    private static ExecutorService scanPool;
+
+    @BeforeAll
+    static void setUp() {
+        client = MongoClients.create(mongo.getReplicaSetUrl());
+        collection = client.getDatabase("test").getCollection("orders", RawBsonDocument.class);
+        List<RawBsonDocument> documents = new ArrayList<>();
+        for (int i = 0; i < DOCUMENT_COUNT; i++) {
+            documents.add(new RawBsonDocument(
+                    new BsonDocument("_id", new BsonObjectId()).append("n", new BsonInt32(i)),
+                    new BsonDocumentCodec()));
+        }
+        collection.insertMany(documents);
+        scanPool = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        scanPool.shutdownNow();
+        client.close();
+    }
+
+    @Test
+    void parallelRangesScanEveryDocumentExactlyOnce() {
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        CollectingSink sink = new CollectingSink(store, Integer.MAX_VALUE);
+
+        BsonDocument resumeToken = manager("parallel", store, sink, 4).run();
+
+        assertThat(resumeToken).isNotNull();
+        assertThat(sink.written).hasSize(DOCUMENT_COUNT);
+        assertThat(new HashSet<>(sink.written)).hasSize(DOCUMENT_COUNT);
+        CheckpointRecord checkpoint = store.read("parallel");
+        assertThat(checkpoint.state()).isEqualTo(CheckpointRecord.State.STEADY_STATE);
+        assertThat(checkpoint.resumeToken()).isEqualTo(resumeToken.toJson());
+        assertThat(checkpoint.ranges()).hasSizeGreaterThan(1).allMatch(CheckpointRecord.RangeCheckpoint::complete);
+    }
+
+    @Test
+    void restartResumesEveryRangeFromItsHighWaterMark() {
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        CollectingSink failing = new CollectingSink(store, 2_500);
+
+        assertThatThrownBy(() -> manager("resume", store, failing, 4).run())
+                .hasMessageContaining("sink failure");
+        CheckpointRecord interrupted = store.read("resume");
+        assertThat(interrupted.state()).isEqualTo(CheckpointRecord.State.INITIAL_SYNC);
+
+        CollectingSink resumed = new CollectingSink(store, Integer.MAX_VALUE);
+        BsonDocument resumeToken = manager("resume", store, resumed, 4).run();
+
+        Set<BsonValue> committed = new HashSet<>(failing.flushed);
+        committed.addAll(resumed.written);
+        assertThat(committed).hasSize(DOCUMENT_COUNT);
+        assertThat(resumed.written).hasSizeLessThan(DOCUMENT_COUNT);
+        assertThat(resumeToken.toJson()).isEqualTo(interrupted.resumeToken());
+    }
+
+    @Test
+    void decodePoolPreparesChunksOffTheScanningThreads() {
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        CollectingSink sink = new CollectingSink(store, Integer.MAX_VALUE);
+        ExecutorService decodePool = Executors.newFixedThreadPool(2);
+        try {
+            manager("decode", store, sink, 4, decodePool).run();
+        } finally {
+            decodePool.shutdownNow();
+        }
+
+        assertThat(sink.written).hasSize(DOCUMENT_COUNT);
+        assertThat(new HashSet<>(sink.written)).hasSize(DOCUMENT_COUNT);
+        assertThat(store.read("decode").documentsProcessed()).isEqualTo(DOCUMENT_COUNT);
+    }
+
+    private static InitialSyncManager manager(String syncId, CheckpointStore store, InitialSyncSink sink, int parallelism) {
+        return manager(syncId, store, sink, parallelism, null);
+    }
+
+    private static InitialSyncManager manager(
+            String syncId,
+            CheckpointStore store,
+            InitialSyncSink sink,
+            int parallelism,
+            ExecutorService decodePool
+    ) {
+        CollectionSyncConfig config = new CollectionSyncConfig(
+                new CollectionSyncConfig.SourceConfig("orders"),
+                new CollectionSyncConfig.TargetConfig("analytics", "orders"),
+                null,
+                null,
+                null,
+                null,
+                new BatchConfig(500L, null, null, null, null, null, null),
+                new InitialSyncConfig(parallelism, null, null),
+                null,
+                null
+        ).withDefaults();
+        return new InitialSyncManager(syncId, collection, config, store, sink, scanPool, decodePool);
+    }
+
+    private static final class CollectingSink implements InitialSyncSink {
+
+        private final CheckpointStore checkpointStore;
+        private final int failAfter;
+        private final AtomicInteger writes = new AtomicInteger();
+        private final List<BsonValue> buffered = Collections.synchronizedList(new ArrayList<>());
+        private final List<BsonValue> written = Collections.synchronizedList(new ArrayList<>());
+        private final List<BsonValue> flushed = new ArrayList<>();
+
+        private CollectingSink(CheckpointStore checkpointStore, int failAfter) {
+            this.checkpointStore = checkpointStore;
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void write(RawBsonDocument document) {
+            if (writes.incrementAndGet() > failAfter) {
+                throw new IllegalStateException("sink failure");
+            }
+            buffered.add(document.get("_id"));
+            written.add(document.get("_id"));
+        }
+
+        @Override
+        public boolean isFlushDue() {
+            return false;
+        }
+
+        @Override
+        public CompletableFuture<Void> flush(CheckpointRecord checkpoint) {
+            flushed.addAll(buffered);
+            buffered.clear();
+            checkpointStore.committed(checkpoint, null);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private static final class InMemoryCheckpointStore implements CheckpointStore {
+
+        private final Map<String, CheckpointRecord> checkpoints = new ConcurrentHashMap<>();
+
+        @Override
+        public CheckpointRecord read(String syncId) {
+            return checkpoints.get(syncId);
+        }
+
+        @Override
+        public void write(CheckpointRecord checkpoint) {
+            checkpoints.put(checkpoint.syncId(), checkpoint);
+        }
+
+        @Override
+        public void delete(String syncId) {
+            checkpoints.remove(syncId);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.config.BatchConfig;
+import com.luketn.mongodb.iceberg.sync.metrics.BatchTrace;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Testcontainers(disabledWithoutDocker = true)
+class SharedChangeStreamTest {
+
+    @Container
+    static final MongoDBContainer mongo = new MongoDBContainer("mongo:7.0");
+
+    private static MongoClient client;
+    private static MongoDatabase database;
+
+    @BeforeAll
+    static void setUp() {
+        client = MongoClients.create(mongo.getReplicaSetUrl());
+        database = client.getDatabase("shared");
+    }
+
+    @AfterAll
+    static void tearDown() {
+        client.close();
+    }
+
+    @Test
+    void routesEventsToEachCollectionAndHandsOverCollectionsThatCatchUp() throws Exception {
+        BsonDocument beforeB1 = currentToken();
+        insert("b", "b1");
+        BsonDocument afterB1 = currentToken();
+        insert("a", "a1");
+        insert("b", "b2");
+        insert("c", "c1");
+
+        // b joins only once a1 arrived, well after the stream opened at a's position.
+        SharedChangeStream shared = new SharedChangeStream(database, List.of("a", "b"), null, false, 100,
+                new SimpleMeterRegistry());
+        CompletableFuture<Void> stream = run(shared);
+
+        RecordingSink sinkA = new RecordingSink();
+        ChangeStreamSyncManager managerA = manager("a", sinkA);
+        CompletableFuture<Void> followA = CompletableFuture.runAsync(
+                () -> managerA.run(checkpoint("a", afterB1), null, shared));
+        await(() -> sinkA.upserts.contains(new BsonString("a1")));
+
+        // b checkpointed before the shared stream's start, so it catches up on its own cursor.
+        RecordingSink sinkB = new RecordingSink();
+        ChangeStreamSyncManager managerB = manager("b", sinkB);
+        CompletableFuture<Void> followB = CompletableFuture.runAsync(
+                () -> managerB.run(checkpoint("b", beforeB1), null, shared));
+        await(() -> sinkB.upserts.contains(new BsonString("b2")));
+
+        insert("a", "a2");
+        insert("b", "b3");
+        await(() -> sinkA.upserts.contains(new BsonString("a2")) && sinkB.upserts.contains(new BsonString("b3")));
+
+        managerA.stop();
+        managerB.stop();
+        followA.join();
+        followB.join();
+        shared.stop();
+        stream.join();
+
+        assertThat(sinkA.upserts).containsExactly(new BsonString("a1"), new BsonString("a2"));
+        assertThat(sinkB.upserts).containsExactly(new BsonString("b1"), new BsonString("b2"), new BsonString("b3"));
+        assertThat(sinkB.checkpoints).isNotEmpty();
+    }
+
+    @Test
+    void opensAtTheEarliestPositionOfTheCollectionsThatJoinWithinTheGracePeriod() throws Exception {
+        BsonDocument beforeD1 = currentToken();
+        insert("d", "d1");
+        BsonDocument afterD1 = currentToken();
+        insert("e", "e1");
+
+        SharedChangeStream shared = new SharedChangeStream(database, List.of("d", "e"), null, false, 30_000,
+                new SimpleMeterRegistry());
+        CompletableFuture<Void> stream = run(shared);
+
+        RecordingSink sinkE = new RecordingSink();
+        ChangeStreamSyncManager managerE = manager("e", sinkE);
+        managerE.start(checkpoint("e", afterD1), null);
+        CompletableFuture<Void> followE = shared.join(managerE, afterD1);
+        // Without waiting for d, the stream would open at e's position by now.
+        Thread.sleep(500);
+        RecordingSink sinkD = new RecordingSink();
+        ChangeStreamSyncManager managerD = manager("d", sinkD);
+        managerD.start(checkpoint("d", beforeD1), null);
+        CompletableFuture<Void> followD = shared.join(managerD, beforeD1);
+
+        assertThat(followE).isNotNull();
+        assertThat(followD).as("d is followed from the start, not caught up on its own cursor").isNotNull();
+        await(() -> sinkD.upserts.contains(new BsonString("d1")) && sinkE.upserts.contains(new BsonString("e1")));
+
+        managerD.stop();
+        managerE.stop();
+        followD.join();
+        followE.join();
+        shared.stop();
+        stream.join();
+
+        assertThat(sinkD.upserts).containsExactly(new BsonString("d1"));
+        assertThat(sinkE.upserts).containsExactly(new BsonString("e1"));
+    }
+
+    private static CompletableFuture<Void> run(SharedChangeStream shared) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                shared.run();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static ChangeStreamSyncManager manager(String collection, RecordingSink sink) {
+        return new ChangeStreamSyncManager(
+                "shared." + collection,
+                database.getCollection(collection, RawBsonDocument.class),
+                new BatchConfig(null, null, 1, null, null, null, null).withDefaults(),
+                sink,
+                new SimpleMeterRegistry());
+    }
+
+    private static CheckpointRecord checkpoint(String collection, BsonDocument token) {
+        return new CheckpointRecord("shared." + collection, CheckpointRecord.State.STEADY_STATE, "shared",
+                collection, token.toJson(), null, 0, null, Instant.now(), List.of());
+    }
+
+    private static BsonDocument currentToken() {
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = database.watch().cursor()) {
+            return cursor.getResumeToken();
+        }
+    }
+
+    private static void insert(String collection, String id) {
+        database.getCollection(collection).insertOne(new Document("_id", id));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    private static final class RecordingSink implements ChangeStreamSink {
+
+        private final List<BsonValue> upserts = Collections.synchronizedList(new ArrayList<>());
+        private final List<CheckpointRecord> checkpoints = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void upsert(RawBsonDocument fullDocument, boolean deleteExisting) {
+            upserts.add(fullDocument.get("_id"));
+        }
+
+        @Override
+        public void delete(RawBsonDocument documentKey) {
+        }
+
+        @Override
+        public boolean isFlushDue() {
+            return false;
+        }
+
+        @Override
+        public CompletableFuture<Void> flush(CheckpointRecord checkpoint, BatchTrace trace) {
+            checkpoints.add(checkpoint);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
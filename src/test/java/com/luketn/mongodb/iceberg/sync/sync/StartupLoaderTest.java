@@ -0,0 +1,127 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import com.luketn.mongodb.iceberg.sync.checkpoint.CheckpointRecord;
+import com.luketn.mongodb.iceberg.sync.checkpoint.SnapshotCheckpointStore;
+import com.luketn.mongodb.iceberg.sync.config.CollectionSyncConfig;
+import com.luketn.mongodb.iceberg.sync.iceberg.IcebergTableManager;
+import com.luketn.mongodb.iceberg.sync.lease.FencedException;
+import com.luketn.mongodb.iceberg.sync.lease.Fencing;
+import com.luketn.mongodb.iceberg.sync.lease.Lease;
+import org.apache.iceberg.Schema;
+import org.apache.iceberg.catalog.TableIdentifier;
+import org.apache.iceberg.inmemory.InMemoryCatalog;
+import org.apache.iceberg.types.Types;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StartupLoaderTest {
+
+    private static final Schema SCHEMA = new Schema(
+            Types.NestedField.required(1, "_id", Types.StringType.get()),
+            Types.NestedField.optional(2, "qty", Types.IntegerType.get()));
+
+    private InMemoryCatalog catalog;
+    private SnapshotCheckpointStore checkpoints;
+    private ExecutorService io;
+
+    @BeforeEach
+    void setUp() {
+        catalog = new InMemoryCatalog();
+        catalog.initialize("test", Map.of());
+        checkpoints = new SnapshotCheckpointStore(catalog);
+        io = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        io.shutdownNow();
+        checkpoints.close();
+        catalog.close();
+    }
+
+    @Test
+    void loadsTablesAndCheckpointsOfAllCollections() {
+        IcebergTableManager tables = new IcebergTableManager(catalog);
+        for (int i = 0; i < 8; i++) {
+            tables.create(TableIdentifier.of("analytics", "orders_" + i), SCHEMA, List.of());
+        }
+        checkpoints.write(new CheckpointRecord("analytics.orders_3", CheckpointRecord.State.STEADY_STATE,
+                "shop", "orders_3", "{\"_data\": \"8265A1B2C3000000012B0229296E04\"}", null, 42, null,
+                Instant.parse("2026-01-01T00:00:00Z"), List.of()));
+
+        List<CollectionSyncConfig> collections = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            collections.add(collection("orders_" + i));
+        }
+        collections.add(collection("customers"));
+
+        List<StartupLoader.LoadedCollection> loaded = new StartupLoader(catalog, checkpoints, io).load(collections);
+
+        assertThat(loaded).hasSize(9);
+        assertThat(loaded.get(3).identifier()).isEqualTo(TableIdentifier.of("analytics", "orders_3"));
+        assertThat(loaded.get(3).table().name()).endsWith("analytics.orders_3");
+        assertThat(loaded.get(3).checkpoint().documentsProcessed()).isEqualTo(42);
+        assertThat(loaded.get(0).table()).isNotNull();
+        assertThat(loaded.get(0).checkpoint()).isNull();
+        assertThat(loaded.get(8).config().source().collection()).isEqualTo("customers");
+        assertThat(loaded.get(8).table()).isNull();
+        assertThat(loaded.get(8).checkpoint()).isNull();
+    }
+
+    @Test
+    void reportsEveryTableTheSyncCannotWriteTo() {
+        Schema noId = new Schema(Types.NestedField.optional(1, "qty", Types.IntegerType.get()));
+        IcebergTableManager tables = new IcebergTableManager(catalog);
+        tables.create(TableIdentifier.of("analytics", "orders"), SCHEMA, List.of());
+        tables.create(TableIdentifier.of("analytics", "products"), noId, List.of());
+        tables.create(TableIdentifier.of("analytics", "customers"), noId, List.of());
+
+        StartupLoader loader = new StartupLoader(catalog, checkpoints, io);
+
+        assertThatThrownBy(() -> loader.load(List.of(collection("orders"), collection("products"), collection("customers"))))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageStartingWith("2 target table(s) or checkpoint(s) failed to load")
+                .satisfies(e -> assertThat(e.getSuppressed()).hasSize(2)
+                        .allSatisfy(suppressed -> assertThat(suppressed).hasMessageContaining("id column does not exist")));
+    }
+
+    @Test
+    void leasedCollectionsAreLoadedFencedWithTheLeaseEpoch() {
+        new IcebergTableManager(catalog).create(TableIdentifier.of("analytics", "orders"), SCHEMA, List.of());
+        StartupLoader loader = new StartupLoader(catalog, checkpoints, io);
+
+        StartupLoader.LoadedCollection loaded = loader.load(collection("orders"),
+                new Lease("analytics.orders", "sync-1", Long.MAX_VALUE, 3, 0));
+
+        assertThat(Fencing.epoch(loaded.table())).isEqualTo(3);
+        // Another instance takes the lease over; checkpoints of the earlier holder are rejected.
+        Fencing.fence(catalog.loadTable(TableIdentifier.of("analytics", "orders")), 4);
+        assertThatThrownBy(() -> checkpoints.write(new CheckpointRecord("analytics.orders",
+                CheckpointRecord.State.STEADY_STATE, "shop", "orders", "{\"_data\": \"8265A1B2C3000000012B0229296E04\"}",
+                null, 1, null, Instant.parse("2026-01-01T00:00:00Z"), List.of())))
+                .isInstanceOf(FencedException.class);
+        assertThatThrownBy(() -> loader.load(collection("orders"),
+                new Lease("analytics.orders", "sync-1", Long.MAX_VALUE, 3, 0)))
+                .isInstanceOf(FencedException.class);
+    }
+
+    private static CollectionSyncConfig collection(String name) {
+        return new CollectionSyncConfig(
+                new CollectionSyncConfig.SourceConfig(name),
+                new CollectionSyncConfig.TargetConfig("analytics", name),
+                null, null, null, null, null, null, null, null
+        ).withDefaults();
+    }
+}
@@ -0,0 +1,87 @@
+package com.luketn.mongodb.iceberg.sync.sync;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SyncRuntimeTest {
+
+    @Test
+    void collectionsShareTheCpuWorkersFairlyWhileIoRunsOnVirtualThreads() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (SyncRuntime runtime = new SyncRuntime(1, meterRegistry)) {
+            Executor initialSync = runtime.cpu("orders");
+            Executor changeStream = runtime.cpu("products");
+            initialSync.execute(() -> {
+                started.countDown();
+                await(release);
+                order.add("orders-0");
+            });
+            started.await();
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+            for (int i = 1; i <= 10; i++) {
+                String name = "orders-" + i;
+                tasks.add(CompletableFuture.runAsync(() -> order.add(name), initialSync));
+            }
+            tasks.add(CompletableFuture.runAsync(() -> order.add("products-0"), changeStream));
+            assertThat(runtime.cpuBacklog()).isEqualTo(11);
+
+            // The single CPU worker is busy, yet blocking I/O still runs.
+            boolean virtual = runtime.io().submit(() -> Thread.currentThread().isVirtual()).get(5, TimeUnit.SECONDS);
+            assertThat(virtual).isTrue();
+            assertThat(meterRegistry.get("sync.pool.tasks").tag("pool", "io").functionCounter().count())
+                    .isEqualTo(1);
+
+            release.countDown();
+            CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+            assertThat(runtime.cpuBacklog()).isZero();
+        }
+
+        assertThat(order).hasSize(12);
+        assertThat(order.indexOf("products-0")).isEqualTo(2);
+    }
+
+    @Test
+    void closeFinishesSubmittedWorkRejectsMoreAndRemovesItsMeters() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        List<String> done = Collections.synchronizedList(new ArrayList<>());
+        SyncRuntime runtime = new SyncRuntime(2, meterRegistry);
+        assertThat(meterRegistry.getMeters()).isNotEmpty();
+        for (int i = 0; i < 20; i++) {
+            String name = "task-" + i;
+            runtime.cpu("orders").execute(() -> done.add("cpu-" + name));
+            runtime.io().execute(() -> done.add("io-" + name));
+        }
+
+        runtime.close();
+
+        assertThat(done).hasSize(40);
+        assertThatThrownBy(() -> runtime.cpu("orders").execute(() -> { }))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThatThrownBy(() -> runtime.io().execute(() -> { }))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThat(meterRegistry.getMeters()).isEmpty();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}